@@ -0,0 +1,58 @@
+import benchmarks.Workload;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Workload of parsing and evaluation of a batch of scenarios generated with default options
+ * of the generator. One run is the whole batch, its output is discarded.
+ */
+public class BatchWorkload implements Workload {
+    /**
+     * Bytes of the batch.
+     */
+    private byte[] input;
+    /**
+     * Writer which counts and discards the output.
+     */
+    private AsciiWriter out;
+    /**
+     * Number of written bytes.
+     */
+    private long written;
+
+    @Override
+    public void setUp(Map<String, String> parameters) throws Exception {
+        StringWriter text = new StringWriter();
+        new ScenarioGenerator(Long.parseLong(parameters.getOrDefault("seed", "0")))
+                .write(Long.parseLong(parameters.get("scenarios")), text);
+        input = text.toString().getBytes(StandardCharsets.US_ASCII);
+        out = new AsciiWriter(new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) {
+                int length = src.remaining();
+                written += length;
+                src.position(src.limit());
+                return length;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    @Override
+    public long run() throws Exception {
+        Main.runBatch(new ScenarioParser(ByteBuffer.wrap(input)), out);
+        out.flush();
+        return written;
+    }
+}
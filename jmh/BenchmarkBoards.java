@@ -0,0 +1,114 @@
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Random boards of workloads of benchmarks: cells, food and insects are taken from a seeded generator,
+ * so every fork of a benchmark measures the same board.
+ */
+final class BenchmarkBoards {
+    /**
+     * Maximal amount of food of one food point.
+     */
+    static final int MAX_FOOD = 100;
+
+    /**
+     * Size of the board.
+     */
+    final int size;
+    /**
+     * Number of insects, limited by number of cells.
+     */
+    final int insects;
+    /**
+     * Number of food points, limited by number of cells.
+     */
+    final int food;
+    /**
+     * Source of randomness of the board.
+     */
+    final Random random;
+    /**
+     * Cells of the board in random order, as indexes x * size + y: insects first, then food points.
+     */
+    final int[] order;
+
+    /**
+     * Constructor for random board with parameters size, food, insects and seed.
+     * @param parameters parameters of the benchmark by name.
+     */
+    BenchmarkBoards(Map<String, String> parameters) {
+        this.size = Integer.parseInt(parameters.get("size"));
+        int cells = size * size;
+        this.insects = Math.min(Integer.parseInt(parameters.getOrDefault("insects", "1")), cells);
+        this.food = Math.min(Integer.parseInt(parameters.getOrDefault("food", "0")), cells - insects);
+        long seed = Long.parseLong(parameters.getOrDefault("seed", "0"));
+        this.random = new Random(seed + cells * 31L + food * 7L + insects);
+        this.order = shuffledCells(cells, insects + food, random);
+    }
+
+    /**
+     * Function used to get x coordinate of the cell.
+     * @param i index in order of cells.
+     * @return x coordinate.
+     */
+    int x(int i) {
+        return order[i] / size + 1;
+    }
+
+    /**
+     * Function used to get y coordinate of the cell.
+     * @param i index in order of cells.
+     * @return y coordinate.
+     */
+    int y(int i) {
+        return order[i] % size + 1;
+    }
+
+    /**
+     * Function used to get random amount of food.
+     * @return Amount from 1 to MAX_FOOD.
+     */
+    int amount() {
+        return 1 + random.nextInt(MAX_FOOD);
+    }
+
+    /**
+     * Function used to get random color.
+     * @return Color.
+     */
+    InsectColor color() {
+        InsectColor[] colors = InsectColor.values();
+        return colors[random.nextInt(colors.length)];
+    }
+
+    /**
+     * Function used to get random type.
+     * @return Type.
+     */
+    InsectType type() {
+        InsectType[] types = InsectType.values();
+        return types[random.nextInt(types.length)];
+    }
+
+    /**
+     * Function used to get cells of the board in random order, as indexes x * size + y.
+     * Only the beginning is shuffled when the board is large.
+     * @param cells number of cells.
+     * @param shuffled number of cells at the beginning which are shuffled.
+     * @param random source of randomness.
+     * @return Indexes of cells.
+     */
+    private static int[] shuffledCells(int cells, int shuffled, Random random) {
+        int[] order = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            order[i] = i;
+        }
+        for (int i = 0; i < Math.min(cells, shuffled); i++) {
+            int j = i + random.nextInt(cells - i);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+}
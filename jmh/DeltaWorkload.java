@@ -0,0 +1,67 @@
+import benchmarks.Workload;
+import java.util.Map;
+
+/**
+ * Workload of a board with insects and food points. Operation <b>recompute</b> chooses directions
+ * of all insects again, <b>delta</b> changes one food point on the board with watched directions
+ * and gets the insects whose direction changed.
+ */
+public class DeltaWorkload implements Workload {
+    /**
+     * Board with all entities.
+     */
+    private Board board;
+    /**
+     * Insects on the board.
+     */
+    private Insect[] placed;
+    /**
+     * Random board of the workload.
+     */
+    private BenchmarkBoards random;
+    /**
+     * Shows whether one food point is changed instead of choosing all directions again.
+     */
+    private boolean delta;
+    /**
+     * Index of the next changed food point.
+     */
+    private int next;
+
+    @Override
+    public void setUp(Map<String, String> parameters)
+            throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        random = new BenchmarkBoards(parameters);
+        board = new Board(random.size, random.insects + random.food);
+        placed = new Insect[random.insects];
+        for (int i = 0; i < random.insects; i++) {
+            placed[i] = random.type().create(new EntityPosition(random.x(i), random.y(i)), random.color());
+            board.addEntity(placed[i]);
+        }
+        for (int i = 0; i < random.food; i++) {
+            board.addFood(random.x(random.insects + i), random.y(random.insects + i), random.amount());
+        }
+        delta = parameters.getOrDefault("operation", "recompute").equals("delta");
+        if (delta) {
+            if (random.food == 0) {
+                throw new IllegalArgumentException("Delta needs at least one food point");
+            }
+            board.watchDirections();
+        }
+    }
+
+    @Override
+    public long run() {
+        if (delta) {
+            int cell = random.insects + next;
+            next = (next + 1) % random.food;
+            board.updateFood(random.x(cell), random.y(cell), random.amount());
+            return board.changedDirections().size();
+        }
+        long sum = 0;
+        for (Insect insect : placed) {
+            sum += board.getDirection(insect).ordinal();
+        }
+        return sum;
+    }
+}
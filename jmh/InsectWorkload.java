@@ -0,0 +1,113 @@
+import benchmarks.Workload;
+import java.util.Map;
+
+/**
+ * Workload of one insect of the type on a random board with food points and other insects.
+ * Operation <b>direction</b> chooses its direction by indexes of lines, <b>lanes</b> chooses it
+ * by the lane kernel on dense boards and <b>travel</b> makes its travel on the board filled again
+ * before every run. Parameter <b>kernel</b> of the lane kernel is <b>vector</b> or <b>scalar</b>.
+ */
+public class InsectWorkload implements Workload {
+    /**
+     * Code of choosing of direction by indexes of lines.
+     */
+    private static final int DIRECTION = 0;
+    /**
+     * Code of choosing of direction by the lane kernel.
+     */
+    private static final int LANES = 1;
+    /**
+     * Code of travel.
+     */
+    private static final int TRAVEL = 2;
+
+    /**
+     * Board with all entities.
+     */
+    private Board board;
+    /**
+     * Measured insect.
+     */
+    private Insect measured;
+    /**
+     * Insects in order of placing, the measured one is the first.
+     */
+    private Insect[] placed;
+    /**
+     * Random board of the workload.
+     */
+    private BenchmarkBoards random;
+    /**
+     * Amounts of food points.
+     */
+    private int[] amounts;
+    /**
+     * Code of the operation.
+     */
+    private int operation;
+    /**
+     * Direction of the travel, chosen before every run.
+     */
+    private Direction direction;
+    /**
+     * Sums of lanes of the lane kernel.
+     */
+    private LaneKernel.Sums sums;
+
+    @Override
+    public void setUp(Map<String, String> parameters) {
+        random = new BenchmarkBoards(parameters);
+        InsectType type = InsectType.valueOf(parameters.get("type"));
+        amounts = new int[random.food];
+        for (int i = 0; i < random.food; i++) {
+            amounts[i] = random.amount();
+        }
+        placed = new Insect[random.insects];
+        for (int i = 0; i < random.insects; i++) {
+            InsectType kind = i == 0 ? type : random.type();
+            placed[i] = kind.create(new EntityPosition(random.x(i), random.y(i)), random.color());
+        }
+        measured = placed[0];
+        board = new Board(random.size, random.insects + random.food);
+        String name = parameters.getOrDefault("operation", "direction");
+        operation = name.equals("travel") ? TRAVEL : name.equals("lanes") ? LANES : DIRECTION;
+        if (operation == LANES && board.getBoardData().foodGrid() == null) {
+            throw new IllegalArgumentException("Lane kernel needs a densely stored board");
+        }
+        boolean scalar = parameters.getOrDefault("kernel", "vector").equals("scalar");
+        sums = scalar ? LaneKernel.SCALAR : LaneKernel.SUMS_OF_LANES;
+        if (operation == LANES && !scalar && sums == LaneKernel.SCALAR) {
+            throw new IllegalStateException("Vector API is not available, run with --add-modules jdk.incubator.vector");
+        }
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        board.clear();
+        try {
+            for (Insect insect : placed) {
+                board.addEntity(insect);
+            }
+            for (int i = 0; i < random.food; i++) {
+                board.addFood(random.x(random.insects + i), random.y(random.insects + i), amounts[i]);
+            }
+        } catch (InvalidEntityPositionException | TwoEntitiesOnSamePositionException e) {
+            throw new IllegalStateException("Cells of the workload are not distinct cells of the board", e);
+        }
+        direction = board.getDirection(measured);
+    }
+
+    @Override
+    public long run() {
+        switch (operation) {
+            case LANES:
+                return LaneKernel.bestDirection(measured.getType(), measured.getX(), measured.getY(),
+                        board.getBoardData().foodGrid(), random.size, sums).ordinal();
+            case TRAVEL:
+                return measured.travelDirection(direction, board.getBoardData(), random.size);
+            default:
+                return board.getDirection(measured).ordinal();
+        }
+    }
+}
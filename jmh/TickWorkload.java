@@ -0,0 +1,42 @@
+import benchmarks.Workload;
+import java.util.Map;
+
+/**
+ * Workload of the tick engine on one board which lives through all runs, so insects gather
+ * and food grows again as in long simulations. One run is one tick in the order of parameter order.
+ */
+public class TickWorkload implements Workload {
+    /**
+     * Number of ticks before eaten food grows again.
+     */
+    private static final int RESPAWN = 10;
+
+    /**
+     * Engine of the board.
+     */
+    private TickEngine engine;
+
+    @Override
+    public void setUp(Map<String, String> parameters)
+            throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        BenchmarkBoards random = new BenchmarkBoards(parameters);
+        Board board = new Board(random.size, random.insects + random.food);
+        EntityStore store = new EntityStore(random.insects, random.food);
+        for (int i = 0; i < random.insects; i++) {
+            InsectType type = random.type();
+            int index = store.addInsect(random.x(i), random.y(i), random.color(), type);
+            board.addEntity(type.view(store, index));
+        }
+        for (int i = 0; i < random.food; i++) {
+            board.addFood(random.x(random.insects + i), random.y(random.insects + i), random.amount());
+        }
+        engine = new TickEngine(0, TickEngine.Order.valueOf(parameters.get("order")), RESPAWN);
+        engine.start(board, store);
+    }
+
+    @Override
+    public long run() {
+        engine.tick();
+        return engine.activeCount();
+    }
+}
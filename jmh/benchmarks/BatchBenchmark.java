@@ -0,0 +1,57 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end parsing and evaluation of a batch of generated scenarios.
+ * One operation is one scenario.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+    /**
+     * Number of scenarios in the batch.
+     */
+    private static final int SCENARIOS = 1000;
+
+    /**
+     * Workload of the batch.
+     */
+    private Workload batch;
+
+    /**
+     * Function that generates the batch.
+     * @throws Exception If batch can not be generated.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        batch = Workload.load("BatchWorkload", Map.of("scenarios", String.valueOf(SCENARIOS)));
+    }
+
+    /**
+     * Parsing and evaluation of the batch.
+     * @return Number of bytes written so far.
+     * @throws Exception If batch can not be evaluated.
+     */
+    @Benchmark
+    @OperationsPerInvocation(SCENARIOS)
+    public long batch() throws Exception {
+        return batch.run();
+    }
+}
@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Change of one food point on the board with watched directions, including getting the insects
+ * whose direction changed, against choosing directions of all insects again.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeltaBenchmark {
+    /**
+     * Size of the board.
+     */
+    @Param({"4", "100", "1000"})
+    public String size;
+    /**
+     * Number of food points, limited by number of cells.
+     */
+    @Param({"1", "200", "5000"})
+    public String food;
+    /**
+     * Number of insects, limited by number of cells.
+     */
+    @Param({"16"})
+    public String insects;
+
+    /**
+     * Board whose directions are chosen again.
+     */
+    private Workload recompute;
+    /**
+     * Board with watched directions.
+     */
+    private Workload delta;
+
+    /**
+     * Function that builds the boards.
+     * @throws Exception If boards can not be built.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        Map<String, String> board = Map.of("size", size, "food", food, "insects", insects);
+        recompute = Workload.load("DeltaWorkload", with(board, "recompute"));
+        delta = Workload.load("DeltaWorkload", with(board, "delta"));
+    }
+
+    /**
+     * Function used to get parameters with the operation.
+     * @param parameters parameters of the board.
+     * @param operation name of the operation.
+     * @return New parameters.
+     */
+    private static Map<String, String> with(Map<String, String> parameters, String operation) {
+        Map<String, String> all = new HashMap<>(parameters);
+        all.put("operation", operation);
+        return all;
+    }
+
+    /**
+     * Choosing of directions of all insects.
+     * @return Sum of ordinals of directions.
+     * @throws Exception If operation fails.
+     */
+    @Benchmark
+    public long recompute() throws Exception {
+        return recompute.run();
+    }
+
+    /**
+     * Change of one food point.
+     * @return Number of insects whose direction changed.
+     * @throws Exception If operation fails.
+     */
+    @Benchmark
+    public long delta() throws Exception {
+        return delta.run();
+    }
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Choosing of direction of every type of insect by indexes of lines, on boards of different sizes,
+ * numbers of food points and insects.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsectBenchmark {
+    /**
+     * Type of the measured insect.
+     */
+    @Param({"ANT", "BUTTERFLY", "SPIDER", "GRASSHOPPER"})
+    public String type;
+    /**
+     * Size of the board.
+     */
+    @Param({"4", "100", "1000"})
+    public String size;
+    /**
+     * Number of food points, limited by number of cells.
+     */
+    @Param({"1", "200", "5000"})
+    public String food;
+    /**
+     * Number of insects including the measured one, limited by number of cells.
+     */
+    @Param({"1", "16"})
+    public String insects;
+
+    /**
+     * Workload of the insect.
+     */
+    private Workload direction;
+
+    /**
+     * Function that builds the board.
+     * @throws Exception If board can not be built.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        direction = Workload.load("InsectWorkload",
+                Map.of("type", type, "size", size, "food", food, "insects", insects, "operation", "direction"));
+    }
+
+    /**
+     * Choosing of direction by indexes of lines.
+     * @return Ordinal of the direction.
+     * @throws Exception If operation fails.
+     */
+    @Benchmark
+    public long direction() throws Exception {
+        return direction.run();
+    }
+}
@@ -0,0 +1,79 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Choosing of direction of every type of insect by the lane kernel on densely stored boards,
+ * with sums of lanes by the Vector API and in plain Java. Compare with InsectBenchmark for the same parameters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class LanesBenchmark {
+    /**
+     * Type of the measured insect.
+     */
+    @Param({"ANT", "BUTTERFLY", "SPIDER", "GRASSHOPPER"})
+    public String type;
+    /**
+     * Size of the board, small enough to be stored densely.
+     */
+    @Param({"4", "100"})
+    public String size;
+    /**
+     * Number of food points, limited by number of cells.
+     */
+    @Param({"1", "200", "5000"})
+    public String food;
+    /**
+     * Number of insects including the measured one, limited by number of cells.
+     */
+    @Param({"1", "16"})
+    public String insects;
+    /**
+     * Sums of lanes: vector or scalar.
+     */
+    @Param({"vector", "scalar"})
+    public String kernel;
+
+    /**
+     * Workload of the insect.
+     */
+    private Workload lanes;
+
+    /**
+     * Function that builds the board.
+     * @throws Exception If board can not be built.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        lanes = Workload.load("InsectWorkload",
+                Map.of("type", type, "size", size, "food", food, "insects", insects,
+                        "operation", "lanes", "kernel", kernel));
+    }
+
+    /**
+     * Choosing of direction by the lane kernel.
+     * @return Ordinal of the direction.
+     * @throws Exception If operation fails.
+     */
+    @Benchmark
+    public long lanes() throws Exception {
+        return lanes.run();
+    }
+}
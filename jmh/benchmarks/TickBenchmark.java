@@ -0,0 +1,71 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ticks of the tick engine in both orders on one board which lives through all of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TickBenchmark {
+    /**
+     * Order of insects in a tick.
+     */
+    @Param({"SEQUENTIAL", "BUFFERED"})
+    public String order;
+    /**
+     * Size of the board.
+     */
+    @Param({"4", "100", "1000"})
+    public String size;
+    /**
+     * Number of food points, limited by number of cells.
+     */
+    @Param({"5000"})
+    public String food;
+    /**
+     * Number of insects, limited by number of cells.
+     */
+    @Param({"16"})
+    public String insects;
+
+    /**
+     * Workload of the engine.
+     */
+    private Workload tick;
+
+    /**
+     * Function that builds the board and starts the engine.
+     * @throws Exception If board can not be built.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        tick = Workload.load("TickWorkload", Map.of("order", order, "size", size, "food", food, "insects", insects));
+    }
+
+    /**
+     * One tick.
+     * @return Number of insects on the board.
+     * @throws Exception If operation fails.
+     */
+    @Benchmark
+    public long tick() throws Exception {
+        return tick.run();
+    }
+}
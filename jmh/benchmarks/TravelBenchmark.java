@@ -0,0 +1,83 @@
+package benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Travel of every type of insect, the board is filled again before every travel
+ * and only the travel is measured. Boards are filled in setup of every invocation,
+ * so the results have the error of reading of time around every travel.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TravelBenchmark {
+    /**
+     * Type of the measured insect.
+     */
+    @Param({"ANT", "BUTTERFLY", "SPIDER", "GRASSHOPPER"})
+    public String type;
+    /**
+     * Size of the board.
+     */
+    @Param({"4", "100", "1000"})
+    public String size;
+    /**
+     * Number of food points, limited by number of cells.
+     */
+    @Param({"1", "200", "5000"})
+    public String food;
+    /**
+     * Number of insects including the measured one, limited by number of cells.
+     */
+    @Param({"1", "16"})
+    public String insects;
+
+    /**
+     * Workload of the insect.
+     */
+    private Workload travel;
+
+    /**
+     * Function that builds the board.
+     * @throws Exception If board can not be built.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        travel = Workload.load("InsectWorkload",
+                Map.of("type", type, "size", size, "food", food, "insects", insects, "operation", "travel"));
+    }
+
+    /**
+     * Function that fills the board again and chooses the direction.
+     */
+    @Setup(Level.Invocation)
+    public void refill() {
+        travel.reset();
+    }
+
+    /**
+     * Travel in the chosen direction.
+     * @return Eaten food.
+     * @throws Exception If operation fails.
+     */
+    @Benchmark
+    public long travel() throws Exception {
+        return travel.run();
+    }
+}
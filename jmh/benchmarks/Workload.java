@@ -0,0 +1,43 @@
+package benchmarks;
+
+import java.util.Map;
+
+/**
+ * Measured operation. Benchmarks must be in a named package and can not refer to classes
+ * of the default package, so operations are implemented in the default package next to the code
+ * under test and are loaded by name.
+ */
+public interface Workload {
+    /**
+     * Function that builds the state of the operation.
+     * @param parameters parameters of the benchmark by name.
+     * @throws Exception If state can not be built.
+     */
+    void setUp(Map<String, String> parameters) throws Exception;
+
+    /**
+     * Function that prepares the state before every run of operations which change it.
+     */
+    default void reset() {
+    }
+
+    /**
+     * Function that runs the operation once.
+     * @return Result of the operation, consumed by the benchmark so it is not optimized away.
+     * @throws Exception If operation fails.
+     */
+    long run() throws Exception;
+
+    /**
+     * Function that creates the workload of the default package and builds its state.
+     * @param name name of the class of the workload.
+     * @param parameters parameters of the benchmark by name.
+     * @return Workload ready to run.
+     * @throws Exception If workload can not be created.
+     */
+    static Workload load(String name, Map<String, String> parameters) throws Exception {
+        Workload workload = (Workload) Class.forName(name).getDeclaredConstructor().newInstance();
+        workload.setUp(parameters);
+        return workload;
+    }
+}
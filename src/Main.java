@@ -1,138 +1,302 @@
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 
 /**
  * The main class which contains <b>main method</b>
  * and <b>checks</b> for all <b>exceptions</b>.
- * Stores <u>game board</u> and arrays of its components.
+ * Game board and its components are stored in <u>simulation</u>.
  * @see Main#main(String[])
+ * @see Main#runBatch(ScenarioParser, Writer)
  * @see Main#checkBoard(Board, EntityPosition)
  * @see Main#checkColor(String)
- * @see Main#checkDuple(String, String)
+ * @see Simulation#checkDuple(InsectType, InsectColor)
  * @see Main#checkSize(int)
  * @see Main#checkPosition(EntityPosition, int)
  * @see Main#checkNumOfFood(int)
  * @see Main#checkNumOfIns(int)
  */
 public class Main {
-    private static final int FOUR = 4;
-    private static final int SIXTEEN = 16;
-    private static final int TWO_HUNDRED = 200;
-    private static final int THOUSAND = 1000;
     private static final int THREE = 3;
-
     /**
-     * Game board where all actions are provided.
+     * Argument that turns on batch mode.
      */
-    private static Board gameBoard;
-
+    private static final String BATCH = "--batch";
     /**
-     * List of all insects at the game board.
+     * Argument that turns on parallel batch mode.
      */
-    private static final ArrayList<Insect> INSECTS = new ArrayList<>();
-
+    private static final String PARALLEL = "--parallel";
     /**
-     * List of <b>red</b> insects. Needed for check duplications on the game board.
+     * Name of input meaning standard input.
      */
-    private static final ArrayList<String> RED = new ArrayList<>();
-
+    private static final String STDIN = "-";
     /**
-     * List of <b>green</b> insects. Needed for check duplications on the game board.
+     * Argument that converts scenarios from text to binary format.
      */
-    private static final ArrayList<String> GREEN = new ArrayList<>();
-
+    private static final String ENCODE = "--encode";
     /**
-     * List of <b>blue</b> insects. Needed for check duplications on the game board.
+     * Argument that converts scenarios from binary format to text.
      */
-    private static final ArrayList<String> BLUE = new ArrayList<>();
-
+    private static final String DECODE = "--decode";
+    /**
+     * Argument that runs the server.
+     */
+    private static final String SERVE = "--serve";
+    /**
+     * Argument that generates scenarios.
+     */
+    private static final String GENERATE = "--generate";
     /**
-     * List of <b>yellow</b> insects. Needed for check duplications on the game board.
+     * Argument that loads limits of scenarios.
      */
-    private static final ArrayList<String> YELLOW = new ArrayList<>();
+    private static final String LIMITS = "--limits";
 
     /**
      * Main method: reads data from <b>input file</b> and checks it values.
      * After reading all data provides to <b>output file</b> the answer if
      * there are no mistakes.
+     * With <b>--batch [input] [output]</b> arguments evaluates a stream of scenarios instead,
+     * with <b>--parallel [input] [output] [threads]</b> evaluates them concurrently,
+     * with <b>--serve [port|path] [threads]</b> evaluates streams of scenarios sent over local sockets,
+     * with <b>--encode [input] output</b> and <b>--decode input [output]</b> converts scenarios
+     * between text and binary format (batch files in binary format are recognized by their first bytes),
+     * with <b>--generate count [output] [seed=n] [option=value ...]</b> writes generated scenarios within the limits.
+     * Arguments <b>--limits file</b> before any of them load limits of scenarios instead of the strict ones.
      * @param args commands and inputs needed for them.
      * @throws IOException If there are no files with provided names,
      * program will end with exception.
+     * @see Main#runBatch(ScenarioParser, Writer)
+     * @see ParallelEvaluator#run(ScenarioParser, Writer)
+     * @see EvaluationServer#run(SocketAddress)
+     * @see BinaryScenarioReader
+     * @see ScenarioGenerator#set(String, String)
+     * @see Limits#load(Path)
      */
     public static void main(String[] args) throws IOException {
-        try (BufferedReader in = new BufferedReader(new FileReader("input.txt"))) {
-            try (BufferedWriter out = new BufferedWriter(new FileWriter("output.txt"))) {
-                gameBoard = new Board(checkSize(Integer.parseInt(in.readLine())));
-                int numberOfInsects = checkNumOfIns(Integer.parseInt(in.readLine()));
-                int numberOfFoodPoints = checkNumOfFood(Integer.parseInt(in.readLine()));
-                for (int i = 0; i < numberOfInsects; i++) {
-                    String[] line = in.readLine().split(" ");
-                    int x = Integer.parseInt(line[2]);
-                    int y = Integer.parseInt(line[THREE]);
-                    checkType(line[1]);
-                    checkColor(line[0]);
-                    checkPosition(new EntityPosition(x, y), gameBoard.getSize());
-                    checkDuple(line[1], line[0]);
-                    checkBoard(gameBoard, new EntityPosition(x, y));
-                    switch (line[1]) {
-                        case ("Grasshopper"):
-                            Grasshopper grasshopper = new Grasshopper(new EntityPosition(x, y), InsectColor.toColor(line[0]));
-                            gameBoard.addEntity(grasshopper);
-                            INSECTS.add(grasshopper);
-                            break;
-                        case ("Butterfly"):
-                            Butterfly butterfly = new Butterfly(new EntityPosition(x, y), InsectColor.toColor(line[0]));
-                            gameBoard.addEntity(butterfly);
-                            INSECTS.add(butterfly);
-                            break;
-                        case ("Ant"):
-                            Ant ant = new Ant(new EntityPosition(x, y), InsectColor.toColor(line[0]));
-                            gameBoard.addEntity(ant);
-                            INSECTS.add(ant);
-                            break;
-                        case ("Spider"):
-                            Spider spider = new Spider(new EntityPosition(x, y), InsectColor.toColor(line[0]));
-                            gameBoard.addEntity(spider);
-                            INSECTS.add(spider);
-                            break;
-                        default:
-                    }
+        Metrics.install();
+        Limits limits = Limits.STRICT;
+        if (args.length > 1 && args[0].equals(LIMITS)) {
+            limits = Limits.load(Paths.get(args[1]));
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length > 1 && args[0].equals(GENERATE)) {
+            long seed = 1;
+            int firstOption = args.length > 2 && !args[2].contains("=") ? THREE : 2;
+            for (int i = firstOption; i < args.length; i++) {
+                if (args[i].startsWith("seed=")) {
+                    seed = Long.parseLong(args[i].substring("seed=".length()));
+                }
+            }
+            ScenarioGenerator generator = new ScenarioGenerator(seed, limits);
+            for (int i = firstOption; i < args.length; i++) {
+                String[] option = args[i].split("=", 2);
+                if (!option[0].equals("seed")) {
+                    generator.set(option[0], option[1]);
                 }
-                for (int i = 0; i < numberOfFoodPoints; i++) {
-                    String[] s = in.readLine().split(" ");
-                    int amountOfFood = Integer.parseInt(s[0]);
-                    int x = Integer.parseInt(s[1]);
-                    int y = Integer.parseInt(s[2]);
-                    checkPosition(new EntityPosition(x, y), gameBoard.getSize());
-                    checkBoard(gameBoard, new EntityPosition(x, y));
-                    gameBoard.addEntity(new FoodPoint(new EntityPosition(x, y), amountOfFood));
+            }
+            WritableByteChannel sink = firstOption == THREE && !args[2].equals(STDIN)
+                    ? openOutput(args[2]) : Channels.newChannel(System.out);
+            try (AsciiWriter out = new AsciiWriter(sink)) {
+                generator.write(Long.parseLong(args[1]), out);
+            }
+            System.exit(0);
+        }
+        if (args.length > 0 && args[0].equals(SERVE)) {
+            SocketAddress address = EvaluationServer.address(args.length > 1 ? args[1] : null);
+            int threads = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+            new EvaluationServer(threads, limits).run(address);
+            System.exit(0);
+        }
+        if (args.length > 1 && args[0].equals(ENCODE)) {
+            ScenarioParser source = args.length > 2 && !args[1].equals(STDIN)
+                    ? ScenarioParser.open(Paths.get(args[1])) : new ScenarioParser(Channels.newChannel(System.in));
+            try (ScenarioParser in = source; FileChannel sink = openOutput(args[args.length > 2 ? 2 : 1])) {
+                new BinaryScenarioWriter(sink).encode(in);
+            }
+            System.exit(0);
+        }
+        if (args.length > 1 && args[0].equals(DECODE)) {
+            WritableByteChannel sink = args.length > 2 ? openOutput(args[2]) : Channels.newChannel(System.out);
+            try (BinaryScenarioReader in = BinaryScenarioReader.open(Paths.get(args[1]));
+                 AsciiWriter out = new AsciiWriter(sink)) {
+                BinaryScenarioWriter.decode(in, out);
+            }
+            System.exit(0);
+        }
+        if (args.length > 1 && args[0].equals(BATCH) && !args[1].equals(STDIN) && isBinary(Paths.get(args[1]))) {
+            WritableByteChannel sink = args.length > 2 ? openOutput(args[2]) : Channels.newChannel(System.out);
+            try (BinaryScenarioReader in = BinaryScenarioReader.open(Paths.get(args[1]));
+                 AsciiWriter out = new AsciiWriter(sink)) {
+                runBatch(in, out, limits);
+            }
+            System.exit(0);
+        }
+        if (args.length > 0 && (args[0].equals(BATCH) || args[0].equals(PARALLEL))) {
+            ScenarioParser source = args.length > 1 && !args[1].equals(STDIN)
+                    ? ScenarioParser.open(Paths.get(args[1])) : new ScenarioParser(Channels.newChannel(System.in));
+            WritableByteChannel sink = args.length > 2 ? openOutput(args[2]) : Channels.newChannel(System.out);
+            try (ScenarioParser in = source; AsciiWriter out = new AsciiWriter(sink)) {
+                if (args[0].equals(BATCH)) {
+                    runBatch(in, out, limits);
+                } else {
+                    int threads = args.length > THREE ? Integer.parseInt(args[THREE]) : Runtime.getRuntime().availableProcessors();
+                    new ParallelEvaluator(threads, limits).run(in, out);
                 }
-                for (Insect ins : INSECTS) {
-                    String col = ins.color.toStr(ins.color);
-                    String clas = ins.getClass().toString().split(" ")[1];
-                    String dir = gameBoard.getDirection(ins).getTextRepresentation();
-                    int value = gameBoard.getDirectionSum(ins);
-                    out.write(col + " " + clas + " " + dir + " " + value + "\n");
+            }
+            System.exit(0);
+        }
+        try (ScenarioParser in = ScenarioParser.open(Paths.get("input.txt"))) {
+            try (AsciiWriter out = new AsciiWriter(openOutput("output.txt"))) {
+                if (Metrics.ENABLED) {
+                    Metrics.SCENARIOS.increment();
                 }
-                in.close();
-                out.close();
+                int size = limits.checkSize(in.lineInt());
+                int numberOfInsects = limits.checkNumOfIns(in.lineInt());
+                int numberOfFoodPoints = limits.checkNumOfFood(in.lineInt());
+                Simulation simulation = new Simulation(limits);
+                simulation.start(size, numberOfInsects + numberOfFoodPoints);
+                simulation.play(numberOfInsects, numberOfFoodPoints, in, out);
             }
         } catch (InvalidEntityPositionException | InvalidInsectTypeException
                  | InvalidInsectColorException | InvalidNumberOfInsectsException
                  | InvalidNumberOfFoodPointsException | TwoEntitiesOnSamePositionException
                  | InvalidBoardSizeException | DuplicateInsectException e) {
-            BufferedWriter problem = new BufferedWriter(new FileWriter("output.txt"));
+            Metrics.failure(e);
+            AsciiWriter problem = new AsciiWriter(openOutput("output.txt"));
             problem.write(e.getMessage());
             problem.close();
             System.exit(0);
         } catch (Exception ex) {
+            Metrics.failure(ex);
             System.out.println(ex.getMessage());
         }
         System.exit(0);
     }
 
+    /**
+     * Function that opens file for output, creating it or truncating the old one.
+     * @param path path to the file.
+     * @return Channel to write the file.
+     * @throws IOException If file can not be opened.
+     */
+    static FileChannel openOutput(String path) throws IOException {
+        return FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Function that evaluates concatenated scenarios, each in the format of <b>input file</b>,
+     * one after another. For every scenario writes a block with the answer or the message
+     * of its mistake, followed by an empty line.
+     * Stops only if counts of a scenario can not be read, because then the start
+     * of the next scenario is unknown.
+     * @param in parser of scenarios.
+     * @param out writer for the blocks.
+     * @throws IOException If scenarios can not be read or written.
+     * @see ScenarioParser#nextScenario()
+     */
+    static void runBatch(ScenarioParser in, Writer out) throws IOException {
+        runBatch(in, out, Limits.STRICT);
+    }
+
+    /**
+     * Function that evaluates concatenated scenarios with provided limits
+     * as Main#runBatch(ScenarioParser, Writer) does.
+     * @param in parser of scenarios.
+     * @param out writer for the blocks.
+     * @param limits limits of scenarios.
+     * @throws IOException If scenarios can not be read or written.
+     */
+    static void runBatch(ScenarioParser in, Writer out, Limits limits) throws IOException {
+        Simulation simulation = new Simulation(limits);
+        while (in.nextScenario()) {
+            simulation.evaluate(in, out);
+            if (in.isBroken()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Function that evaluates scenarios of the binary file as Main#runBatch(ScenarioParser, Writer, Limits)
+     * evaluates them in text, blocks are the same.
+     * @param in reader of the binary file.
+     * @param out writer for the blocks.
+     * @param limits limits of scenarios.
+     * @throws IOException If file is malformed or blocks can not be written.
+     */
+    static void runBatch(BinaryScenarioReader in, Writer out, Limits limits) throws IOException {
+        Simulation simulation = new Simulation(limits);
+        while (in.next()) {
+            if (!simulation.evaluate(in, out)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Shows whether the file starts with magic bytes of the binary format.
+     * @param path path to the file.
+     * @return True for binary file.
+     * @throws IOException If file can not be read.
+     */
+    static boolean isBinary(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path)) {
+            ByteBuffer start = ByteBuffer.allocate(BinaryScenarioReader.MAGIC.length + 1);
+            file.read(start, 0);
+            start.flip();
+            return BinaryScenarioReader.isBinary(start);
+        }
+    }
+
     /**
      * Checks the input size of the board <b>4 ≤ size ≤ 1000</b>.
      * @param size size of the board.
@@ -140,11 +304,7 @@ public class Main {
      * @throws InvalidBoardSizeException
      */
     public static int checkSize(int size) throws InvalidBoardSizeException {
-        if (size < FOUR || size > THOUSAND) {
-            throw new InvalidBoardSizeException();
-        } else {
-            return size;
-        }
+        return Limits.STRICT.checkSize(size);
     }
 
     /**
@@ -154,11 +314,7 @@ public class Main {
      * @throws InvalidNumberOfInsectsException
      */
     public static int checkNumOfIns(int number) throws InvalidNumberOfInsectsException {
-        if (number < 1 || number > SIXTEEN) {
-            throw new InvalidNumberOfInsectsException();
-        } else {
-            return number;
-        }
+        return Limits.STRICT.checkNumOfIns(number);
     }
 
     /**
@@ -168,11 +324,7 @@ public class Main {
      * @throws InvalidNumberOfFoodPointsException
      */
     public static int checkNumOfFood(int number) throws InvalidNumberOfFoodPointsException {
-        if (number < 1 || number > TWO_HUNDRED) {
-            throw new InvalidNumberOfFoodPointsException();
-        } else {
-            return number;
-        }
+        return Limits.STRICT.checkNumOfFood(number);
     }
 
     /**
@@ -182,10 +334,19 @@ public class Main {
      * @throws TwoEntitiesOnSamePositionException
      */
     public static void checkBoard(Board board, EntityPosition position) throws TwoEntitiesOnSamePositionException {
-        for (EntityPosition per : board.getBoardData().keySet()) {
-            if (per.getX() == position.getX() && per.getY() == position.getY()) {
-                throw new TwoEntitiesOnSamePositionException();
-            }
+        checkBoard(board, position.getX(), position.getY());
+    }
+
+    /**
+     * Checks if there is any entity already in the provided cell.
+     * @param board game board.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @throws TwoEntitiesOnSamePositionException
+     */
+    public static void checkBoard(Board board, int x, int y) throws TwoEntitiesOnSamePositionException {
+        if (board.getBoardData().isOccupied(x, y)) {
+            throw new TwoEntitiesOnSamePositionException();
         }
     }
 
@@ -196,13 +357,7 @@ public class Main {
      * @throws InvalidInsectColorException
      */
     public static void checkColor(String s) throws InvalidInsectColorException {
-        String r = "Red";
-        String g = "Green";
-        String b = "Blue";
-        String y = "Yellow";
-        if (!s.equals(r) && !s.equals(g) && !s.equals(b) && !s.equals(y)) {
-            throw new InvalidInsectColorException();
-        }
+        checkColor(InsectColor.fromText(s));
     }
 
     /**
@@ -212,13 +367,7 @@ public class Main {
      * @throws InvalidInsectTypeException
      */
     public static void checkType(String t) throws InvalidInsectTypeException {
-        String a = "Ant";
-        String b = "Butterfly";
-        String s = "Spider";
-        String g = "Grasshopper";
-        if (!t.equals(a) && !t.equals(b) && !t.equals(s) && !t.equals(g)) {
-            throw new InvalidInsectTypeException();
-        }
+        checkType(InsectType.toType(t));
     }
 
     /**
@@ -228,461 +377,7698 @@ public class Main {
      * @throws InvalidEntityPositionException
      */
     public static void checkPosition(EntityPosition pos, int boardSize) throws InvalidEntityPositionException {
-        if (pos.getY() > boardSize || pos.getY() < 1 || pos.getX() > boardSize || pos.getX() < 1) {
+        checkPosition(pos.getX(), pos.getY(), boardSize);
+    }
+
+    /**
+     * Checks if cell is on the board.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param boardSize size of the board.
+     * @throws InvalidEntityPositionException
+     */
+    public static void checkPosition(int x, int y, int boardSize) throws InvalidEntityPositionException {
+        if (y > boardSize || y < 1 || x > boardSize || x < 1) {
             throw new InvalidEntityPositionException();
         }
     }
 
     /**
-     * Checks if there are duplicates among insects.
-     * @param insect string type of insect.
-     * @param color color of the insect.
-     * @throws DuplicateInsectException
+     * Checks parsed <b>color</b> of insect.
+     * @param color color or null if parsed string is not one of colors.
+     * @return Color if correct.
+     * @throws InvalidInsectColorException
      */
-    public static void checkDuple(String insect, String color) throws DuplicateInsectException {
-        switch (color) {
-            case ("Red"):
-                if (RED.contains(insect)) {
-                    throw new DuplicateInsectException();
-                } else {
-                    RED.add(insect);
-                }
-                break;
-            case ("Blue"):
-                if (BLUE.contains(insect)) {
-                    throw new DuplicateInsectException();
-                } else {
-                    BLUE.add(insect);
-                }
-                break;
-            case ("Green"):
-                if (GREEN.contains(insect)) {
-                    throw new DuplicateInsectException();
-                } else {
-                    GREEN.add(insect);
-                }
-                break;
-            case ("Yellow"):
-                if (YELLOW.contains(insect)) {
-                    throw new DuplicateInsectException();
-                } else {
-                    YELLOW.add(insect);
-                }
-                break;
-            default:
+    public static InsectColor checkColor(InsectColor color) throws InvalidInsectColorException {
+        if (color == null) {
+            throw new InvalidInsectColorException();
         }
-
+        return color;
     }
-}
 
-/**
- * Exception to two entities in the same position.
- * Prints <b>"Two entities in the same position"</b>.
- * Extends java.lang.Exception
- */
-class TwoEntitiesOnSamePositionException extends java.lang.Exception {
-    @Override
-    public String getMessage() {
-        return "Two entities in the same position";
+    /**
+     * Checks parsed <b>type</b> of insect.
+     * @param type type or null if parsed string is not one of types.
+     * @return Type if correct.
+     * @throws InvalidInsectTypeException
+     */
+    public static InsectType checkType(InsectType type) throws InvalidInsectTypeException {
+        if (type == null) {
+            throw new InvalidInsectTypeException();
+        }
+        return type;
     }
 }
 
 /**
- * Exception to invalid number of insects.
- * Prints <b>"Invalid number of insects"</b>.
- * Extends java.lang.Exception
+ * Limits of scenarios. Strict limits are the limits of the task and give exactly its checks,
+ * extended limits are loaded from a properties file for large workloads:
+ * <b>profile</b> (strict or extended), <b>maxSize</b>, <b>maxInsects</b>, <b>maxFoodPoints</b>
+ * and <b>uniqueInsects</b> (whether insects of the same color and type are duplicates, true by default
+ * as in the task, so only setting it to false turns the check off).
+ * Messages of mistakes are the same in both profiles. Large boards are stored sparsely
+ * with indexes that grow with occupied lines, so extended limits do not need other checks.
+ * @see Limits#load(Path)
+ * @see Board#chooseStorage(int, int)
  */
-class InvalidNumberOfInsectsException extends java.lang.Exception {
-    @Override
-    public String getMessage() {
-        return "Invalid number of insects";
-    }
-}
+class Limits {
+    /**
+     * Minimal size of the board.
+     */
+    static final int MIN_SIZE = 4;
+    /**
+     * Maximal size of the board in strict profile.
+     */
+    private static final int STRICT_SIZE = 1000;
+    /**
+     * Maximal number of insects in strict profile.
+     */
+    private static final int STRICT_INSECTS = 16;
+    /**
+     * Maximal number of food points in strict profile.
+     */
+    private static final int STRICT_FOOD_POINTS = 200;
+    /**
+     * Maximal size of the board in extended profile by default.
+     */
+    private static final int EXTENDED_SIZE = 100_000;
+    /**
+     * Maximal number of insects in extended profile by default.
+     */
+    private static final int EXTENDED_INSECTS = 100_000;
+    /**
+     * Maximal number of food points in extended profile by default.
+     */
+    private static final int EXTENDED_FOOD_POINTS = 10_000_000;
+    /**
+     * Biggest size of the board which keeps numbers of lines of indexes in int.
+     */
+    static final int MAX_SIZE = 100_000_000;
+    /**
+     * Limits of the task.
+     */
+    static final Limits STRICT = new Limits(STRICT_SIZE, STRICT_INSECTS, STRICT_FOOD_POINTS, true);
 
-/**
- * Exception to invalid number of food points.
- * Prints <b>"Invalid number of food points"</b>.
- * Extends java.lang.Exception
- */
-class InvalidNumberOfFoodPointsException extends java.lang.Exception {
-    @Override
-    public String getMessage() {
-        return "Invalid number of food points";
-    }
-}
+    /**
+     * Maximal size of the board.
+     */
+    private final int maxSize;
+    /**
+     * Maximal number of insects.
+     */
+    private final int maxInsects;
+    /**
+     * Maximal number of food points.
+     */
+    private final int maxFoodPoints;
+    /**
+     * Shows whether insects of the same color and type are duplicates.
+     */
+    private final boolean uniqueInsects;
 
-/**
- * Exception to invalid insect type.
- * Prints <b>"Invalid insect type"</b>.
- * Extends java.lang.Exception
- */
-class InvalidInsectTypeException extends java.lang.Exception {
-    @Override
-    public String getMessage() {
-        return "Invalid insect type";
+    /**
+     * Constructor for limits.
+     * @param maxSize maximal size of the board.
+     * @param maxInsects maximal number of insects.
+     * @param maxFoodPoints maximal number of food points.
+     * @param uniqueInsects whether insects of the same color and type are duplicates.
+     */
+    Limits(int maxSize, int maxInsects, int maxFoodPoints, boolean uniqueInsects) {
+        if (maxSize < MIN_SIZE || maxSize > MAX_SIZE || maxInsects < 1 || maxFoodPoints < 1) {
+            throw new IllegalArgumentException("Limits are out of range");
+        }
+        this.maxSize = maxSize;
+        this.maxInsects = maxInsects;
+        this.maxFoodPoints = maxFoodPoints;
+        this.uniqueInsects = uniqueInsects;
     }
-}
 
-/**
- * Exception to invalid insect color.
- * Prints <b>"Invalid insect color"</b>.
- * Extends java.lang.Exception
- */
-class InvalidInsectColorException extends java.lang.Exception {
-    @Override
-    public String getMessage() {
-        return "Invalid insect color";
+    /**
+     * Function that loads limits from properties file. Missing values of extended profile
+     * take its defaults.
+     * @param path path to the file.
+     * @return Limits of the file.
+     * @throws IOException If file can not be read.
+     */
+    static Limits load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String profile = properties.getProperty("profile", "extended").trim();
+        if (profile.equals("strict")) {
+            return STRICT;
+        }
+        if (!profile.equals("extended")) {
+            throw new IllegalArgumentException("Unknown profile " + profile);
+        }
+        return new Limits(
+                Integer.parseInt(properties.getProperty("maxSize", String.valueOf(EXTENDED_SIZE)).trim()),
+                Integer.parseInt(properties.getProperty("maxInsects", String.valueOf(EXTENDED_INSECTS)).trim()),
+                Integer.parseInt(properties.getProperty("maxFoodPoints", String.valueOf(EXTENDED_FOOD_POINTS)).trim()),
+                Boolean.parseBoolean(properties.getProperty("uniqueInsects", "true").trim()));
     }
-}
 
-/**
- * Exception to invalid entity position.
- * Prints <b>"Invalid entity position"</b>.
- * Extends java.lang.Exception
- */
-class InvalidEntityPositionException extends java.lang.Exception {
-    @Override
-    public String getMessage() {
-        return "Invalid entity position";
+    /**
+     * Checks the input size of the board <b>4 ≤ size ≤ maxSize</b>.
+     * @param size size of the board.
+     * @return Size of the board if correct.
+     * @throws InvalidBoardSizeException
+     */
+    int checkSize(int size) throws InvalidBoardSizeException {
+        if (size < MIN_SIZE || size > maxSize) {
+            throw new InvalidBoardSizeException();
+        }
+        return size;
     }
-}
 
-/**
- * Exception to invalid board size.
- * Prints <b>"Invalid board size"</b>.
- * Extends java.lang.Exception
- */
-class InvalidBoardSizeException extends java.lang.Exception {
-    @Override
-    public String getMessage() {
-        return "Invalid board size";
+    /**
+     * Checks the input number of insects <b>1 ≤ N ≤ maxInsects</b>.
+     * @param number number of Insects.
+     * @return number of Insects if correct.
+     * @throws InvalidNumberOfInsectsException
+     */
+    int checkNumOfIns(int number) throws InvalidNumberOfInsectsException {
+        if (number < 1 || number > maxInsects) {
+            throw new InvalidNumberOfInsectsException();
+        }
+        return number;
     }
-}
 
-/**
- * Exception to duplicate of the insect on the board.
- * Prints <b>"Duplicate insects"</b>.
- * Extends java.lang.Exception
- */
-class DuplicateInsectException extends java.lang.Exception {
-    @Override
-    public String getMessage() {
-        return "Duplicate insects";
+    /**
+     * Checks the input number of food points <b>1 ≤ number ≤ maxFoodPoints</b>.
+     * @param number number of food points.
+     * @return Number of food points if correct.
+     * @throws InvalidNumberOfFoodPointsException
+     */
+    int checkNumOfFood(int number) throws InvalidNumberOfFoodPointsException {
+        if (number < 1 || number > maxFoodPoints) {
+            throw new InvalidNumberOfFoodPointsException();
+        }
+        return number;
     }
-}
-
-/**
- * Class of insects of "Ant" type.
- * Implements DiagonalMoving, OrthogonalMoving
- * Extends Insect
- * @see Ant#Ant(EntityPosition, InsectColor)
- */
-class Ant extends Insect implements DiagonalMoving, OrthogonalMoving {
 
     /**
-     * Constructor for object of Ant class.
-     * @param position position on the board.
-     * @param color color of the ant.
+     * Getter for maximal size of the board.
+     * @return Maximal size.
      */
-    Ant(EntityPosition position, InsectColor color) {
-        super(position, color);
+    int getMaxSize() {
+        return maxSize;
     }
 
     /**
-     * Function used to get values of possible <b>diagonal ways</b>
-     * depending on food points on the board.
-     * @param dir direction of the way.
-     * @param entityPosition position of the insect.
-     * @param boardData data of entities on the board.
+     * Getter for maximal number of insects.
+     * @return Maximal number of insects.
+     */
+    int getMaxInsects() {
+        return maxInsects;
+    }
+
+    /**
+     * Getter for maximal number of food points.
+     * @return Maximal number of food points.
+     */
+    int getMaxFoodPoints() {
+        return maxFoodPoints;
+    }
+
+    /**
+     * Shows whether insects of the same color and type are duplicates.
+     * @return True if they are.
+     */
+    boolean isUniqueInsects() {
+        return uniqueInsects;
+    }
+}
+
+/**
+ * Lines of one family of an indexed board by number of the line.
+ * Tables of small boards keep lines in an array, tables of big boards
+ * keep them in a hash table of ints, so memory follows lines which have entities
+ * and lookups do not allocate.
+ * @param <T> type of lines.
+ */
+class LineTable<T> {
+    /**
+     * Biggest number of lines kept in an array.
+     */
+    private static final int DIRECT_LIMIT = 1 << 16;
+    /**
+     * Initial number of slots of the hash table, power of two.
+     */
+    private static final int INITIAL_SLOTS = 16;
+    /**
+     * Multiplier which mixes numbers of lines.
+     */
+    private static final int MIX = 0x9E3779B9;
+
+    /**
+     * Lines by number, null for big tables.
+     */
+    private final Object[] direct;
+    /**
+     * Numbers of lines of the hash table by slot.
+     */
+    private int[] keys;
+    /**
+     * Lines of the hash table by slot, null for free slots.
+     */
+    private Object[] values;
+    /**
+     * Number of lines in the hash table.
+     */
+    private int used;
+
+    /**
+     * Constructor for empty table.
+     * @param capacity number of possible lines.
+     */
+    LineTable(int capacity) {
+        if (capacity <= DIRECT_LIMIT) {
+            direct = new Object[capacity];
+        } else {
+            direct = null;
+            keys = new int[INITIAL_SLOTS];
+            values = new Object[INITIAL_SLOTS];
+        }
+    }
+
+    /**
+     * Function used to get the line.
+     * @param index number of the line.
+     * @return Line or null if there is no such line yet.
+     */
+    @SuppressWarnings("unchecked")
+    T get(int index) {
+        if (direct != null) {
+            return (T) direct[index];
+        }
+        int mask = keys.length - 1;
+        for (int slot = home(index, mask); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == index) {
+                return (T) values[slot];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that adds the line which is not in the table yet.
+     * @param index number of the line.
+     * @param line line.
+     */
+    void put(int index, T line) {
+        if (direct != null) {
+            direct[index] = line;
+            return;
+        }
+        if (2 * (used + 1) > keys.length) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        int slot = home(index, mask);
+        while (values[slot] != null) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = index;
+        values[slot] = line;
+        used++;
+    }
+
+    /**
+     * Function that replaces the line which is already in the table.
+     * @param index number of the line.
+     * @param line new line.
+     */
+    void replace(int index, T line) {
+        if (direct != null) {
+            direct[index] = line;
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = home(index, mask);
+        while (keys[slot] != index || values[slot] == null) {
+            slot = (slot + 1) & mask;
+        }
+        values[slot] = line;
+    }
+
+    /**
+     * Function used to get the first slot of the line in the hash table.
+     * @param index number of the line.
+     * @param mask number of slots minus one.
+     * @return Slot where search starts.
+     */
+    private static int home(int index, int mask) {
+        int hash = index * MIX;
+        return (hash ^ hash >>> 16) & mask;
+    }
+
+    /**
+     * Function that doubles the hash table.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[2 * oldKeys.length];
+        values = new Object[2 * oldValues.length];
+        used = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldValues[slot] != null) {
+                @SuppressWarnings("unchecked")
+                T line = (T) oldValues[slot];
+                put(oldKeys[slot], line);
+            }
+        }
+    }
+
+    /**
+     * Function that removes all lines.
+     */
+    void clear() {
+        if (direct != null) {
+            Arrays.fill(direct, null);
+        } else {
+            keys = new int[INITIAL_SLOTS];
+            values = new Object[INITIAL_SLOTS];
+            used = 0;
+        }
+    }
+}
+
+/**
+ * Context of one scenario: game board, its insects and pairs of color and type already met.
+ * Simulations do not share state, so different scenarios can be evaluated concurrently.
+ * Boards and insects are taken from pools of the simulation, so consecutive scenarios
+ * do not allocate them again.
+ * @see Simulation#start(int, int)
+ * @see Simulation#play(int, int, ScenarioParser, Writer)
+ * @see Simulation#evaluate(ScenarioParser, Writer)
+ */
+class Simulation {
+    private static final int THREE = 3;
+
+    /**
+     * Limits of scenarios of this simulation.
+     */
+    private final Limits limits;
+
+    /**
+     * Pool of boards of this simulation.
+     */
+    private final BoardPool boards = new BoardPool();
+
+    /**
+     * Pool of insects of this simulation.
+     */
+    private final InsectPool pool = new InsectPool();
+
+    /**
+     * Game board where all actions are provided.
+     */
+    private Board gameBoard;
+
+    /**
+     * Insects and food points of the scenario in order of input.
+     */
+    private final EntityStore entities = new EntityStore();
+
+    /**
+     * Cache of answers of this simulation, null if caching is off.
+     */
+    private final ResultCache cache = ResultCache.CAPACITY > 0 ? new ResultCache(ResultCache.CAPACITY) : null;
+
+    /**
+     * Engine which runs scenarios for many ticks, null if every scenario is one pass.
+     */
+    private final TickEngine ticks = TickEngine.configured();
+
+    /**
+     * Insects already met: bit color * number of types + type is set for every met pair.
+     * Needed for check duplications on the game board.
+     */
+    private int met;
+
+    /**
+     * Constructor for simulation with strict limits.
+     */
+    Simulation() {
+        this(Limits.STRICT);
+    }
+
+    /**
+     * Constructor for simulation.
+     * @param limits limits of scenarios.
+     */
+    Simulation(Limits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Function that forgets the previous scenario and prepares empty board for the next one.
+     * @param boardSize size of the board.
+     * @param expectedEntities number of insects and food points which will be added.
+     */
+    void start(int boardSize, int expectedEntities) {
+        entities.clear();
+        met = 0;
+        pool.releaseAll();
+        gameBoard = boards.obtain(boardSize, expectedEntities);
+        if (cache != null) {
+            gameBoard.trackHashes();
+        }
+    }
+
+    /**
+     * Function that reads insects and food points of the scenario from the parser, checks them,
+     * places them on the game board and writes the answer of every insect.
+     * Checks are done in the same order as for lines of text.
+     * @param numberOfInsects number of insect lines.
+     * @param numberOfFoodPoints number of food point lines.
+     * @param in parser positioned before the first entity line.
+     * @param out writer for the answer.
+     * @throws IOException If lines can not be read or written.
+     * @throws InvalidEntityPositionException
+     * @throws InvalidInsectTypeException
+     * @throws InvalidInsectColorException
+     * @throws DuplicateInsectException
+     * @throws TwoEntitiesOnSamePositionException
+     */
+    void play(int numberOfInsects, int numberOfFoodPoints, ScenarioParser in, Writer out)
+            throws IOException, InvalidEntityPositionException, InvalidInsectTypeException,
+            InvalidInsectColorException, DuplicateInsectException, TwoEntitiesOnSamePositionException {
+        long parse = 0;
+        long validate = 0;
+        for (int i = 0; i < numberOfInsects; i++) {
+            long start = Metrics.now();
+            in.nextEntityLine();
+            int x = in.intToken(2);
+            int y = in.intToken(THREE);
+            InsectType type = in.typeToken(1);
+            InsectColor color = in.colorToken(0);
+            long parsed = Metrics.now();
+            addInsect(type, color, x, y);
+            parse += parsed - start;
+            validate += Metrics.now() - parsed;
+        }
+        for (int i = 0; i < numberOfFoodPoints; i++) {
+            long start = Metrics.now();
+            in.nextEntityLine();
+            int amountOfFood = in.intToken(0);
+            int x = in.intToken(1);
+            int y = in.intToken(2);
+            long parsed = Metrics.now();
+            addFood(amountOfFood, x, y);
+            parse += parsed - start;
+            validate += Metrics.now() - parsed;
+        }
+        if (Metrics.ENABLED) {
+            Metrics.PARSE_NANOS.record(parse);
+            Metrics.VALIDATE_NANOS.record(validate);
+        }
+        respond(out);
+    }
+
+    /**
+     * Function that checks the insect and places it on the game board.
+     * Checks are done in the order of the text format, so every format gives the same mistake.
+     * @param type type of the insect or null if it is unknown.
+     * @param color color of the insect or null if it is unknown.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @throws InvalidEntityPositionException
+     * @throws InvalidInsectTypeException
+     * @throws InvalidInsectColorException
+     * @throws DuplicateInsectException
+     * @throws TwoEntitiesOnSamePositionException
+     */
+    private void addInsect(InsectType type, InsectColor color, int x, int y)
+            throws InvalidEntityPositionException, InvalidInsectTypeException, InvalidInsectColorException,
+            DuplicateInsectException, TwoEntitiesOnSamePositionException {
+        Main.checkType(type);
+        Main.checkColor(color);
+        Main.checkPosition(x, y, gameBoard.getSize());
+        if (limits.isUniqueInsects()) {
+            checkDuple(type, color);
+        }
+        Main.checkBoard(gameBoard, x, y);
+        int index = entities.addInsect(x, y, color, type);
+        gameBoard.addEntity(pool.obtain(type, entities, index));
+    }
+
+    /**
+     * Function that checks the food point and places it on the game board.
+     * @param value value of food point.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @throws InvalidEntityPositionException
+     * @throws TwoEntitiesOnSamePositionException
+     */
+    private void addFood(int value, int x, int y)
+            throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        gameBoard.addFood(x, y, value);
+        entities.addFood(x, y, value);
+    }
+
+    /**
+     * Function that places insects and food points of the binary scenario on the game board
+     * with the same checks as for lines of text, and writes the answer of every insect.
+     * Columns are read in place from the buffer of the reader.
+     * @param in reader positioned at the binary scenario.
+     * @param out writer for the answer.
+     * @throws IOException If answer can not be written.
+     * @throws InvalidEntityPositionException
+     * @throws InvalidInsectTypeException
+     * @throws InvalidInsectColorException
+     * @throws DuplicateInsectException
+     * @throws TwoEntitiesOnSamePositionException
+     */
+    void play(BinaryScenarioReader in, Writer out)
+            throws IOException, InvalidEntityPositionException, InvalidInsectTypeException,
+            InvalidInsectColorException, DuplicateInsectException, TwoEntitiesOnSamePositionException {
+        long start = Metrics.now();
+        for (int i = 0; i < in.getNumberOfInsects(); i++) {
+            addInsect(in.insectType(i), in.insectColor(i), in.insectX(i), in.insectY(i));
+        }
+        for (int i = 0; i < in.getNumberOfFoodPoints(); i++) {
+            addFood(in.foodValue(i), in.foodX(i), in.foodY(i));
+        }
+        if (Metrics.ENABLED) {
+            Metrics.VALIDATE_NANOS.record(Metrics.now() - start);
+        }
+        respond(out);
+    }
+
+    /**
+     * Function that evaluates the current scenario of the binary reader as
+     * Simulation#evaluate(ScenarioParser, Writer) does for text.
+     * Scenarios kept as text are given to the text parser.
+     * @param in reader positioned at the scenario.
+     * @param out writer for the block, followed by an empty line.
+     * @return False if counts of the scenario can not be read, so the batch stops as for text.
+     * @throws IOException If scenario can not be read or answer can not be written.
+     */
+    boolean evaluate(BinaryScenarioReader in, Writer out) throws IOException {
+        if (in.isText()) {
+            ScenarioParser text = new ScenarioParser(in.text());
+            if (!text.nextScenario()) {
+                return true;
+            }
+            evaluate(text, out);
+            return !text.isBroken();
+        }
+        if (Metrics.ENABLED) {
+            Metrics.SCENARIOS.increment();
+        }
+        try {
+            int size = limits.checkSize(in.getBoardSize());
+            int numberOfInsects = limits.checkNumOfIns(in.getNumberOfInsects());
+            int numberOfFoodPoints = limits.checkNumOfFood(in.getNumberOfFoodPoints());
+            start(size, numberOfInsects + numberOfFoodPoints);
+            play(in, out);
+        } catch (InvalidEntityPositionException | InvalidInsectTypeException
+                 | InvalidInsectColorException | InvalidNumberOfInsectsException
+                 | InvalidNumberOfFoodPointsException | TwoEntitiesOnSamePositionException
+                 | InvalidBoardSizeException | DuplicateInsectException | RuntimeException e) {
+            Metrics.failure(e);
+            out.write(e.getMessage() + "\n");
+        }
+        out.write("\n");
+        return true;
+    }
+
+    /**
+     * Function that writes the answer of the placed scenario: runs its ticks if they are on,
+     * otherwise takes it from the cache or evaluates one pass.
+     * @param out writer for the answer.
+     * @throws IOException If answer can not be written.
+     */
+    private void respond(Writer out) throws IOException {
+        if (ticks != null) {
+            ticks.run(gameBoard, entities, out);
+            return;
+        }
+        if (cache != null && cache.answer(gameBoard, entities, out)) {
+            return;
+        }
+        answer(out);
+    }
+
+    /**
+     * Function that makes every insect choose its direction and travel, and writes the results.
+     * Walks the arrays of the entity store, views of insects are not touched.
+     * Results are given to the cache if it missed the scenario.
+     * @param out writer for the answer.
+     * @throws IOException If answer can not be written.
+     */
+    private void answer(Writer out) throws IOException {
+        long evaluate = 0;
+        long write = 0;
+        BoardStorage boardData = gameBoard.getBoardData();
+        int size = gameBoard.getSize();
+        for (int i = 0; i < entities.insectCount(); i++) {
+            long start = Metrics.now();
+            InsectType type = entities.insectType(i);
+            InsectColor color = entities.insectColor(i);
+            int x = entities.insectX(i);
+            int y = entities.insectY(i);
+            Direction dir = MovementEngine.bestDirection(type, x, y, boardData, size);
+            boolean decisive = cache != null && cache.isDecisive()
+                    && MovementEngine.isDecisive(type, x, y, boardData, size);
+            int value = MovementEngine.travel(type, x, y, color, dir, boardData, size);
+            if (cache != null) {
+                cache.record(i, dir, value, decisive);
+            }
+            long evaluated = Metrics.now();
+            out.write(InsectColor.toStr(color));
+            out.write(' ');
+            out.write(type.getTextRepresentation());
+            out.write(' ');
+            out.write(dir.getTextRepresentation());
+            out.write(' ');
+            AsciiWriter.writeInt(out, value);
+            out.write('\n');
+            evaluate += evaluated - start;
+            write += Metrics.now() - evaluated;
+        }
+        if (cache != null) {
+            cache.commit();
+        }
+        if (Metrics.ENABLED) {
+            Metrics.EVALUATE_NANOS.record(evaluate);
+            Metrics.WRITE_NANOS.record(write);
+        }
+    }
+
+    /**
+     * Function that evaluates the current scenario of the parser into a string.
+     * @param in parser positioned after the header of the scenario.
+     * @return Block with the answer or the message of the mistake, followed by an empty line.
+     * @throws IOException If lines can not be read.
+     * @see Simulation#evaluate(ScenarioParser, Writer)
+     */
+    String evaluate(ScenarioParser in) throws IOException {
+        StringWriter out = new StringWriter();
+        evaluate(in, out);
+        return out.toString();
+    }
+
+    /**
+     * Function that evaluates the current scenario of the parser and skips the rest of its lines.
+     * The answer is written only after all entities are checked, so the block is either
+     * the answer or the message of the mistake.
+     * @param in parser positioned after the header of the scenario.
+     * @param out writer for the block, followed by an empty line.
+     * @throws IOException If lines can not be read.
+     * @see ScenarioParser#nextScenario()
+     */
+    void evaluate(ScenarioParser in, Writer out) throws IOException {
+        if (Metrics.ENABLED) {
+            Metrics.SCENARIOS.increment();
+        }
+        if (in.isBroken()) {
+            Metrics.failure(NumberFormatException.class.getSimpleName());
+            out.write(in.getProblem());
+            out.write("\n\n");
+            return;
+        }
+        try {
+            int size = limits.checkSize(in.getBoardSize());
+            int numberOfInsects = limits.checkNumOfIns(in.getNumberOfInsects());
+            int numberOfFoodPoints = limits.checkNumOfFood(in.getNumberOfFoodPoints());
+            start(size, numberOfInsects + numberOfFoodPoints);
+            play(numberOfInsects, numberOfFoodPoints, in, out);
+        } catch (InvalidEntityPositionException | InvalidInsectTypeException
+                 | InvalidInsectColorException | InvalidNumberOfInsectsException
+                 | InvalidNumberOfFoodPointsException | TwoEntitiesOnSamePositionException
+                 | InvalidBoardSizeException | DuplicateInsectException | IOException | RuntimeException e) {
+            Metrics.failure(e);
+            out.write(e.getMessage() + "\n");
+        } finally {
+            in.skipScenario();
+        }
+        out.write("\n");
+    }
+
+    /**
+     * Checks if there are duplicates among insects.
+     * @param type type of insect.
+     * @param color color of the insect.
+     * @throws DuplicateInsectException
+     */
+    void checkDuple(InsectType type, InsectColor color) throws DuplicateInsectException {
+        int bit = 1 << (color.ordinal() * InsectType.COUNT + type.ordinal());
+        if ((met & bit) != 0) {
+            throw new DuplicateInsectException();
+        }
+        met |= bit;
+    }
+}
+
+/**
+ * Bounded cache of answers of scenarios, for batches with repeated, rotated or reflected boards.
+ * Turned on with <b>-Dsimulation.cache=entries</b>, every simulation has its own cache.
+ * Key is the least of Zobrist hashes of the board in its eight orientations, extended by positions
+ * of insects in order of input, so all orientations of a scenario share one answer.
+ * Directions are kept as they are in the orientation of the key and are turned back on the way out.
+ * An answer where some insect chose its direction by a tie depends on the order of directions,
+ * so it is kept under the key extended by the orientation and is used only for boards in that orientation.
+ * Least recently used answers are evicted. Hits, misses, evictions and estimated memory
+ * are counted by metrics.
+ * @see BoardHash
+ * @see MovementEngine#isDecisive(InsectType, int, int, BoardStorage, int)
+ */
+class ResultCache {
+    /**
+     * Property with the number of kept answers, caching is off if it is not positive.
+     */
+    static final String PROPERTY = "simulation.cache";
+    /**
+     * Number of kept answers.
+     */
+    static final int CAPACITY = Integer.getInteger(PROPERTY, 0);
+    /**
+     * Estimated bytes of one answer besides its arrays: answer, its arrays, entry of the map and key.
+     */
+    private static final int ANSWER_BYTES = 128;
+    /**
+     * Estimated bytes of one insect of the answer.
+     */
+    private static final int INSECT_BYTES = 5;
+    /**
+     * All directions by ordinal.
+     */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /**
+     * Answer of a scenario in the orientation of its key.
+     */
+    private static final class Answer {
+        /**
+         * Second hash of the scenario, checked on every hit.
+         */
+        private final long check;
+        /**
+         * Symmetry which turned the evaluated board into the orientation of the key.
+         */
+        private final int symmetry;
+        /**
+         * Ordinals of directions of insects in the orientation of the key.
+         */
+        private final byte[] directions;
+        /**
+         * Eaten food of insects.
+         */
+        private final int[] values;
+        /**
+         * Shows whether no insect chose its direction by a tie.
+         */
+        private boolean decisive = true;
+
+        /**
+         * Constructor for answer which is being recorded.
+         * @param check second hash of the scenario.
+         * @param symmetry symmetry of the evaluated board.
+         * @param insects number of insects.
+         */
+        private Answer(long check, int symmetry, int insects) {
+            this.check = check;
+            this.symmetry = symmetry;
+            this.directions = new byte[insects];
+            this.values = new int[insects];
+        }
+
+        /**
+         * Function used to get estimated memory of the answer.
+         * @return Number of bytes.
+         */
+        private long bytes() {
+            return ANSWER_BYTES + (long) INSECT_BYTES * values.length;
+        }
+    }
+
+    /**
+     * Answers by key in order of use.
+     */
+    private final LinkedHashMap<Long, Answer> answers;
+    /**
+     * Key of the last missed scenario.
+     */
+    private long key;
+    /**
+     * Answer of the last missed scenario which is being recorded, null if there is none.
+     */
+    private Answer pending;
+
+    /**
+     * Constructor for empty cache.
+     * @param capacity number of kept answers.
+     */
+    ResultCache(int capacity) {
+        this.answers = new LinkedHashMap<Long, Answer>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Answer> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                if (Metrics.ENABLED) {
+                    Metrics.CACHE_EVICTIONS.increment();
+                    Metrics.CACHE_BYTES.add(-eldest.getValue().bytes());
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Function that writes the answer of the scenario if it is cached. Otherwise remembers the key,
+     * so the answer evaluated next is recorded for it.
+     * @param board board with all entities of the scenario and tracked hashes.
+     * @param entities entities of the scenario in order of input.
+     * @param out writer for the answer.
+     * @return True if the answer is written.
+     * @throws IOException If answer can not be written.
+     */
+    boolean answer(Board board, EntityStore entities, Writer out) throws IOException {
+        BoardHash hashes = board.getHashes();
+        int size = board.getSize();
+        int insects = entities.insectCount();
+        int symmetry = 0;
+        long check = 0;
+        for (int s = 0; s < BoardHash.SYMMETRIES; s++) {
+            long first = BoardHash.mix(hashes.first(s) + size);
+            long second = BoardHash.mix(hashes.second(s) - size);
+            for (int i = 0; i < insects; i++) {
+                long cell = BoardHash.cell(s, entities.insectX(i), entities.insectY(i), size);
+                first = BoardHash.mix(first + cell);
+                second = BoardHash.mix(second ^ cell);
+            }
+            if (s == 0 || first < key) {
+                key = first;
+                check = second;
+                symmetry = s;
+            }
+        }
+        Answer answer = answers.get(key);
+        if (answer == null || answer.check != check || !answer.decisive) {
+            answer = answers.get(oriented(key, symmetry));
+        }
+        if (answer == null || answer.check != check || answer.symmetry != symmetry && !answer.decisive) {
+            if (Metrics.ENABLED) {
+                Metrics.CACHE_MISSES.increment();
+            }
+            pending = new Answer(check, symmetry, insects);
+            return false;
+        }
+        if (Metrics.ENABLED) {
+            Metrics.CACHE_HITS.increment();
+        }
+        pending = null;
+        for (int i = 0; i < insects; i++) {
+            out.write(InsectColor.toStr(entities.insectColor(i)));
+            out.write(' ');
+            out.write(entities.insectType(i).getTextRepresentation());
+            out.write(' ');
+            out.write(BoardHash.restore(symmetry, DIRECTIONS[answer.directions[i]]).getTextRepresentation());
+            out.write(' ');
+            AsciiWriter.writeInt(out, answer.values[i]);
+            out.write('\n');
+        }
+        return true;
+    }
+
+    /**
+     * Function used to get key of answers with ties, which are valid only in one orientation.
+     * @param key key of the scenario.
+     * @param symmetry symmetry which turns the board into the orientation of the key.
+     * @return Key of the scenario in the orientation.
+     */
+    private static long oriented(long key, int symmetry) {
+        return BoardHash.mix(key + symmetry + 1);
+    }
+
+    /**
+     * Shows whether the answer being recorded still has no ties, so ties of next insects matter.
+     * @return True if there is such answer and it has no ties.
+     */
+    boolean isDecisive() {
+        return pending != null && pending.decisive;
+    }
+
+    /**
+     * Function that records the result of the insect of the missed scenario.
+     * @param insect index of the insect.
+     * @param dir chosen direction.
+     * @param value eaten food.
+     * @param decisive true if the direction was chosen without tie.
+     */
+    void record(int insect, Direction dir, int value, boolean decisive) {
+        if (pending != null) {
+            pending.directions[insect] = (byte) BoardHash.turn(pending.symmetry, dir).ordinal();
+            pending.values[insect] = value;
+            pending.decisive &= decisive;
+        }
+    }
+
+    /**
+     * Function that keeps the recorded answer.
+     */
+    void commit() {
+        if (pending == null) {
+            return;
+        }
+        Answer old = answers.put(pending.decisive ? key : oriented(key, pending.symmetry), pending);
+        if (Metrics.ENABLED) {
+            Metrics.CACHE_BYTES.add(pending.bytes() - (old == null ? 0 : old.bytes()));
+        }
+        pending = null;
+    }
+
+    /**
+     * Getter for number of kept answers.
+     * @return Number of answers, not more than the capacity.
+     */
+    int size() {
+        return answers.size();
+    }
+}
+
+/**
+ * Engine which runs a scenario for many ticks instead of one pass. In every tick each insect on the board
+ * chooses its direction and travels as in one pass: it eats food up to an insect of other color
+ * or the border, then it lands on the last cell it reached instead of leaving the board.
+ * Eaten food points grow again in their cells after a delay.
+ * Turned on with <b>-Dsimulation.ticks=count</b>, order of insects in a tick is set by
+ * <b>-Dsimulation.ticks.order=buffered|sequential</b> and the delay of food by
+ * <b>-Dsimulation.ticks.respawn=ticks</b>, food does not grow again if it is 0.
+ * In buffered order the world is double-buffered: all insects choose and walk on the world
+ * of the start of the tick, which is only read, and the next world is written as changes to it
+ * (eaten food, departures and landings) applied in order of input at the end of the tick.
+ * Food walked over by several insects is eaten by the first of them.
+ * In sequential order every insect chooses and travels in order of input on the changing board as one pass does,
+ * only landings wait for the end of the tick, so one sequential tick gives exactly the answer of one pass.
+ * Insects land in order of input; an insect whose cell is taken steps back to its start
+ * and leaves the board if there is no free cell.
+ * Work of a tick is proportional to the number of insects on the board and of eaten and growing food points.
+ * The answer has a line for every insect with its last direction and all food eaten by it.
+ * @see Simulation
+ */
+class TickEngine {
+    /**
+     * Property with the number of ticks, ticks are off if it is not positive.
+     */
+    static final String PROPERTY = "simulation.ticks";
+    /**
+     * Property with the order of insects in a tick.
+     */
+    static final String ORDER_PROPERTY = "simulation.ticks.order";
+    /**
+     * Property with the number of ticks before eaten food grows again.
+     */
+    static final String RESPAWN_PROPERTY = "simulation.ticks.respawn";
+    /**
+     * Number of ticks of every scenario.
+     */
+    static final int TICKS = Integer.getInteger(PROPERTY, 0);
+    /**
+     * Number of ticks before eaten food grows again by default.
+     */
+    private static final int DEFAULT_RESPAWN = 10;
+    /**
+     * Initial capacity of arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Number of fields of one walked food cell: x, y and value.
+     */
+    private static final int PATH_FIELDS = 3;
+    /**
+     * Number of fields of one growing food point: x, y, value and tick when it grows.
+     */
+    private static final int GROWING_FIELDS = 4;
+
+    /**
+     * Orders of insects in a tick.
+     */
+    enum Order {
+        SEQUENTIAL, BUFFERED
+    }
+
+    /**
+     * Number of ticks of every scenario.
+     */
+    private final int ticks;
+    /**
+     * Order of insects in a tick.
+     */
+    private final Order order;
+    /**
+     * Number of ticks before eaten food grows again, 0 if it does not grow.
+     */
+    private final int respawn;
+    /**
+     * Data of the board of the scenario.
+     */
+    private BoardStorage boardData;
+    /**
+     * Size of the board of the scenario.
+     */
+    private int size;
+    /**
+     * Insects and food points of the scenario.
+     */
+    private EntityStore entities;
+    /**
+     * Insects on the board by index in the store.
+     */
+    private Insect[] views = new Insect[INITIAL_CAPACITY];
+    /**
+     * Last directions of insects.
+     */
+    private Direction[] directions = new Direction[INITIAL_CAPACITY];
+    /**
+     * Food eaten by insects in all ticks.
+     */
+    private int[] eaten = new int[INITIAL_CAPACITY];
+    /**
+     * Number of steps from the start to the landing cell of insects in the current tick.
+     */
+    private int[] reach = new int[INITIAL_CAPACITY];
+    /**
+     * Indexes of insects which are on the board, in order of input.
+     */
+    private int[] active = new int[INITIAL_CAPACITY];
+    /**
+     * Number of insects on the board.
+     */
+    private int activeCount;
+    /**
+     * Food cells walked over in the current tick, x, y and value one after another.
+     */
+    private int[] path = new int[INITIAL_CAPACITY * PATH_FIELDS];
+    /**
+     * Ends of walked food cells of active insects in the path.
+     */
+    private int[] pathEnd = new int[INITIAL_CAPACITY];
+    /**
+     * Number of used elements of the path.
+     */
+    private int pathSize;
+    /**
+     * Eaten food points which grow again, x, y, value and tick one after another, in order of ticks.
+     */
+    private int[] growing = new int[INITIAL_CAPACITY * GROWING_FIELDS];
+    /**
+     * First used element of growing food points.
+     */
+    private int growingHead;
+    /**
+     * End of used elements of growing food points.
+     */
+    private int growingTail;
+    /**
+     * Number of the current tick, from 0.
+     */
+    private int tick;
+
+    /**
+     * Constructor for engine.
+     * @param ticks number of ticks of every scenario.
+     * @param order order of insects in a tick.
+     * @param respawn number of ticks before eaten food grows again, 0 if it does not grow.
+     */
+    TickEngine(int ticks, Order order, int respawn) {
+        this.ticks = ticks;
+        this.order = order;
+        this.respawn = respawn;
+    }
+
+    /**
+     * Function that creates engine set by properties.
+     * @return Engine or null if ticks are off.
+     */
+    static TickEngine configured() {
+        if (TICKS <= 0) {
+            return null;
+        }
+        Order order = "sequential".equals(System.getProperty(ORDER_PROPERTY)) ? Order.SEQUENTIAL : Order.BUFFERED;
+        return new TickEngine(TICKS, order, Integer.getInteger(RESPAWN_PROPERTY, DEFAULT_RESPAWN));
+    }
+
+    /**
+     * Function that runs all ticks of the scenario and writes the answer of every insect.
+     * @param board board with all entities of the scenario.
+     * @param store insects and food points of the scenario in order of input.
+     * @param out writer for the answer.
+     * @throws IOException If answer can not be written.
+     */
+    void run(Board board, EntityStore store, Writer out) throws IOException {
+        start(board, store);
+        for (int i = 0; i < ticks; i++) {
+            tick();
+        }
+        write(out);
+    }
+
+    /**
+     * Function that prepares the scenario for the first tick.
+     * @param board board with all entities of the scenario.
+     * @param store insects and food points of the scenario in order of input.
+     */
+    void start(Board board, EntityStore store) {
+        this.boardData = board.getBoardData();
+        this.size = board.getSize();
+        this.entities = store;
+        int insects = store.insectCount();
+        if (views.length < insects) {
+            views = new Insect[insects];
+            directions = new Direction[insects];
+            eaten = new int[insects];
+            reach = new int[insects];
+            active = new int[insects];
+            pathEnd = new int[insects];
+        }
+        activeCount = 0;
+        for (int i = 0; i < insects; i++) {
+            views[i] = boardData.insectAt(store.insectX(i), store.insectY(i));
+            directions[i] = null;
+            eaten[i] = 0;
+            active[activeCount++] = i;
+        }
+        growingHead = 0;
+        growingTail = 0;
+        tick = 0;
+    }
+
+    /**
+     * Function that makes one tick: insects choose directions and travel, land,
+     * and food points whose delay is over grow again.
+     */
+    void tick() {
+        long start = Metrics.now();
+        pathSize = 0;
+        if (order == Order.SEQUENTIAL) {
+            for (int a = 0; a < activeCount; a++) {
+                int i = active[a];
+                choose(i);
+                int from = pathSize;
+                reach[i] = walk(i);
+                InsectType type = entities.insectType(i);
+                eaten[i] += MovementEngine.travel(type, entities.insectX(i), entities.insectY(i),
+                        entities.insectColor(i), directions[i], boardData, size);
+                for (int p = from; p < pathSize; p += PATH_FIELDS) {
+                    grow(path[p], path[p + 1], path[p + 2]);
+                }
+            }
+        } else {
+            for (int a = 0; a < activeCount; a++) {
+                int i = active[a];
+                choose(i);
+                reach[i] = walk(i);
+                pathEnd[a] = pathSize;
+            }
+            for (int a = 0; a < activeCount; a++) {
+                eaten[active[a]] += commit(active[a], a == 0 ? 0 : pathEnd[a - 1], pathEnd[a]);
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.MOVES.add(activeCount);
+        }
+        land();
+        regrow();
+        tick++;
+        if (Metrics.ENABLED) {
+            Metrics.TICK_NANOS.record(Metrics.now() - start);
+        }
+    }
+
+    /**
+     * Getter for number of insects which are still on the board.
+     * @return Number of insects.
+     */
+    int activeCount() {
+        return activeCount;
+    }
+
+    /**
+     * Function that selects direction of the insect on the current board.
+     * @param i index of the insect.
+     */
+    private void choose(int i) {
+        directions[i] = MovementEngine.bestDirection(entities.insectType(i), entities.insectX(i),
+                entities.insectY(i), boardData, size);
+    }
+
+    /**
+     * Function that walks the ray of the insect in its direction without changing the board:
+     * food cells up to an insect of other color are added to the path in buffered order
+     * or if eaten food grows again.
+     * @param i index of the insect.
+     * @return Number of steps to the last cell reached by the insect.
+     */
+    private int walk(int i) {
+        InsectType type = entities.insectType(i);
+        Direction dir = directions[i];
+        int step = type.getStride();
+        int dx = dir.dx() * step;
+        int dy = dir.dy() * step;
+        int own = BoardStorage.insectCell(entities.insectColor(i));
+        int x = entities.insectX(i);
+        int y = entities.insectY(i);
+        int length = dir.rayLength(x, y, step, size);
+        int left = length;
+        for (int k = boardData.nextOccupied(x, y, dx, dy, left); k > 0; k = boardData.nextOccupied(x, y, dx, dy, left)) {
+            x += k * dx;
+            y += k * dy;
+            left -= k;
+            int cell = boardData.cellAt(x, y);
+            if (cell == BoardStorage.FOOD) {
+                if (order == Order.BUFFERED || respawn > 0) {
+                    if (pathSize + PATH_FIELDS > path.length) {
+                        path = Arrays.copyOf(path, path.length * 2);
+                    }
+                    path[pathSize++] = x;
+                    path[pathSize++] = y;
+                    path[pathSize++] = boardData.foodAt(x, y);
+                }
+            } else if (cell != own) {
+                return length - left - 1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Function that applies travel of the insect walked in buffered order: eats its food points
+     * which are not eaten by earlier insects and removes the insect from its start.
+     * @param i index of the insect.
+     * @param from first element of its food cells in the path.
+     * @param to end of its food cells in the path.
+     * @return Eaten food.
+     */
+    private int commit(int i, int from, int to) {
+        int value = 0;
+        for (int p = from; p < to; p += PATH_FIELDS) {
+            if (boardData.cellAt(path[p], path[p + 1]) == BoardStorage.FOOD) {
+                grow(path[p], path[p + 1], path[p + 2]);
+                value += path[p + 2];
+                boardData.remove(path[p], path[p + 1]);
+            }
+        }
+        boardData.remove(entities.insectX(i), entities.insectY(i));
+        if (Metrics.ENABLED) {
+            Metrics.FOOD_EATEN.record(value);
+        }
+        return value;
+    }
+
+    /**
+     * Function that puts insects of the tick on their landing cells in order of input.
+     * If the cell is taken, the insect steps back to its start; without a free cell it leaves the board.
+     */
+    private void land() {
+        int kept = 0;
+        for (int a = 0; a < activeCount; a++) {
+            int i = active[a];
+            int step = entities.insectType(i).getStride();
+            int dx = directions[i].dx() * step;
+            int dy = directions[i].dy() * step;
+            int x = entities.insectX(i);
+            int y = entities.insectY(i);
+            boolean landed = false;
+            for (int k = reach[i]; k >= 0 && !landed; k--) {
+                if (!boardData.isOccupied(x + k * dx, y + k * dy)) {
+                    entities.moveInsect(i, x + k * dx, y + k * dy);
+                    boardData.put(views[i]);
+                    landed = true;
+                }
+            }
+            if (landed) {
+                active[kept++] = i;
+            }
+        }
+        activeCount = kept;
+    }
+
+    /**
+     * Function that adds eaten food point to the food which grows again after the delay.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param value value of food point.
+     */
+    private void grow(int x, int y, int value) {
+        if (respawn <= 0) {
+            return;
+        }
+        if (growingTail + GROWING_FIELDS > growing.length) {
+            int used = growingTail - growingHead;
+            if (growingHead < growing.length / 2) {
+                growing = Arrays.copyOf(growing, growing.length * 2);
+            }
+            System.arraycopy(growing, growingHead, growing, 0, used);
+            growingHead = 0;
+            growingTail = used;
+        }
+        growing[growingTail++] = x;
+        growing[growingTail++] = y;
+        growing[growingTail++] = value;
+        growing[growingTail++] = tick + respawn;
+    }
+
+    /**
+     * Function that puts back food points whose delay is over. Food point whose cell is taken
+     * by an insect waits for the next tick.
+     */
+    private void regrow() {
+        int read = growingHead;
+        int write = growingHead;
+        for (; read < growingTail && growing[read + GROWING_FIELDS - 1] <= tick; read += GROWING_FIELDS) {
+            int x = growing[read];
+            int y = growing[read + 1];
+            if (boardData.isOccupied(x, y)) {
+                System.arraycopy(growing, read, growing, write, GROWING_FIELDS);
+                write += GROWING_FIELDS;
+            } else {
+                boardData.putFood(x, y, growing[read + 2]);
+            }
+        }
+        int waiting = write - growingHead;
+        System.arraycopy(growing, growingHead, growing, read - waiting, waiting);
+        growingHead = read - waiting;
+        if (growingHead == growingTail) {
+            growingHead = 0;
+            growingTail = 0;
+        }
+    }
+
+    /**
+     * Function that writes last direction and all eaten food of every insect in order of input.
+     * @param out writer for the answer.
+     * @throws IOException If answer can not be written.
+     */
+    void write(Writer out) throws IOException {
+        for (int i = 0; i < entities.insectCount(); i++) {
+            out.write(InsectColor.toStr(entities.insectColor(i)));
+            out.write(' ');
+            out.write(entities.insectType(i).getTextRepresentation());
+            out.write(' ');
+            out.write(directions[i].getTextRepresentation());
+            out.write(' ');
+            AsciiWriter.writeInt(out, eaten[i]);
+            out.write('\n');
+        }
+    }
+}
+
+/**
+ * Evaluator of a batch of scenarios on a work-stealing pool.
+ * Every worker thread has its own simulation, and blocks are written in input order:
+ * finished blocks wait for the earlier ones, and reading stops while too many are in flight.
+ */
+class ParallelEvaluator {
+    /**
+     * Number of scenarios in flight per thread.
+     */
+    private static final int WINDOW_PER_THREAD = 64;
+    /**
+     * Number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * Limits of scenarios.
+     */
+    private final Limits limits;
+
+    /**
+     * Constructor for evaluator with strict limits.
+     * @param threads number of worker threads.
+     */
+    ParallelEvaluator(int threads) {
+        this(threads, Limits.STRICT);
+    }
+
+    /**
+     * Constructor for evaluator.
+     * @param threads number of worker threads.
+     * @param limits limits of scenarios.
+     */
+    ParallelEvaluator(int threads, Limits limits) {
+        this.threads = Math.max(1, threads);
+        this.limits = limits;
+    }
+
+    /**
+     * Function that evaluates concatenated scenarios concurrently and writes their blocks
+     * exactly as Main#runBatch(ScenarioParser, Writer) does.
+     * Scenarios are handed to workers as slices of the input, without copying mapped input.
+     * @param in parser of scenarios.
+     * @param out writer for the blocks.
+     * @throws IOException If scenarios can not be read or written.
+     * @see ScenarioParser#nextScenarioBytes()
+     */
+    void run(ScenarioParser in, Writer out) throws IOException {
+        ForkJoinPool workers = new ForkJoinPool(threads);
+        ThreadLocal<Simulation> simulations = ThreadLocal.withInitial(() -> new Simulation(limits));
+        ArrayDeque<ForkJoinTask<String>> pending = new ArrayDeque<>();
+        try {
+            ByteBuffer scenario;
+            while ((scenario = in.nextScenarioBytes()) != null) {
+                ScenarioParser task = new ScenarioParser(scenario);
+                pending.add(workers.submit(() -> {
+                    task.nextScenario();
+                    return simulations.get().evaluate(task);
+                }));
+                while (pending.size() > threads * WINDOW_PER_THREAD || !pending.isEmpty() && pending.peek().isDone()) {
+                    out.write(pending.poll().join());
+                }
+                if (in.isBroken()) {
+                    break;
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.write(pending.poll().join());
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+}
+
+/**
+ * Server which keeps the JVM warm and evaluates scenarios sent over local sockets,
+ * run with <b>--serve [port|path] [threads]</b>.
+ * A number is a port on the loopback interface, anything else is a path of Unix domain socket.
+ * Every connection is a stream of scenarios in the format of <b>input file</b>, with every line ended by new line,
+ * and gets blocks exactly as Main#runBatch(ScenarioParser, Writer) writes them.
+ * Every block is sent as soon as it is ready, so a client may wait for it before sending the next scenario.
+ * Connections are served concurrently, each by its own simulation and board.
+ * @see EvaluationServer#run(SocketAddress)
+ */
+class EvaluationServer {
+    /**
+     * Port used if none is given.
+     */
+    static final int DEFAULT_PORT = 7070;
+
+    /**
+     * Number of connections served at once, 0 if they are not limited.
+     */
+    private final int threads;
+    /**
+     * Limits of scenarios.
+     */
+    private final Limits limits;
+
+    /**
+     * Constructor for server.
+     * @param threads number of connections served at once, 0 or less if they are not limited.
+     * @param limits limits of scenarios.
+     */
+    EvaluationServer(int threads, Limits limits) {
+        this.threads = Math.max(0, threads);
+        this.limits = limits;
+    }
+
+    /**
+     * Function used to get address of the server from the argument.
+     * @param text port, path of Unix domain socket or null for the default port.
+     * @return Address on the loopback interface or of Unix domain socket.
+     */
+    static SocketAddress address(String text) {
+        if (text == null) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), DEFAULT_PORT);
+        }
+        if (!text.isEmpty() && text.chars().allMatch(Character::isDigit)) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(text));
+        }
+        return UnixDomainSocketAddress.of(text);
+    }
+
+    /**
+     * Function that accepts connections until the process is stopped.
+     * Prints the bound address first, so scripts know when the server is ready.
+     * File of Unix domain socket is removed when the server stops.
+     * @param address address to bind.
+     * @throws IOException If address can not be bound.
+     * @see EvaluationServer#accept(ServerSocketChannel)
+     */
+    void run(SocketAddress address) throws IOException {
+        boolean local = address instanceof UnixDomainSocketAddress;
+        try (ServerSocketChannel server = local
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX) : ServerSocketChannel.open()) {
+            server.bind(address);
+            if (local) {
+                Path path = ((UnixDomainSocketAddress) address).getPath();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e) {
+                        Diagnostics.report("Socket is not removed", e);
+                    }
+                }));
+            }
+            System.out.println("Serving " + server.getLocalAddress());
+            accept(server);
+        }
+    }
+
+    /**
+     * Function that accepts connections of the bound channel and serves each of them
+     * until the channel is closed.
+     * @param server bound channel of the server.
+     * @throws IOException If connection can not be accepted, or the channel is closed.
+     */
+    void accept(ServerSocketChannel server) throws IOException {
+        boolean local = server.getLocalAddress() instanceof UnixDomainSocketAddress;
+        ExecutorService workers = threads == 0 ? Executors.newCachedThreadPool() : Executors.newFixedThreadPool(threads);
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                if (!local) {
+                    client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                }
+                workers.execute(() -> serve(client));
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Function that evaluates scenarios of one connection until the client stops sending them.
+     * Stops early if counts of a scenario can not be read, as Main#runBatch(ScenarioParser, Writer) does.
+     * Time from the header of a scenario to the sent block is recorded as request latency.
+     * Connection which can not be read or written is reported and closed.
+     * @param client connection.
+     */
+    void serve(SocketChannel client) {
+        Simulation simulation = new Simulation(limits);
+        try (ScenarioParser in = new ScenarioParser(client); AsciiWriter out = new AsciiWriter(client)) {
+            while (in.nextScenario()) {
+                long start = Metrics.now();
+                simulation.evaluate(in, out);
+                out.flush();
+                if (Metrics.ENABLED) {
+                    Metrics.REQUEST_NANOS.record(Metrics.now() - start);
+                }
+                if (in.isBroken()) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            Diagnostics.report("Connection is dropped", e);
+        }
+    }
+}
+
+/**
+ * Generator of scenarios in the format of <b>input file</b> for load tests.
+ * Scenarios are reproducible for the same seed, limits and options. Sizes, numbers of insects,
+ * weights of colors of insects, density and clustering of food are options bounded by the limits;
+ * a part of scenarios can have one deliberate mistake. Scenarios are written
+ * one after another, so any number of them can be streamed to a batch.
+ * @see ScenarioGenerator#set(String, String)
+ * @see ScenarioGenerator#write(long, Writer)
+ */
+class ScenarioGenerator {
+    /**
+     * Maximal amount of food of one food point.
+     */
+    private static final int MAX_FOOD = 100;
+    /**
+     * Part of the size of the board which is the typical distance of food from the center of its cluster.
+     */
+    private static final int CLUSTER_SPREAD = 20;
+    /**
+     * Color which does not exist.
+     */
+    private static final String WRONG_COLOR = "Purple";
+    /**
+     * Type which does not exist.
+     */
+    private static final String WRONG_TYPE = "Beetle";
+    /**
+     * All colors.
+     */
+    private static final InsectColor[] COLORS = InsectColor.values();
+    /**
+     * All types.
+     */
+    private static final InsectType[] TYPES = InsectType.values();
+
+    /**
+     * Kinds of deliberate mistakes.
+     */
+    enum Mistake {
+        SIZE, INSECTS, FOOD, POSITION, COLOR, TYPE, DUPLICATE, SAME_POSITION
+    }
+
+    /**
+     * All kinds of mistakes.
+     */
+    private static final Mistake[] MISTAKES = Mistake.values();
+
+    /**
+     * Source of randomness.
+     */
+    private final Random random;
+    /**
+     * Limits of valid scenarios.
+     */
+    private final Limits limits;
+    /**
+     * Minimal size of the board.
+     */
+    private int minSize = Limits.MIN_SIZE;
+    /**
+     * Maximal size of the board.
+     */
+    private int maxSize;
+    /**
+     * Minimal number of insects.
+     */
+    private int minInsects = 1;
+    /**
+     * Maximal number of insects.
+     */
+    private int maxInsects;
+    /**
+     * Weights of colors of insects by ordinal.
+     */
+    private final double[] colorWeights = {1, 1, 1, 1};
+    /**
+     * Number of food points per cell, limited by valid number of food points.
+     */
+    private double density = 0.01;
+    /**
+     * Part of food points which are placed near centers of clusters.
+     */
+    private double cluster;
+    /**
+     * Number of centers of clusters of food.
+     */
+    private int clusters = 3;
+    /**
+     * Part of scenarios with a mistake.
+     */
+    private double invalid;
+
+    /**
+     * X coordinates of entities of the current scenario, insects first, grown with scenarios.
+     */
+    private int[] xs = new int[0];
+    /**
+     * Y coordinates of entities of the current scenario, insects first.
+     */
+    private int[] ys = xs;
+    /**
+     * Names of colors of insects of the current scenario.
+     */
+    private String[] colorNames = new String[0];
+    /**
+     * Names of types of insects of the current scenario.
+     */
+    private String[] typeNames = colorNames;
+    /**
+     * Amounts of food of the current scenario.
+     */
+    private int[] amounts = new int[0];
+    /**
+     * Cells taken by entities of the current scenario, number of the cell is (x - 1) * size + y - 1.
+     */
+    private final Set<Long> taken = new HashSet<>();
+
+    /**
+     * Constructor for generator of scenarios within strict limits with default options.
+     * @param seed seed of randomness.
+     */
+    ScenarioGenerator(long seed) {
+        this(seed, Limits.STRICT);
+    }
+
+    /**
+     * Constructor for generator with default options: sizes and numbers of insects
+     * are bounded only by the limits.
+     * @param seed seed of randomness.
+     * @param limits limits of valid scenarios.
+     */
+    ScenarioGenerator(long seed, Limits limits) {
+        this.random = new Random(seed);
+        this.limits = limits;
+        this.maxSize = limits.getMaxSize();
+        this.maxInsects = limits.getMaxInsects();
+    }
+
+    /**
+     * Function that sets the option of the generator.
+     * Options: minSize, maxSize, minInsects, maxInsects, red, green, blue, yellow (weights of colors),
+     * density (food points per cell), cluster (part of clustered food), clusters (number of centers),
+     * invalid (part of scenarios with a mistake).
+     * @param key name of the option.
+     * @param value value of the option.
+     * @return This generator.
+     * @throws IllegalArgumentException If there is no such option or value is out of range.
+     */
+    ScenarioGenerator set(String key, String value) {
+        switch (key) {
+            case "minSize":
+                minSize = inRange(key, Integer.parseInt(value), Limits.MIN_SIZE, limits.getMaxSize());
+                break;
+            case "maxSize":
+                maxSize = inRange(key, Integer.parseInt(value), Limits.MIN_SIZE, limits.getMaxSize());
+                break;
+            case "minInsects":
+                minInsects = inRange(key, Integer.parseInt(value), 1, limits.getMaxInsects());
+                break;
+            case "maxInsects":
+                maxInsects = inRange(key, Integer.parseInt(value), 1, limits.getMaxInsects());
+                break;
+            case "density":
+                density = inRange(key, Double.parseDouble(value), 0, 1);
+                break;
+            case "cluster":
+                cluster = inRange(key, Double.parseDouble(value), 0, 1);
+                break;
+            case "clusters":
+                clusters = inRange(key, Integer.parseInt(value), 1, limits.getMaxFoodPoints());
+                break;
+            case "invalid":
+                invalid = inRange(key, Double.parseDouble(value), 0, 1);
+                break;
+            default:
+                InsectColor color = InsectColor.toColor(key);
+                if (color == null) {
+                    throw new IllegalArgumentException("Unknown option " + key);
+                }
+                colorWeights[color.ordinal()] = inRange(key, Double.parseDouble(value), 0, Double.MAX_VALUE);
+        }
+        if (minSize > maxSize || minInsects > maxInsects) {
+            throw new IllegalArgumentException("Minimum is bigger than maximum");
+        }
+        if (Arrays.stream(colorWeights).sum() <= 0) {
+            throw new IllegalArgumentException("Some color must have positive weight");
+        }
+        return this;
+    }
+
+    /**
+     * Function that checks value of the option.
+     * @param key name of the option.
+     * @param value value of the option.
+     * @param min minimal value.
+     * @param max maximal value.
+     * @return Value if it is in range.
+     */
+    private static int inRange(String key, int value, int min, int max) {
+        return (int) inRange(key, (double) value, min, max);
+    }
+
+    /**
+     * Function that checks value of the option.
+     * @param key name of the option.
+     * @param value value of the option.
+     * @param min minimal value.
+     * @param max maximal value.
+     * @return Value if it is in range.
+     */
+    private static double inRange(String key, double value, double min, double max) {
+        if (value < min || value > max) {
+            throw new IllegalArgumentException("Option " + key + " must be between " + min + " and " + max);
+        }
+        return value;
+    }
+
+    /**
+     * Function that writes scenarios one after another.
+     * @param count number of scenarios.
+     * @param out writer for scenarios.
+     * @throws IOException If scenarios can not be written.
+     */
+    void write(long count, Writer out) throws IOException {
+        for (long i = 0; i < count; i++) {
+            writeScenario(out);
+        }
+    }
+
+    /**
+     * Function that generates one scenario and writes it.
+     * @param out writer for the scenario.
+     * @throws IOException If scenario can not be written.
+     */
+    void writeScenario(Writer out) throws IOException {
+        Mistake mistake = random.nextDouble() < invalid ? MISTAKES[random.nextInt(MISTAKES.length)] : null;
+        if (mistake == Mistake.DUPLICATE && !limits.isUniqueInsects()) {
+            mistake = Mistake.SAME_POSITION;
+        }
+        int size = between(minSize, maxSize);
+        long cells = (long) size * size;
+        int wanted = (int) Math.min(between(minInsects, maxInsects), cells - 1);
+        long wantedFood = Math.min(Math.round(density * cells), limits.getMaxFoodPoints());
+        reserve(wanted + 1, (int) Math.max(1, Math.min(wantedFood, cells)));
+        int insects = chooseInsects(wanted);
+        if (mistake == Mistake.DUPLICATE) {
+            if (insects + 1 < cells) {
+                colorNames[insects] = colorNames[0];
+                typeNames[insects] = typeNames[0];
+                insects++;
+            } else {
+                mistake = Mistake.SAME_POSITION;
+            }
+        }
+        int foodPoints = (int) Math.max(1, Math.min(wantedFood, cells - insects));
+        taken.clear();
+        for (int i = 0; i < insects; i++) {
+            place(i, size);
+        }
+        int[] centers = new int[2 * clusters];
+        for (int i = 0; i < centers.length; i++) {
+            centers[i] = between(1, size);
+        }
+        for (int i = 0; i < foodPoints; i++) {
+            if (random.nextDouble() < cluster) {
+                placeNear(insects + i, size, centers);
+            } else {
+                place(insects + i, size);
+            }
+            amounts[i] = between(1, MAX_FOOD);
+        }
+        int sizeLine = size;
+        int insectLines = insects;
+        int foodLines = foodPoints;
+        if (mistake != null) {
+            switch (mistake) {
+                case SIZE:
+                    sizeLine = random.nextBoolean() ? between(1, Limits.MIN_SIZE - 1)
+                            : between(limits.getMaxSize() + 1, 2 * limits.getMaxSize());
+                    break;
+                case INSECTS:
+                    insectLines = random.nextBoolean() ? 0 : limits.getMaxInsects() + 1;
+                    break;
+                case FOOD:
+                    foodLines = random.nextBoolean() ? 0 : limits.getMaxFoodPoints() + 1;
+                    break;
+                case POSITION:
+                    int entity = random.nextInt(insects + foodPoints);
+                    xs[entity] = random.nextBoolean() ? 0 : size + 1;
+                    break;
+                case COLOR:
+                    colorNames[random.nextInt(insects)] = WRONG_COLOR;
+                    break;
+                case TYPE:
+                    typeNames[random.nextInt(insects)] = WRONG_TYPE;
+                    break;
+                case SAME_POSITION:
+                    int last = insects + foodPoints - 1;
+                    xs[last] = xs[0];
+                    ys[last] = ys[0];
+                    break;
+                default:
+            }
+        }
+        writeNumber(out, sizeLine);
+        writeNumber(out, insectLines);
+        writeNumber(out, foodLines);
+        for (int i = 0; i < insectLines; i++) {
+            int insect = i % insects;
+            out.write(colorNames[insect]);
+            out.write(' ');
+            out.write(typeNames[insect]);
+            out.write(' ');
+            writeCoordinates(out, insect);
+        }
+        for (int i = 0; i < foodLines; i++) {
+            int food = i % foodPoints;
+            AsciiWriter.writeInt(out, amounts[food]);
+            out.write(' ');
+            writeCoordinates(out, insects + food);
+        }
+    }
+
+    /**
+     * Function that grows arrays of the current scenario, so they hold its entities.
+     * @param insects maximal number of insects.
+     * @param foodPoints maximal number of food points.
+     */
+    private void reserve(int insects, int foodPoints) {
+        if (colorNames.length < insects) {
+            colorNames = new String[insects];
+            typeNames = new String[insects];
+        }
+        if (amounts.length < foodPoints) {
+            amounts = new int[foodPoints];
+        }
+        if (xs.length < insects + foodPoints) {
+            xs = new int[insects + foodPoints];
+            ys = new int[xs.length];
+        }
+    }
+
+    /**
+     * Function that chooses colors and types of insects. Colors are chosen according to their weights.
+     * Pairs of color and type are different if the limits make other insects duplicates,
+     * otherwise pairs are chosen again after all of them are used.
+     * @param wanted wanted number of insects.
+     * @return Number of chosen insects, less than wanted if colors with positive weight have no more types.
+     */
+    private int chooseInsects(int wanted) {
+        boolean[] used = new boolean[COLORS.length * TYPES.length];
+        int chosen = 0;
+        int last = -1;
+        while (chosen < wanted) {
+            double total = 0;
+            for (int pair = 0; pair < used.length; pair++) {
+                if (!used[pair] && colorWeights[pair / TYPES.length] > 0) {
+                    total += colorWeights[pair / TYPES.length];
+                    last = pair;
+                }
+            }
+            if (total <= 0 && !limits.isUniqueInsects() && chosen > 0) {
+                Arrays.fill(used, false);
+                continue;
+            }
+            if (total <= 0) {
+                break;
+            }
+            double point = random.nextDouble() * total;
+            int pair = -1;
+            do {
+                pair++;
+                if (!used[pair]) {
+                    point -= colorWeights[pair / TYPES.length];
+                }
+            } while ((used[pair] || colorWeights[pair / TYPES.length] <= 0 || point >= 0) && pair < last);
+            used[pair] = true;
+            colorNames[chosen] = InsectColor.toStr(COLORS[pair / TYPES.length]);
+            typeNames[chosen] = TYPES[pair % TYPES.length].getTextRepresentation();
+            chosen++;
+        }
+        return chosen;
+    }
+
+    /**
+     * Function that places the entity on a random free cell.
+     * @param entity index of the entity.
+     * @param size size of the board.
+     */
+    private void place(int entity, int size) {
+        do {
+            xs[entity] = between(1, size);
+            ys[entity] = between(1, size);
+        } while (!take(entity, size));
+    }
+
+    /**
+     * Function that places the entity on a free cell near center of a random cluster.
+     * @param entity index of the entity.
+     * @param size size of the board.
+     * @param centers coordinates of centers, x and y of each.
+     */
+    private void placeNear(int entity, int size, int[] centers) {
+        int center = 2 * random.nextInt(clusters);
+        double spread = Math.max(1.0, (double) size / CLUSTER_SPREAD);
+        for (int attempt = 0; attempt < size; attempt++) {
+            xs[entity] = clamp(centers[center] + (int) Math.round(random.nextGaussian() * spread), size);
+            ys[entity] = clamp(centers[center + 1] + (int) Math.round(random.nextGaussian() * spread), size);
+            if (take(entity, size)) {
+                return;
+            }
+        }
+        place(entity, size);
+    }
+
+    /**
+     * Function that takes cell of the entity if it is not taken by entities before it.
+     * @param entity index of the entity.
+     * @param size size of the board.
+     * @return True if cell was free and is taken now.
+     */
+    private boolean take(int entity, int size) {
+        return taken.add((xs[entity] - 1L) * size + ys[entity] - 1);
+    }
+
+    /**
+     * Function used to get random number in range.
+     * @param min minimal number.
+     * @param max maximal number.
+     * @return Number from min to max inclusive.
+     */
+    private int between(int min, int max) {
+        return min + random.nextInt(max - min + 1);
+    }
+
+    /**
+     * Function used to move coordinate inside the board.
+     * @param coordinate coordinate.
+     * @param size size of the board.
+     * @return Nearest coordinate from 1 to size.
+     */
+    private static int clamp(int coordinate, int size) {
+        return Math.max(1, Math.min(size, coordinate));
+    }
+
+    /**
+     * Function that writes number and ends the line.
+     * @param out writer.
+     * @param value number.
+     * @throws IOException If it can not be written.
+     */
+    private static void writeNumber(Writer out, int value) throws IOException {
+        AsciiWriter.writeInt(out, value);
+        out.write('\n');
+    }
+
+    /**
+     * Function that writes coordinates of the entity and ends the line.
+     * @param out writer.
+     * @param entity index of the entity.
+     * @throws IOException If it can not be written.
+     */
+    private void writeCoordinates(Writer out, int entity) throws IOException {
+        AsciiWriter.writeInt(out, xs[entity]);
+        out.write(' ');
+        writeNumber(out, ys[entity]);
+    }
+}
+
+/**
+ * Receiver of diagnostics which do not stop the program, such as dropped connections
+ * and metrics which can not be published. They are printed to standard error unless
+ * the receiver is replaced, so they never mix with answers written to standard output.
+ */
+final class Diagnostics {
+    /**
+     * Receiver of diagnostic messages.
+     */
+    static volatile Consumer<String> receiver = System.err::println;
+
+    /**
+     * Constructor is hidden, class has only static members.
+     */
+    private Diagnostics() {
+    }
+
+    /**
+     * Function that reports the diagnostic message.
+     * @param message the message.
+     */
+    static void report(String message) {
+        receiver.accept(message);
+    }
+
+    /**
+     * Function that reports the problem which does not stop the program.
+     * @param problem what went wrong.
+     * @param e exception of the problem.
+     */
+    static void report(String problem, Exception e) {
+        report(problem + ": " + e.getMessage());
+    }
+}
+
+/**
+ * Counters and histograms of the simulation. Turned on with <b>-Dsimulation.metrics=true</b>
+ * or by <b>-Dsimulation.metrics.json=path</b>, which also writes summary as JSON at exit.
+ * When they are on, metrics are published as MBean <b>Simulation:type=Metrics</b>.
+ * Hooks check the constant flag first, so when metrics are off the JIT removes them,
+ * and recording never allocates.
+ * @see Metrics#install()
+ * @see MetricsBean
+ */
+final class Metrics {
+    /**
+     * Property that turns metrics on.
+     */
+    static final String PROPERTY = "simulation.metrics";
+    /**
+     * Property with path of JSON summary.
+     */
+    static final String JSON_PROPERTY = "simulation.metrics.json";
+    /**
+     * Shows whether metrics are collected.
+     */
+    static final boolean ENABLED = Boolean.getBoolean(PROPERTY) || System.getProperty(JSON_PROPERTY) != null;
+    /**
+     * Name of the MBean.
+     */
+    static final String OBJECT_NAME = "Simulation:type=Metrics";
+    /**
+     * Number of nanoseconds in a second.
+     */
+    private static final double NANOS_IN_SECOND = 1e9;
+
+    /**
+     * Number of evaluated scenarios.
+     */
+    static final LongAdder SCENARIOS = new LongAdder();
+    /**
+     * Number of scenarios failed by every kind of exception, by simple name of its class.
+     */
+    static final Map<String, LongAdder> FAILURES = new ConcurrentSkipListMap<>();
+    /**
+     * Cells on the rays of all directions of one choice of direction, each ray up to the border.
+     * It is the extent of the choice, not the work done for it: indexes of lines answer a ray
+     * without visiting its cells.
+     */
+    static final Histogram RAY_CELLS = new Histogram();
+    /**
+     * Food eaten by one travel.
+     */
+    static final Histogram FOOD_EATEN = new Histogram();
+    /**
+     * Nanoseconds of reading entity lines of one scenario.
+     */
+    static final Histogram PARSE_NANOS = new Histogram();
+    /**
+     * Nanoseconds of checks of entities of one scenario.
+     */
+    static final Histogram VALIDATE_NANOS = new Histogram();
+    /**
+     * Nanoseconds of choosing directions and travels of one scenario.
+     */
+    static final Histogram EVALUATE_NANOS = new Histogram();
+    /**
+     * Nanoseconds of writing the answer of one scenario.
+     */
+    static final Histogram WRITE_NANOS = new Histogram();
+    /**
+     * Nanoseconds from the header of a scenario sent to the server to its sent block.
+     */
+    static final Histogram REQUEST_NANOS = new Histogram();
+    /**
+     * Number of scenarios answered by caches of results.
+     */
+    static final LongAdder CACHE_HITS = new LongAdder();
+    /**
+     * Number of scenarios evaluated because caches of results had no answer.
+     */
+    static final LongAdder CACHE_MISSES = new LongAdder();
+    /**
+     * Number of answers evicted from caches of results.
+     */
+    static final LongAdder CACHE_EVICTIONS = new LongAdder();
+    /**
+     * Estimated bytes of answers kept by caches of results.
+     */
+    static final LongAdder CACHE_BYTES = new LongAdder();
+    /**
+     * Nanoseconds of one tick of the tick engine.
+     */
+    static final Histogram TICK_NANOS = new Histogram();
+    /**
+     * Number of insects which chose a direction and traveled in ticks.
+     */
+    static final LongAdder MOVES = new LongAdder();
+
+    /**
+     * Constructor is hidden, class has only static members.
+     */
+    private Metrics() {
+    }
+
+    /**
+     * Function used to get time for phase histograms.
+     * @return Current nanoseconds or 0 if metrics are off.
+     */
+    static long now() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Function that counts failed scenario.
+     * @param e exception of the scenario.
+     */
+    static void failure(Throwable e) {
+        if (ENABLED) {
+            failure(e.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Function that counts failed scenario.
+     * @param kind name of the kind of failure.
+     */
+    static void failure(String kind) {
+        if (ENABLED) {
+            FAILURES.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * Function that publishes the MBean and registers writing of JSON summary at exit,
+     * if metrics are on.
+     */
+    static void install() {
+        if (!ENABLED) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            Diagnostics.report("Metrics are not published", e);
+        }
+        String path = System.getProperty(JSON_PROPERTY);
+        if (path != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.write(Paths.get(path), toJson().getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException e) {
+                    Diagnostics.report("Metrics are not written", e);
+                }
+            }));
+        }
+    }
+
+    /**
+     * Function used to get current values of all metrics.
+     * Histograms give count, sum, mean, p50, p99 and max.
+     * @return Values by name, in stable order.
+     */
+    static Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("scenarios", SCENARIOS.sum());
+        for (Map.Entry<String, LongAdder> failure : FAILURES.entrySet()) {
+            values.put("failures." + failure.getKey(), failure.getValue().sum());
+        }
+        RAY_CELLS.snapshot("rayCells", values);
+        FOOD_EATEN.snapshot("foodEaten", values);
+        PARSE_NANOS.snapshot("parseNanos", values);
+        VALIDATE_NANOS.snapshot("validateNanos", values);
+        EVALUATE_NANOS.snapshot("evaluateNanos", values);
+        WRITE_NANOS.snapshot("writeNanos", values);
+        REQUEST_NANOS.snapshot("requestNanos", values);
+        if (ResultCache.CAPACITY > 0) {
+            long hits = CACHE_HITS.sum();
+            long lookups = hits + CACHE_MISSES.sum();
+            values.put("cache.hits", hits);
+            values.put("cache.misses", lookups - hits);
+            values.put("cache.hitRate", lookups == 0 ? 0.0 : (double) hits / lookups);
+            values.put("cache.evictions", CACHE_EVICTIONS.sum());
+            values.put("cache.bytes", CACHE_BYTES.sum());
+        }
+        if (TickEngine.TICKS > 0) {
+            TICK_NANOS.snapshot("tickNanos", values);
+            double seconds = (double) TICK_NANOS.sum() / NANOS_IN_SECOND;
+            values.put("ticks.moves", MOVES.sum());
+            values.put("ticks.perSecond", seconds == 0 ? 0.0 : TICK_NANOS.count() / seconds);
+            values.put("ticks.movesPerSecond", seconds == 0 ? 0.0 : MOVES.sum() / seconds);
+        }
+        return values;
+    }
+
+    /**
+     * Function used to get summary of metrics as JSON object.
+     * @return Text of JSON object.
+     */
+    static String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Number> value : snapshot().entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("\n  \"").append(value.getKey()).append("\": ").append(value.getValue());
+        }
+        return json.append("\n}\n").toString();
+    }
+}
+
+/**
+ * Histogram of non-negative values with buckets by powers of two.
+ * Safe to record from many threads, recording does not allocate.
+ */
+class Histogram {
+    /**
+     * Number of buckets: bucket b has values below 2^b and at least 2^(b-1).
+     */
+    private static final int BUCKETS = 64;
+    /**
+     * Quantile reported as median.
+     */
+    private static final double MEDIAN = 0.5;
+    /**
+     * Quantile reported as tail.
+     */
+    private static final double TAIL = 0.99;
+    /**
+     * Number of values in every bucket.
+     */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    /**
+     * Number of values.
+     */
+    private final LongAdder count = new LongAdder();
+    /**
+     * Sum of values.
+     */
+    private final LongAdder sum = new LongAdder();
+    /**
+     * Maximal value.
+     */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Function that adds the value.
+     * @param value value, negative values count as 0.
+     */
+    void record(long value) {
+        long v = Math.max(0, value);
+        buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * Getter for number of values.
+     * @return Number of recorded values.
+     */
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * Getter for sum of values.
+     * @return Sum of recorded values.
+     */
+    long sum() {
+        return sum.sum();
+    }
+
+    /**
+     * Function used to get upper bound of the quantile.
+     * @param quantile quantile from 0 to 1.
+     * @return Upper bound of the bucket with the quantile, not more than maximum.
+     */
+    long quantile(double quantile) {
+        long total = count.sum();
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets.get(b);
+            if (seen >= rank && seen > 0) {
+                return Math.min(max.get(), b == 0 ? 0 : (1L << b) - 1);
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Function that adds summary of the histogram to the values.
+     * @param name name of the histogram.
+     * @param values values by name.
+     */
+    void snapshot(String name, Map<String, Number> values) {
+        long total = count.sum();
+        values.put(name + ".count", total);
+        values.put(name + ".sum", sum.sum());
+        values.put(name + ".mean", total == 0 ? 0.0 : (double) sum.sum() / total);
+        values.put(name + ".p50", quantile(MEDIAN));
+        values.put(name + ".p99", quantile(TAIL));
+        values.put(name + ".max", max.get());
+    }
+}
+
+/**
+ * MBean with read-only attributes for all metrics.
+ * Attributes are taken from the snapshot, so new kinds of failures appear as they happen.
+ * @see Metrics#snapshot()
+ */
+class MetricsBean implements DynamicMBean {
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = Metrics.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = Metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            if (values.containsKey(name)) {
+                list.add(new Attribute(name, values.get(name)));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> values = Metrics.snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> value : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                    value.getKey(), true, false, false);
+        }
+        return new MBeanInfo(getClass().getName(), "Metrics of the simulation", attributes, null, null, null);
+    }
+}
+
+/**
+ * Writer of ASCII text into a direct buffer which is written to the channel when it is full.
+ * Characters are put into the buffer as bytes, so no encoder and no intermediate arrays are used.
+ * Characters out of ASCII are written as '?'.
+ * @see AsciiWriter#writeInt(Writer, int)
+ */
+class AsciiWriter extends Writer {
+    /**
+     * Default size of the buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Maximal number of characters of int.
+     */
+    private static final int INT_LENGTH = 11;
+    /**
+     * Last ASCII character.
+     */
+    private static final char LAST_ASCII = 127;
+
+    /**
+     * Channel where the text goes.
+     */
+    private final WritableByteChannel channel;
+    /**
+     * Buffer with text which is not written yet.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Constructor for writer with buffer of default size.
+     * @param channel channel where the text goes.
+     */
+    AsciiWriter(WritableByteChannel channel) {
+        this(channel, BUFFER_SIZE);
+    }
+
+    /**
+     * Constructor for writer.
+     * @param channel channel where the text goes.
+     * @param capacity size of the buffer, at least the length of int.
+     */
+    AsciiWriter(WritableByteChannel channel, int capacity) {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(capacity, INT_LENGTH));
+    }
+
+    /**
+     * Function that writes the number to the writer, without creating a string if it is ASCII writer.
+     * @param out writer.
+     * @param value number.
+     * @throws IOException If text can not be written.
+     */
+    static void writeInt(Writer out, int value) throws IOException {
+        if (out instanceof AsciiWriter) {
+            ((AsciiWriter) out).writeInt(value);
+        } else {
+            out.write(Integer.toString(value));
+        }
+    }
+
+    /**
+     * Function that writes decimal representation of the number.
+     * @param value number.
+     * @throws IOException If buffer can not be written.
+     */
+    void writeInt(int value) throws IOException {
+        if (value == Integer.MIN_VALUE) {
+            write(Integer.toString(value));
+            return;
+        }
+        if (buffer.remaining() < INT_LENGTH) {
+            drain();
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int length = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            length++;
+        }
+        int end = buffer.position() + length;
+        for (int i = end - 1; i >= buffer.position(); i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    /**
+     * Function that writes the bytes as they are, even if they are not ASCII.
+     * @param bytes bytes between position and limit, they are consumed.
+     * @throws IOException If buffer can not be written.
+     */
+    void writeBytes(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            ByteBuffer part = bytes.duplicate();
+            part.limit(part.position() + Math.min(part.remaining(), buffer.remaining()));
+            buffer.put(part);
+            bytes.position(part.position());
+        }
+    }
+
+    /**
+     * Function that puts the character into the buffer.
+     * @param c character.
+     * @throws IOException If buffer can not be written.
+     */
+    private void put(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put(c <= LAST_ASCII ? (byte) c : (byte) '?');
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        put((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            put(cbuf[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++) {
+            put(str.charAt(i));
+        }
+    }
+
+    /**
+     * Function that writes the buffer to the channel and empties it.
+     * @throws IOException If channel can not be written.
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        drain();
+        channel.close();
+    }
+}
+
+/**
+ * Parser of scenarios in the format of <b>input file</b> working directly on bytes.
+ * Lines are found in a reusable buffer which is refilled from the channel,
+ * integers are parsed in place, colors and types are matched to enums
+ * without creating strings, so a well-formed line allocates nothing.
+ * Tokens are split by single spaces as String#split(" ") does,
+ * and malformed numbers fail with the same exceptions as Integer#parseInt.
+ * Missing lines and tokens fail with messages of their own.
+ * Files are mapped into memory, so their bytes are parsed where they are; files bigger than one mapping
+ * are mapped in windows, and the next window starts at the line which does not end in the previous one.
+ * @see ScenarioParser#open(Path)
+ * @see ScenarioParser#nextScenario()
+ * @see ScenarioParser#nextEntityLine()
+ */
+class ScenarioParser implements Closeable {
+    /**
+     * Initial size of the buffer for channels.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Number of tokens of a line that are kept.
+     */
+    private static final int TOKENS = 4;
+    /**
+     * Number of digits which can not overflow int.
+     */
+    private static final int SAFE_DIGITS = 9;
+    /**
+     * Biggest number of bytes mapped at once.
+     */
+    private static final int MAX_WINDOW = Integer.MAX_VALUE;
+    /**
+     * Message of a scenario which ends before a line of its header.
+     */
+    private static final String MISSING_HEADER_LINE = "Missing line of the header";
+    /**
+     * Message of a scenario which ends before its entity lines.
+     */
+    private static final String MISSING_ENTITY_LINE = "Missing line of an entity";
+    /**
+     * Message of an entity line with fewer tokens than the entity has.
+     */
+    private static final String MISSING_TOKEN = "Missing token of an entity";
+    /**
+     * All colors by ordinal.
+     */
+    private static final InsectColor[] COLORS = InsectColor.values();
+    /**
+     * All types by ordinal.
+     */
+    private static final InsectType[] TYPES = InsectType.values();
+    /**
+     * Names of colors as in input file by ordinal.
+     */
+    private static final byte[][] COLOR_NAMES = new byte[COLORS.length][];
+    /**
+     * Names of types as in input file by ordinal.
+     */
+    private static final byte[][] TYPE_NAMES = new byte[TYPES.length][];
+
+    static {
+        for (InsectColor color : COLORS) {
+            COLOR_NAMES[color.ordinal()] = InsectColor.toStr(color).getBytes(StandardCharsets.US_ASCII);
+        }
+        for (InsectType type : TYPES) {
+            TYPE_NAMES[type.ordinal()] = type.getTextRepresentation().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * Channel to refill the buffer from, null if the buffer holds whole input.
+     */
+    private final ReadableByteChannel channel;
+    /**
+     * File mapped window by window, null if input is not mapped in windows.
+     */
+    private final FileChannel file;
+    /**
+     * Number of bytes of a window of the file.
+     */
+    private final int window;
+    /**
+     * Offset in the file of the end of the current window.
+     */
+    private long windowEnd;
+    /**
+     * Buffer with input, unread bytes are between position and limit.
+     */
+    private ByteBuffer buffer;
+    /**
+     * Shows whether there are no more bytes besides the buffer.
+     */
+    private boolean exhausted;
+    /**
+     * Start of bytes which must stay in the buffer when it is refilled, -1 if there are none.
+     */
+    private int mark = -1;
+    /**
+     * Start of the current line in the buffer.
+     */
+    private int lineStart;
+    /**
+     * End of the current line in the buffer, exclusive, without line separator.
+     */
+    private int lineEnd;
+    /**
+     * Starts of first tokens of the current line.
+     */
+    private final int[] tokenStart = new int[TOKENS];
+    /**
+     * Ends of first tokens of the current line, exclusive.
+     */
+    private final int[] tokenEnd = new int[TOKENS];
+    /**
+     * Number of tokens of the current line.
+     */
+    private int tokens;
+    /**
+     * Number of entity lines of the current scenario which are not read yet.
+     */
+    private int remaining;
+    /**
+     * Size of the board of the current scenario.
+     */
+    private int boardSize;
+    /**
+     * Number of insects of the current scenario.
+     */
+    private int numberOfInsects;
+    /**
+     * Number of food points of the current scenario.
+     */
+    private int numberOfFoodPoints;
+    /**
+     * Exception of parsing size of the board, null if it is a number.
+     */
+    private NumberFormatException sizeProblem;
+    /**
+     * Message of the problem if counts of entities can not be read, null otherwise.
+     */
+    private String problem;
+
+    /**
+     * Constructor for parser which reads the channel.
+     * @param channel source of input.
+     */
+    ScenarioParser(ReadableByteChannel channel) {
+        this.channel = channel;
+        this.file = null;
+        this.window = 0;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.flip();
+    }
+
+    /**
+     * Constructor for parser of input which is already in the buffer.
+     * @param input bytes of input between position and limit.
+     */
+    ScenarioParser(ByteBuffer input) {
+        this.channel = null;
+        this.file = null;
+        this.window = 0;
+        this.buffer = input;
+        this.exhausted = true;
+    }
+
+    /**
+     * Constructor for parser which maps the file in windows, starting with the first one.
+     * @param file the file, closed with the parser.
+     * @param window number of bytes of a window, not more than MAX_WINDOW.
+     * @throws IOException If file can not be mapped.
+     */
+    ScenarioParser(FileChannel file, int window) throws IOException {
+        this.channel = null;
+        this.file = file;
+        this.window = window;
+        map(0);
+    }
+
+    /**
+     * Function that creates parser of the file. Files that fit in one mapping are mapped
+     * into memory and the file is closed at once, bigger files are mapped in windows.
+     * @param path path to the file.
+     * @return Parser of the file.
+     * @throws IOException If file can not be opened or mapped.
+     */
+    static ScenarioParser open(Path path) throws IOException {
+        FileChannel file = FileChannel.open(path);
+        long size = file.size();
+        if (size > MAX_WINDOW) {
+            return new ScenarioParser(file, MAX_WINDOW);
+        }
+        try (FileChannel mapped = file) {
+            return new ScenarioParser(mapped.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Function that closes the channel or the file of the parser if there is one.
+     * @throws IOException If channel can not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * Function that moves to the next line.
+     * @return False if there are no more lines.
+     * @throws IOException If channel can not be read.
+     */
+    private boolean nextLine() throws IOException {
+        int scan = buffer.position();
+        while (true) {
+            int limit = buffer.limit();
+            for (int i = scan; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    setLine(buffer.position(), i);
+                    buffer.position(i + 1);
+                    return true;
+                }
+            }
+            if (exhausted) {
+                if (buffer.position() == limit) {
+                    return false;
+                }
+                setLine(buffer.position(), limit);
+                buffer.position(limit);
+                return true;
+            }
+            scan = fill();
+        }
+    }
+
+    /**
+     * Function that remembers bounds of the current line without carriage return.
+     * @param start start of the line.
+     * @param end end of the line, exclusive.
+     */
+    private void setLine(int start, int end) {
+        lineStart = start;
+        lineEnd = end > start && buffer.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Function that moves unread and marked bytes to the start of the buffer and reads more bytes after them.
+     * Grows the buffer if they fill it. Files mapped in windows move to the window which starts with these bytes.
+     * @return Position from which the search of line end should continue.
+     * @throws IOException If channel can not be read or the bytes fill the whole window.
+     */
+    private int fill() throws IOException {
+        int keep = mark < 0 ? buffer.position() : mark;
+        int position = buffer.position() - keep;
+        int scanned = buffer.limit() - keep;
+        if (file != null) {
+            if (keep == 0) {
+                throw new IOException("Line does not fit in a window of " + window + " bytes");
+            }
+            map(windowEnd - buffer.limit() + keep);
+            buffer.position(position);
+            if (mark >= 0) {
+                mark = 0;
+            }
+            return scanned;
+        }
+        buffer.position(keep);
+        if (keep == 0 && buffer.limit() == buffer.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+            bigger.put(buffer);
+            buffer = bigger;
+        } else {
+            buffer.compact();
+        }
+        if (channel.read(buffer) < 0) {
+            exhausted = true;
+        }
+        buffer.flip();
+        buffer.position(position);
+        if (mark >= 0) {
+            mark = 0;
+        }
+        return scanned;
+    }
+
+    /**
+     * Function that maps the window of the file which starts at the offset.
+     * @param start offset of the window in the file.
+     * @throws IOException If file can not be mapped.
+     */
+    private void map(long start) throws IOException {
+        long size = file.size();
+        long length = Math.min(window, size - start);
+        buffer = file.map(FileChannel.MapMode.READ_ONLY, start, length);
+        windowEnd = start + length;
+        exhausted = windowEnd == size;
+    }
+
+    /**
+     * Shows whether the current line has only whitespace.
+     * @return True if line is blank.
+     */
+    private boolean isBlank() {
+        for (int i = lineStart; i < lineEnd; i++) {
+            if (buffer.get(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function that parses integer in place.
+     * Numbers that may overflow or are malformed are given to Integer#parseInt,
+     * so results and exceptions are the same.
+     * @param start start of the number.
+     * @param end end of the number, exclusive.
+     * @return Parsed number.
+     */
+    private int parseInt(int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            i++;
+        }
+        if (i == end || end - i > SAFE_DIGITS) {
+            return Integer.parseInt(text(start, end));
+        }
+        int value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(text(start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Function used to get text of the part of the buffer. Used only for messages.
+     * @param start start of the text.
+     * @param end end of the text, exclusive.
+     * @return Decoded text.
+     */
+    private String text(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Function used to compare token with a name.
+     * @param token index of the token.
+     * @param name bytes of the name.
+     * @return True if they are equal.
+     */
+    private boolean tokenEquals(int token, byte[] name) {
+        int start = tokenStart[token];
+        if (tokenEnd[token] - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buffer.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function that splits the current line by single spaces.
+     * Trailing empty tokens are dropped as String#split does.
+     */
+    private void tokenize() {
+        int count = 0;
+        int nonEmpty = 0;
+        int start = lineStart;
+        for (int i = lineStart; i <= lineEnd; i++) {
+            if (i == lineEnd || buffer.get(i) == ' ') {
+                if (count < TOKENS) {
+                    tokenStart[count] = start;
+                    tokenEnd[count] = i;
+                }
+                count++;
+                if (i > start) {
+                    nonEmpty = count;
+                }
+                start = i + 1;
+            }
+        }
+        tokens = lineStart == lineEnd ? 1 : nonEmpty;
+    }
+
+    /**
+     * Function that checks that the current line has the token.
+     * @param token index of the token.
+     * @throws IllegalArgumentException If the line has fewer tokens.
+     */
+    private void requireToken(int token) {
+        if (token >= tokens) {
+            throw new IllegalArgumentException(MISSING_TOKEN);
+        }
+    }
+
+    /**
+     * Function that reads the next line as one integer, as header lines are.
+     * @return Parsed number.
+     * @throws IOException If channel can not be read.
+     * @throws NumberFormatException If there is no such line or it is not a number.
+     */
+    int lineInt() throws IOException {
+        if (!nextLine()) {
+            throw new NumberFormatException(MISSING_HEADER_LINE);
+        }
+        return parseInt(lineStart, lineEnd);
+    }
+
+    /**
+     * Function that moves to the next scenario, skipping blank lines before it, and reads its header.
+     * Problems of the header are kept until they are asked for, so checks keep their order.
+     * @return False if there are no more scenarios.
+     * @throws IOException If channel can not be read.
+     */
+    boolean nextScenario() throws IOException {
+        do {
+            if (!nextLine()) {
+                return false;
+            }
+        } while (isBlank());
+        sizeProblem = null;
+        problem = null;
+        remaining = 0;
+        try {
+            boardSize = parseInt(lineStart, lineEnd);
+        } catch (NumberFormatException e) {
+            sizeProblem = e;
+        }
+        try {
+            numberOfInsects = lineInt();
+            numberOfFoodPoints = lineInt();
+            remaining = Math.max(0, numberOfInsects) + Math.max(0, numberOfFoodPoints);
+        } catch (NumberFormatException e) {
+            problem = e.getMessage();
+        }
+        return true;
+    }
+
+    /**
+     * Function that moves over the next scenario and returns its bytes, so it can be parsed elsewhere.
+     * Bytes of the whole input in memory are shared, bytes read from a channel are copied,
+     * because the buffer is reused.
+     * Header of the scenario is still available from this parser.
+     * @return Bytes of the scenario, possibly with blank lines before it, or null if there are no more scenarios.
+     * @throws IOException If channel can not be read.
+     */
+    ByteBuffer nextScenarioBytes() throws IOException {
+        mark = buffer.position();
+        try {
+            if (!nextScenario()) {
+                return null;
+            }
+            skipScenario();
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.limit(buffer.position());
+            bytes.position(mark);
+            if (channel == null) {
+                return bytes.slice();
+            }
+            ByteBuffer copy = ByteBuffer.allocate(bytes.remaining());
+            copy.put(bytes);
+            copy.flip();
+            return copy;
+        } finally {
+            mark = -1;
+        }
+    }
+
+    /**
+     * Function that skips entity lines of the current scenario which were not read.
+     * @throws IOException If channel can not be read.
+     */
+    void skipScenario() throws IOException {
+        while (remaining > 0 && nextLine()) {
+            remaining--;
+        }
+    }
+
+    /**
+     * Function that moves to the next entity line and splits it into tokens.
+     * @throws IOException If there is no such line or channel can not be read.
+     */
+    void nextEntityLine() throws IOException {
+        if (!nextLine()) {
+            throw new EOFException(MISSING_ENTITY_LINE);
+        }
+        if (remaining > 0) {
+            remaining--;
+        }
+        tokenize();
+    }
+
+    /**
+     * Function used to get token of the current line as integer.
+     * @param token index of the token.
+     * @return Parsed number.
+     */
+    int intToken(int token) {
+        requireToken(token);
+        return parseInt(tokenStart[token], tokenEnd[token]);
+    }
+
+    /**
+     * Function used to get token of the current line as color.
+     * @param token index of the token.
+     * @return Color or null if token is not a name of color.
+     */
+    InsectColor colorToken(int token) {
+        requireToken(token);
+        for (int i = 0; i < COLORS.length; i++) {
+            if (tokenEquals(token, COLOR_NAMES[i])) {
+                return COLORS[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function used to get token of the current line as insect type.
+     * @param token index of the token.
+     * @return Type or null if token is not a name of type.
+     */
+    InsectType typeToken(int token) {
+        requireToken(token);
+        for (int i = 0; i < TYPES.length; i++) {
+            if (tokenEquals(token, TYPE_NAMES[i])) {
+                return TYPES[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Shows whether counts of entities of the current scenario could not be read.
+     * @return True if scenario is broken.
+     */
+    boolean isBroken() {
+        return problem != null;
+    }
+
+    /**
+     * Getter for message of the problem of the header.
+     * @return Message or null.
+     */
+    String getProblem() {
+        return problem;
+    }
+
+    /**
+     * Getter for size of the board of the current scenario.
+     * @return Size as written in the header.
+     * @throws NumberFormatException If size is not a number.
+     */
+    int getBoardSize() {
+        if (sizeProblem != null) {
+            throw sizeProblem;
+        }
+        return boardSize;
+    }
+
+    /**
+     * Getter for number of insects of the current scenario.
+     * @return Number as written in the header.
+     */
+    int getNumberOfInsects() {
+        return numberOfInsects;
+    }
+
+    /**
+     * Getter for number of food points of the current scenario.
+     * @return Number as written in the header.
+     */
+    int getNumberOfFoodPoints() {
+        return numberOfFoodPoints;
+    }
+}
+
+/**
+ * Reader of scenarios in the binary format, made by BinaryScenarioWriter.
+ * File starts with magic bytes and version, then every scenario is a record:
+ * <ul>
+ * <li>kind 0, binary scenario: board size (zigzag varint), numbers of insects and food points (varints),
+ * byte of widths of coordinates and food values (1, 2 or 4 bytes), then columns: codes of insects,
+ * 4 bits each (color * 4 + type), two in a byte; x and y of insects; values, x and y of food points;</li>
+ * <li>kind 1, scenario kept as text: length (varint) and bytes of the scenario in the format of <b>input file</b>.</li>
+ * </ul>
+ * Scenarios that can not be written without loss of their mistakes (malformed lines, unknown names,
+ * broken counts) are kept as text, so every scenario gives the same block in both formats.
+ * Columns are read in place from the buffer, nothing is copied or allocated per scenario.
+ * Files bigger than one mapping are mapped in windows, and the next window starts at the record
+ * which does not end in the previous one.
+ * @see BinaryScenarioWriter
+ * @see Simulation#evaluate(BinaryScenarioReader, Writer)
+ */
+class BinaryScenarioReader implements Closeable {
+    /**
+     * Bytes which start every binary file.
+     */
+    static final byte[] MAGIC = {'I', 'N', 'S', 'B'};
+    /**
+     * Version of the format written by this program.
+     */
+    static final int VERSION = 1;
+    /**
+     * Kind of record with binary scenario.
+     */
+    static final int BINARY = 0;
+    /**
+     * Kind of record with scenario kept as text.
+     */
+    static final int TEXT = 1;
+    /**
+     * Number of bits of one code of insect.
+     */
+    static final int CODE_BITS = 4;
+    /**
+     * Number of insect types, codes are color * TYPES + type.
+     */
+    static final int TYPES = 4;
+    /**
+     * Mask of width of coordinates in the byte of widths.
+     */
+    static final int WIDTH_MASK = 0x0F;
+    /**
+     * Shift of width of food values in the byte of widths.
+     */
+    static final int VALUE_SHIFT = 4;
+    /**
+     * Number of payload bits of one byte of varint.
+     */
+    private static final int VARINT_BITS = 7;
+    /**
+     * Bit of varint byte which shows that more bytes follow.
+     */
+    private static final int MORE = 0x80;
+    /**
+     * Mask of one byte.
+     */
+    private static final int BYTE = 0xFF;
+    /**
+     * Mask of two bytes.
+     */
+    private static final int SHORT = 0xFFFF;
+    /**
+     * Biggest number of bytes mapped at once.
+     */
+    private static final int MAX_WINDOW = Integer.MAX_VALUE;
+    /**
+     * All colors by ordinal.
+     */
+    private static final InsectColor[] COLORS = InsectColor.values();
+    /**
+     * All types by ordinal.
+     */
+    private static final InsectType[] TYPE_VALUES = InsectType.values();
+
+    /**
+     * Buffer with the binary file or its current window, position is at the next record.
+     */
+    private ByteBuffer buffer;
+    /**
+     * File mapped window by window, null if the buffer holds the whole file.
+     */
+    private final FileChannel file;
+    /**
+     * Number of bytes of a window of the file.
+     */
+    private final int window;
+    /**
+     * Offset in the file of the start of the current window.
+     */
+    private long windowStart;
+    /**
+     * Bytes of the current scenario kept as text, null for binary scenarios.
+     */
+    private ByteBuffer text;
+    /**
+     * Size of the board of the current scenario.
+     */
+    private int boardSize;
+    /**
+     * Number of insects of the current scenario.
+     */
+    private int numberOfInsects;
+    /**
+     * Number of food points of the current scenario.
+     */
+    private int numberOfFoodPoints;
+    /**
+     * Width of coordinates of the current scenario in bytes.
+     */
+    private int coordinateWidth;
+    /**
+     * Width of food values of the current scenario in bytes.
+     */
+    private int valueWidth;
+    /**
+     * Start of codes of insects.
+     */
+    private int codes;
+    /**
+     * Start of x coordinates of insects.
+     */
+    private int insectXs;
+    /**
+     * Start of y coordinates of insects.
+     */
+    private int insectYs;
+    /**
+     * Start of food values.
+     */
+    private int foodValues;
+    /**
+     * Start of x coordinates of food points.
+     */
+    private int foodXs;
+    /**
+     * Start of y coordinates of food points.
+     */
+    private int foodYs;
+
+    /**
+     * Constructor for reader of the binary file.
+     * @param input bytes of the file between position and limit.
+     * @throws IOException If file does not start with magic bytes or its version is not supported.
+     */
+    BinaryScenarioReader(ByteBuffer input) throws IOException {
+        this(input, null, 0);
+    }
+
+    /**
+     * Constructor for reader which maps the binary file in windows, starting with the first one.
+     * @param file the file, closed with the reader.
+     * @param window number of bytes of a window, not more than MAX_WINDOW.
+     * @throws IOException If file can not be mapped, does not start with magic bytes
+     * or its version is not supported.
+     */
+    BinaryScenarioReader(FileChannel file, int window) throws IOException {
+        this(file.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(window, file.size())), file, window);
+    }
+
+    /**
+     * Constructor for reader of the binary file or of its first window.
+     * @param input bytes of the file between position and limit.
+     * @param file the file mapped in windows or null.
+     * @param window number of bytes of a window.
+     * @throws IOException If file does not start with magic bytes or its version is not supported.
+     */
+    private BinaryScenarioReader(ByteBuffer input, FileChannel file, int window) throws IOException {
+        if (!isBinary(input)) {
+            throw new IOException("Input is not in binary format");
+        }
+        this.buffer = input.slice();
+        this.file = file;
+        this.window = window;
+        buffer.position(MAGIC.length);
+        int version = buffer.get() & BYTE;
+        if (version != VERSION) {
+            throw new IOException("Unsupported version of binary format " + version);
+        }
+    }
+
+    /**
+     * Shows whether the bytes start with magic bytes of the binary format.
+     * @param input bytes between position and limit, they are not consumed.
+     * @return True for binary format.
+     */
+    static boolean isBinary(ByteBuffer input) {
+        if (input.remaining() <= MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (input.get(input.position() + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Function that creates reader of the file. Files that fit in one mapping are mapped
+     * into memory and the file is closed at once, bigger files are mapped in windows.
+     * @param path path to the file.
+     * @return Reader of the file.
+     * @throws IOException If file can not be mapped or is not in binary format.
+     */
+    static BinaryScenarioReader open(Path path) throws IOException {
+        FileChannel file = FileChannel.open(path);
+        try {
+            if (file.size() > MAX_WINDOW) {
+                return new BinaryScenarioReader(file, MAX_WINDOW);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        try (FileChannel mapped = file) {
+            return new BinaryScenarioReader(mapped.map(FileChannel.MapMode.READ_ONLY, 0, mapped.size()));
+        }
+    }
+
+    /**
+     * Function that closes the file of the reader if it is mapped in windows.
+     * @throws IOException If file can not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+
+    /**
+     * Shows whether the file has bytes after the current window.
+     * @return True if there is the next window.
+     * @throws IOException If size of the file can not be read.
+     */
+    private boolean hasNextWindow() throws IOException {
+        return file != null && windowStart + buffer.limit() < file.size();
+    }
+
+    /**
+     * Function that reads unsigned varint.
+     * @return Value.
+     * @throws IOException If varint is longer than int.
+     */
+    private int varint() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += VARINT_BITS) {
+            int b = buffer.get() & BYTE;
+            value |= (b & ~MORE) << shift;
+            if ((b & MORE) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Function that moves to the next record. A record which does not end in the current window
+     * is read again from the window which starts with it.
+     * @return False if there are no more scenarios.
+     * @throws IOException If record is malformed or truncated, widths of its columns are unknown
+     * or it does not fit in a window.
+     */
+    boolean next() throws IOException {
+        while (true) {
+            if (!buffer.hasRemaining() && !hasNextWindow()) {
+                return false;
+            }
+            int start = buffer.position();
+            try {
+                record();
+                return true;
+            } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+                if (!hasNextWindow()) {
+                    throw new IOException("Truncated binary scenario", e);
+                }
+                if (start == 0) {
+                    throw new IOException("Binary scenario does not fit in a window of " + window + " bytes", e);
+                }
+                long offset = windowStart + start;
+                buffer = file.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(window, file.size() - offset));
+                windowStart = offset;
+            }
+        }
+    }
+
+    /**
+     * Function that reads the record at the position of the buffer.
+     * @throws IOException If record is malformed or widths of its columns are unknown.
+     */
+    private void record() throws IOException {
+        int kind = buffer.get();
+        if (kind == TEXT) {
+            int length = varint();
+            text = buffer.slice(buffer.position(), length);
+            buffer.position(buffer.position() + length);
+            return;
+        }
+        if (kind != BINARY) {
+            throw new IOException("Unknown kind of record " + kind);
+        }
+        text = null;
+        int size = varint();
+        boardSize = (size >>> 1) ^ -(size & 1);
+        numberOfInsects = varint();
+        numberOfFoodPoints = varint();
+        int widths = buffer.get() & BYTE;
+        coordinateWidth = widths & WIDTH_MASK;
+        valueWidth = widths >>> VALUE_SHIFT & WIDTH_MASK;
+        if (!isWidth(coordinateWidth) || !isWidth(valueWidth)) {
+            throw new IOException("Unknown widths of binary scenario 0x" + Integer.toHexString(widths));
+        }
+        codes = buffer.position();
+        insectXs = codes + (numberOfInsects + 1) / 2;
+        insectYs = insectXs + numberOfInsects * coordinateWidth;
+        foodValues = insectYs + numberOfInsects * coordinateWidth;
+        foodXs = foodValues + numberOfFoodPoints * valueWidth;
+        foodYs = foodXs + numberOfFoodPoints * coordinateWidth;
+        buffer.position(foodYs + numberOfFoodPoints * coordinateWidth);
+    }
+
+    /**
+     * Shows whether numbers of columns can have such width.
+     * @param width width in bytes.
+     * @return True for 1, 2 or 4 bytes.
+     */
+    private static boolean isWidth(int width) {
+        return width == Byte.BYTES || width == Short.BYTES || width == Integer.BYTES;
+    }
+
+    /**
+     * Function used to read number of the column.
+     * @param start start of the column.
+     * @param width width of numbers in bytes.
+     * @param i index of the number.
+     * @return Number.
+     */
+    private int read(int start, int width, int i) {
+        switch (width) {
+            case 1:
+                return buffer.get(start + i) & BYTE;
+            case 2:
+                return buffer.getShort(start + 2 * i) & SHORT;
+            default:
+                return buffer.getInt(start + Integer.BYTES * i);
+        }
+    }
+
+    /**
+     * Shows whether the current scenario is kept as text.
+     * @return True for text scenario.
+     */
+    boolean isText() {
+        return text != null;
+    }
+
+    /**
+     * Getter for bytes of the current scenario kept as text.
+     * @return Bytes in the format of <b>input file</b>, shared with the file.
+     */
+    ByteBuffer text() {
+        return text.duplicate();
+    }
+
+    /**
+     * Getter for size of the board of the current scenario.
+     * @return Size as written in the header.
+     */
+    int getBoardSize() {
+        return boardSize;
+    }
+
+    /**
+     * Getter for number of insects of the current scenario.
+     * @return Number of insects.
+     */
+    int getNumberOfInsects() {
+        return numberOfInsects;
+    }
+
+    /**
+     * Getter for number of food points of the current scenario.
+     * @return Number of food points.
+     */
+    int getNumberOfFoodPoints() {
+        return numberOfFoodPoints;
+    }
+
+    /**
+     * Function used to get code of the insect.
+     * @param i index of the insect.
+     * @return Code color * TYPES + type.
+     */
+    private int code(int i) {
+        return buffer.get(codes + i / 2) >>> (i & 1) * CODE_BITS & WIDTH_MASK;
+    }
+
+    /**
+     * Function used to get color of the insect.
+     * @param i index of the insect.
+     * @return Color.
+     */
+    InsectColor insectColor(int i) {
+        return COLORS[code(i) / TYPES];
+    }
+
+    /**
+     * Function used to get type of the insect.
+     * @param i index of the insect.
+     * @return Type.
+     */
+    InsectType insectType(int i) {
+        return TYPE_VALUES[code(i) % TYPES];
+    }
+
+    /**
+     * Function used to get x coordinate of the insect.
+     * @param i index of the insect.
+     * @return x coordinate.
+     */
+    int insectX(int i) {
+        return read(insectXs, coordinateWidth, i);
+    }
+
+    /**
+     * Function used to get y coordinate of the insect.
+     * @param i index of the insect.
+     * @return y coordinate.
+     */
+    int insectY(int i) {
+        return read(insectYs, coordinateWidth, i);
+    }
+
+    /**
+     * Function used to get value of the food point.
+     * @param i index of the food point.
+     * @return Value.
+     */
+    int foodValue(int i) {
+        return read(foodValues, valueWidth, i);
+    }
+
+    /**
+     * Function used to get x coordinate of the food point.
+     * @param i index of the food point.
+     * @return x coordinate.
+     */
+    int foodX(int i) {
+        return read(foodXs, coordinateWidth, i);
+    }
+
+    /**
+     * Function used to get y coordinate of the food point.
+     * @param i index of the food point.
+     * @return y coordinate.
+     */
+    int foodY(int i) {
+        return read(foodYs, coordinateWidth, i);
+    }
+}
+
+/**
+ * Converter of scenarios between the format of <b>input file</b> and the binary format.
+ * Every scenario of text is checked by the text parser first: if all its lines are well-formed,
+ * with known colors and types, it is written in columns, otherwise its bytes are kept as text.
+ * Widths of columns are the least of 1, 2 or 4 bytes which hold all their numbers.
+ * @see BinaryScenarioReader
+ */
+class BinaryScenarioWriter {
+    /**
+     * Largest number of one byte column.
+     */
+    private static final int MAX_BYTE = 0xFF;
+    /**
+     * Largest number of two bytes column.
+     */
+    private static final int MAX_SHORT = 0xFFFF;
+    /**
+     * Number of payload bits of one byte of varint.
+     */
+    private static final int VARINT_BITS = 7;
+    /**
+     * Bit of varint byte which shows that more bytes follow.
+     */
+    private static final int MORE = 0x80;
+    /**
+     * Number of entity tokens which are read from a line of insect.
+     */
+    private static final int INSECT_TOKENS = 4;
+
+    /**
+     * Stream of the binary file.
+     */
+    private final DataOutputStream out;
+    /**
+     * Columns of the current scenario: x, y of insects, then values, x, y of food points.
+     */
+    private int[] columns = new int[0];
+
+    /**
+     * Constructor for writer which starts the binary file.
+     * @param channel channel of the binary file.
+     * @throws IOException If header can not be written.
+     */
+    BinaryScenarioWriter(WritableByteChannel channel) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+        out.write(BinaryScenarioReader.MAGIC);
+        out.writeByte(BinaryScenarioReader.VERSION);
+    }
+
+    /**
+     * Function that converts all scenarios of text, stops after a scenario with broken counts
+     * as evaluation of text does.
+     * @param in parser of scenarios.
+     * @throws IOException If scenarios can not be read or written.
+     */
+    void encode(ScenarioParser in) throws IOException {
+        ByteBuffer scenario;
+        while ((scenario = in.nextScenarioBytes()) != null) {
+            write(scenario);
+            if (in.isBroken()) {
+                break;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Function that writes one scenario in columns if it is well-formed, or as text otherwise.
+     * @param scenario bytes of the scenario in the format of <b>input file</b>.
+     * @throws IOException If scenario can not be written.
+     */
+    void write(ByteBuffer scenario) throws IOException {
+        ScenarioParser in = new ScenarioParser(scenario.duplicate());
+        byte[] codes;
+        try {
+            codes = parse(in);
+        } catch (IOException | RuntimeException e) {
+            codes = null;
+        }
+        if (codes == null) {
+            out.writeByte(BinaryScenarioReader.TEXT);
+            writeVarint(scenario.remaining());
+            byte[] bytes = new byte[scenario.remaining()];
+            scenario.duplicate().get(bytes);
+            out.write(bytes);
+            return;
+        }
+        int insects = in.getNumberOfInsects();
+        int food = in.getNumberOfFoodPoints();
+        int coordinates = Math.max(width(0, 2 * insects), width(2 * insects + food, 2 * insects + 3 * food));
+        int values = width(2 * insects, 2 * insects + food);
+        out.writeByte(BinaryScenarioReader.BINARY);
+        int size = in.getBoardSize();
+        writeVarint(size << 1 ^ size >> (Integer.SIZE - 1));
+        writeVarint(insects);
+        writeVarint(food);
+        out.writeByte(values << BinaryScenarioReader.VALUE_SHIFT | coordinates);
+        out.write(codes);
+        writeColumn(0, insects, coordinates);
+        writeColumn(insects, 2 * insects, coordinates);
+        writeColumn(2 * insects, 2 * insects + food, values);
+        writeColumn(2 * insects + food, 2 * insects + 2 * food, coordinates);
+        writeColumn(2 * insects + 2 * food, 2 * insects + 3 * food, coordinates);
+    }
+
+    /**
+     * Function that reads the scenario into columns if it can be written in binary format.
+     * Lines are read as evaluation reads them, so malformed lines throw the same exceptions.
+     * @param in parser of the scenario.
+     * @return Codes of insects, two in a byte, or null if scenario must be kept as text.
+     * @throws IOException If lines can not be read.
+     */
+    private byte[] parse(ScenarioParser in) throws IOException {
+        if (!in.nextScenario() || in.isBroken()) {
+            return null;
+        }
+        in.getBoardSize();
+        int insects = in.getNumberOfInsects();
+        int food = in.getNumberOfFoodPoints();
+        if (insects < 0 || food < 0) {
+            return null;
+        }
+        if (columns.length < 2 * insects + 3 * food) {
+            columns = new int[2 * insects + 3 * food];
+        }
+        byte[] codes = new byte[(insects + 1) / 2];
+        for (int i = 0; i < insects; i++) {
+            in.nextEntityLine();
+            columns[i] = in.intToken(2);
+            columns[insects + i] = in.intToken(INSECT_TOKENS - 1);
+            InsectType type = in.typeToken(1);
+            InsectColor color = in.colorToken(0);
+            if (type == null || color == null) {
+                return null;
+            }
+            int code = color.ordinal() * BinaryScenarioReader.TYPES + type.ordinal();
+            codes[i / 2] |= code << (i & 1) * BinaryScenarioReader.CODE_BITS;
+        }
+        for (int i = 0; i < food; i++) {
+            in.nextEntityLine();
+            columns[2 * insects + i] = in.intToken(0);
+            columns[2 * insects + food + i] = in.intToken(1);
+            columns[2 * insects + 2 * food + i] = in.intToken(2);
+        }
+        return codes;
+    }
+
+    /**
+     * Function used to get the least width which holds numbers of the columns.
+     * @param from first index of numbers.
+     * @param to last index of numbers, exclusive.
+     * @return 1, 2 or 4 bytes.
+     */
+    private int width(int from, int to) {
+        int max = 0;
+        for (int i = from; i < to; i++) {
+            if (columns[i] < 0) {
+                return Integer.BYTES;
+            }
+            max = Math.max(max, columns[i]);
+        }
+        return max <= MAX_BYTE ? 1 : max <= MAX_SHORT ? 2 : Integer.BYTES;
+    }
+
+    /**
+     * Function that writes numbers of the column with the width.
+     * @param from first index of numbers.
+     * @param to last index of numbers, exclusive.
+     * @param width 1, 2 or 4 bytes.
+     * @throws IOException If column can not be written.
+     */
+    private void writeColumn(int from, int to, int width) throws IOException {
+        for (int i = from; i < to; i++) {
+            if (width == 1) {
+                out.writeByte(columns[i]);
+            } else if (width == 2) {
+                out.writeShort(columns[i]);
+            } else {
+                out.writeInt(columns[i]);
+            }
+        }
+    }
+
+    /**
+     * Function that writes unsigned varint.
+     * @param value value, treated as unsigned.
+     * @throws IOException If value can not be written.
+     */
+    private void writeVarint(int value) throws IOException {
+        int rest = value;
+        while ((rest & ~(MORE - 1)) != 0) {
+            out.writeByte(rest & (MORE - 1) | MORE);
+            rest >>>= VARINT_BITS;
+        }
+        out.writeByte(rest);
+    }
+
+    /**
+     * Function that flushes the binary file.
+     * @throws IOException If file can not be written.
+     */
+    void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Function that writes all scenarios of the binary file as text, scenarios kept as text are copied
+     * as they are, ended by a line break: a scenario cut short by the end of input must not get empty lines.
+     * Other scenarios are followed by an empty line.
+     * @param in reader of the binary file.
+     * @param out writer for the text.
+     * @throws IOException If file is malformed or text can not be written.
+     */
+    static void decode(BinaryScenarioReader in, AsciiWriter out) throws IOException {
+        while (in.next()) {
+            if (in.isText()) {
+                ByteBuffer text = in.text();
+                boolean ended = text.hasRemaining() && text.get(text.limit() - 1) == '\n';
+                out.writeBytes(text);
+                if (!ended) {
+                    out.write('\n');
+                }
+                continue;
+            }
+            AsciiWriter.writeInt(out, in.getBoardSize());
+            out.write('\n');
+            AsciiWriter.writeInt(out, in.getNumberOfInsects());
+            out.write('\n');
+            AsciiWriter.writeInt(out, in.getNumberOfFoodPoints());
+            out.write('\n');
+            for (int i = 0; i < in.getNumberOfInsects(); i++) {
+                out.write(InsectColor.toStr(in.insectColor(i)));
+                out.write(' ');
+                out.write(in.insectType(i).getTextRepresentation());
+                out.write(' ');
+                AsciiWriter.writeInt(out, in.insectX(i));
+                out.write(' ');
+                AsciiWriter.writeInt(out, in.insectY(i));
+                out.write('\n');
+            }
+            for (int i = 0; i < in.getNumberOfFoodPoints(); i++) {
+                AsciiWriter.writeInt(out, in.foodValue(i));
+                out.write(' ');
+                AsciiWriter.writeInt(out, in.foodX(i));
+                out.write(' ');
+                AsciiWriter.writeInt(out, in.foodY(i));
+                out.write('\n');
+            }
+            out.write('\n');
+        }
+    }
+}
+
+/**
+ * Exception to two entities in the same position.
+ * Prints <b>"Two entities in the same position"</b>.
+ * Extends java.lang.Exception
+ */
+class TwoEntitiesOnSamePositionException extends java.lang.Exception {
+    @Override
+    public String getMessage() {
+        return "Two entities in the same position";
+    }
+}
+
+/**
+ * Exception to invalid number of insects.
+ * Prints <b>"Invalid number of insects"</b>.
+ * Extends java.lang.Exception
+ */
+class InvalidNumberOfInsectsException extends java.lang.Exception {
+    @Override
+    public String getMessage() {
+        return "Invalid number of insects";
+    }
+}
+
+/**
+ * Exception to invalid number of food points.
+ * Prints <b>"Invalid number of food points"</b>.
+ * Extends java.lang.Exception
+ */
+class InvalidNumberOfFoodPointsException extends java.lang.Exception {
+    @Override
+    public String getMessage() {
+        return "Invalid number of food points";
+    }
+}
+
+/**
+ * Exception to invalid insect type.
+ * Prints <b>"Invalid insect type"</b>.
+ * Extends java.lang.Exception
+ */
+class InvalidInsectTypeException extends java.lang.Exception {
+    @Override
+    public String getMessage() {
+        return "Invalid insect type";
+    }
+}
+
+/**
+ * Exception to invalid insect color.
+ * Prints <b>"Invalid insect color"</b>.
+ * Extends java.lang.Exception
+ */
+class InvalidInsectColorException extends java.lang.Exception {
+    @Override
+    public String getMessage() {
+        return "Invalid insect color";
+    }
+}
+
+/**
+ * Exception to invalid entity position.
+ * Prints <b>"Invalid entity position"</b>.
+ * Extends java.lang.Exception
+ */
+class InvalidEntityPositionException extends java.lang.Exception {
+    @Override
+    public String getMessage() {
+        return "Invalid entity position";
+    }
+}
+
+/**
+ * Exception to invalid board size.
+ * Prints <b>"Invalid board size"</b>.
+ * Extends java.lang.Exception
+ */
+class InvalidBoardSizeException extends java.lang.Exception {
+    @Override
+    public String getMessage() {
+        return "Invalid board size";
+    }
+}
+
+/**
+ * Exception to duplicate of the insect on the board.
+ * Prints <b>"Duplicate insects"</b>.
+ * Extends java.lang.Exception
+ */
+class DuplicateInsectException extends java.lang.Exception {
+    @Override
+    public String getMessage() {
+        return "Duplicate insects";
+    }
+}
+
+/**
+ * Class of insects of "Ant" type.
+ * Moves in all orthogonal and diagonal directions.
+ * Extends Insect
+ * @see Ant#Ant(EntityPosition, InsectColor)
+ * @see InsectType#ANT
+ */
+class Ant extends Insect {
+
+    /**
+     * Constructor for object of Ant class.
+     * @param position position on the board.
+     * @param color color of the ant.
+     */
+    Ant(EntityPosition position, InsectColor color) {
+        super(position, color);
+    }
+
+    /**
+     * Constructor for view of the ant kept in the store.
+     * @param store store of entities.
+     * @param index index of the insect in the store.
+     */
+    Ant(EntityStore store, int index) {
+        super(store, index);
+    }
+
+    /**
+     * Getter for type of the insect.
+     * @return Ant type.
+     */
+    @Override
+    public InsectType getType() {
+        return InsectType.ANT;
+    }
+}
+
+/**
+ * Class used to declare boards. Contains boardData, and size.
+ * @see Board#Board(int, int)
+ * @see Board#addEntity(BoardEntity)
+ * @see Board#getDirection(Insect)
+ * @see Board#getDirectionSum(Insect)
+ */
+class Board {
+    /**
+     * Boards with at most this number of cells are always stored densely.
+     */
+    private static final int DENSE_CELL_LIMIT = 1 << 16;
+    /**
+     * Bigger boards are stored densely only if at least one of this many cells is occupied.
+     */
+    private static final int DENSE_FILL_RATIO = 64;
+    /**
+     * Boards with more cells are never stored densely, however filled they are.
+     */
+    private static final int MAX_DENSE_CELLS = 1 << 22;
+    /**
+     * Large boards are stored by tiles only if there are at least this many entities per tile.
+     */
+    private static final int TILE_FILL_RATIO = 4;
+    /**
+     * Storage that contains information about entities on the board.
+     */
+    private final IndexedBoardStorage boardData;
+    /**
+     * Size of the board (n x n).
+     */
+    private final int size;
+
+    /**
+     * Constructor for board when number of entities is not known yet.
+     * @param boardSize size of the board.
+     */
+    Board(int boardSize) {
+        this(boardSize, 0);
+    }
+
+    /**
+     * Constructor for board. Selects storage depending on size and expected number of entities
+     * and indexes food of its lines.
+     * @param boardSize size of the board.
+     * @param expectedEntities number of insects and food points which will be added.
+     */
+    Board(int boardSize, int expectedEntities) {
+        this.size = boardSize;
+        this.boardData = new IndexedBoardStorage(chooseStorage(boardSize, expectedEntities), boardSize);
+    }
+
+    /**
+     * Function that selects storage: dense grid for small or filled boards,
+     * tiles allocated on demand for large boards with several entities per tile,
+     * sparse map for large and almost empty ones.
+     * @param boardSize size of the board.
+     * @param expectedEntities number of insects and food points which will be added.
+     * @return Empty storage for the board.
+     */
+    static BoardStorage chooseStorage(int boardSize, int expectedEntities) {
+        if (prefersDense(boardSize, expectedEntities)) {
+            return new DenseBoardStorage(boardSize);
+        }
+        if (prefersTiles(boardSize, expectedEntities)) {
+            return new TiledBoardStorage(boardSize, expectedEntities);
+        }
+        return new SparseBoardStorage(expectedEntities);
+    }
+
+    /**
+     * Shows whether the large board with such parameters is stored by tiles.
+     * A tile with few entities costs more than their slots of the sparse map.
+     * @param boardSize size of the board.
+     * @param expectedEntities number of insects and food points which will be added.
+     * @return True for tiled storage, false for sparse.
+     */
+    static boolean prefersTiles(int boardSize, int expectedEntities) {
+        long side = ((long) boardSize + TiledBoardStorage.TILE_MASK) >> TiledBoardStorage.TILE_BITS;
+        return expectedEntities >= side * side * TILE_FILL_RATIO;
+    }
+
+    /**
+     * Shows whether the board with such parameters is stored densely.
+     * @param boardSize size of the board.
+     * @param expectedEntities number of insects and food points which will be added.
+     * @return True for dense storage, false for tiled or sparse.
+     */
+    static boolean prefersDense(int boardSize, int expectedEntities) {
+        long cells = (long) boardSize * boardSize;
+        return cells <= DENSE_CELL_LIMIT
+                || cells <= MAX_DENSE_CELLS && cells <= (long) expectedEntities * DENSE_FILL_RATIO;
+    }
+
+    /**
+     * Function that removes all entities from the board, so it can be used for the next scenario.
+     */
+    public void clear() {
+        boardData.clear();
+    }
+
+    /**
+     * Function for adding some entity on the board, with the same checks as for the input file.
+     * @param entity insect or food point that needed to add on board.
+     * @throws InvalidEntityPositionException If the cell is not on the board.
+     * @throws TwoEntitiesOnSamePositionException If the cell is occupied.
+     */
+    public void addEntity(BoardEntity entity)
+            throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        Main.checkPosition(entity.getX(), entity.getY(), size);
+        Main.checkBoard(this, entity.getX(), entity.getY());
+        this.boardData.put(entity);
+    }
+
+    /**
+     * Function for adding food point on the board without creating its object,
+     * with the same checks as for the input file.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param value value of food point.
+     * @throws InvalidEntityPositionException If the cell is not on the board.
+     * @throws TwoEntitiesOnSamePositionException If the cell is occupied.
+     */
+    public void addFood(int x, int y, int value)
+            throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        Main.checkPosition(x, y, size);
+        Main.checkBoard(this, x, y);
+        this.boardData.putFood(x, y, value);
+    }
+
+    /**
+     * Function that removes entity from the board.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @throws InvalidEntityPositionException If the cell is not on the board.
+     * @throws IllegalArgumentException If there is no entity in the cell.
+     */
+    public void removeEntity(int x, int y) throws InvalidEntityPositionException {
+        Main.checkPosition(x, y, size);
+        if (!boardData.isOccupied(x, y)) {
+            throw new IllegalArgumentException("There is no entity in the cell");
+        }
+        this.boardData.remove(x, y);
+    }
+
+    /**
+     * Function that changes value of the food point on the board.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param value new value of food point.
+     * @throws IllegalArgumentException If there is no food point in the cell.
+     */
+    public void updateFood(int x, int y, int value) {
+        if (boardData.cellAt(x, y) != BoardStorage.FOOD) {
+            throw new IllegalArgumentException("There is no food point in the cell");
+        }
+        this.boardData.putFood(x, y, value);
+    }
+
+    /**
+     * Function that starts to keep Zobrist hashes of the board in all its rotations and reflections.
+     * Hashes follow every change of the board and are kept, set to the empty board, when it is cleared.
+     * @see BoardHash
+     */
+    public void trackHashes() {
+        boardData.trackHashes();
+    }
+
+    /**
+     * Getter for hashes of the board.
+     * @return Hashes or null if they are not tracked.
+     */
+    public BoardHash getHashes() {
+        return boardData.getHashes();
+    }
+
+    /**
+     * Function that starts to keep directions of insects on the board up to date.
+     * After it every change of the board (adding, removing and updating entities, travels and rollbacks)
+     * selects again directions only of insects which see the changed cell,
+     * so Board#getDirection(Insect) is answered from the index and
+     * Board#changedDirections() gives the new results in time proportional to the change.
+     * Watching stops when the board is cleared.
+     * @see VisibilityIndex
+     */
+    public void watchDirections() {
+        boardData.watch();
+    }
+
+    /**
+     * Function used to get insects whose direction was selected again with a different result
+     * since the previous call, including added insects.
+     * @return Insects in order of changes, empty if directions are not watched.
+     */
+    public List<Insect> changedDirections() {
+        VisibilityIndex visibility = boardData.getVisibility();
+        return visibility == null ? new ArrayList<>() : visibility.changed();
+    }
+
+    /**
+     * Function that takes snapshot of the board in O(1). Changes made after it,
+     * including travels of insects, are journaled and can be rolled back,
+     * so alternative orders of insects or boards without some food can be evaluated
+     * without building the board again. Snapshots can be nested.
+     * @return Snapshot to roll back to or to release.
+     * @see Board#rollback(int)
+     * @see Board#release(int)
+     */
+    public int snapshot() {
+        return boardData.snapshot();
+    }
+
+    /**
+     * Function that returns the board to the state of the snapshot in time proportional
+     * to the number of changes after it. The snapshot and all later ones are closed.
+     * @param snapshot snapshot of this board.
+     */
+    public void rollback(int snapshot) {
+        boardData.rollback(snapshot);
+    }
+
+    /**
+     * Function that keeps changes made after the snapshot and closes it with all later ones.
+     * @param snapshot snapshot of this board.
+     */
+    public void release(int snapshot) {
+        boardData.release(snapshot);
+    }
+
+    /**
+     * Function used to get entity from the board by its position.
+     * Insects are the objects kept by the board, food point is created for the call;
+     * evaluation reads cells by BoardStorage#insectAt, BoardStorage#cellAt and BoardStorage#foodAt instead.
+     * @param position entity position on the board
+     * @return Board entity
+     */
+    public BoardEntity getEntity(EntityPosition position) {
+        int x = position.getX();
+        int y = position.getY();
+        if (boardData.cellAt(x, y) == BoardStorage.FOOD) {
+            return new FoodPoint(position, boardData.foodAt(x, y));
+        }
+        return boardData.insectAt(x, y);
+    }
+
+    /**
+     * Function used to get direction selected by insect (most valuable or primary).
+     * @param insect insect that is on the board.
+     * @return Selected direction.
+     */
+    public Direction getDirection(Insect insect) {
+        VisibilityIndex visibility = boardData.getVisibility();
+        if (visibility != null) {
+            Direction watched = visibility.direction(insect.getX(), insect.getY());
+            if (watched != null) {
+                return watched;
+            }
+        }
+        return insect.getBestDirection(boardData, size);
+    }
+
+    /**
+     * Function used to get the value of the path traveled by some insect.
+     * @param insect insect type entity which is on the board.
+     * @return Value of selected path.
+     */
+    public int getDirectionSum(Insect insect) {
+        return insect.travelDirection(getDirection(insect), boardData, size);
+    }
+
+    /**
+     * Getter for board size.
+     * @return Integer size.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Getter for board data.
+     * @return data of entities on the board.
+     */
+    public BoardStorage getBoardData() {
+        return boardData;
+    }
+}
+
+/**
+ * Zobrist hashes of a board in all its eight orientations (rotations and reflections).
+ * Every entity has a pseudo-random key made of its cell, kind and food value, and hash
+ * of an orientation is XOR of keys of entities with cells taken in that orientation,
+ * so adding or removing an entity changes each hash in O(1).
+ * Two hashes are kept, the second one is used to check equality of boards.
+ * Keys are computed by mixing instead of being stored in tables, so hashes of big boards take no memory.
+ * @see ResultCache
+ */
+class BoardHash {
+    /**
+     * Number of orientations of a square board.
+     */
+    static final int SYMMETRIES = 8;
+    /**
+     * Bit of symmetry which swaps coordinates.
+     */
+    static final int SWAP = 1;
+    /**
+     * Bit of symmetry which reverses x coordinate.
+     */
+    static final int FLIP_X = 2;
+    /**
+     * Bit of symmetry which reverses y coordinate.
+     */
+    static final int FLIP_Y = 4;
+    /**
+     * Kind of food points.
+     */
+    static final int FOOD = 0;
+    /**
+     * Seed of keys.
+     */
+    private static final long FIRST_SEED = 0x243F6A8885A308D3L;
+    /**
+     * Odd multiplier of keys of the second hash, XOR of products does not follow from XOR of keys.
+     */
+    private static final long SECOND_SEED = 0x13198A2E03707345L;
+    /**
+     * Odd multiplier of cells in keys.
+     */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+    /**
+     * Number of possible changes of one coordinate.
+     */
+    private static final int SHIFTS = 3;
+    /**
+     * Directions by (dx + 1) * SHIFTS + dy + 1.
+     */
+    private static final Direction[] BY_SHIFT = new Direction[SHIFTS * SHIFTS];
+    /**
+     * Directions turned by every symmetry, by symmetry and ordinal.
+     */
+    private static final Direction[][] TURNED = new Direction[SYMMETRIES][];
+    /**
+     * Directions turned back by every symmetry, by symmetry and ordinal.
+     */
+    private static final Direction[][] RESTORED = new Direction[SYMMETRIES][];
+
+    static {
+        Direction[] directions = Direction.values();
+        for (Direction dir : directions) {
+            BY_SHIFT[(dir.dx() + 1) * SHIFTS + dir.dy() + 1] = dir;
+        }
+        for (int s = 0; s < SYMMETRIES; s++) {
+            TURNED[s] = new Direction[directions.length];
+            RESTORED[s] = new Direction[directions.length];
+            for (Direction dir : directions) {
+                int dx = mapX(s, 2 + dir.dx(), 2 + dir.dy(), SHIFTS) - 2;
+                int dy = mapY(s, 2 + dir.dx(), 2 + dir.dy(), SHIFTS) - 2;
+                Direction turned = BY_SHIFT[(dx + 1) * SHIFTS + dy + 1];
+                TURNED[s][dir.ordinal()] = turned;
+                RESTORED[s][turned.ordinal()] = dir;
+            }
+        }
+    }
+
+    /**
+     * Size of the board (n x n).
+     */
+    private final int size;
+    /**
+     * First hashes by symmetry.
+     */
+    private final long[] first = new long[SYMMETRIES];
+    /**
+     * Second hashes by symmetry.
+     */
+    private final long[] second = new long[SYMMETRIES];
+
+    /**
+     * Constructor for hashes of the empty board.
+     * @param boardSize size of the board.
+     */
+    BoardHash(int boardSize) {
+        this.size = boardSize;
+    }
+
+    /**
+     * Function used to get kind of insects of the color and type.
+     * @param color color of insects.
+     * @param type type of insects.
+     * @return Kind different from food and from all other insects.
+     */
+    static int kind(InsectColor color, InsectType type) {
+        return 1 + color.ordinal() * InsectType.COUNT + type.ordinal();
+    }
+
+    /**
+     * Function that mixes bits of the number (finalizer of SplitMix64).
+     * @param value number.
+     * @return Mixed number.
+     */
+    static long mix(long value) {
+        long z = value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Function used to get x coordinate of the cell after the symmetry.
+     * Symmetry swaps coordinates first and then reverses them by its bits.
+     * @param symmetry symmetry from 0 to SYMMETRIES - 1.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param boardSize size of the board.
+     * @return New x coordinate.
+     */
+    static int mapX(int symmetry, int x, int y, int boardSize) {
+        int u = (symmetry & SWAP) != 0 ? y : x;
+        return (symmetry & FLIP_X) != 0 ? boardSize + 1 - u : u;
+    }
+
+    /**
+     * Function used to get y coordinate of the cell after the symmetry.
+     * @param symmetry symmetry from 0 to SYMMETRIES - 1.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param boardSize size of the board.
+     * @return New y coordinate.
+     */
+    static int mapY(int symmetry, int x, int y, int boardSize) {
+        int v = (symmetry & SWAP) != 0 ? x : y;
+        return (symmetry & FLIP_Y) != 0 ? boardSize + 1 - v : v;
+    }
+
+    /**
+     * Function used to get number of the cell after the symmetry.
+     * @param symmetry symmetry from 0 to SYMMETRIES - 1.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param boardSize size of the board.
+     * @return Number of the cell in the new orientation.
+     */
+    static long cell(int symmetry, int x, int y, int boardSize) {
+        return (long) mapX(symmetry, x, y, boardSize) * (boardSize + 1) + mapY(symmetry, x, y, boardSize);
+    }
+
+    /**
+     * Function used to get direction after the symmetry.
+     * @param symmetry symmetry from 0 to SYMMETRIES - 1.
+     * @param dir direction.
+     * @return Direction in the new orientation.
+     */
+    static Direction turn(int symmetry, Direction dir) {
+        return TURNED[symmetry][dir.ordinal()];
+    }
+
+    /**
+     * Function used to get direction before the symmetry.
+     * @param symmetry symmetry from 0 to SYMMETRIES - 1.
+     * @param dir direction in the new orientation.
+     * @return Direction.
+     */
+    static Direction restore(int symmetry, Direction dir) {
+        return RESTORED[symmetry][dir.ordinal()];
+    }
+
+    /**
+     * Function that adds the entity to hashes or removes it, both are XOR of its keys.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param kind FOOD or kind of the insect.
+     * @param value value of food point, 0 for insects.
+     */
+    void toggle(int x, int y, int kind, int value) {
+        long entity = mix(((long) kind << Integer.SIZE) ^ (value & 0xFFFFFFFFL) ^ FIRST_SEED);
+        long row = size + 1;
+        long rx = row - x;
+        long ry = row - y;
+        toggle(0, entity, x * row + y);
+        toggle(SWAP, entity, y * row + x);
+        toggle(FLIP_X, entity, rx * row + y);
+        toggle(FLIP_X | SWAP, entity, ry * row + x);
+        toggle(FLIP_Y, entity, x * row + ry);
+        toggle(FLIP_Y | SWAP, entity, y * row + rx);
+        toggle(FLIP_X | FLIP_Y, entity, rx * row + ry);
+        toggle(FLIP_X | FLIP_Y | SWAP, entity, ry * row + rx);
+    }
+
+    /**
+     * Function that adds key of the entity in the cell to hashes of one orientation or removes it.
+     * @param symmetry symmetry from 0 to SYMMETRIES - 1.
+     * @param entity mixed kind and value of the entity.
+     * @param cell number of the cell in the orientation of the symmetry.
+     */
+    private void toggle(int symmetry, long entity, long cell) {
+        long key = mix(entity + cell * GOLDEN);
+        first[symmetry] ^= key;
+        second[symmetry] ^= key * SECOND_SEED;
+    }
+
+    /**
+     * Getter for the first hash of the board in the orientation.
+     * @param symmetry symmetry from 0 to SYMMETRIES - 1.
+     * @return Hash.
+     */
+    long first(int symmetry) {
+        return first[symmetry];
+    }
+
+    /**
+     * Getter for the second hash of the board in the orientation.
+     * @param symmetry symmetry from 0 to SYMMETRIES - 1.
+     * @return Hash.
+     */
+    long second(int symmetry) {
+        return second[symmetry];
+    }
+
+    /**
+     * Function that sets hashes to the ones of the empty board.
+     */
+    void clear() {
+        Arrays.fill(first, 0);
+        Arrays.fill(second, 0);
+    }
+}
+
+/**
+ * Pool of boards for batch mode. Keeps the most recently used board of every kind of storage
+ * and clears it instead of allocating new storage and indexes when the next scenario has the same size
+ * and kind. At most one board of each kind is retained, so a worker never pins more than three boards.
+ */
+class BoardPool {
+    /**
+     * Most recently used board by kind of storage: sparse, tiled and dense, null if there is none yet.
+     */
+    private final Board[] boards = new Board[3];
+
+    /**
+     * Function used to get empty board.
+     * @param boardSize size of the board.
+     * @param expectedEntities number of insects and food points which will be added.
+     * @return Empty board of provided size.
+     */
+    Board obtain(int boardSize, int expectedEntities) {
+        int kind = Board.prefersDense(boardSize, expectedEntities) ? 2
+                : Board.prefersTiles(boardSize, expectedEntities) ? 1 : 0;
+        Board board = boards[kind];
+        if (board == null || board.getSize() != boardSize) {
+            board = new Board(boardSize, expectedEntities);
+            boards[kind] = board;
+        } else {
+            board.clear();
+        }
+        return board;
+    }
+}
+
+/**
+ * Pool of insects for batch mode. Instances given for a scenario
+ * come back to the pool when the next scenario starts.
+ */
+class InsectPool {
+    /**
+     * Free insects by ordinal of their type.
+     */
+    private final ArrayList<ArrayList<Insect>> free = new ArrayList<>();
+    /**
+     * Insects given since the last release by ordinal of their type.
+     */
+    private final ArrayList<ArrayList<Insect>> used = new ArrayList<>();
+
+    /**
+     * Constructor for empty pool.
+     */
+    InsectPool() {
+        for (int i = 0; i < InsectType.values().length; i++) {
+            free.add(new ArrayList<>());
+            used.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Function used to get view of the insect of the store.
+     * @param type type of the insect.
+     * @param store store of entities of the scenario.
+     * @param index index of the insect in the store.
+     * @return Reused or new insect.
+     */
+    Insect obtain(InsectType type, EntityStore store, int index) {
+        ArrayList<Insect> available = free.get(type.ordinal());
+        Insect insect;
+        if (available.isEmpty()) {
+            insect = type.view(store, index);
+        } else {
+            insect = available.remove(available.size() - 1);
+            insect.bind(store, index);
+        }
+        used.get(type.ordinal()).add(insect);
+        return insect;
+    }
+
+    /**
+     * Function that returns all given insects to the pool.
+     */
+    void releaseAll() {
+        for (int i = 0; i < used.size(); i++) {
+            free.get(i).addAll(used.get(i));
+            used.get(i).clear();
+        }
+    }
+}
+
+/**
+ * Entities of a scenario kept as structure of arrays: parallel primitive arrays of coordinates,
+ * colors and types of insects, and of coordinates and values of food points.
+ * Evaluation walks the arrays in order of input, insects and food points are thin views
+ * which refer to the store by index.
+ * @see Insect
+ * @see FoodPoint
+ */
+class EntityStore {
+    /**
+     * Initial capacity of arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Colors by ordinal.
+     */
+    private static final InsectColor[] COLORS = InsectColor.values();
+    /**
+     * Types by ordinal.
+     */
+    private static final InsectType[] TYPES = InsectType.values();
+    /**
+     * x coordinates of insects.
+     */
+    private int[] insectX;
+    /**
+     * y coordinates of insects.
+     */
+    private int[] insectY;
+    /**
+     * Ordinals of colors of insects.
+     */
+    private byte[] insectColor;
+    /**
+     * Ordinals of types of insects.
+     */
+    private byte[] insectType;
+    /**
+     * Number of insects.
+     */
+    private int insects;
+    /**
+     * x coordinates of food points.
+     */
+    private int[] foodX;
+    /**
+     * y coordinates of food points.
+     */
+    private int[] foodY;
+    /**
+     * Values of food points.
+     */
+    private int[] foodValue;
+    /**
+     * Number of food points.
+     */
+    private int foodPoints;
+
+    /**
+     * Constructor for empty store.
+     */
+    EntityStore() {
+        this(INITIAL_CAPACITY, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Constructor for empty store with provided capacity.
+     * @param insectCapacity expected number of insects.
+     * @param foodCapacity expected number of food points.
+     */
+    EntityStore(int insectCapacity, int foodCapacity) {
+        insectX = new int[insectCapacity];
+        insectY = new int[insectCapacity];
+        insectColor = new byte[insectCapacity];
+        insectType = new byte[insectCapacity];
+        foodX = new int[foodCapacity];
+        foodY = new int[foodCapacity];
+        foodValue = new int[foodCapacity];
+    }
+
+    /**
+     * Function used to get capacity which holds one more element.
+     * @param length current capacity.
+     * @return New capacity.
+     */
+    private static int grown(int length) {
+        return Math.max(INITIAL_CAPACITY, length * 2);
+    }
+
+    /**
+     * Function that adds insect to the store.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param color color of the insect.
+     * @param type type of the insect.
+     * @return Index of the insect.
+     */
+    int addInsect(int x, int y, InsectColor color, InsectType type) {
+        if (insects == insectX.length) {
+            int capacity = grown(insects);
+            insectX = Arrays.copyOf(insectX, capacity);
+            insectY = Arrays.copyOf(insectY, capacity);
+            insectColor = Arrays.copyOf(insectColor, capacity);
+            insectType = Arrays.copyOf(insectType, capacity);
+        }
+        insectX[insects] = x;
+        insectY[insects] = y;
+        insectColor[insects] = (byte) color.ordinal();
+        insectType[insects] = (byte) type.ordinal();
+        return insects++;
+    }
+
+    /**
+     * Function that adds food point to the store.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param value value of the food point.
+     * @return Index of the food point.
+     */
+    int addFood(int x, int y, int value) {
+        if (foodPoints == foodX.length) {
+            int capacity = grown(foodPoints);
+            foodX = Arrays.copyOf(foodX, capacity);
+            foodY = Arrays.copyOf(foodY, capacity);
+            foodValue = Arrays.copyOf(foodValue, capacity);
+        }
+        foodX[foodPoints] = x;
+        foodY[foodPoints] = y;
+        foodValue[foodPoints] = value;
+        return foodPoints++;
+    }
+
+    /**
+     * Function that removes all entities, keeping the arrays.
+     */
+    void clear() {
+        insects = 0;
+        foodPoints = 0;
+    }
+
+    /**
+     * Getter for number of insects.
+     * @return Number of insects in the store.
+     */
+    int insectCount() {
+        return insects;
+    }
+
+    /**
+     * Getter for x coordinate of the insect.
+     * @param i index of the insect.
+     * @return x coordinate.
+     */
+    int insectX(int i) {
+        return insectX[i];
+    }
+
+    /**
+     * Getter for y coordinate of the insect.
+     * @param i index of the insect.
+     * @return y coordinate.
+     */
+    int insectY(int i) {
+        return insectY[i];
+    }
+
+    /**
+     * Getter for color of the insect.
+     * @param i index of the insect.
+     * @return Color of the insect.
+     */
+    InsectColor insectColor(int i) {
+        return COLORS[insectColor[i]];
+    }
+
+    /**
+     * Getter for type of the insect.
+     * @param i index of the insect.
+     * @return Type of the insect.
+     */
+    InsectType insectType(int i) {
+        return TYPES[insectType[i]];
+    }
+
+    /**
+     * Function that changes position of the insect, its cell on the board is not changed.
+     * @param i index of the insect.
+     * @param x new x coordinate.
+     * @param y new y coordinate.
+     */
+    void moveInsect(int i, int x, int y) {
+        insectX[i] = x;
+        insectY[i] = y;
+    }
+
+    /**
+     * Getter for x coordinate of the food point.
+     * @param i index of the food point.
+     * @return x coordinate.
+     */
+    int foodX(int i) {
+        return foodX[i];
+    }
+
+    /**
+     * Getter for y coordinate of the food point.
+     * @param i index of the food point.
+     * @return y coordinate.
+     */
+    int foodY(int i) {
+        return foodY[i];
+    }
+
+    /**
+     * Getter for value of the food point.
+     * @param i index of the food point.
+     * @return Value of food.
+     */
+    int foodValue(int i) {
+        return foodValue[i];
+    }
+}
+
+/**
+ * Storage of the board cells. Keeps occupancy and food values as primitives,
+ * so rays of insects do not touch entity objects.
+ * Coordinates are 1-based as on the board.
+ * @see DenseBoardStorage
+ * @see SparseBoardStorage
+ * @see TiledBoardStorage
+ */
+interface BoardStorage {
+    /**
+     * Code of the empty cell.
+     */
+    int EMPTY = 0;
+    /**
+     * Code of the cell with food point.
+     */
+    int FOOD = 1;
+    /**
+     * Code of the cell with insect of the first color, other colors follow.
+     */
+    int INSECT = 2;
+
+    /**
+     * Function used to get code of the cell with insect of provided color.
+     * @param color color of the insect.
+     * @return Cell code, different for every color.
+     */
+    static int insectCell(InsectColor color) {
+        return INSECT + color.ordinal();
+    }
+
+    /**
+     * Function for adding entity to its position.
+     * @param entity insect or food point.
+     */
+    void put(BoardEntity entity);
+
+    /**
+     * Function for adding food point without creating its object.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param value value of food point.
+     */
+    void putFood(int x, int y, int value);
+
+    /**
+     * Function used to get insect from the cell. Food points are not kept as objects,
+     * they are read by cellAt and foodAt, so the lookup never allocates.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Insect or null if cell is empty or holds food point.
+     */
+    Insect insectAt(int x, int y);
+
+    /**
+     * Function used to get code of the cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return EMPTY, FOOD or code of insect color.
+     */
+    int cellAt(int x, int y);
+
+    /**
+     * Function used to get value of food in the cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Value of food point, 0 if there is no food.
+     */
+    int foodAt(int x, int y);
+
+    /**
+     * Function that removes entity from the cell if it exists.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     */
+    void remove(int x, int y);
+
+    /**
+     * Function used to check if there is any entity in the cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return True if cell is occupied.
+     */
+    default boolean isOccupied(int x, int y) {
+        return cellAt(x, y) != EMPTY;
+    }
+
+    /**
+     * Getter for number of entities in the storage.
+     * @return Number of occupied cells.
+     */
+    int count();
+
+    /**
+     * Getter for food values of all cells of the board, row by row.
+     * The array is shared and must not be changed.
+     * @return Array of food values or null if the storage is not dense.
+     */
+    default int[] foodGrid() {
+        return null;
+    }
+
+    /**
+     * Function that removes all entities.
+     */
+    void clear();
+
+    /**
+     * Function used to get sum of food values visible from the cell in provided direction:
+     * cells at distance step, 2 * step, ... until the border of the board.
+     * By default jumps from one occupied cell to the next, the number of cells is known before the walk.
+     * @param x x coordinate of the start cell.
+     * @param y y coordinate of the start cell.
+     * @param dir direction of the ray.
+     * @param step distance between visited cells.
+     * @param boardSize size of the board.
+     * @return Sum of food values on the ray.
+     * @see BoardStorage#nextOccupied(int, int, int, int, int)
+     */
+    default int foodAlong(int x, int y, Direction dir, int step, int boardSize) {
+        int dx = dir.dx() * step;
+        int dy = dir.dy() * step;
+        int sum = 0;
+        int i = x;
+        int j = y;
+        int left = dir.rayLength(x, y, step, boardSize);
+        for (int k = nextOccupied(i, j, dx, dy, left); k > 0; k = nextOccupied(i, j, dx, dy, left)) {
+            i += k * dx;
+            j += k * dy;
+            left -= k;
+            sum += foodAt(i, j);
+        }
+        return sum;
+    }
+
+    /**
+     * Function used to find the nearest occupied cell on the ray.
+     * By default checks the cells one by one.
+     * @param x x coordinate of the start cell.
+     * @param y y coordinate of the start cell.
+     * @param dx shift of x coordinate between visited cells.
+     * @param dy shift of y coordinate between visited cells.
+     * @param limit number of cells of the ray inside the board.
+     * @return Number of shifts to the occupied cell, 0 if there is no such cell within the limit.
+     */
+    default int nextOccupied(int x, int y, int dx, int dy, int limit) {
+        for (int k = 1; k <= limit; k++) {
+            if (cellAt(x + k * dx, y + k * dy) != EMPTY) {
+                return k;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Function that moves insect along the ray: it eats all food on its way
+     * until it meets insect of other color or the border of the board.
+     * Eaten food and the insect are removed from the storage.
+     * By default jumps from one occupied cell to the next, the number of cells is known before the walk.
+     * @param x x coordinate of the insect.
+     * @param y y coordinate of the insect.
+     * @param color color of the insect.
+     * @param dir direction of the ray.
+     * @param step distance between visited cells.
+     * @param boardSize size of the board.
+     * @return Sum of eaten food values.
+     */
+    default int travel(int x, int y, InsectColor color, Direction dir, int step, int boardSize) {
+        int eaten = 0;
+        int own = BoardStorage.insectCell(color);
+        int dx = dir.dx() * step;
+        int dy = dir.dy() * step;
+        int i = x;
+        int j = y;
+        int left = dir.rayLength(x, y, step, boardSize);
+        for (int k = nextOccupied(i, j, dx, dy, left); k > 0; k = nextOccupied(i, j, dx, dy, left)) {
+            i += k * dx;
+            j += k * dy;
+            left -= k;
+            int cell = cellAt(i, j);
+            if (cell == FOOD) {
+                eaten += foodAt(i, j);
+                remove(i, j);
+            } else if (cell != own) {
+                break;
+            }
+        }
+        remove(x, y);
+        return eaten;
+    }
+}
+
+/**
+ * Storage for small boards: flat arrays of cell codes and food values, one element per cell.
+ * Rays walk the arrays with constant stride. Insects are few, so they are kept by index of their cell
+ * in a table sized by their number, not by the number of cells.
+ * @see InsectTable
+ */
+class DenseBoardStorage implements BoardStorage {
+    /**
+     * Size of the board (n x n).
+     */
+    private final int size;
+    /**
+     * Codes of all cells.
+     */
+    private final byte[] cells;
+    /**
+     * Food values of all cells.
+     */
+    private final int[] food;
+    /**
+     * Insects by index of their cell.
+     */
+    private final InsectTable insects = new InsectTable();
+    /**
+     * Number of occupied cells.
+     */
+    private int count;
+
+    /**
+     * Constructor for dense storage.
+     * @param boardSize size of the board.
+     */
+    DenseBoardStorage(int boardSize) {
+        this.size = boardSize;
+        this.cells = new byte[boardSize * boardSize];
+        this.food = new int[boardSize * boardSize];
+    }
+
+    /**
+     * Function used to get index of the cell in arrays.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Index of the cell.
+     */
+    private int index(int x, int y) {
+        return (x - 1) * size + (y - 1);
+    }
+
+    @Override
+    public void put(BoardEntity entity) {
+        if (entity instanceof FoodPoint) {
+            putFood(entity.getX(), entity.getY(), ((FoodPoint) entity).getValue());
+            return;
+        }
+        int i = index(entity.getX(), entity.getY());
+        if (cells[i] == EMPTY) {
+            count++;
+        }
+        Insect insect = (Insect) entity;
+        cells[i] = (byte) BoardStorage.insectCell(insect.getColor());
+        food[i] = 0;
+        insects.put(i, insect);
+    }
+
+    @Override
+    public void putFood(int x, int y, int value) {
+        int i = index(x, y);
+        if (cells[i] == EMPTY) {
+            count++;
+        } else if (cells[i] != FOOD) {
+            insects.remove(i);
+        }
+        cells[i] = FOOD;
+        food[i] = value;
+    }
+
+    @Override
+    public Insect insectAt(int x, int y) {
+        int i = index(x, y);
+        return cells[i] >= INSECT ? insects.get(i) : null;
+    }
+
+    @Override
+    public int cellAt(int x, int y) {
+        return cells[index(x, y)];
+    }
+
+    @Override
+    public int foodAt(int x, int y) {
+        return food[index(x, y)];
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        int i = index(x, y);
+        if (cells[i] == EMPTY) {
+            return;
+        }
+        if (cells[i] != FOOD) {
+            insects.remove(i);
+        }
+        cells[i] = EMPTY;
+        food[i] = 0;
+        count--;
+    }
+
+    @Override
+    public int[] foodGrid() {
+        return food;
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(cells, (byte) EMPTY);
+        Arrays.fill(food, 0);
+        insects.clear();
+        count = 0;
+    }
+}
+
+/**
+ * Insects by index of their cell: open-addressing hash map with primitive keys and linear probing,
+ * its capacity follows the number of insects. Removal shifts entries back, so there are no tombstones.
+ * @see DenseBoardStorage
+ */
+class InsectTable {
+    /**
+     * Minimal capacity of the table.
+     */
+    private static final int MIN_CAPACITY = 16;
+    /**
+     * Keys of entries.
+     */
+    private int[] keys = new int[MIN_CAPACITY];
+    /**
+     * Insects of entries, null marks free slot.
+     */
+    private Insect[] values = new Insect[MIN_CAPACITY];
+    /**
+     * Number of entries.
+     */
+    private int count;
+
+    /**
+     * Function used to get home slot of the key.
+     * @param key index of the cell.
+     * @return Index of the first slot to probe.
+     */
+    private int home(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> (Integer.SIZE / 2))) & (keys.length - 1);
+    }
+
+    /**
+     * Function used to find slot of the key.
+     * @param key index of the cell.
+     * @return Index of the slot or -1 if there is no such key.
+     */
+    private int find(int key) {
+        int mask = keys.length - 1;
+        for (int i = home(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Function that puts the insect into the cell, replacing the one which was there.
+     * @param key index of the cell.
+     * @param insect insect, not null.
+     */
+    void put(int key, Insect insect) {
+        if ((count + 1) * 2 > keys.length) {
+            grow();
+        }
+        int mask = keys.length - 1;
+        int i = home(key);
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == null) {
+            count++;
+        }
+        keys[i] = key;
+        values[i] = insect;
+    }
+
+    /**
+     * Function used to get insect of the cell.
+     * @param key index of the cell.
+     * @return Insect or null if the cell has no insect.
+     */
+    Insect get(int key) {
+        int i = find(key);
+        return i < 0 ? null : values[i];
+    }
+
+    /**
+     * Function that removes insect of the cell if it exists.
+     * @param key index of the cell.
+     */
+    void remove(int key) {
+        int gap = find(key);
+        if (gap < 0) {
+            return;
+        }
+        int mask = keys.length - 1;
+        for (int j = (gap + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int h = home(keys[j]);
+            boolean reachable = gap <= j ? h > gap && h <= j : h > gap || h <= j;
+            if (!reachable) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        count--;
+    }
+
+    /**
+     * Function that removes all insects, keeping the capacity.
+     */
+    void clear() {
+        Arrays.fill(values, null);
+        count = 0;
+    }
+
+    /**
+     * Function that doubles capacity of the table and rehashes entries.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        Insect[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Insect[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = home(oldKeys[j]);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
+
+/**
+ * Storage for large and mostly empty boards: open-addressing hash map
+ * with primitive keys (packed x and y) and linear probing.
+ * Removal shifts entries back, so there are no tombstones.
+ */
+class SparseBoardStorage implements BoardStorage {
+    /**
+     * Minimal capacity of the table.
+     */
+    private static final int MIN_CAPACITY = 16;
+    /**
+     * Packed positions of entries.
+     */
+    private long[] keys;
+    /**
+     * Cell codes of entries, EMPTY marks free slot.
+     */
+    private byte[] cells;
+    /**
+     * Food values of entries.
+     */
+    private int[] food;
+    /**
+     * Insects of entries, null for food points.
+     */
+    private Insect[] insects;
+    /**
+     * Number of entries.
+     */
+    private int count;
+
+    /**
+     * Constructor for sparse storage.
+     * @param expectedEntities number of entities which will be added.
+     */
+    SparseBoardStorage(int expectedEntities) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedEntities * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Function that allocates empty table.
+     * @param capacity number of slots, power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        cells = new byte[capacity];
+        food = new int[capacity];
+        insects = new Insect[capacity];
+    }
+
+    /**
+     * Function used to pack coordinates into one key.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Packed key.
+     */
+    private static long key(int x, int y) {
+        return ((long) x << Integer.SIZE) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Function used to get home slot of the key.
+     * @param key packed position.
+     * @return Index of the first slot to probe.
+     */
+    private int home(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> Integer.SIZE)) & (keys.length - 1);
+    }
+
+    /**
+     * Function used to find slot of the key.
+     * @param key packed position.
+     * @return Index of the slot or -1 if there is no such key.
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int i = home(key); cells[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void put(BoardEntity entity) {
+        if (entity instanceof FoodPoint) {
+            putFood(entity.getX(), entity.getY(), ((FoodPoint) entity).getValue());
+            return;
+        }
+        Insect insect = (Insect) entity;
+        int i = slot(entity.getX(), entity.getY());
+        cells[i] = (byte) BoardStorage.insectCell(insect.getColor());
+        food[i] = 0;
+        insects[i] = insect;
+    }
+
+    @Override
+    public void putFood(int x, int y, int value) {
+        int i = slot(x, y);
+        cells[i] = FOOD;
+        food[i] = value;
+        insects[i] = null;
+    }
+
+    /**
+     * Function used to get slot for the cell, takes free slot if the cell is not stored yet.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Index of the slot with key of the cell.
+     */
+    private int slot(int x, int y) {
+        if ((count + 1) * 2 > keys.length) {
+            grow();
+        }
+        long key = key(x, y);
+        int mask = keys.length - 1;
+        int i = home(key);
+        while (cells[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (cells[i] == EMPTY) {
+            count++;
+        }
+        keys[i] = key;
+        return i;
+    }
+
+    /**
+     * Function that doubles capacity of the table and rehashes entries.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        byte[] oldCells = cells;
+        int[] oldFood = food;
+        Insect[] oldInsects = insects;
+        allocate(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldCells[j] != EMPTY) {
+                int i = home(oldKeys[j]);
+                while (cells[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                cells[i] = oldCells[j];
+                food[i] = oldFood[j];
+                insects[i] = oldInsects[j];
+            }
+        }
+    }
+
+    @Override
+    public Insect insectAt(int x, int y) {
+        int i = find(key(x, y));
+        return i < 0 ? null : insects[i];
+    }
+
+    @Override
+    public int cellAt(int x, int y) {
+        int i = find(key(x, y));
+        return i < 0 ? EMPTY : cells[i];
+    }
+
+    @Override
+    public int foodAt(int x, int y) {
+        int i = find(key(x, y));
+        return i < 0 ? 0 : food[i];
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        int gap = find(key(x, y));
+        if (gap < 0) {
+            return;
+        }
+        int mask = keys.length - 1;
+        for (int j = (gap + 1) & mask; cells[j] != EMPTY; j = (j + 1) & mask) {
+            int h = home(keys[j]);
+            boolean reachable = gap <= j ? h > gap && h <= j : h > gap || h <= j;
+            if (!reachable) {
+                keys[gap] = keys[j];
+                cells[gap] = cells[j];
+                food[gap] = food[j];
+                insects[gap] = insects[j];
+                gap = j;
+            }
+        }
+        cells[gap] = EMPTY;
+        food[gap] = 0;
+        insects[gap] = null;
+        count--;
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(cells, (byte) EMPTY);
+        Arrays.fill(insects, null);
+        count = 0;
+    }
+}
+
+/**
+ * Storage for large boards with clusters of entities. The board is split into tiles of 64 x 64 cells,
+ * a tile is allocated only while it holds an entity and is found by open-addressing hash map
+ * with primitive keys (packed tile coordinates). Every tile keeps compact arrays of its entities
+ * ordered by position and, once it is filled enough, occupancy bitmap, so memory is proportional
+ * to occupied tiles and their entities. Rays jump over absent tiles in one step.
+ * @see Tile
+ */
+class TiledBoardStorage implements BoardStorage {
+    /**
+     * Binary logarithm of the tile side.
+     */
+    static final int TILE_BITS = 6;
+    /**
+     * Mask of coordinate inside the tile.
+     */
+    static final int TILE_MASK = (1 << TILE_BITS) - 1;
+    /**
+     * Minimal capacity of the table.
+     */
+    private static final int MIN_CAPACITY = 16;
+    /**
+     * Packed coordinates of tiles.
+     */
+    private long[] keys;
+    /**
+     * Tiles, null marks free slot.
+     */
+    private Tile[] tiles;
+    /**
+     * Number of allocated tiles.
+     */
+    private int tileCount;
+    /**
+     * Number of entities.
+     */
+    private int count;
+
+    /**
+     * Constructor for tiled storage.
+     * @param boardSize size of the board.
+     * @param expectedEntities number of entities which will be added.
+     */
+    TiledBoardStorage(int boardSize, int expectedEntities) {
+        long side = ((long) boardSize + TILE_MASK) >> TILE_BITS;
+        long expectedTiles = Math.min(expectedEntities, side * side);
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedTiles * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Function that allocates empty table.
+     * @param capacity number of slots, power of two.
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        tiles = new Tile[capacity];
+    }
+
+    /**
+     * Function used to pack coordinates of the tile into one key.
+     * @param x x coordinate of any cell of the tile.
+     * @param y y coordinate of any cell of the tile.
+     * @return Packed key.
+     */
+    private static long key(int x, int y) {
+        return ((long) ((x - 1) >> TILE_BITS) << Integer.SIZE) | (((y - 1) >> TILE_BITS) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Function used to get home slot of the key.
+     * @param key packed coordinates of the tile.
+     * @return Index of the first slot to probe.
+     */
+    private int home(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> Integer.SIZE)) & (keys.length - 1);
+    }
+
+    /**
+     * Function used to find slot of the tile.
+     * @param key packed coordinates of the tile.
+     * @return Index of the slot or -1 if the tile is not allocated.
+     */
+    private int find(long key) {
+        int mask = keys.length - 1;
+        for (int i = home(key); tiles[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Function used to get tile of the cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Tile or null if it is not allocated.
+     */
+    private Tile tile(int x, int y) {
+        int i = find(key(x, y));
+        return i < 0 ? null : tiles[i];
+    }
+
+    /**
+     * Function used to get tile of the cell, allocates the tile if it does not exist yet.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Tile of the cell.
+     */
+    private Tile tileFor(int x, int y) {
+        if ((tileCount + 1) * 2 > keys.length) {
+            grow();
+        }
+        long key = key(x, y);
+        int mask = keys.length - 1;
+        int i = home(key);
+        while (tiles[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (tiles[i] == null) {
+            keys[i] = key;
+            tiles[i] = new Tile();
+            tileCount++;
+        }
+        return tiles[i];
+    }
+
+    /**
+     * Function that doubles capacity of the table and rehashes tiles.
+     */
+    private void grow() {
+        long[] oldKeys = keys;
+        Tile[] oldTiles = tiles;
+        allocate(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldTiles[j] != null) {
+                int i = home(oldKeys[j]);
+                while (tiles[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                tiles[i] = oldTiles[j];
+            }
+        }
+    }
+
+    @Override
+    public void put(BoardEntity entity) {
+        int x = entity.getX();
+        int y = entity.getY();
+        if (entity instanceof FoodPoint) {
+            putFood(x, y, ((FoodPoint) entity).getValue());
+            return;
+        }
+        Insect insect = (Insect) entity;
+        if (tileFor(x, y).put((x - 1) & TILE_MASK, (y - 1) & TILE_MASK,
+                BoardStorage.insectCell(insect.getColor()), 0, insect)) {
+            count++;
+        }
+    }
+
+    @Override
+    public void putFood(int x, int y, int value) {
+        if (tileFor(x, y).put((x - 1) & TILE_MASK, (y - 1) & TILE_MASK, FOOD, value, null)) {
+            count++;
+        }
+    }
+
+    @Override
+    public Insect insectAt(int x, int y) {
+        Tile tile = tile(x, y);
+        int rank = tile == null ? -1 : tile.find((x - 1) & TILE_MASK, (y - 1) & TILE_MASK);
+        return rank < 0 ? null : tile.insect(rank);
+    }
+
+    @Override
+    public int cellAt(int x, int y) {
+        Tile tile = tile(x, y);
+        int rank = tile == null ? -1 : tile.find((x - 1) & TILE_MASK, (y - 1) & TILE_MASK);
+        return rank < 0 ? EMPTY : tile.cell(rank);
+    }
+
+    @Override
+    public int foodAt(int x, int y) {
+        Tile tile = tile(x, y);
+        int rank = tile == null ? -1 : tile.find((x - 1) & TILE_MASK, (y - 1) & TILE_MASK);
+        return rank < 0 ? 0 : tile.food(rank);
+    }
+
+    @Override
+    public boolean isOccupied(int x, int y) {
+        Tile tile = tile(x, y);
+        return tile != null && tile.has((x - 1) & TILE_MASK, (y - 1) & TILE_MASK);
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        int gap = find(key(x, y));
+        if (gap < 0 || !tiles[gap].remove((x - 1) & TILE_MASK, (y - 1) & TILE_MASK)) {
+            return;
+        }
+        count--;
+        if (tiles[gap].size > 0) {
+            return;
+        }
+        int mask = keys.length - 1;
+        for (int j = (gap + 1) & mask; tiles[j] != null; j = (j + 1) & mask) {
+            int h = home(keys[j]);
+            boolean reachable = gap <= j ? h > gap && h <= j : h > gap || h <= j;
+            if (!reachable) {
+                keys[gap] = keys[j];
+                tiles[gap] = tiles[j];
+                gap = j;
+            }
+        }
+        tiles[gap] = null;
+        tileCount--;
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(tiles, null);
+        tileCount = 0;
+        count = 0;
+    }
+
+    /**
+     * Function used to find the nearest occupied cell on the ray.
+     * The tile of the next cell is looked up once, the part of the ray inside an absent tile
+     * is skipped at once, inside an allocated tile cells are checked one by one.
+     * @param x x coordinate of the start cell.
+     * @param y y coordinate of the start cell.
+     * @param dx shift of x coordinate between visited cells.
+     * @param dy shift of y coordinate between visited cells.
+     * @param limit number of cells of the ray inside the board.
+     * @return Number of shifts to the occupied cell, 0 if there is no such cell within the limit.
+     */
+    @Override
+    public int nextOccupied(int x, int y, int dx, int dy, int limit) {
+        int k = 0;
+        while (k < limit) {
+            int i = x + (k + 1) * dx;
+            int j = y + (k + 1) * dy;
+            int inside = Math.min(limit - k, Math.min(stepsInside(i, dx), stepsInside(j, dy)));
+            Tile tile = tile(i, j);
+            if (tile != null) {
+                for (int s = 0; s < inside; s++) {
+                    if (tile.has((i + s * dx - 1) & TILE_MASK, (j + s * dy - 1) & TILE_MASK)) {
+                        return k + 1 + s;
+                    }
+                }
+            }
+            k += inside;
+        }
+        return 0;
+    }
+
+    /**
+     * Function used to count cells of the ray which stay in the tile along one axis.
+     * @param coordinate coordinate of the first cell.
+     * @param delta shift of the coordinate between visited cells.
+     * @return Number of cells, starting with the first one.
+     */
+    private static int stepsInside(int coordinate, int delta) {
+        int local = (coordinate - 1) & TILE_MASK;
+        if (delta > 0) {
+            return (TILE_MASK - local) / delta + 1;
+        }
+        if (delta < 0) {
+            return local / -delta + 1;
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Tile of 64 x 64 cells. Entities are stored in order of their cells (row by row),
+     * so index of the entity is the number of occupied cells before it. Small tiles find
+     * the index by binary search over positions, tiles with more entities also keep
+     * occupancy bitmap: bit y of word x shows whether the cell is occupied.
+     */
+    static final class Tile {
+        /**
+         * Initial capacity of arrays of entities.
+         */
+        private static final int INITIAL_CAPACITY = 2;
+        /**
+         * Tiles with more entities keep occupancy bitmap.
+         */
+        private static final int BITMAP_THRESHOLD = 1 << TILE_BITS;
+        /**
+         * Occupancy bitmap, one word per row, null for small tiles.
+         */
+        private long[] rows;
+        /**
+         * Number of entities in rows before every row, null for small tiles.
+         */
+        private short[] rowStart;
+        /**
+         * Entities packed as position (x * 64 + y), cell code and food value, ascending.
+         * @see Tile#pack(int, int, int)
+         */
+        private long[] entries = new long[INITIAL_CAPACITY];
+        /**
+         * Insects, null for food points. Allocated with the first insect of the tile.
+         */
+        private Insect[] insects;
+        /**
+         * Number of entities in the tile.
+         */
+        private int size;
+
+        /**
+         * Function used to check if the cell is occupied.
+         * @param x x coordinate inside the tile.
+         * @param y y coordinate inside the tile.
+         * @return True if there is an entity in the cell.
+         */
+        boolean has(int x, int y) {
+            if (rows != null) {
+                return (rows[x] >>> y & 1) != 0;
+            }
+            return search(x << TILE_BITS | y) >= 0;
+        }
+
+        /**
+         * Function used to pack entity into one word: position in the highest bits,
+         * then cell code in one byte, then food value in the lowest 32 bits.
+         * @param position packed position inside the tile.
+         * @param cell cell code of the entity.
+         * @param value food value, 0 for insects.
+         * @return Packed entity.
+         */
+        private static long pack(int position, int cell, int value) {
+            return (long) (position << Byte.SIZE | cell) << Integer.SIZE | (value & 0xFFFFFFFFL);
+        }
+
+        /**
+         * Function used to find entity by binary search over positions.
+         * @param position packed position inside the tile.
+         * @return Index of the entity or -(insertion index) - 1 if there is no such entity.
+         */
+        private int search(int position) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int current = (int) (entries[middle] >>> (Integer.SIZE + Byte.SIZE));
+                if (current < position) {
+                    low = middle + 1;
+                } else if (current > position) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -low - 1;
+        }
+
+        /**
+         * Getter for cell code of the entity.
+         * @param index index of the entity.
+         * @return Cell code.
+         */
+        int cell(int index) {
+            return (int) (entries[index] >>> Integer.SIZE) & 0xFF;
+        }
+
+        /**
+         * Getter for food value of the entity.
+         * @param index index of the entity.
+         * @return Food value, 0 for insects.
+         */
+        int food(int index) {
+            return (int) entries[index];
+        }
+
+        /**
+         * Getter for insect of the entity.
+         * @param index index of the entity.
+         * @return Insect, null for food points.
+         */
+        Insect insect(int index) {
+            return insects == null ? null : insects[index];
+        }
+
+        /**
+         * Function used to find entity of the cell.
+         * @param x x coordinate inside the tile.
+         * @param y y coordinate inside the tile.
+         * @return Index of the entity or -(insertion index) - 1 if the cell is empty.
+         */
+        int find(int x, int y) {
+            if (rows == null) {
+                return search(x << TILE_BITS | y);
+            }
+            int rank = rowStart[x] + Long.bitCount(rows[x] & ((1L << y) - 1));
+            return (rows[x] >>> y & 1) != 0 ? rank : -rank - 1;
+        }
+
+        /**
+         * Function that puts entity into the cell, replacing the previous one.
+         * @param x x coordinate inside the tile.
+         * @param y y coordinate inside the tile.
+         * @param cell cell code of the entity.
+         * @param value food value, 0 for insects.
+         * @param insect insect, null for food points.
+         * @return True if the cell was empty.
+         */
+        boolean put(int x, int y, int cell, int value, Insect insect) {
+            int rank = find(x, y);
+            boolean added = rank < 0;
+            if (added) {
+                rank = -rank - 1;
+                if (size == entries.length) {
+                    entries = Arrays.copyOf(entries, size * 2);
+                    if (insects != null) {
+                        insects = Arrays.copyOf(insects, size * 2);
+                    }
+                }
+                System.arraycopy(entries, rank, entries, rank + 1, size - rank);
+                if (insects != null) {
+                    System.arraycopy(insects, rank, insects, rank + 1, size - rank);
+                }
+                entries[rank] = pack(x << TILE_BITS | y, cell, value);
+                size++;
+                if (rows != null) {
+                    flip(x, y, 1);
+                } else if (size > BITMAP_THRESHOLD) {
+                    buildBitmap();
+                }
+            }
+            entries[rank] = pack(x << TILE_BITS | y, cell, value);
+            if (insects == null && insect != null) {
+                insects = new Insect[entries.length];
+            }
+            if (insects != null) {
+                insects[rank] = insect;
+            }
+            return added;
+        }
+
+        /**
+         * Function that removes entity from the cell.
+         * @param x x coordinate inside the tile.
+         * @param y y coordinate inside the tile.
+         * @return True if the cell was occupied.
+         */
+        boolean remove(int x, int y) {
+            int rank = find(x, y);
+            if (rank < 0) {
+                return false;
+            }
+            System.arraycopy(entries, rank + 1, entries, rank, size - rank - 1);
+            size--;
+            if (insects != null) {
+                System.arraycopy(insects, rank + 1, insects, rank, size - rank);
+                insects[size] = null;
+            }
+            if (rows != null) {
+                flip(x, y, -1);
+            }
+            return true;
+        }
+
+        /**
+         * Function that flips the bit of the cell and updates number of entities before rows.
+         * @param x x coordinate inside the tile.
+         * @param y y coordinate inside the tile.
+         * @param delta 1 for added entity, -1 for removed one.
+         */
+        private void flip(int x, int y, int delta) {
+            rows[x] ^= 1L << y;
+            for (int r = x + 1; r < rowStart.length; r++) {
+                rowStart[r] += delta;
+            }
+        }
+
+        /**
+         * Function that creates occupancy bitmap from positions of entities.
+         */
+        private void buildBitmap() {
+            rows = new long[1 << TILE_BITS];
+            rowStart = new short[1 << TILE_BITS];
+            for (int i = 0; i < size; i++) {
+                int position = (int) (entries[i] >>> (Integer.SIZE + Byte.SIZE));
+                int x = position >>> TILE_BITS;
+                rows[x] |= 1L << (position & TILE_MASK);
+                if (x + 1 < rowStart.length) {
+                    rowStart[x + 1]++;
+                }
+            }
+            for (int r = 1; r < rowStart.length; r++) {
+                rowStart[r] += rowStart[r - 1];
+            }
+        }
+    }
+}
+
+/**
+ * Storage that wraps other storage and indexes every row, column, diagonal and anti-diagonal.
+ * Food of a line is kept in Fenwick trees, occupancy of a line by food and by insects
+ * of every color in sets of coordinates: bitsets for boards of the task, sorted arrays for bigger ones.
+ * Every line is split by parity of the coordinate, so rays with step 2 (grasshopper)
+ * are answered by the same structures.
+ * Visible food along any ray is a difference of two prefix sums, the first enemy insect
+ * on the ray is a scan of a few words (or a binary search), eaten food is visited
+ * from one occupied cell to the next, and removal of an entity updates its lines in O(log n).
+ * @see LineSums
+ * @see LineSet
+ */
+class IndexedBoardStorage implements BoardStorage {
+    /**
+     * Family of rows, coordinate along the line is y.
+     */
+    static final int ROWS = 0;
+    /**
+     * Family of columns, coordinate along the line is x.
+     */
+    static final int COLUMNS = 1;
+    /**
+     * Family of diagonals with constant x - y, coordinate along the line is x.
+     */
+    static final int DIAGONALS = 2;
+    /**
+     * Family of anti-diagonals with constant x + y, coordinate along the line is x.
+     */
+    static final int ANTI_DIAGONALS = 3;
+    /**
+     * Number of families of lines.
+     */
+    static final int FAMILIES = 4;
+    /**
+     * Number of insect colors.
+     */
+    private static final int COLORS = InsectColor.values().length;
+    /**
+     * Lines of boards up to this size keep Fenwick trees over all coordinates, bigger boards only non-zero nodes.
+     */
+    private static final int MAX_FULL_TREE_SIZE = 1 << 10;
+    /**
+     * Lines of boards up to this size keep occupancy in bitsets, bigger boards in sorted arrays.
+     */
+    private static final int MAX_BITBOARD_SIZE = 1 << 10;
+    /**
+     * Storage of the cells.
+     */
+    private final BoardStorage cells;
+    /**
+     * Size of the board (n x n).
+     */
+    private final int size;
+    /**
+     * Food of lines by family, index is 2 * key + parity of coordinate.
+     */
+    private final List<LineTable<LineSums>> food = new ArrayList<>(FAMILIES);
+    /**
+     * Cells of lines with food by family, index is 2 * key + parity of coordinate.
+     */
+    private final List<LineTable<LineSet>> foodCells = new ArrayList<>(FAMILIES);
+    /**
+     * Insects of lines by family, index is (2 * key + parity of coordinate) * COLORS + color.
+     */
+    private final List<LineTable<LineSet>> insects = new ArrayList<>(FAMILIES);
+    /**
+     * Journal of changes made after the oldest open snapshot.
+     */
+    private final UndoJournal journal = new UndoJournal();
+    /**
+     * Directions of insects kept up to date with changes, null if they are not watched.
+     */
+    private VisibilityIndex visibility;
+    /**
+     * Hashes of the board kept up to date with changes, null if they are not tracked.
+     */
+    private BoardHash hashes;
+
+    /**
+     * Constructor for indexed storage.
+     * @param cells storage of the cells, must be empty.
+     * @param boardSize size of the board.
+     */
+    IndexedBoardStorage(BoardStorage cells, int boardSize) {
+        this.cells = cells;
+        this.size = boardSize;
+        for (int family = 0; family < FAMILIES; family++) {
+            int lines = family == ROWS || family == COLUMNS ? boardSize + 1 : 2 * boardSize + 1;
+            food.add(new LineTable<>(2 * lines));
+            foodCells.add(new LineTable<>(2 * lines));
+            insects.add(new LineTable<>(2 * lines * COLORS));
+        }
+    }
+
+    /**
+     * Function used to get family of lines which contain rays of the direction.
+     * @param dir direction of the ray.
+     * @return ROWS, COLUMNS, DIAGONALS or ANTI_DIAGONALS.
+     */
+    private static int family(Direction dir) {
+        if (dir.dx() == 0) {
+            return ROWS;
+        } else if (dir.dy() == 0) {
+            return COLUMNS;
+        } else if (dir.dx() == dir.dy()) {
+            return DIAGONALS;
+        } else {
+            return ANTI_DIAGONALS;
+        }
+    }
+
+    /**
+     * Function used to get number of the line of the family which contains the cell.
+     * @param family family of lines.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Key of the line.
+     */
+    private int key(int family, int x, int y) {
+        switch (family) {
+            case ROWS:
+                return x;
+            case COLUMNS:
+                return y;
+            case DIAGONALS:
+                return x - y + size;
+            default:
+                return x + y;
+        }
+    }
+
+    /**
+     * Function used to get coordinate of the cell along the line of the family.
+     * @param family family of lines.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Coordinate along the line.
+     */
+    private static int coordinate(int family, int x, int y) {
+        return family == ROWS ? y : x;
+    }
+
+    /**
+     * Function used to get x coordinate of the cell of the line.
+     * @param family family of lines.
+     * @param key key of the line.
+     * @param coordinate coordinate along the line.
+     * @return x coordinate.
+     */
+    private static int cellX(int family, int key, int coordinate) {
+        return family == ROWS ? key : coordinate;
+    }
+
+    /**
+     * Function used to get y coordinate of the cell of the line.
+     * @param family family of lines.
+     * @param key key of the line.
+     * @param coordinate coordinate along the line.
+     * @return y coordinate.
+     */
+    private int cellY(int family, int key, int coordinate) {
+        switch (family) {
+            case ROWS:
+                return coordinate;
+            case COLUMNS:
+                return key;
+            case DIAGONALS:
+                return coordinate - key + size;
+            default:
+                return key - coordinate;
+        }
+    }
+
+    /**
+     * Function used to get change of coordinate along the line for one step in direction.
+     * @param dir direction of the ray.
+     * @return -1 or 1.
+     */
+    private static int delta(Direction dir) {
+        return dir.dx() == 0 ? dir.dy() : dir.dx();
+    }
+
+    /**
+     * Function used to create empty set of coordinates of one line.
+     * @param parity parity of coordinates of the line.
+     * @return Bitset for boards of the task, sorted array for bigger ones.
+     */
+    private LineSet newLine(int parity) {
+        return size <= MAX_BITBOARD_SIZE ? new LineBitset(parity, size) : new SortedIntSet();
+    }
+
+    /**
+     * Function used to create sums of food of one line without food.
+     * @param parity parity of coordinates of the line.
+     * @return Tree over the whole line for boards of the task, tree of non-zero nodes for bigger ones.
+     */
+    private LineSums newSums(int parity) {
+        return size <= MAX_FULL_TREE_SIZE ? new FenwickLine(parity, size) : new SparseFenwickLine(size);
+    }
+
+    /**
+     * Function that adds value to the food of all lines that contain the cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param value added value.
+     * @param present true if food is put, false if it is removed.
+     */
+    private void indexFood(int x, int y, int value, boolean present) {
+        for (int family = 0; family < FAMILIES; family++) {
+            int coordinate = coordinate(family, x, y);
+            int i = 2 * key(family, x, y) + (coordinate & 1);
+            LineSums line = food.get(family).get(i);
+            LineSet occupied = foodCells.get(family).get(i);
+            if (line == null) {
+                line = newSums(coordinate & 1);
+                food.get(family).put(i, line);
+                occupied = newLine(coordinate & 1);
+                foodCells.get(family).put(i, occupied);
+            }
+            line.add(coordinate, value);
+            if (present) {
+                occupied.add(coordinate);
+            } else {
+                occupied.remove(coordinate);
+            }
+        }
+    }
+
+    /**
+     * Function that adds or removes insect in all lines that contain the cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param color ordinal of insect color.
+     * @param present true to add insect, false to remove.
+     */
+    private void indexInsect(int x, int y, int color, boolean present) {
+        for (int family = 0; family < FAMILIES; family++) {
+            int coordinate = coordinate(family, x, y);
+            int i = (2 * key(family, x, y) + (coordinate & 1)) * COLORS + color;
+            LineSet line = insects.get(family).get(i);
+            if (line == null) {
+                line = newLine(coordinate & 1);
+                insects.get(family).put(i, line);
+            }
+            if (present) {
+                line.add(coordinate);
+            } else {
+                line.remove(coordinate);
+            }
+        }
+    }
+
+    @Override
+    public void put(BoardEntity entity) {
+        int x = entity.getX();
+        int y = entity.getY();
+        if (entity instanceof FoodPoint) {
+            putFood(x, y, ((FoodPoint) entity).getValue());
+            return;
+        }
+        remove(x, y);
+        if (journal.isRecording()) {
+            journal.record(x, y, EMPTY, 0, null);
+        }
+        place((Insect) entity);
+    }
+
+    /**
+     * Function that puts insect into the empty cell without journaling.
+     * @param insect insect.
+     */
+    private void place(Insect insect) {
+        cells.put(insect);
+        indexInsect(insect.getX(), insect.getY(), insect.getColor().ordinal(), true);
+        if (visibility != null) {
+            visibility.addInsect(insect, this);
+        }
+        if (hashes != null) {
+            hashes.toggle(insect.getX(), insect.getY(), BoardHash.kind(insect.getColor(), insect.getType()), 0);
+        }
+    }
+
+    @Override
+    public void putFood(int x, int y, int value) {
+        remove(x, y);
+        if (journal.isRecording()) {
+            journal.record(x, y, EMPTY, 0, null);
+        }
+        placeFood(x, y, value);
+    }
+
+    /**
+     * Function that puts food point into the empty cell without journaling.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param value value of food point.
+     */
+    private void placeFood(int x, int y, int value) {
+        cells.putFood(x, y, value);
+        indexFood(x, y, value, true);
+        if (visibility != null) {
+            visibility.foodChanged(x, y, value);
+        }
+        if (hashes != null) {
+            hashes.toggle(x, y, BoardHash.FOOD, value);
+        }
+    }
+
+    @Override
+    public Insect insectAt(int x, int y) {
+        return cells.insectAt(x, y);
+    }
+
+    @Override
+    public int cellAt(int x, int y) {
+        return cells.cellAt(x, y);
+    }
+
+    @Override
+    public int foodAt(int x, int y) {
+        return cells.foodAt(x, y);
+    }
+
+    @Override
+    public void remove(int x, int y) {
+        int cell = cells.cellAt(x, y);
+        if (cell != EMPTY && journal.isRecording()) {
+            journal.record(x, y, cell, cells.foodAt(x, y), cell == FOOD ? null : cells.insectAt(x, y));
+        }
+        erase(x, y, cell);
+    }
+
+    /**
+     * Function that removes entity from the cell without journaling.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param cell code of the cell.
+     */
+    private void erase(int x, int y, int cell) {
+        if (cell == FOOD) {
+            int value = cells.foodAt(x, y);
+            indexFood(x, y, -value, false);
+            if (visibility != null) {
+                visibility.foodChanged(x, y, -value);
+            }
+            if (hashes != null) {
+                hashes.toggle(x, y, BoardHash.FOOD, value);
+            }
+        } else if (cell != EMPTY) {
+            indexInsect(x, y, cell - INSECT, false);
+            if (visibility != null) {
+                visibility.removeInsect(x, y);
+            }
+            if (hashes != null) {
+                Insect insect = cells.insectAt(x, y);
+                hashes.toggle(x, y, BoardHash.kind(insect.getColor(), insect.getType()), 0);
+            }
+        }
+        cells.remove(x, y);
+    }
+
+    /**
+     * Function that starts to keep directions of insects up to date with changes of the storage.
+     * Insects which are already in the storage are found by the indexes of rows.
+     * @return Index of directions of insects.
+     */
+    VisibilityIndex watch() {
+        if (visibility == null) {
+            visibility = new VisibilityIndex(size);
+            for (int x = 1; x <= size; x++) {
+                for (int line = 2 * x * COLORS; line < 2 * (x + 1) * COLORS; line++) {
+                    LineSet row = insects.get(ROWS).get(line);
+                    for (int y = row == null ? LineSet.NONE : row.higher(0); y != LineSet.NONE; y = row.higher(y)) {
+                        visibility.addInsect(cells.insectAt(x, y), this);
+                    }
+                }
+            }
+        }
+        return visibility;
+    }
+
+    /**
+     * Getter for index of directions of insects.
+     * @return Index or null if directions are not watched.
+     */
+    VisibilityIndex getVisibility() {
+        return visibility;
+    }
+
+    /**
+     * Function that starts to keep hashes of the storage up to date with its changes.
+     * Entities which are already in the storage are hashed by the indexes of rows.
+     */
+    void trackHashes() {
+        if (hashes != null) {
+            return;
+        }
+        hashes = new BoardHash(size);
+        for (int x = 1; x <= size; x++) {
+            for (int line = 2 * x * COLORS; line < 2 * (x + 1) * COLORS; line++) {
+                LineSet row = insects.get(ROWS).get(line);
+                for (int y = row == null ? LineSet.NONE : row.higher(0); y != LineSet.NONE; y = row.higher(y)) {
+                    Insect insect = cells.insectAt(x, y);
+                    hashes.toggle(x, y, BoardHash.kind(insect.getColor(), insect.getType()), 0);
+                }
+            }
+            for (int parity = 0; parity < 2; parity++) {
+                LineSet row = foodCells.get(ROWS).get(2 * x + parity);
+                for (int y = row == null ? LineSet.NONE : row.higher(0); y != LineSet.NONE; y = row.higher(y)) {
+                    hashes.toggle(x, y, BoardHash.FOOD, cells.foodAt(x, y));
+                }
+            }
+        }
+    }
+
+    /**
+     * Getter for hashes of the storage.
+     * @return Hashes or null if they are not tracked.
+     */
+    BoardHash getHashes() {
+        return hashes;
+    }
+
+    /**
+     * Function that takes snapshot of the storage. Changes made after it are journaled
+     * and can be rolled back, snapshots can be nested.
+     * @return Snapshot to roll back to or to release.
+     * @see UndoJournal
+     */
+    int snapshot() {
+        return journal.open();
+    }
+
+    /**
+     * Function that returns the storage to the state of the snapshot and closes it
+     * together with all snapshots taken after it.
+     * @param snapshot snapshot taken by this storage.
+     */
+    void rollback(int snapshot) {
+        int mark = journal.mark(snapshot);
+        for (int i = journal.size() - 1; i >= mark; i--) {
+            int x = journal.x(i);
+            int y = journal.y(i);
+            int cell = journal.cell(i);
+            if (cell == EMPTY) {
+                erase(x, y, cells.cellAt(x, y));
+            } else if (cell == FOOD) {
+                placeFood(x, y, journal.value(i));
+            } else {
+                place(journal.insect(i));
+            }
+        }
+        journal.truncate(mark);
+        journal.close(snapshot);
+    }
+
+    /**
+     * Function that keeps changes made after the snapshot and closes it
+     * together with all snapshots taken after it.
+     * @param snapshot snapshot taken by this storage.
+     */
+    void release(int snapshot) {
+        journal.close(snapshot);
+    }
+
+    @Override
+    public int[] foodGrid() {
+        return cells.foodGrid();
+    }
+
+    @Override
+    public int count() {
+        return cells.count();
+    }
+
+    @Override
+    public void clear() {
+        cells.clear();
+        journal.clear();
+        visibility = null;
+        if (hashes != null) {
+            hashes.clear();
+        }
+        for (int family = 0; family < FAMILIES; family++) {
+            food.get(family).clear();
+            foodCells.get(family).clear();
+            insects.get(family).clear();
+        }
+    }
+
+    /**
+     * Shows whether the ray can be answered by indexes.
+     * @param step distance between visited cells.
      * @param boardSize size of the board.
-     * @return Integer number of value of food points
-     * on provided direction.
-     */
-    @Override
-    public int getDiagonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int directionValue = 0;
-        int x = entityPosition.getX();
-        int y = entityPosition.getY();
-        EntityPosition newPos = move(x, y, dir, 1);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        directionValue += ((FoodPoint) boardData.get(key)).value;
+     * @return True if indexes can be used.
+     */
+    private boolean indexed(int step, int boardSize) {
+        return step <= 2 && boardSize == size;
+    }
+
+    /**
+     * Function used to find the nearest occupied cell on the ray.
+     * Rays which are not indexed jump over empty cells as the wrapped storage does.
+     * @param x x coordinate of the start cell.
+     * @param y y coordinate of the start cell.
+     * @param dx shift of x coordinate between visited cells.
+     * @param dy shift of y coordinate between visited cells.
+     * @param limit number of cells of the ray inside the board.
+     * @return Number of shifts to the occupied cell, 0 if there is no such cell within the limit.
+     */
+    @Override
+    public int nextOccupied(int x, int y, int dx, int dy, int limit) {
+        return cells.nextOccupied(x, y, dx, dy, limit);
+    }
+
+    @Override
+    public int foodAlong(int x, int y, Direction dir, int step, int boardSize) {
+        if (!indexed(step, boardSize)) {
+            return BoardStorage.super.foodAlong(x, y, dir, step, boardSize);
+        }
+        int family = family(dir);
+        int key = key(family, x, y);
+        int coordinate = coordinate(family, x, y);
+        if (delta(dir) > 0) {
+            return foodBetween(family, key, coordinate, step, coordinate + 1, size);
+        }
+        return foodBetween(family, key, coordinate, step, 1, coordinate - 1);
+    }
+
+    /**
+     * Function used to get sum of food of the line in the range of coordinates
+     * visited by the ray.
+     * @param family family of lines.
+     * @param key key of the line.
+     * @param coordinate coordinate of the start of the ray.
+     * @param step distance between visited cells (1 or 2).
+     * @param from first coordinate, inclusive.
+     * @param to last coordinate, inclusive.
+     * @return Sum of food values.
+     */
+    private int foodBetween(int family, int key, int coordinate, int step, int from, int to) {
+        int sum = 0;
+        for (int parity = 0; parity < 2; parity++) {
+            if (step == 1 || parity == (coordinate & 1)) {
+                LineSums line = food.get(family).get(2 * key + parity);
+                if (line != null) {
+                    sum += line.sum(from, to);
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Function used to find the first insect of other color on the ray.
+     * @param x x coordinate of the start cell.
+     * @param y y coordinate of the start cell.
+     * @param color color of the insect that walks the ray.
+     * @param dir direction of the ray.
+     * @param step distance between visited cells (1 or 2).
+     * @return Coordinate of the enemy along the line, or coordinate just after
+     * the border of the board if there is no enemy.
+     */
+    private int firstEnemy(int x, int y, InsectColor color, Direction dir, int step) {
+        int family = family(dir);
+        int key = key(family, x, y);
+        int coordinate = coordinate(family, x, y);
+        boolean forward = delta(dir) > 0;
+        int stop = forward ? size + 1 : 0;
+        for (int parity = 0; parity < 2; parity++) {
+            if (step == 2 && parity != (coordinate & 1)) {
+                continue;
+            }
+            for (int other = 0; other < COLORS; other++) {
+                LineSet line = insects.get(family).get((2 * key + parity) * COLORS + other);
+                if (other == color.ordinal() || line == null) {
+                    continue;
+                }
+                if (forward) {
+                    int enemy = line.higher(coordinate);
+                    if (enemy != LineSet.NONE && enemy < stop) {
+                        stop = enemy;
                     }
+                } else {
+                    int enemy = line.lower(coordinate);
+                    if (enemy != LineSet.NONE && enemy > stop) {
+                        stop = enemy;
+                    }
+                }
+            }
+        }
+        return stop;
+    }
+
+    @Override
+    public int travel(int x, int y, InsectColor color, Direction dir, int step, int boardSize) {
+        if (!indexed(step, boardSize)) {
+            return BoardStorage.super.travel(x, y, color, dir, step, boardSize);
+        }
+        int family = family(dir);
+        int key = key(family, x, y);
+        int coordinate = coordinate(family, x, y);
+        int stop = firstEnemy(x, y, color, dir, step);
+        int from = delta(dir) > 0 ? coordinate + 1 : stop + 1;
+        int to = delta(dir) > 0 ? stop - 1 : coordinate - 1;
+        int eaten = foodBetween(family, key, coordinate, step, from, to);
+        for (int parity = 0; parity < 2; parity++) {
+            LineSet line = foodCells.get(family).get(2 * key + parity);
+            if (line == null || step == 2 && parity != (coordinate & 1)) {
+                continue;
+            }
+            for (int i = line.higher(from - 1); i != LineSet.NONE && i <= to; i = line.higher(i)) {
+                remove(cellX(family, key, i), cellY(family, key, i));
+            }
+        }
+        remove(x, y);
+        return eaten;
+    }
+}
+
+/**
+ * Reverse visibility index of a board: for every row, column, diagonal and anti-diagonal
+ * the insects which stand on it. A cell is visible only to insects of its four lines
+ * which have the direction towards it and reach it with their stride,
+ * so lines answer which insects see a cell without a list for every cell.
+ * Values of all directions of every watched insect are kept: a change of food in a cell
+ * adds the difference to one value of every insect which sees it and selects its direction again,
+ * so a change costs the number of insects on four lines, not the length of their rays.
+ * @see IndexedBoardStorage#watch()
+ */
+class VisibilityIndex {
+    /**
+     * Number of families of lines.
+     */
+    private static final int FAMILIES = IndexedBoardStorage.FAMILIES;
+    /**
+     * All directions by ordinal.
+     */
+    private static final Direction[] DIRECTIONS = Direction.values();
+    /**
+     * Number of possible changes of one coordinate.
+     */
+    private static final int SHIFTS = 3;
+    /**
+     * Directions by (dx + 1) * SHIFTS + dy + 1, null for no change.
+     */
+    private static final Direction[] BY_SHIFT = new Direction[SHIFTS * SHIFTS];
+    /**
+     * Bits of ordinals of directions of every type by ordinal of the type.
+     */
+    private static final int[] DIRECTION_BITS = new int[InsectType.COUNT];
+    /**
+     * Initial number of insects.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * Initial length of the array of a line.
+     */
+    private static final int INITIAL_LINE = 4;
+
+    static {
+        for (Direction dir : DIRECTIONS) {
+            BY_SHIFT[(dir.dx() + 1) * SHIFTS + dir.dy() + 1] = dir;
+        }
+        for (InsectType type : InsectType.values()) {
+            for (Direction dir : type.getDirections()) {
+                DIRECTION_BITS[type.ordinal()] |= 1 << dir.ordinal();
+            }
+        }
+    }
+
+    /**
+     * Size of the board (n x n).
+     */
+    private final int size;
+    /**
+     * Insects of lines by family and key: number of insects, then their ids.
+     */
+    private final List<LineTable<int[]>> lines = new ArrayList<>(FAMILIES);
+    /**
+     * Insects by id, null for free ids.
+     */
+    private Insect[] insects = new Insect[INITIAL_CAPACITY];
+    /**
+     * x coordinates of insects by id.
+     */
+    private int[] xs = new int[INITIAL_CAPACITY];
+    /**
+     * y coordinates of insects by id.
+     */
+    private int[] ys = new int[INITIAL_CAPACITY];
+    /**
+     * Types of insects by id.
+     */
+    private InsectType[] types = new InsectType[INITIAL_CAPACITY];
+    /**
+     * Values of directions by id * number of directions + ordinal of direction.
+     */
+    private int[] values = new int[INITIAL_CAPACITY * DIRECTIONS.length];
+    /**
+     * Selected directions by id.
+     */
+    private Direction[] selected = new Direction[INITIAL_CAPACITY];
+    /**
+     * Number of ids ever given.
+     */
+    private int used;
+    /**
+     * Ids of removed insects which can be given again.
+     */
+    private int[] free = new int[INITIAL_CAPACITY];
+    /**
+     * Number of free ids.
+     */
+    private int freeCount;
+    /**
+     * Ids of insects whose direction changed since the last Board#changedDirections().
+     */
+    private int[] changed = new int[INITIAL_CAPACITY];
+    /**
+     * Number of changed ids.
+     */
+    private int changedCount;
+    /**
+     * Shows by id whether the insect is among changed ones.
+     */
+    private boolean[] dirty = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * Constructor for empty index.
+     * @param boardSize size of the board.
+     */
+    VisibilityIndex(int boardSize) {
+        this.size = boardSize;
+        for (int family = 0; family < FAMILIES; family++) {
+            boolean straight = family == IndexedBoardStorage.ROWS || family == IndexedBoardStorage.COLUMNS;
+            lines.add(new LineTable<>(straight ? boardSize + 1 : 2 * boardSize + 1));
+        }
+    }
+
+    /**
+     * Function used to get number of the line of the family which contains the cell.
+     * Lines are numbered as by IndexedBoardStorage.
+     * @param family family of lines.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Key of the line.
+     */
+    private int key(int family, int x, int y) {
+        switch (family) {
+            case IndexedBoardStorage.ROWS:
+                return x;
+            case IndexedBoardStorage.COLUMNS:
+                return y;
+            case IndexedBoardStorage.DIAGONALS:
+                return x - y + size;
+            default:
+                return x + y;
+        }
+    }
+
+    /**
+     * Function that starts to watch the insect: values of its directions are taken from the storage.
+     * @param insect insect placed in the storage.
+     * @param boardData storage of the board.
+     */
+    void addInsect(Insect insect, BoardStorage boardData) {
+        int id = freeCount > 0 ? free[--freeCount] : used++;
+        if (id == insects.length) {
+            grow();
+        }
+        int x = insect.getX();
+        int y = insect.getY();
+        InsectType type = insect.getType();
+        insects[id] = insect;
+        xs[id] = x;
+        ys[id] = y;
+        types[id] = type;
+        Arrays.fill(values, id * DIRECTIONS.length, (id + 1) * DIRECTIONS.length, 0);
+        for (Direction dir : type.getDirections()) {
+            values[id * DIRECTIONS.length + dir.ordinal()] = boardData.foodAlong(x, y, dir, type.getStride(), size);
+        }
+        selected[id] = null;
+        select(id);
+        for (int family = 0; family < FAMILIES; family++) {
+            int key = key(family, x, y);
+            int[] line = lines.get(family).get(key);
+            if (line == null) {
+                line = new int[INITIAL_LINE];
+                lines.get(family).put(key, line);
+            } else if (line[0] + 1 == line.length) {
+                line = Arrays.copyOf(line, 2 * line.length);
+                lines.get(family).replace(key, line);
+            }
+            line[++line[0]] = id;
+        }
+    }
+
+    /**
+     * Function that doubles arrays of insects.
+     */
+    private void grow() {
+        int capacity = 2 * insects.length;
+        insects = Arrays.copyOf(insects, capacity);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        types = Arrays.copyOf(types, capacity);
+        values = Arrays.copyOf(values, capacity * DIRECTIONS.length);
+        selected = Arrays.copyOf(selected, capacity);
+        free = Arrays.copyOf(free, capacity);
+        changed = Arrays.copyOf(changed, capacity);
+        dirty = Arrays.copyOf(dirty, capacity);
+    }
+
+    /**
+     * Function that stops to watch the insect in the cell if there is one.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     */
+    void removeInsect(int x, int y) {
+        int id = find(x, y);
+        if (id < 0) {
+            return;
+        }
+        for (int family = 0; family < FAMILIES; family++) {
+            int[] line = lines.get(family).get(key(family, x, y));
+            for (int k = 1; k <= line[0]; k++) {
+                if (line[k] == id) {
+                    line[k] = line[line[0]--];
+                    break;
+                }
+            }
+        }
+        insects[id] = null;
+        types[id] = null;
+        free[freeCount++] = id;
+    }
+
+    /**
+     * Function used to get id of the insect in the cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Id or -1 if the insect in the cell is not watched.
+     */
+    private int find(int x, int y) {
+        int[] row = lines.get(IndexedBoardStorage.ROWS).get(x);
+        if (row != null) {
+            for (int k = 1; k <= row[0]; k++) {
+                if (ys[row[k]] == y) {
+                    return row[k];
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Function that adds the change of food in the cell to values of directions
+     * of insects which see the cell and selects their directions again.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param change difference of food value, negative when food is removed.
+     */
+    void foodChanged(int x, int y, int change) {
+        for (int family = 0; family < FAMILIES; family++) {
+            int[] line = lines.get(family).get(key(family, x, y));
+            if (line == null) {
+                continue;
+            }
+            for (int k = 1; k <= line[0]; k++) {
+                int id = line[k];
+                int dx = x - xs[id];
+                int dy = y - ys[id];
+                Direction dir = BY_SHIFT[(Integer.signum(dx) + 1) * SHIFTS + Integer.signum(dy) + 1];
+                InsectType type = types[id];
+                if (dir == null || (DIRECTION_BITS[type.ordinal()] & 1 << dir.ordinal()) == 0
+                        || Math.max(Math.abs(dx), Math.abs(dy)) % type.getStride() != 0) {
+                    continue;
                 }
+                values[id * DIRECTIONS.length + dir.ordinal()] += change;
+                select(id);
+            }
+        }
+    }
+
+    /**
+     * Function that selects direction of the insect from kept values with the rule of
+     * MovementEngine#bestDirection(InsectType, int, int, BoardStorage, int) and remembers the insect
+     * if the direction changed.
+     * @param id id of the insect.
+     */
+    private void select(int id) {
+        Direction[] directions = types[id].getDirections();
+        Direction best = null;
+        int bestValue = 0;
+        for (Direction dir : directions) {
+            int value = values[id * DIRECTIONS.length + dir.ordinal()];
+            if (value > bestValue || value == bestValue && best == null) {
+                best = dir;
+                bestValue = value;
+            }
+        }
+        if (best == null) {
+            best = directions[directions.length - 1];
+        }
+        if (best != selected[id]) {
+            selected[id] = best;
+            if (!dirty[id]) {
+                dirty[id] = true;
+                changed[changedCount++] = id;
+            }
+        }
+    }
+
+    /**
+     * Function used to get selected direction of the insect in the cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Direction or null if the insect is not watched.
+     */
+    Direction direction(int x, int y) {
+        int id = find(x, y);
+        return id < 0 ? null : selected[id];
+    }
+
+    /**
+     * Function used to get insects whose direction changed since the previous call and forget them.
+     * @return Watched insects in order of changes.
+     */
+    List<Insect> changed() {
+        List<Insect> result = new ArrayList<>(changedCount);
+        for (int i = 0; i < changedCount; i++) {
+            int id = changed[i];
+            dirty[id] = false;
+            if (insects[id] != null) {
+                result.add(insects[id]);
             }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 1);
         }
-        return directionValue;
+        changedCount = 0;
+        return result;
+    }
+}
+
+/**
+ * Journal of changes of the board made since the oldest open snapshot.
+ * Every entry is a cell with its content before the change: EMPTY for the cell which was filled,
+ * food value or insect for the cell which was emptied. Rollback replays entries backwards,
+ * so taking snapshot is O(1) and rollback is O(number of changes after it).
+ * @see IndexedBoardStorage#snapshot()
+ */
+class UndoJournal {
+    /**
+     * Initial capacity of arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+    /**
+     * x coordinates of changed cells.
+     */
+    private int[] xs = new int[INITIAL_CAPACITY];
+    /**
+     * y coordinates of changed cells.
+     */
+    private int[] ys = new int[INITIAL_CAPACITY];
+    /**
+     * Codes of cells before changes.
+     */
+    private byte[] cells = new byte[INITIAL_CAPACITY];
+    /**
+     * Food values of cells before changes.
+     */
+    private int[] values = new int[INITIAL_CAPACITY];
+    /**
+     * Insects of cells before changes, null for other cells.
+     */
+    private Insect[] insects = new Insect[INITIAL_CAPACITY];
+    /**
+     * Number of entries.
+     */
+    private int size;
+    /**
+     * Numbers of entries at open snapshots, in order of opening.
+     */
+    private int[] marks = new int[INITIAL_CAPACITY];
+    /**
+     * Number of open snapshots.
+     */
+    private int depth;
+
+    /**
+     * Shows whether changes are journaled.
+     * @return True if there is an open snapshot.
+     */
+    boolean isRecording() {
+        return depth > 0;
+    }
+
+    /**
+     * Function that opens snapshot.
+     * @return Number of snapshots opened before it, which identifies the snapshot.
+     */
+    int open() {
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, depth * 2);
+        }
+        marks[depth] = size;
+        return depth++;
+    }
+
+    /**
+     * Getter for number of entries at the open snapshot.
+     * @param snapshot identifier of the snapshot.
+     * @return Number of entries.
+     * @throws IllegalArgumentException If the snapshot is not open.
+     */
+    int mark(int snapshot) {
+        if (snapshot < 0 || snapshot >= depth) {
+            throw new IllegalArgumentException("Snapshot " + snapshot + " is not open");
+        }
+        return marks[snapshot];
+    }
+
+    /**
+     * Function that closes the snapshot and all snapshots opened after it.
+     * Entries are forgotten when no snapshot is open.
+     * @param snapshot identifier of the snapshot.
+     */
+    void close(int snapshot) {
+        mark(snapshot);
+        depth = snapshot;
+        if (depth == 0) {
+            truncate(0);
+        }
+    }
+
+    /**
+     * Function that adds entry about the cell before its change.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param cell code of the cell.
+     * @param value food value of the cell.
+     * @param insect insect of the cell or null.
+     */
+    void record(int x, int y, int cell, int value, Insect insect) {
+        if (size == xs.length) {
+            int capacity = size * 2;
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            cells = Arrays.copyOf(cells, capacity);
+            values = Arrays.copyOf(values, capacity);
+            insects = Arrays.copyOf(insects, capacity);
+        }
+        xs[size] = x;
+        ys[size] = y;
+        cells[size] = (byte) cell;
+        values[size] = value;
+        insects[size] = insect;
+        size++;
+    }
+
+    /**
+     * Function that forgets entries after provided number.
+     * @param count number of kept entries.
+     */
+    void truncate(int count) {
+        Arrays.fill(insects, count, size, null);
+        size = count;
+    }
+
+    /**
+     * Function that forgets all entries and snapshots.
+     */
+    void clear() {
+        depth = 0;
+        truncate(0);
+    }
+
+    /**
+     * Getter for number of entries.
+     * @return Number of journaled changes.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Getter for x coordinate of the entry.
+     * @param i index of the entry.
+     * @return x coordinate.
+     */
+    int x(int i) {
+        return xs[i];
+    }
+
+    /**
+     * Getter for y coordinate of the entry.
+     * @param i index of the entry.
+     * @return y coordinate.
+     */
+    int y(int i) {
+        return ys[i];
+    }
+
+    /**
+     * Getter for code of the cell before the change.
+     * @param i index of the entry.
+     * @return Cell code.
+     */
+    int cell(int i) {
+        return cells[i];
+    }
+
+    /**
+     * Getter for food value of the cell before the change.
+     * @param i index of the entry.
+     * @return Food value.
+     */
+    int value(int i) {
+        return values[i];
+    }
+
+    /**
+     * Getter for insect of the cell before the change.
+     * @param i index of the entry.
+     * @return Insect or null.
+     */
+    Insect insect(int i) {
+        return insects[i];
+    }
+}
+
+/**
+ * Sums of values of coordinates of one parity of one line of the board.
+ * @see FenwickLine
+ * @see SparseFenwickLine
+ */
+interface LineSums {
+    /**
+     * Function that adds value to the coordinate.
+     * @param coordinate coordinate on the line.
+     * @param value added value.
+     */
+    void add(int coordinate, int value);
+
+    /**
+     * Function used to get sum of values of coordinates in the range.
+     * @param from first coordinate, inclusive.
+     * @param to last coordinate, inclusive.
+     * @return Sum of values, 0 if range is empty.
+     */
+    int sum(int from, int to);
+}
+
+/**
+ * Fenwick tree over all coordinates of one parity of a line: element i stands for coordinate
+ * 2 * i + parity, so the tree is allocated once for the whole line and both updates
+ * and queries are O(log n). Coordinates without food hold 0.
+ */
+class FenwickLine implements LineSums {
+    /**
+     * Parity of coordinates of the line.
+     */
+    private final int parity;
+    /**
+     * Fenwick tree over values, 1-based.
+     */
+    private final int[] tree;
+
+    /**
+     * Constructor for line without food.
+     * @param parity parity of coordinates, 0 or 1.
+     * @param boardSize size of the board, coordinates are from 1 to boardSize.
+     */
+    FenwickLine(int parity, int boardSize) {
+        this.parity = parity;
+        this.tree = new int[(boardSize >> 1) + 2];
+    }
+
+    @Override
+    public void add(int coordinate, int value) {
+        for (int i = (coordinate >> 1) + 1; i < tree.length; i += i & -i) {
+            tree[i] += value;
+        }
     }
 
     /**
-     * Function that provides the action of moving for insects in <b>diagonal way</b>:
-     * changes board data, removes food points(if they were eaten)
-     * and provided insect.
-     * @param dir direction for path.
-     * @param entityPosition position of the insect.
-     * @param color color of the insect.
-     * @param boardData data of board entities.
-     * @param boardSize size of the board.
-     * @return Integer amount of eaten food.
-     */
-    @Override
-    public int travelDiagonally(Direction dir,  EntityPosition entityPosition, InsectColor color, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int totalAmount = 0;
-        ArrayList<EntityPosition> removable = new ArrayList<>();
-        EntityPosition newPos = move(entityPosition.getX(), entityPosition.getY(), dir, 1);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        totalAmount += ((FoodPoint) boardData.get(key)).value;
-                        removable.add(key);
-                    } else if (boardData.get(key) instanceof Insect) {
-                        if (!((Insect) boardData.get(key)).color.name().equals(color.name())) {
-                            boardData.remove(entityPosition);
-                            for (EntityPosition i : removable) {
-                                boardData.remove(i);
-                            }
-                            return totalAmount;
-                        }
-                    }
-                }
-            }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 1);
-        }
-        boardData.remove(entityPosition);
-        for (EntityPosition i : removable) {
-            boardData.remove(i);
+     * Function used to get sum of values of coordinates not greater than provided one.
+     * @param coordinate bound, inclusive.
+     * @return Sum of values.
+     */
+    private int prefix(int coordinate) {
+        int sum = 0;
+        for (int i = Math.min(((coordinate - parity) >> 1) + 1, tree.length - 1); i > 0; i -= i & -i) {
+            sum += tree[i];
         }
-        return totalAmount;
+        return sum;
+    }
+
+    @Override
+    public int sum(int from, int to) {
+        return from > to ? 0 : prefix(to) - prefix(from - 1);
     }
+}
 
+/**
+ * Fenwick tree over coordinates of a line of a big board which keeps only its non-zero nodes
+ * in a hash table of ints. Updates and queries visit O(log n) nodes, a node is removed
+ * as soon as its sum is 0, so memory follows the food which is on the line now.
+ */
+class SparseFenwickLine implements LineSums {
     /**
-     * Function that selects the best way of all possible directions.
-     * @param boardData data of all entities on the board.
-     * @param boardSize size of the board.
-     * @return The best possible direction.
+     * Initial number of slots of the hash table, power of two.
      */
-    @Override
-    public Direction getBestDirection(Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int maxOfN = getOrthogonalDirectionVisibleValue(Direction.N, entityPosition, boardData, boardSize);
-        int maxOfE = getOrthogonalDirectionVisibleValue(Direction.E, entityPosition, boardData, boardSize);
-        int maxOfS = getOrthogonalDirectionVisibleValue(Direction.S, entityPosition, boardData, boardSize);
-        int maxOfW = getOrthogonalDirectionVisibleValue(Direction.W, entityPosition, boardData, boardSize);
-        int maxOfNE = getDiagonalDirectionVisibleValue(Direction.NE, entityPosition, boardData, boardSize);
-        int maxOfNW = getDiagonalDirectionVisibleValue(Direction.NW, entityPosition, boardData, boardSize);
-        int maxOfSE = getDiagonalDirectionVisibleValue(Direction.SE, entityPosition, boardData, boardSize);
-        int maxOfSW = getDiagonalDirectionVisibleValue(Direction.SW, entityPosition, boardData, boardSize);
-        int[] directionValues = {maxOfN, maxOfE, maxOfS, maxOfW, maxOfNE, maxOfSE, maxOfSW, maxOfNW};
-        int best = max(directionValues);
-        if (best == maxOfN) {
-            return Direction.N;
-        } else if (best == maxOfE) {
-            return Direction.E;
-        } else if (best == maxOfS) {
-            return Direction.S;
-        } else if (best == maxOfW) {
-            return Direction.W;
-        } else if (best == maxOfNE) {
-            return Direction.NE;
-        } else if (best == maxOfNW) {
-            return Direction.NW;
-        } else if (best == maxOfSE) {
-            return Direction.SE;
-        } else {
-            return Direction.SW;
-        }
+    private static final int INITIAL_SLOTS = 8;
+    /**
+     * Multiplier which mixes numbers of nodes.
+     */
+    private static final int MIX = 0x9E3779B9;
+
+    /**
+     * Greatest coordinate of the line.
+     */
+    private final int length;
+    /**
+     * Numbers of nodes by slot, 0 for free slots.
+     */
+    private int[] keys = new int[INITIAL_SLOTS];
+    /**
+     * Sums of nodes by slot.
+     */
+    private int[] sums = new int[INITIAL_SLOTS];
+    /**
+     * Number of nodes in the hash table.
+     */
+    private int used;
+
+    /**
+     * Constructor for line without food.
+     * @param boardSize size of the board, coordinates are from 1 to boardSize.
+     */
+    SparseFenwickLine(int boardSize) {
+        this.length = boardSize;
     }
 
     /**
-     * Function that makes <u>travel</u> action of <b>all possible ways</b>.
-     * @param dir direction of the path.
-     * @param boardData data of all entities on the board.
-     * @param boardSize size of the board.
-     * @return Integer amount eaten food for insect.
-     * @see DiagonalMoving#travelDiagonally(Direction, EntityPosition, InsectColor, Map, int)
-     * @see OrthogonalMoving#travelOrthogonal(Direction, EntityPosition, InsectColor, Map, int)
+     * Function used to get the first slot of the node in the hash table.
+     * @param node number of the node.
+     * @param mask number of slots minus one.
+     * @return Slot where search starts.
      */
+    private static int home(int node, int mask) {
+        int hash = node * MIX;
+        return (hash ^ hash >>> 16) & mask;
+    }
+
     @Override
-    public int travelDirection(Direction dir, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        if (dir == Direction.E || dir == Direction.S || dir == Direction.N || dir == Direction.W) {
-            return this.travelOrthogonal(dir, this.entityPosition, this.color, boardData, boardSize);
-        } else {
-            return this.travelDiagonally(dir, this.entityPosition, this.color, boardData, boardSize);
+    public void add(int coordinate, int value) {
+        if (value == 0) {
+            return;
+        }
+        for (int i = coordinate; i <= length; i += i & -i) {
+            addNode(i, value);
         }
     }
 
     /**
-     * Function used to get values of possible <b>orthogonal ways</b>
-     * depending on food points on the board.
-     * @param dir direction of the way.
-     * @param entityPosition position of the insect.
-     * @param boardData data of entities on the board.
-     * @param boardSize size of the board.
-     * @return Integer number of value of food points
-     * on provided direction.
-     */
-    @Override
-    public int getOrthogonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int directionValue = 0;
-        int x = entityPosition.getX();
-        int y = entityPosition.getY();
-        EntityPosition newPos = move(x, y, dir, 1);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        directionValue += ((FoodPoint) boardData.get(key)).value;
-                    }
+     * Function that adds value to the node, creating or removing it when needed.
+     * @param node number of the node.
+     * @param value added value, not 0.
+     */
+    private void addNode(int node, int value) {
+        int mask = keys.length - 1;
+        int slot = home(node, mask);
+        while (keys[slot] != 0) {
+            if (keys[slot] == node) {
+                sums[slot] += value;
+                if (sums[slot] == 0) {
+                    remove(slot);
                 }
+                return;
             }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 1);
+            slot = (slot + 1) & mask;
         }
-        return directionValue;
+        if (2 * (used + 1) > keys.length) {
+            grow();
+            addNode(node, value);
+            return;
+        }
+        keys[slot] = node;
+        sums[slot] = value;
+        used++;
     }
 
     /**
-     * Function that provides the action of moving for insects in <b>orthogonal way</b>:
-     * changes board data, removes food points(if they were eaten)
-     * and provided insect.
-     * @param dir direction for path.
-     * @param entityPosition position of the insect.
-     * @param color color of the insect.
-     * @param boardData data of board entities.
-     * @param boardSize size of the board.
-     * @return Integer amount of eaten food.
-     */
-    @Override
-    public int travelOrthogonal(Direction dir, EntityPosition entityPosition, InsectColor color, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int totalAmount = 0;
-        ArrayList<EntityPosition> removable = new ArrayList<>();
-        EntityPosition newPos = move(entityPosition.getX(), entityPosition.getY(), dir, 1);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        totalAmount += ((FoodPoint) boardData.get(key)).value;
-                        removable.add(key);
-                    } else if (boardData.get(key) instanceof Insect) {
-                        if (!((Insect) boardData.get(key)).color.name().equals(color.name())) {
-                            boardData.remove(entityPosition);
-                            for (EntityPosition i : removable) {
-                                boardData.remove(i);
-                            }
-                            return totalAmount;
-                        }
-                    }
-                }
+     * Function that frees the slot and moves later nodes of its cluster back,
+     * so searches need no markers of removed nodes.
+     * @param slot slot of the removed node.
+     */
+    private void remove(int slot) {
+        int mask = keys.length - 1;
+        int free = slot;
+        for (int next = (free + 1) & mask; keys[next] != 0; next = (next + 1) & mask) {
+            if (((next - home(keys[next], mask)) & mask) >= ((next - free) & mask)) {
+                keys[free] = keys[next];
+                sums[free] = sums[next];
+                free = next;
+            }
+        }
+        keys[free] = 0;
+        sums[free] = 0;
+        used--;
+    }
+
+    /**
+     * Function that doubles the hash table.
+     */
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldSums = sums;
+        keys = new int[2 * oldKeys.length];
+        sums = new int[2 * oldSums.length];
+        used = 0;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != 0) {
+                addNode(oldKeys[slot], oldSums[slot]);
             }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 1);
         }
-        boardData.remove(entityPosition);
-        for (EntityPosition i : removable) {
-            boardData.remove(i);
+    }
+
+    /**
+     * Function used to get sum of the node.
+     * @param node number of the node.
+     * @return Sum, 0 if node is absent.
+     */
+    private int node(int node) {
+        int mask = keys.length - 1;
+        for (int slot = home(node, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == node) {
+                return sums[slot];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Function used to get sum of values of coordinates not greater than provided one.
+     * @param coordinate bound, inclusive.
+     * @return Sum of values.
+     */
+    private int prefix(int coordinate) {
+        int sum = 0;
+        for (int i = Math.min(coordinate, length); i > 0; i -= i & -i) {
+            sum += node(i);
         }
-        return totalAmount;
+        return sum;
+    }
+
+    @Override
+    public int sum(int from, int to) {
+        return from > to ? 0 : prefix(to) - prefix(from - 1);
     }
 }
 
 /**
- * Class used to declare boards. Contains boardData, and size.
- * @see Board#Board(int)
- * @see Board#addEntity(BoardEntity)
- * @see Board#getDirection(Insect)
- * @see Board#getDirectionSum(Insect)
+ * Set of occupied coordinates of one line of the board.
+ * @see SortedIntSet
+ * @see LineBitset
  */
-class Board {
+interface LineSet {
     /**
-     * Map that contains information about entities on the board.
+     * Value returned when there is no such element.
      */
-    private Map<EntityPosition, BoardEntity> boardData = new HashMap<>();
+    int NONE = Integer.MIN_VALUE;
+
     /**
-     * Size of the board (n x n).
+     * Function that adds element if it is absent.
+     * @param value element.
      */
-    private final int size;
+    void add(int value);
 
     /**
-     * Constructor for board.
-     * @param boardSize size of the board.
+     * Function that removes element if it is present.
+     * @param value element.
      */
-    Board(int boardSize) {
-        this.size = boardSize;
-    }
+    void remove(int value);
 
     /**
-     * Function for adding some entity on the board.
-     * @param entity insect or food point that needed to add on board.
+     * Function used to get the least element greater than provided.
+     * @param value bound.
+     * @return Element or NONE.
      */
-    public void addEntity(BoardEntity entity) {
-        this.boardData.put(entity.entityPosition, entity);
-    }
+    int higher(int value);
 
     /**
-     * Function used to get entity from the board by its position.
-     * @param position entity position on the board
-     * @return Board entity
+     * Function used to get the greatest element less than provided.
+     * @param value bound.
+     * @return Element or NONE.
      */
-    public BoardEntity getEntity(EntityPosition position) {
-        return this.boardData.get(position);
-    }
+    int lower(int value);
+}
 
+/**
+ * Sorted set of integers kept in an array.
+ * Search is a binary search, insertion and removal shift the tail,
+ * which is cheap for the small number of insects on one line.
+ */
+class SortedIntSet implements LineSet {
     /**
-     * Function used to get direction selected by insect (most valuable or primary).
-     * @param insect insect that is on the board.
-     * @return Selected direction.
+     * Sorted elements.
      */
-    public Direction getDirection(Insect insect) {
-        return insect.getBestDirection(boardData, size);
-    }
-
+    private int[] elements = new int[2];
     /**
-     * Function used to get the value of the path traveled by some insect.
-     * @param insect insect type entity which is on the board.
-     * @return Value of selected path.
+     * Number of elements.
      */
-    public int getDirectionSum(Insect insect) {
-        return insect.travelDirection(getDirection(insect), boardData, size);
+    private int count;
+
+    @Override
+    public void add(int value) {
+        int i = Arrays.binarySearch(elements, 0, count, value);
+        if (i >= 0) {
+            return;
+        }
+        i = -i - 1;
+        if (count == elements.length) {
+            elements = Arrays.copyOf(elements, count * 2);
+        }
+        System.arraycopy(elements, i, elements, i + 1, count - i);
+        elements[i] = value;
+        count++;
+    }
+
+    @Override
+    public void remove(int value) {
+        int i = Arrays.binarySearch(elements, 0, count, value);
+        if (i < 0) {
+            return;
+        }
+        System.arraycopy(elements, i + 1, elements, i, count - i - 1);
+        count--;
+    }
+
+    @Override
+    public int higher(int value) {
+        int i = Arrays.binarySearch(elements, 0, count, value);
+        i = i >= 0 ? i + 1 : -i - 1;
+        return i < count ? elements[i] : NONE;
+    }
+
+    @Override
+    public int lower(int value) {
+        int i = Arrays.binarySearch(elements, 0, count, value);
+        i = i >= 0 ? i - 1 : -i - 2;
+        return i >= 0 ? elements[i] : NONE;
     }
+}
 
+/**
+ * Set of coordinates of one parity of a line kept as bitset: bit i stands for coordinate
+ * 2 * i + parity, so rays with step 2 scan contiguous words. The next element is found
+ * by numberOfTrailingZeros of the first non-zero word, so a ray jumps over 64 empty cells at once.
+ */
+class LineBitset implements LineSet {
     /**
-     * Getter for board size.
-     * @return Integer size.
+     * Parity of coordinates of the set.
      */
-    public int getSize() {
-        return size;
-    }
+    private final int parity;
+    /**
+     * Words of the bitset.
+     */
+    private final long[] words;
 
     /**
-     * Getter for board data.
-     * @return data of entities on the board.
+     * Constructor for empty bitset.
+     * @param parity parity of coordinates, 0 or 1.
+     * @param boardSize size of the board, coordinates are from 1 to boardSize.
      */
-    public Map<EntityPosition, BoardEntity> getBoardData() {
-        return boardData;
+    LineBitset(int parity, int boardSize) {
+        this.parity = parity;
+        this.words = new long[((boardSize >> 1) >> 6) + 1];
+    }
+
+    @Override
+    public void add(int value) {
+        int bit = value >> 1;
+        words[bit >> 6] |= 1L << bit;
+    }
+
+    @Override
+    public void remove(int value) {
+        int bit = value >> 1;
+        words[bit >> 6] &= ~(1L << bit);
+    }
+
+    @Override
+    public int higher(int value) {
+        int bit = ((value - parity) >> 1) + 1;
+        int i = bit >> 6;
+        if (i >= words.length) {
+            return NONE;
+        }
+        long word = words[i] & (-1L << bit);
+        while (word == 0) {
+            if (++i == words.length) {
+                return NONE;
+            }
+            word = words[i];
+        }
+        return 2 * ((i << 6) + Long.numberOfTrailingZeros(word)) + parity;
+    }
+
+    @Override
+    public int lower(int value) {
+        int bit = ((value - parity + 1) >> 1) - 1;
+        if (bit < 0) {
+            return NONE;
+        }
+        int i = bit >> 6;
+        long word;
+        if (i >= words.length) {
+            i = words.length - 1;
+            word = words[i];
+        } else {
+            word = words[i] & (-1L >>> (63 - (bit & 63)));
+        }
+        while (word == 0) {
+            if (--i < 0) {
+                return NONE;
+            }
+            word = words[i];
+        }
+        return 2 * ((i << 6) + 63 - Long.numberOfLeadingZeros(word)) + parity;
     }
 }
 
 /**
  * Abstract class which shows that entity refers to board.
- * @see BoardEntity#entityPosition
+ * Entity of a scenario is a view of its element of the entity store;
+ * entity created on its own keeps its data in its fields.
+ * @see BoardEntity#store
  */
 abstract class BoardEntity {
     /**
-     * Shows position of board entity. Consists integers <b>x</b> and <b>y</b>.
+     * Store which keeps data of the entity, null if the entity keeps its data itself.
+     */
+    protected EntityStore store;
+    /**
+     * Index of the entity in the store.
      */
-    protected EntityPosition entityPosition;
+    protected int index;
+    /**
+     * x coordinate of the entity which is not kept in a store.
+     */
+    protected int x;
+    /**
+     * y coordinate of the entity which is not kept in a store.
+     */
+    protected int y;
+
+    /**
+     * Constructor for view which is bound to the store later.
+     */
+    BoardEntity() {
+    }
+
+    /**
+     * Constructor for entity which keeps its data itself.
+     * @param position position of the entity on the board.
+     */
+    BoardEntity(EntityPosition position) {
+        this.x = position.getX();
+        this.y = position.getY();
+    }
+
+    /**
+     * Function that makes the view refer to other element of the store.
+     * @param entityStore store which keeps data of the entity.
+     * @param entityIndex index of the entity in the store.
+     */
+    void bind(EntityStore entityStore, int entityIndex) {
+        this.store = entityStore;
+        this.index = entityIndex;
+    }
+
+    /**
+     * Getter for x coordinate of the entity.
+     * @return x coordinate.
+     */
+    public abstract int getX();
+
+    /**
+     * Getter for y coordinate of the entity.
+     * @return y coordinate.
+     */
+    public abstract int getY();
+
+    /**
+     * Getter for position of the entity.
+     * @return Position with coordinates of the entity.
+     */
+    public EntityPosition getEntityPosition() {
+        return new EntityPosition(getX(), getY());
+    }
 }
 
 /**
  * Class of butterflies needed to identify the type of the insect on the board.
- * Uses Insect class functions + its own constructor.
+ * Moves in orthogonal directions.
  * Extends Insect.
- * Implements OrthogonalMoving.
  * @see Insect
  * @see Butterfly#Butterfly(EntityPosition, InsectColor)
+ * @see InsectType#BUTTERFLY
  */
-class Butterfly extends Insect implements OrthogonalMoving {
+class Butterfly extends Insect {
     /**
      * Constructor for butterfly insect.
      * @param position position on the board.
@@ -691,192 +8077,425 @@ class Butterfly extends Insect implements OrthogonalMoving {
     Butterfly(EntityPosition position, InsectColor color) {
         super(position, color);
     }
+
+    /**
+     * Constructor for view of the butterfly kept in the store.
+     * @param store store of entities.
+     * @param index index of the insect in the store.
+     */
+    Butterfly(EntityStore store, int index) {
+        super(store, index);
+    }
+
+    /**
+     * Getter for type of the insect.
+     * @return Butterfly type.
+     */
+    @Override
+    public InsectType getType() {
+        return InsectType.BUTTERFLY;
+    }
+}
+
+/**
+ * Kernel of movement shared by all types of insects. Types differ only in data:
+ * directions in order of preference and distance between visited cells,
+ * so the same loop chooses direction and travels for all of them.
+ * Stop rule is common: food is eaten, insects of the same color are passed over,
+ * insect of other color or the border stops the travel.
+ * @see MovementEngine#bestDirection(InsectType, int, int, BoardStorage, int)
+ * @see MovementEngine#travel(InsectType, int, int, InsectColor, Direction, BoardStorage, int)
+ * @see BoardStorage#travel(int, int, InsectColor, Direction, int, int)
+ */
+final class MovementEngine {
+    /**
+     * Constructor is hidden, class has only static functions.
+     */
+    private MovementEngine() {
+    }
+
     /**
-     * Function used to get values of possible <b>orthogonal ways</b>
-     * depending on food points on the board.
-     * @param dir direction of the way.
-     * @param entityPosition position of the insect.
-     * @param boardData data of entities on the board.
+     * Function that selects the most valuable direction of the insect.
+     * On ties the direction which goes first for the type is selected;
+     * if every direction has negative value the last one is selected.
+     * @param type type of the insect.
+     * @param x x coordinate of the insect.
+     * @param y y coordinate of the insect.
+     * @param boardData data of all entities on the board.
      * @param boardSize size of the board.
-     * @return Integer number of value of food points
-     * on provided direction.
-     */
-    @Override
-    public int travelOrthogonal(Direction dir, EntityPosition entityPosition, InsectColor color, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int totalAmount = 0;
-        ArrayList<EntityPosition> removable = new ArrayList<>();
-        EntityPosition newPos = move(entityPosition.getX(), entityPosition.getY(), dir, 1);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        totalAmount += ((FoodPoint) boardData.get(key)).value;
-                        removable.add(key);
-                    } else if (boardData.get(key) instanceof Insect) {
-                        if (!((Insect) boardData.get(key)).color.name().equals(color.name())) {
-                            boardData.remove(entityPosition);
-                            for (EntityPosition i : removable) {
-                                boardData.remove(i);
-                            }
-                            return totalAmount;
-                        }
-                    }
-                }
+     * @return The best possible direction.
+     */
+    static Direction bestDirection(InsectType type, int x, int y, BoardStorage boardData, int boardSize) {
+        if (LaneKernel.ENABLED) {
+            int[] food = boardData.foodGrid();
+            if (food != null) {
+                return LaneKernel.bestDirection(type, x, y, food, boardSize);
             }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 1);
         }
-        boardData.remove(entityPosition);
-        for (EntityPosition i : removable) {
-            boardData.remove(i);
+        Direction[] directions = type.getDirections();
+        int stride = type.getStride();
+        Direction best = null;
+        int bestValue = 0;
+        int rayCells = 0;
+        for (Direction dir : directions) {
+            int value = boardData.foodAlong(x, y, dir, stride, boardSize);
+            if (value > bestValue || value == bestValue && best == null) {
+                best = dir;
+                bestValue = value;
+            }
+            if (Metrics.ENABLED) {
+                rayCells += dir.rayLength(x, y, stride, boardSize);
+            }
+        }
+        if (Metrics.ENABLED) {
+            Metrics.RAY_CELLS.record(rayCells);
+        }
+        return best != null ? best : directions[directions.length - 1];
+    }
+
+    /**
+     * Function that tells whether the choice of direction of the insect does not depend
+     * on the order of its directions: one direction is more valuable than all others
+     * and its value is not negative. Such choices are the same for rotated and reflected boards.
+     * @param type type of the insect.
+     * @param x x coordinate of the insect.
+     * @param y y coordinate of the insect.
+     * @param boardData data of all entities on the board.
+     * @param boardSize size of the board.
+     * @return True if there is no tie.
+     */
+    static boolean isDecisive(InsectType type, int x, int y, BoardStorage boardData, int boardSize) {
+        int bestValue = Integer.MIN_VALUE;
+        int best = 0;
+        for (Direction dir : type.getDirections()) {
+            int value = boardData.foodAlong(x, y, dir, type.getStride(), boardSize);
+            if (value > bestValue) {
+                bestValue = value;
+                best = 1;
+            } else if (value == bestValue) {
+                best++;
+            }
+        }
+        return bestValue >= 0 && best == 1;
+    }
+
+    /**
+     * Function that makes <u>travel</u> action of the insect in the direction:
+     * removes eaten food points and the insect from the board.
+     * @param type type of the insect.
+     * @param x x coordinate of the insect.
+     * @param y y coordinate of the insect.
+     * @param color color of the insect.
+     * @param dir direction of the path.
+     * @param boardData data of all entities on the board.
+     * @param boardSize size of the board.
+     * @return Integer amount eaten food for insect.
+     */
+    static int travel(InsectType type, int x, int y, InsectColor color, Direction dir,
+                      BoardStorage boardData, int boardSize) {
+        int eaten = boardData.travel(x, y, color, dir, type.getStride(), boardSize);
+        if (Metrics.ENABLED) {
+            Metrics.FOOD_EATEN.record(eaten);
         }
-        return totalAmount;
+        return eaten;
+    }
+}
+
+/**
+ * Kernel that scores all directions of an insect in one pass over the dense grid of food:
+ * rays are lanes, step k of every lane is taken together and lanes are masked
+ * after they reach the border of the board. Sums of lanes are computed by the Vector API
+ * when the JVM runs with <b>--add-modules jdk.incubator.vector</b> and vectors of the platform
+ * hold all lanes, otherwise by the same loop in plain Java.
+ * Enabled with <b>-Dsimulation.kernel=lanes</b> for boards stored densely,
+ * other boards are scored by indexes of lines.
+ * @see MovementEngine#bestDirection(InsectType, int, int, BoardStorage, int)
+ * @see BoardStorage#foodGrid()
+ */
+final class LaneKernel {
+    /**
+     * Name of the property which selects the kernel.
+     */
+    static final String PROPERTY = "simulation.kernel";
+    /**
+     * Shows whether the kernel is used by movement engine.
+     */
+    static final boolean ENABLED = "lanes".equals(System.getProperty(PROPERTY));
+    /**
+     * Maximal number of lanes.
+     */
+    static final int LANES = Direction.values().length;
+    /**
+     * Start of offsets of lanes in the scratch array.
+     */
+    static final int OFFSETS = 0;
+    /**
+     * Start of lengths of lanes in the scratch array.
+     */
+    static final int LENGTHS = LANES;
+    /**
+     * Start of sums of lanes in the scratch array.
+     */
+    static final int SUMS = 2 * LANES;
+    /**
+     * Module of the Vector API, it is incubating and is not resolved by default.
+     */
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    /**
+     * Class of sums by the Vector API, loaded by name so the program compiles and runs without the module.
+     */
+    private static final String VECTOR_CLASS = "VectorLaneSums";
+    /**
+     * Sums of lanes in plain Java.
+     */
+    static final Sums SCALAR = LaneKernel::scalarSums;
+    /**
+     * Sums of lanes used by the kernel: by the Vector API if it is available, otherwise SCALAR.
+     */
+    static final Sums SUMS_OF_LANES = chooseSums();
+    /**
+     * Scratch array of the thread, so scoring does not allocate.
+     */
+    private static final ThreadLocal<int[]> SCRATCH = ThreadLocal.withInitial(() -> new int[3 * LANES]);
+
+    /**
+     * Interface of the loop which sums food of lanes.
+     */
+    interface Sums {
+        /**
+         * Function that sums food of every lane over its length.
+         * @param food food values of all cells, row by row.
+         * @param base index of the cell of the insect.
+         * @param lanes number of lanes.
+         * @param longest length of the longest lane.
+         * @param scratch offsets and lengths of lanes, receives their sums.
+         */
+        void sum(int[] food, int base, int lanes, int longest, int[] scratch);
     }
+
     /**
-     * Function used to get values of possible <b>orthogonal ways</b>
-     * depending on food points on the board.
-     * @param dir direction of the way.
-     * @param entityPosition position of the insect.
-     * @param boardData data of entities on the board.
-     * @param boardSize size of the board.
-     * @return Integer number of value of food points
-     * on provided direction.
-     */
-    @Override
-    public int getOrthogonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int directionValue = 0;
-        int x = entityPosition.getX();
-        int y = entityPosition.getY();
-        EntityPosition newPos = move(x, y, dir, 1);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        directionValue += ((FoodPoint) boardData.get(key)).value;
-                    }
-                }
-            }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 1);
-        }
-        return directionValue;
+     * Constructor is hidden, class has only static functions.
+     */
+    private LaneKernel() {
     }
+
     /**
-     * Function that makes <u>travel</u> action of <b>all possible ways</b>.
-     * @param dir direction of the path.
-     * @param boardData data of all entities on the board.
+     * Function that selects the most valuable direction of the insect by the same rule
+     * as movement engine: on ties the direction which goes first for the type is selected;
+     * if every direction has negative value the last one is selected.
+     * @param type type of the insect.
+     * @param x x coordinate of the insect.
+     * @param y y coordinate of the insect.
+     * @param food food values of all cells, row by row.
      * @param boardSize size of the board.
-     * @return Integer amount eaten food for insect.
-     * @see DiagonalMoving#travelDiagonally(Direction, EntityPosition, InsectColor, Map, int)
-     * @see OrthogonalMoving#travelOrthogonal(Direction, EntityPosition, InsectColor, Map, int)
+     * @return The best possible direction.
      */
-    @Override
-    public int travelDirection(Direction dir, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        return this.travelOrthogonal(dir, this.entityPosition, this.color, boardData, boardSize);
+    static Direction bestDirection(InsectType type, int x, int y, int[] food, int boardSize) {
+        return bestDirection(type, x, y, food, boardSize, SUMS_OF_LANES);
     }
+
     /**
-     * Function that selects the best way of all possible directions.
-     * @param boardData data of all entities on the board.
+     * Function that selects the most valuable direction of the insect with the given sums of lanes.
+     * @param type type of the insect.
+     * @param x x coordinate of the insect.
+     * @param y y coordinate of the insect.
+     * @param food food values of all cells, row by row.
      * @param boardSize size of the board.
+     * @param sums sums of lanes.
      * @return The best possible direction.
+     * @see LaneKernel#bestDirection(InsectType, int, int, int[], int)
      */
-    @Override
-    public Direction getBestDirection(Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int maxOfN = getOrthogonalDirectionVisibleValue(Direction.N, entityPosition, boardData, boardSize);
-        int maxOfE = getOrthogonalDirectionVisibleValue(Direction.E, entityPosition, boardData, boardSize);
-        int maxOfS = getOrthogonalDirectionVisibleValue(Direction.S, entityPosition, boardData, boardSize);
-        int maxOfW = getOrthogonalDirectionVisibleValue(Direction.W, entityPosition, boardData, boardSize);
-        int[] directionValues = {maxOfN, maxOfE, maxOfS, maxOfW};
-        int best = max(directionValues);
-        if (best == maxOfN) {
-            return Direction.N;
-        } else if (best == maxOfE) {
-            return Direction.E;
-        } else if (best == maxOfS) {
-            return Direction.S;
-        } else {
-            return Direction.W;
+    static Direction bestDirection(InsectType type, int x, int y, int[] food, int boardSize, Sums sums) {
+        Direction[] directions = type.getDirections();
+        int stride = type.getStride();
+        int lanes = directions.length;
+        int[] scratch = SCRATCH.get();
+        int base = (x - 1) * boardSize + (y - 1);
+        int longest = 0;
+        int rayCells = 0;
+        for (int l = 0; l < lanes; l++) {
+            Direction dir = directions[l];
+            int length = dir.rayLength(x, y, stride, boardSize);
+            scratch[OFFSETS + l] = (dir.dx() * boardSize + dir.dy()) * stride;
+            scratch[LENGTHS + l] = length;
+            longest = Math.max(longest, length);
+            rayCells += length;
+        }
+        sums.sum(food, base, lanes, longest, scratch);
+        if (Metrics.ENABLED) {
+            Metrics.RAY_CELLS.record(rayCells);
+        }
+        int best = -1;
+        int bestValue = 0;
+        for (int l = 0; l < lanes; l++) {
+            int value = scratch[SUMS + l];
+            if (value > bestValue || value == bestValue && best < 0) {
+                best = l;
+                bestValue = value;
+            }
         }
+        return best >= 0 ? directions[best] : directions[lanes - 1];
     }
 
-}
-
-interface DiagonalMoving {
-
     /**
-     * Function used to get values of possible <b>diagonal ways</b>
-     * depending on food points on the board.
-     * @param dir direction of the way.
-     * @param entityPosition position of the insect.
-     * @param boardData data of entities on the board.
-     * @param boardSize size of the board.
-     * @return Integer number of value of food points
-     * on provided direction.
+     * Function that sums food of every lane in plain Java.
+     * @param food food values of all cells, row by row.
+     * @param base index of the cell of the insect.
+     * @param lanes number of lanes.
+     * @param longest length of the longest lane.
+     * @param scratch offsets and lengths of lanes, receives their sums.
+     * @see Sums#sum(int[], int, int, int, int[])
      */
-    int getDiagonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<EntityPosition, BoardEntity> boardData, int boardSize);
+    private static void scalarSums(int[] food, int base, int lanes, int longest, int[] scratch) {
+        for (int l = 0; l < lanes; l++) {
+            scratch[SUMS + l] = 0;
+        }
+        for (int k = 1; k <= longest; k++) {
+            for (int l = 0; l < lanes; l++) {
+                if (k <= scratch[LENGTHS + l]) {
+                    scratch[SUMS + l] += food[base + k * scratch[OFFSETS + l]];
+                }
+            }
+        }
+    }
 
     /**
-     * Function that provides the action of moving for insects in <b>diagonal way</b>:
-     * changes board data, removes food points(if they were eaten)
-     * and provided insect.
-     * @param dir direction for path.
-     * @param entityPosition position of the insect.
-     * @param color color of the insect.
-     * @param boardData data of board entities.
-     * @param boardSize size of the board.
-     * @return Integer amount of eaten food.
+     * Function that loads sums by the Vector API if the module is resolved
+     * and vectors of the platform hold all lanes, and falls back to sums in plain Java otherwise.
+     * When the kernel is enabled, the chosen sums and the reason of the fallback are reported.
+     * @return Sums by the Vector API or SCALAR.
+     * @see Diagnostics#report(String)
      */
-    int travelDiagonally(Direction dir, EntityPosition entityPosition, InsectColor color, Map<EntityPosition, BoardEntity> boardData, int boardSize);
+    private static Sums chooseSums() {
+        String reason;
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty()) {
+            reason = "module " + VECTOR_MODULE + " is not resolved";
+        } else {
+            try {
+                Sums vector = (Sums) Class.forName(VECTOR_CLASS).getDeclaredConstructor().newInstance();
+                if (ENABLED) {
+                    Diagnostics.report("Lane kernel sums lanes with the Vector API");
+                }
+                return vector;
+            } catch (InvocationTargetException e) {
+                reason = e.getCause().getMessage();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                reason = e.toString();
+            }
+        }
+        if (ENABLED) {
+            Diagnostics.report("Lane kernel sums lanes in plain Java: " + reason);
+        }
+        return SCALAR;
+    }
 }
 
 /**
  * Enum that declares the directions:
  * N - north, E - east, W - west, S - south, NE - north-east, SE - south-east, SW - south-west, NW - north-west.
- * Also has function that represent the meaning of direction in string type.
+ * Also has function that represent the meaning of direction in string type
+ * and changes of coordinates for one step.
  * @see Direction#getTextRepresentation()
  */
 enum Direction {
     /**
      * North.
      */
-    N("North"),
+    N("North", -1, 0),
     /**
      * East.
      */
-    E("East"),
+    E("East", 0, 1),
     /**
      * South.
      */
-    S("South"),
+    S("South", 1, 0),
     /**
      * West.
      */
-    W("West"),
+    W("West", 0, -1),
     /**
      * North-East.
      */
-    NE("North-East"),
+    NE("North-East", -1, 1),
     /**
      * South-East.
      */
-    SE("South-East"),
+    SE("South-East", 1, 1),
     /**
      * South-West.
      */
-    SW("South-West"),
+    SW("South-West", 1, -1),
     /**
      * North-West.
      */
-    NW("North-West");
+    NW("North-West", -1, -1);
     /**
      * Variable declares text representation for directions.
      */
     private final String textRepresentation;
+    /**
+     * Change of x coordinate for one step in this direction.
+     */
+    private final int dx;
+    /**
+     * Change of y coordinate for one step in this direction.
+     */
+    private final int dy;
 
     /**
      * Function needed to declare text representation of direction.
      * @param textRepresentation string meaning of direction.
+     * @param dx change of x coordinate for one step.
+     * @param dy change of y coordinate for one step.
      */
-    Direction(String textRepresentation) {
+    Direction(String textRepresentation, int dx, int dy) {
         this.textRepresentation = textRepresentation;
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    /**
+     * Getter for change of x coordinate for one step.
+     * @return -1, 0 or 1.
+     */
+    public int dx() {
+        return dx;
+    }
+
+    /**
+     * Getter for change of y coordinate for one step.
+     * @return -1, 0 or 1.
+     */
+    public int dy() {
+        return dy;
+    }
+
+    /**
+     * Function used to get number of cells on the ray from the cell to the border of the board,
+     * so the ray is walked without checking the border on every step.
+     * @param x x coordinate of the start cell.
+     * @param y y coordinate of the start cell.
+     * @param step distance between visited cells.
+     * @param boardSize size of the board.
+     * @return Number of cells at distance step, 2 * step, ... inside the board.
+     */
+    public int rayLength(int x, int y, int step, int boardSize) {
+        return Math.min(reach(x, dx, boardSize), reach(y, dy, boardSize)) / step;
+    }
+
+    /**
+     * Function used to get distance from the coordinate to the border in one axis.
+     * @param coordinate coordinate of the cell.
+     * @param change change of the coordinate for one step.
+     * @param boardSize size of the board.
+     * @return Distance or Integer.MAX_VALUE if coordinate does not change.
+     */
+    private static int reach(int coordinate, int change, int boardSize) {
+        if (change > 0) {
+            return boardSize - coordinate;
+        }
+        return change < 0 ? coordinate - 1 : Integer.MAX_VALUE;
     }
 
     /**
@@ -897,11 +8516,11 @@ class EntityPosition {
     /**
      * x coordinate on the board.
      */
-    private int x;
+    private final int x;
     /**
      * y coordinate on the board.
      */
-    private int y;
+    private final int y;
 
     /**
      * Constructor for entity position.
@@ -928,6 +8547,33 @@ class EntityPosition {
     public int getY() {
         return y;
     }
+
+    /**
+     * Positions are equal if they point to the same cell of the board.
+     * Needed to use positions as keys of board data.
+     * @param o other object.
+     * @return True if both coordinates are the same.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EntityPosition)) {
+            return false;
+        }
+        EntityPosition other = (EntityPosition) o;
+        return x == other.x && y == other.y;
+    }
+
+    /**
+     * Hash code of the cell, consistent with equals.
+     * @return Hash of x and y coordinates.
+     */
+    @Override
+    public int hashCode() {
+        return 31 * x + y;
+    }
 }
 
 /**
@@ -939,26 +8585,53 @@ class EntityPosition {
  */
 class FoodPoint extends BoardEntity {
     /**
-     * Value of food point.
+     * Value of the food point which is not kept in a store.
      */
-    protected int value;
+    private int value;
 
     /**
-     * Constructor for food point.
+     * Constructor for food point which keeps its data itself.
      * @param position position of the point on the board.
      * @param foodValue amount of this point.
      */
     FoodPoint(EntityPosition position, int foodValue) {
-        super.entityPosition = position;
+        super(position);
         this.value = foodValue;
     }
+
+    /**
+     * Constructor for view of the food point kept in the store.
+     * @param store store of entities.
+     * @param index index of the food point in the store.
+     */
+    FoodPoint(EntityStore store, int index) {
+        bind(store, index);
+    }
+
+    @Override
+    public int getX() {
+        return store == null ? x : store.foodX(index);
+    }
+
+    @Override
+    public int getY() {
+        return store == null ? y : store.foodY(index);
+    }
+
+    /**
+     * Getter for value of food point.
+     * @return Amount of this point.
+     */
+    public int getValue() {
+        return store == null ? value : store.foodValue(index);
+    }
 }
 
 /**
- * Class represents insects of type Grasshopper with it specific possible ways.
+ * Class represents insects of type Grasshopper with it specific possible ways:
+ * orthogonal directions, jumping over one cell.
  * @see Grasshopper#Grasshopper(EntityPosition, InsectColor)
- * @see Grasshopper#grasshopperTravel(Direction, EntityPosition, InsectColor, Map, int)
- * @see Grasshopper#grasshopperVisibleValue(Direction, EntityPosition, Map, int)
+ * @see InsectType#GRASSHOPPER
  * @see Insect
  * Extends Insect
  */
@@ -971,200 +8644,223 @@ class Grasshopper extends Insect {
     Grasshopper(EntityPosition position, InsectColor color) {
         super(position, color);
     }
+
     /**
-     * Function that selects the best way of all possible directions.
-     * @param boardData data of all entities on the board.
-     * @param boardSize size of the board.
-     * @return The best possible direction.
+     * Constructor for view of the grasshopper kept in the store.
+     * @param store store of entities.
+     * @param index index of the insect in the store.
      */
-    @Override
-    public Direction getBestDirection(Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int maxOfN = grasshopperVisibleValue(Direction.N, entityPosition, boardData, boardSize);
-        int maxOfE = grasshopperVisibleValue(Direction.E, entityPosition, boardData, boardSize);
-        int maxOfS = grasshopperVisibleValue(Direction.S, entityPosition, boardData, boardSize);
-        int maxOfW = grasshopperVisibleValue(Direction.W, entityPosition, boardData, boardSize);
-        int[] directionValues = {maxOfN, maxOfE, maxOfS, maxOfW};
-        int best = max(directionValues);
-        if (best == maxOfN) {
-            return Direction.N;
-        } else if (best == maxOfE) {
-            return Direction.E;
-        } else if (best == maxOfS) {
-            return Direction.S;
-        } else {
-            return Direction.W;
-        }
+    Grasshopper(EntityStore store, int index) {
+        super(store, index);
     }
+
     /**
-     * Function that makes <u>travel</u> action of <b>all possible ways</b>.
-     * @param dir direction of the path.
-     * @param boardData data of all entities on the board.
-     * @param boardSize size of the board.
-     * @return Integer amount eaten food for insect.
-     * @see DiagonalMoving#travelDiagonally(Direction, EntityPosition, InsectColor, Map, int)
-     * @see OrthogonalMoving#travelOrthogonal(Direction, EntityPosition, InsectColor, Map, int)
+     * Getter for type of the insect.
+     * @return Grasshopper type.
      */
     @Override
-    public int travelDirection(Direction dir, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        return this.grasshopperTravel(dir, this.entityPosition, this.color, boardData, boardSize);
-    }
-
-    /**
-     * Function used to find the visible sum of values of food points for provided direction for grasshopper.
-     * @param dir direction of the path.
-     * @param entityPosition position of grasshopper on the board.
-     * @param boardData map of data of entities on the board.
-     * @param boardSize size of the board.
-     * @return Integer value that sees grasshopper for selected path.
-     */
-    public int grasshopperVisibleValue(Direction dir, EntityPosition entityPosition, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int directionValue = 0;
-        int x = entityPosition.getX();
-        int y = entityPosition.getY();
-        EntityPosition newPos = move(x, y, dir, 2);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        directionValue += ((FoodPoint) boardData.get(key)).value;
-                    }
-                }
-            }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 2);
-        }
-        return directionValue;
-    }
-
-    /**
-     * Function made <b>travel</b> action for grasshopper:
-     * removes eaten food points and grasshopper from the board.
-     * @param dir direction of travel.
-     * @param entityPosition position of grasshopper on the board.
-     * @param color color of the grasshopper.
-     * @param boardData map of data of entities on the board.
-     * @param boardSize size of the board.
-     * @return Amount of sum of eaten food points.
-     */
-    public int grasshopperTravel(Direction dir, EntityPosition entityPosition, InsectColor color, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int totalAmount = 0;
-        ArrayList<EntityPosition> removable = new ArrayList<>();
-        EntityPosition newPos = move(entityPosition.getX(), entityPosition.getY(), dir, 2);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        totalAmount += ((FoodPoint) boardData.get(key)).value;
-                        removable.add(key);
-                    } else if (boardData.get(key) instanceof Insect) {
-                        if (!((Insect) boardData.get(key)).color.name().equals(color.name())) {
-                            boardData.remove(entityPosition);
-                            for (EntityPosition i : removable) {
-                                boardData.remove(i);
-                            }
-                            return totalAmount;
-                        }
-                    }
-                }
-            }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 2);
-        }
-        boardData.remove(entityPosition);
-        for (EntityPosition i : removable) {
-            boardData.remove(i);
-        }
-        return totalAmount;
+    public InsectType getType() {
+        return InsectType.GRASSHOPPER;
     }
 }
 
 /**
  * Class that represents the type of board entities.
  * Abstract class needed to summary attributes of Ant, Spider, Butterfly, Grasshopper.
- * Contains color of insect.
+ * Contains color of insect. The way of moving is given by its type.
  * Extends BoardEntity.
  * @see Ant
  * @see Grasshopper
  * @see Spider
  * @see Butterfly
+ * @see MovementEngine
  */
 abstract class Insect extends BoardEntity {
     /**
-     * The color type of insect.
+     * Color of the insect which is not kept in a store.
      */
-    protected InsectColor color;
+    private InsectColor color;
 
     /**
-     * Constructor for board entity of type insect.
+     * Constructor for board entity of type insect which keeps its data itself.
      * @param position entity position on the board.
      * @param color insect color.
      */
     Insect(EntityPosition position, InsectColor color) {
-        super.entityPosition = position;
+        super(position);
         this.color = color;
     }
 
+    /**
+     * Constructor for view of the insect kept in the store.
+     * @param store store of entities.
+     * @param index index of the insect in the store.
+     */
+    Insect(EntityStore store, int index) {
+        bind(store, index);
+    }
+
+    @Override
+    public int getX() {
+        return store == null ? x : store.insectX(index);
+    }
+
+    @Override
+    public int getY() {
+        return store == null ? y : store.insectY(index);
+    }
+
+    /**
+     * Getter for color of the insect.
+     * @return Color of the insect.
+     */
+    public InsectColor getColor() {
+        return store == null ? color : store.insectColor(index);
+    }
+
+    /**
+     * Getter for type of the insect.
+     * @return Type which declares directions and step of the insect.
+     */
+    public abstract InsectType getType();
+
     /**
      * Function that selects the best way of all possible directions.
      * @param boardData data of all entities on the board.
      * @param boardSize size of the board.
      * @return The best possible direction.
      */
-    public abstract Direction getBestDirection(Map<EntityPosition, BoardEntity> boardData, int boardSize);
+    public Direction getBestDirection(BoardStorage boardData, int boardSize) {
+        return MovementEngine.bestDirection(getType(), getX(), getY(), boardData, boardSize);
+    }
+
     /**
      * Function that makes <u>travel</u> action of <b>all possible ways</b>.
      * @param dir direction of the path.
      * @param boardData data of all entities on the board.
      * @param boardSize size of the board.
      * @return Integer amount eaten food for insect.
-     * @see DiagonalMoving#travelDiagonally(Direction, EntityPosition, InsectColor, Map, int)
-     * @see OrthogonalMoving#travelOrthogonal(Direction, EntityPosition, InsectColor, Map, int)
-     */
-    public abstract int travelDirection(Direction dir, Map<EntityPosition, BoardEntity> boardData, int boardSize);
-
-    /**
-     * Function that finds the max number from integer array.
-     * @param a array of integers.
-     * @return Max number from array.
-     */
-    public int max(int[] a) {
-        int mx = 0;
-        for (int i : a) {
-            if (i > mx) {
-                mx = i;
-            }
-        }
-        return mx;
-    }
-
-    /**
-     * Function used to made move action in selected direction.
-     * Takes start position and changes it for provided step
-     * in selected direction.
-     * @param x start x coordinate.
-     * @param y start y coordinate.
-     * @param direction selected direction.
-     * @param step amount of one step (1, 2).
-     * @return New changed direction.
-     */
-    public EntityPosition move(int x, int y, Direction direction, int step) {
-        switch (direction) {
-            case N:
-                return new EntityPosition(x - step, y);
-            case S:
-                return new EntityPosition(x + step, y);
-            case E:
-                return new EntityPosition(x, y + step);
-            case W:
-                return new EntityPosition(x, y - step);
-            case NE:
-                return new EntityPosition(x - step, y + step);
-            case SE:
-                return new EntityPosition(x + step, y + step);
-            case SW:
-                return new EntityPosition(x + step, y - step);
-            case NW:
-                return new EntityPosition(x - step, y - step);
+     */
+    public int travelDirection(Direction dir, BoardStorage boardData, int boardSize) {
+        return MovementEngine.travel(getType(), getX(), getY(), getColor(), dir, boardData, boardSize);
+    }
+}
+
+/**
+ * Enum of possible types of insects.
+ * Creates insects of its type.
+ * @see InsectType#create(EntityPosition, InsectColor)
+ */
+enum InsectType {
+    ANT("Ant", 1, Direction.N, Direction.E, Direction.S, Direction.W,
+            Direction.NE, Direction.NW, Direction.SE, Direction.SW),
+    BUTTERFLY("Butterfly", 1, Direction.N, Direction.E, Direction.S, Direction.W),
+    SPIDER("Spider", 1, Direction.NE, Direction.NW, Direction.SE, Direction.SW),
+    GRASSHOPPER("Grasshopper", 2, Direction.N, Direction.E, Direction.S, Direction.W);
+
+    /**
+     * Number of types.
+     */
+    static final int COUNT = values().length;
+
+    /**
+     * Name of the type as in input file.
+     */
+    private final String textRepresentation;
+    /**
+     * Distance between cells visited by insects of this type.
+     */
+    private final int stride;
+    /**
+     * Directions of insects of this type in order of preference on ties.
+     */
+    private final Direction[] directions;
+
+    /**
+     * Function needed to declare name and way of moving of the type.
+     * @param textRepresentation name of the type.
+     * @param stride distance between visited cells.
+     * @param directions possible directions in order of preference on ties.
+     */
+    InsectType(String textRepresentation, int stride, Direction... directions) {
+        this.textRepresentation = textRepresentation;
+        this.stride = stride;
+        this.directions = directions;
+    }
+
+    /**
+     * Getter for distance between visited cells.
+     * @return Stride of the type.
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Getter for possible directions. The array is shared and must not be changed.
+     * @return Directions in order of preference on ties.
+     */
+    Direction[] getDirections() {
+        return directions;
+    }
+
+    /**
+     * Getter for name of the type.
+     * @return Name as in input file.
+     */
+    public String getTextRepresentation() {
+        return textRepresentation;
+    }
+
+    /**
+     * Function that converts name of the type to the object of enum.
+     * @param s name of the type.
+     * @return Type from enum or null if there is no such type.
+     */
+    public static InsectType toType(String s) {
+        for (InsectType type : values()) {
+            if (type.textRepresentation.equals(s)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that creates insect of this type.
+     * @param position position on the board.
+     * @param color color of the insect.
+     * @return New insect.
+     */
+    public Insect create(EntityPosition position, InsectColor color) {
+        switch (this) {
+            case ANT:
+                return new Ant(position, color);
+            case BUTTERFLY:
+                return new Butterfly(position, color);
+            case SPIDER:
+                return new Spider(position, color);
             default:
-                return null;
+                return new Grasshopper(position, color);
+        }
+    }
+
+    /**
+     * Function that creates view of the insect of this type kept in the store.
+     * @param store store of entities.
+     * @param index index of the insect in the store.
+     * @return New view.
+     */
+    Insect view(EntityStore store, int index) {
+        switch (this) {
+            case ANT:
+                return new Ant(store, index);
+            case BUTTERFLY:
+                return new Butterfly(store, index);
+            case SPIDER:
+                return new Spider(store, index);
+            default:
+                return new Grasshopper(store, index);
         }
     }
 }
@@ -1173,10 +8869,37 @@ abstract class Insect extends BoardEntity {
  * Enum of possible colors.
  */
 enum InsectColor {
-    RED,
-    GREEN,
-    BLUE,
-    YELLOW;
+    RED("Red"),
+    GREEN("Green"),
+    BLUE("Blue"),
+    YELLOW("Yellow");
+
+    /**
+     * Name of the color as in input and output files.
+     */
+    private final String textRepresentation;
+
+    /**
+     * Function needed to declare name of the color.
+     * @param textRepresentation name of the color.
+     */
+    InsectColor(String textRepresentation) {
+        this.textRepresentation = textRepresentation;
+    }
+
+    /**
+     * Function that converts name of the color as written in input file to the object of enum.
+     * @param s name of the color.
+     * @return Color from enum or null if there is no such color.
+     */
+    public static InsectColor fromText(String s) {
+        for (InsectColor color : values()) {
+            if (color.textRepresentation.equals(s)) {
+                return color;
+            }
+        }
+        return null;
+    }
 
     /**
      * Function that converts string with color to the object of enum.
@@ -1204,47 +8927,18 @@ enum InsectColor {
      * @return String representation of enum object.
      */
     public static String toStr(InsectColor color) {
-        String first = color.toString().toLowerCase().split("")[0];
-        return color.toString().toLowerCase().replace(first, first.toUpperCase());
+        return color.textRepresentation;
     }
 }
-interface OrthogonalMoving {
-
-    /**
-     * Function used to get values of possible <b>orthogonal ways</b>
-     * depending on food points on the board.
-     * @param dir direction of the way.
-     * @param entityPosition position of the insect.
-     * @param boardData data of entities on the board.
-     * @param boardSize size of the board.
-     * @return Integer number of value of food points
-     * on provided direction.
-     */
-    int getOrthogonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<EntityPosition, BoardEntity> boardData, int boardSize);
-
-    /**
-     * Function that provides the action of moving for insects in <b>orthogonal way</b>:
-     * changes board data, removes food points(if they were eaten)
-     * and provided insect.
-     * @param dir direction for path.
-     * @param entityPosition position of the insect.
-     * @param color color of the insect.
-     * @param boardData data of board entities.
-     * @param boardSize size of the board.
-     * @return Integer amount of eaten food.
-     */
-    int travelOrthogonal(Direction dir, EntityPosition entityPosition, InsectColor color, Map<EntityPosition, BoardEntity> boardData, int boardSize);
-}
-
 /**
  * Class that represents insects of spider type.
  * Contains position and color provided from Insect type.
+ * Moves in diagonal directions.
  * Extends Insect.
- * Implements DiagonalMoving.
- * @see DiagonalMoving
  * @see Insect
+ * @see InsectType#SPIDER
  */
-class Spider extends Insect implements DiagonalMoving {
+class Spider extends Insect {
     /**
      * Constructor for spiders.
      * @param position position of the spider on the board.
@@ -1253,110 +8947,22 @@ class Spider extends Insect implements DiagonalMoving {
     Spider(EntityPosition position, InsectColor color) {
         super(position, color);
     }
+
     /**
-     * Function that provides the action of moving for insects in <b>diagonal way</b>:
-     * changes board data, removes food points(if they were eaten)
-     * and provided insect.
-     * @param dir direction for path.
-     * @param entityPosition position of the insect.
-     * @param color color of the insect.
-     * @param boardData data of board entities.
-     * @param boardSize size of the board.
-     * @return Integer amount of eaten food.
-     */
-    @Override
-    public int travelDiagonally(Direction dir, EntityPosition entityPosition, InsectColor color, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int totalAmount = 0;
-        ArrayList<EntityPosition> removable = new ArrayList<>();
-        EntityPosition newPos = move(entityPosition.getX(), entityPosition.getY(), dir, 1);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        totalAmount += ((FoodPoint) boardData.get(key)).value;
-                        removable.add(key);
-                    } else if (boardData.get(key) instanceof Insect) {
-                        if (!((Insect) boardData.get(key)).color.name().equals(color.name())) {
-                            boardData.remove(entityPosition);
-                            for (EntityPosition i : removable) {
-                                boardData.remove(i);
-                            }
-                            return totalAmount;
-                        }
-                    }
-                }
-            }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 1);
-        }
-        boardData.remove(entityPosition);
-        for (EntityPosition i : removable) {
-            boardData.remove(i);
-        }
-        return totalAmount;
-    }
-    /**
-     * Function used to get values of possible <b>diagonal ways</b>
-     * depending on food points on the board.
-     * @param dir direction of the way.
-     * @param entityPosition position of the insect.
-     * @param boardData data of entities on the board.
-     * @param boardSize size of the board.
-     * @return Integer number of value of food points
-     * on provided direction.
-     */
-    @Override
-    public int getDiagonalDirectionVisibleValue(Direction dir, EntityPosition entityPosition, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int directionValue = 0;
-        int x = entityPosition.getX();
-        int y = entityPosition.getY();
-        EntityPosition newPos = move(x, y, dir, 1);
-        while (newPos.getY() > 0 && newPos.getY() <= boardSize && newPos.getX() > 0 && newPos.getX() <= boardSize) {
-            for (EntityPosition key : boardData.keySet()) {
-                if (newPos.getX() == key.getX() && newPos.getY() == key.getY()) {
-                    if (boardData.get(key) instanceof FoodPoint) {
-                        directionValue += ((FoodPoint) boardData.get(key)).value;
-                    }
-                }
-            }
-            newPos = move(newPos.getX(), newPos.getY(), dir, 1);
-        }
-        return directionValue;
-    }
-    /**
-     * Function that makes <u>travel</u> action of <b>all possible ways</b>.
-     * @param dir direction of the path.
-     * @param boardData data of all entities on the board.
-     * @param boardSize size of the board.
-     * @return Integer amount eaten food for insect.
-     * @see DiagonalMoving#travelDiagonally(Direction, EntityPosition, InsectColor, Map, int)
-     * @see OrthogonalMoving#travelOrthogonal(Direction, EntityPosition, InsectColor, Map, int)
+     * Constructor for view of the spider kept in the store.
+     * @param store store of entities.
+     * @param index index of the insect in the store.
      */
-    @Override
-    public int travelDirection(Direction dir, Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        return this.travelDiagonally(dir, this.entityPosition, this.color, boardData, boardSize);
+    Spider(EntityStore store, int index) {
+        super(store, index);
     }
+
     /**
-     * Function that selects the best way of all possible directions.
-     * @param boardData data of all entities on the board.
-     * @param boardSize size of the board.
-     * @return The best possible direction.
+     * Getter for type of the insect.
+     * @return Spider type.
      */
     @Override
-    public Direction getBestDirection(Map<EntityPosition, BoardEntity> boardData, int boardSize) {
-        int maxOfNE = getDiagonalDirectionVisibleValue(Direction.NE, entityPosition, boardData, boardSize);
-        int maxOfNW = getDiagonalDirectionVisibleValue(Direction.NW, entityPosition, boardData, boardSize);
-        int maxOfSE = getDiagonalDirectionVisibleValue(Direction.SE, entityPosition, boardData, boardSize);
-        int maxOfSW = getDiagonalDirectionVisibleValue(Direction.SW, entityPosition, boardData, boardSize);
-        int[] directionValues = {maxOfNE, maxOfSE, maxOfSW, maxOfNW};
-        int best = max(directionValues);
-        if (best == maxOfNE) {
-            return Direction.NE;
-        } else if (best == maxOfNW) {
-            return Direction.NW;
-        } else if (best == maxOfSE) {
-            return Direction.SE;
-        } else {
-            return Direction.SW;
-        }
+    public InsectType getType() {
+        return InsectType.SPIDER;
     }
 }
@@ -0,0 +1,57 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Sums of lanes of the lane kernel by the Vector API: step k of all lanes is one masked gather
+ * from the grid of food. Needs <b>--add-modules jdk.incubator.vector</b> to compile and run,
+ * so the kernel loads it by name and sums lanes in plain Java when it is not available.
+ * @see LaneKernel
+ */
+final class VectorLaneSums implements LaneKernel.Sums {
+    /**
+     * Species with one lane for every direction.
+     */
+    private static final VectorSpecies<Integer> SPECIES =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(LaneKernel.LANES * Integer.SIZE));
+
+    /**
+     * Constructor of the sums.
+     * @throws UnsupportedOperationException If vectors of the platform are shorter than the species,
+     * then the species is emulated and is slower than plain Java.
+     */
+    VectorLaneSums() {
+        if (IntVector.SPECIES_PREFERRED.length() < SPECIES.length()) {
+            throw new UnsupportedOperationException("Vectors of " + SPECIES.length() + " lanes are not supported");
+        }
+    }
+
+    /**
+     * Function that sums food of every lane. Indexes of the current step are kept
+     * in the place of sums of the scratch array until the sums are written. The gather is not masked,
+     * as JDK 17 does not compile masked gathers to vector instructions: closed lanes stay on their last cell
+     * and food gathered by them is not added.
+     * @param food food values of all cells, row by row.
+     * @param base index of the cell of the insect.
+     * @param lanes number of lanes.
+     * @param longest length of the longest lane.
+     * @param scratch offsets and lengths of lanes, receives their sums.
+     */
+    @Override
+    public void sum(int[] food, int base, int lanes, int longest, int[] scratch) {
+        IntVector offsets = IntVector.fromArray(SPECIES, scratch, LaneKernel.OFFSETS);
+        IntVector lengths = IntVector.fromArray(SPECIES, scratch, LaneKernel.LENGTHS);
+        VectorMask<Integer> used = SPECIES.indexInRange(0, lanes);
+        IntVector indexes = IntVector.zero(SPECIES);
+        IntVector sums = IntVector.zero(SPECIES);
+        for (int k = 1; k <= longest; k++) {
+            VectorMask<Integer> open = lengths.compare(VectorOperators.GE, k).and(used);
+            indexes = indexes.add(offsets, open);
+            indexes.intoArray(scratch, LaneKernel.SUMS);
+            sums = sums.add(IntVector.fromArray(SPECIES, food, base, scratch, LaneKernel.SUMS), open);
+        }
+        sums.intoArray(scratch, LaneKernel.SUMS);
+    }
+}
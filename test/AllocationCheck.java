@@ -0,0 +1,150 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Check that walking rays allocates nothing: after warm-up, sums of food along every direction
+ * and travels with steps 1 and 2 must not allocate a single byte on any storage which the board chooses,
+ * bare or behind indexes of lines. Run by <b>gradle check</b>, exits with status 1 if a ray allocates.
+ * Only rays are measured, food eaten by a travel and the insect are put back outside of the measurement.
+ */
+public final class AllocationCheck {
+    /**
+     * Number of rays walked before measurement, enough for compilation of the hot paths.
+     */
+    private static final int WARMUP = 20_000;
+    /**
+     * Number of measured rounds.
+     */
+    private static final int ROUNDS = 2_000;
+    /**
+     * Sizes of boards and numbers of food points: dense and sparsely filled boards.
+     */
+    private static final int[][] BOARDS = {{100, 200}, {1000, 200}, {1000, 5000}};
+    /**
+     * Number of insects on every board.
+     */
+    private static final int INSECTS = 16;
+    /**
+     * Maximal amount of food of one food point.
+     */
+    private static final int MAX_FOOD = 100;
+    /**
+     * All directions by ordinal.
+     */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /**
+     * Bean that counts bytes allocated by the current thread.
+     */
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    /**
+     * Results of rays, kept so they are not optimized away.
+     */
+    private long sink;
+
+    /**
+     * Constructor is hidden, the check is run from main.
+     */
+    private AllocationCheck() {
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     */
+    public static void main(String[] args) {
+        AllocationCheck check = new AllocationCheck();
+        boolean failed = false;
+        for (int[] parameters : BOARDS) {
+            for (int step = 1; step <= 2; step++) {
+                failed |= check.run(step, parameters[0], parameters[1], false);
+                failed |= check.run(step, parameters[0], parameters[1], true);
+            }
+        }
+        System.out.println("checksum " + check.sink);
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Function that measures rays with the step from one insect of a random board.
+     * @param step distance between visited cells.
+     * @param size size of the board.
+     * @param food number of food points.
+     * @param indexed true for the board with indexes of lines, false for the bare storage.
+     * @return True if rays allocated.
+     */
+    private boolean run(int step, int size, int food, boolean indexed) {
+        Random random = new Random(size * 31L + food * 7L + step);
+        int[] order = shuffledCells(size * size, INSECTS + food, random);
+        int entities = INSECTS + food;
+        BoardStorage storage = indexed ? new Board(size, entities).getBoardData() : Board.chooseStorage(size, entities);
+        InsectType[] types = InsectType.values();
+        InsectColor[] colors = InsectColor.values();
+        Insect[] placed = new Insect[INSECTS];
+        for (int i = 0; i < INSECTS; i++) {
+            EntityPosition position = new EntityPosition(order[i] / size + 1, order[i] % size + 1);
+            placed[i] = types[random.nextInt(types.length)].create(position, colors[i % colors.length]);
+            storage.put(placed[i]);
+        }
+        int[] amounts = new int[food];
+        for (int i = 0; i < food; i++) {
+            amounts[i] = 1 + random.nextInt(MAX_FOOD);
+            storage.putFood(order[INSECTS + i] / size + 1, order[INSECTS + i] % size + 1, amounts[i]);
+        }
+        int x = order[0] / size + 1;
+        int y = order[0] % size + 1;
+        InsectColor color = colors[0];
+        long along = 0;
+        long travel = 0;
+        for (int round = 0; round < WARMUP + ROUNDS; round++) {
+            long start = threads.getCurrentThreadAllocatedBytes();
+            for (Direction dir : DIRECTIONS) {
+                sink += storage.foodAlong(x, y, dir, step, size);
+            }
+            long walked = threads.getCurrentThreadAllocatedBytes();
+            sink += storage.travel(x, y, color, DIRECTIONS[round % DIRECTIONS.length], step, size);
+            long traveled = threads.getCurrentThreadAllocatedBytes();
+            if (round >= WARMUP) {
+                along += walked - start;
+                travel += traveled - walked;
+            }
+            storage.put(placed[0]);
+            for (int i = 0; i < food; i++) {
+                int foodX = order[INSECTS + i] / size + 1;
+                int foodY = order[INSECTS + i] % size + 1;
+                if (storage.cellAt(foodX, foodY) == BoardStorage.EMPTY) {
+                    storage.putFood(foodX, foodY, amounts[i]);
+                }
+            }
+        }
+        String name = storage.getClass().getSimpleName() + (indexed ? "" : " (bare)");
+        System.out.printf("step=%d %-30s size=%-5d food=%-5d along %.1f B/ray, travel %.1f B/ray%n",
+                step, name, size, food, (double) along / ROUNDS / DIRECTIONS.length, (double) travel / ROUNDS);
+        return along != 0 || travel != 0;
+    }
+
+    /**
+     * Function used to get cells of the board in random order, as indexes x * size + y.
+     * Only the beginning is shuffled when the board is large.
+     * @param cells number of cells.
+     * @param shuffled number of cells at the beginning which are shuffled.
+     * @param random source of randomness.
+     * @return Indexes of cells.
+     */
+    private static int[] shuffledCells(int cells, int shuffled, Random random) {
+        int[] order = new int[cells];
+        for (int i = 0; i < cells; i++) {
+            order[i] = i;
+        }
+        for (int i = 0; i < Math.min(cells, shuffled); i++) {
+            int j = i + random.nextInt(cells - i);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        return order;
+    }
+}
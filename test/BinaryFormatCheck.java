@@ -0,0 +1,267 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Check of the binary format: random batches with valid and broken scenarios are encoded, decoded
+ * and evaluated, and every way gives the same blocks as evaluation of the text; malformed files
+ * (wrong magic bytes, unsupported version, every truncation, unknown records, malformed varints
+ * and widths) end with the IOException of the format and its message, never with another exception.
+ * Run by <b>gradle check</b>, exits with status 1 on the first mistake.
+ */
+public final class BinaryFormatCheck {
+    /**
+     * Number of generated scenarios of the round trip.
+     */
+    private static final int SCENARIOS = 500;
+    /**
+     * Number of generated scenarios of the file which is truncated at every byte.
+     */
+    private static final int TRUNCATED_SCENARIOS = 10;
+    /**
+     * Scenarios written by hand: food values of four bytes, lines with mistakes kept as text,
+     * and broken counts which end the batch.
+     */
+    private static final String HANDWRITTEN = "1000\n2\n2\nRed Ant 1 1\nBlue Spider 1000 1000\n"
+            + "100000 500 500\n70000 1 1000\n\n"
+            + "10\n1\n1\nRed Ant 1 1\n5 2 x\n\n"
+            + "10\n1\n1\nPurple Ant 1 1\n5 2 2\n\n"
+            + "10\n2\n1\nRed Ant 1 1\n";
+    /**
+     * Message of files without magic bytes.
+     */
+    private static final String NOT_BINARY = "Input is not in binary format";
+    /**
+     * Message of truncated files.
+     */
+    private static final String TRUNCATED = "Truncated binary scenario";
+
+    /**
+     * Constructor is hidden, the check is run from main.
+     */
+    private BinaryFormatCheck() {
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws IOException If scenarios can not be converted.
+     */
+    public static void main(String[] args) throws IOException {
+        String mistake = checkRoundTrip(generate(1, SCENARIOS, "1000", "0.2") + HANDWRITTEN);
+        if (mistake == null) {
+            mistake = checkTruncations(generate(2, TRUNCATED_SCENARIOS, "300", "0.3"));
+        }
+        if (mistake == null) {
+            mistake = checkMalformed(generate(3, 1, "1000", "0"));
+        }
+        if (mistake != null) {
+            System.out.println(mistake);
+            System.exit(1);
+        }
+        System.out.println("binary format matches text, malformed files give errors of the format");
+    }
+
+    /**
+     * Function that compares blocks of the text with blocks of its binary file and of the decoded text.
+     * @param text batch of scenarios.
+     * @return Description of the mistake or null if all blocks are the same.
+     * @throws IOException If scenarios can not be converted.
+     */
+    private static String checkRoundTrip(String text) throws IOException {
+        String expected = evaluateText(text);
+        byte[] binary = encode(text);
+        String actual = evaluateBinary(binary);
+        if (!expected.equals(actual)) {
+            return "binary file is evaluated differently from text:\n" + difference(expected, actual);
+        }
+        String decoded = decode(binary);
+        actual = evaluateText(decoded);
+        if (!expected.equals(actual)) {
+            return "decoded text is evaluated differently from text:\n" + difference(expected, actual);
+        }
+        System.out.printf("%d bytes of text, %d bytes of binary file%n", text.length(), binary.length);
+        return null;
+    }
+
+    /**
+     * Function that evaluates every truncation of the binary file of the text: scenarios before the cut
+     * must give their blocks, then the file must end or fail with the message of truncation.
+     * @param text batch of scenarios.
+     * @return Description of the mistake or null if every truncation fails as defined.
+     * @throws IOException If scenarios can not be converted.
+     */
+    private static String checkTruncations(String text) throws IOException {
+        byte[] binary = encode(text);
+        String expected = evaluateText(text);
+        for (int length = 0; length < binary.length; length++) {
+            byte[] truncated = Arrays.copyOf(binary, length);
+            StringWriter out = new StringWriter();
+            String message = null;
+            try {
+                Main.runBatch(new BinaryScenarioReader(ByteBuffer.wrap(truncated)), out, Limits.STRICT);
+            } catch (IOException e) {
+                message = e.getMessage();
+            } catch (RuntimeException e) {
+                return "file truncated to " + length + " bytes throws " + e;
+            }
+            String allowed = length <= BinaryScenarioReader.MAGIC.length ? NOT_BINARY : TRUNCATED;
+            if (message != null && !message.equals(allowed)) {
+                return "file truncated to " + length + " bytes fails with '" + message + "'";
+            }
+            if (!expected.startsWith(out.toString())) {
+                return "file truncated to " + length + " bytes gives wrong blocks";
+            }
+        }
+        System.out.printf("%d truncations fail as defined%n", binary.length);
+        return null;
+    }
+
+    /**
+     * Function that reads malformed files made from the binary file of the text.
+     * @param text batch of one valid scenario.
+     * @return Description of the mistake or null if every file fails with its message.
+     * @throws IOException If scenarios can not be converted.
+     */
+    private static String checkMalformed(String text) throws IOException {
+        byte[] binary = encode(text);
+        int header = BinaryScenarioReader.MAGIC.length + 1;
+        byte[] magic = binary.clone();
+        magic[0] = 'X';
+        byte[] version = binary.clone();
+        version[BinaryScenarioReader.MAGIC.length] = 2;
+        byte[] kind = Arrays.copyOf(binary, binary.length + 1);
+        kind[binary.length] = 7;
+        byte[] varint = Arrays.copyOf(binary, header + 6);
+        varint[header] = BinaryScenarioReader.TEXT;
+        Arrays.fill(varint, header + 1, varint.length, (byte) 0xFF);
+        byte[] widths = binary.clone();
+        int position = header + 1;
+        for (int i = 0; i < 3; i++) {
+            while (widths[position] < 0) {
+                position++;
+            }
+            position++;
+        }
+        widths[position] = 0x13;
+        String[][] cases = {
+            {"wrong magic bytes", NOT_BINARY},
+            {"unsupported version", "Unsupported version of binary format 2"},
+            {"unknown record", "Unknown kind of record 7"},
+            {"malformed varint", "Malformed varint"},
+            {"unknown widths", "Unknown widths of binary scenario 0x13"},
+            {"text instead of binary file", NOT_BINARY},
+        };
+        byte[][] files = {magic, version, kind, varint, widths, text.getBytes(StandardCharsets.US_ASCII)};
+        for (int i = 0; i < files.length; i++) {
+            String message = null;
+            try {
+                Main.runBatch(new BinaryScenarioReader(ByteBuffer.wrap(files[i])), new StringWriter(), Limits.STRICT);
+            } catch (IOException e) {
+                message = e.getMessage();
+            } catch (RuntimeException e) {
+                return cases[i][0] + " throws " + e;
+            }
+            if (!cases[i][1].equals(message)) {
+                return cases[i][0] + " fails with '" + message + "' instead of '" + cases[i][1] + "'";
+            }
+        }
+        System.out.printf("%d malformed files fail as defined%n", files.length);
+        return null;
+    }
+
+    /**
+     * Function that generates a batch of random scenarios.
+     * @param seed seed of the generator.
+     * @param count number of scenarios.
+     * @param maxSize maximal size of boards.
+     * @param invalid part of scenarios with a mistake.
+     * @return Text of the batch.
+     * @throws IOException If scenarios can not be written.
+     */
+    private static String generate(long seed, int count, String maxSize, String invalid) throws IOException {
+        StringWriter out = new StringWriter();
+        new ScenarioGenerator(seed).set("maxSize", maxSize).set("invalid", invalid).write(count, out);
+        return out.toString();
+    }
+
+    /**
+     * Function that evaluates the batch of text.
+     * @param text batch of scenarios.
+     * @return Blocks of all scenarios.
+     * @throws IOException If scenarios can not be read.
+     */
+    private static String evaluateText(String text) throws IOException {
+        StringWriter out = new StringWriter();
+        Main.runBatch(parser(text), out, Limits.STRICT);
+        return out.toString();
+    }
+
+    /**
+     * Function that evaluates the binary file.
+     * @param binary bytes of the file.
+     * @return Blocks of all scenarios.
+     * @throws IOException If file is malformed.
+     */
+    private static String evaluateBinary(byte[] binary) throws IOException {
+        StringWriter out = new StringWriter();
+        Main.runBatch(new BinaryScenarioReader(ByteBuffer.wrap(binary)), out, Limits.STRICT);
+        return out.toString();
+    }
+
+    /**
+     * Function that encodes the batch of text.
+     * @param text batch of scenarios.
+     * @return Bytes of the binary file.
+     * @throws IOException If scenarios can not be converted.
+     */
+    private static byte[] encode(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new BinaryScenarioWriter(Channels.newChannel(bytes)).encode(parser(text));
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Function that decodes the binary file into text.
+     * @param binary bytes of the file.
+     * @return Text of all scenarios.
+     * @throws IOException If file is malformed.
+     */
+    private static String decode(byte[] binary) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (AsciiWriter out = new AsciiWriter(Channels.newChannel(bytes))) {
+            BinaryScenarioWriter.decode(new BinaryScenarioReader(ByteBuffer.wrap(binary)), out);
+        }
+        return bytes.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Function that creates parser of the text.
+     * @param text batch of scenarios.
+     * @return Parser before the first scenario.
+     */
+    private static ScenarioParser parser(String text) {
+        return new ScenarioParser(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Function used to get the first different line of two texts.
+     * @param expected expected text.
+     * @param actual actual text.
+     * @return Both lines.
+     */
+    private static String difference(String expected, String actual) {
+        String[] left = expected.split("\n", -1);
+        String[] right = actual.split("\n", -1);
+        for (int i = 0; i < Math.min(left.length, right.length); i++) {
+            if (!left[i].equals(right[i])) {
+                return "line " + (i + 1) + ": '" + right[i] + "' instead of '" + left[i] + "'";
+            }
+        }
+        return "lengths " + right.length + " and " + left.length + " lines";
+    }
+}
@@ -0,0 +1,288 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Check of the cache of answers: hashes of a board in all its orientations are the same for every
+ * rotation and reflection of it; answers of rotated and reflected scenarios taken from the cache are
+ * the answers evaluated for them, with directions turned back; the cache keeps not more answers than
+ * its capacity and evicts least recently used ones.
+ * Run by <b>gradle check</b>, exits with status 1 on the first mistake.
+ */
+public final class CacheCheck {
+    /**
+     * Number of answers kept by caches of simulations.
+     */
+    private static final int CAPACITY = 64;
+    /**
+     * Number of random scenarios.
+     */
+    private static final int SCENARIOS = 300;
+    /**
+     * Maximal size of random boards.
+     */
+    private static final int MAX_SIZE = 30;
+    /**
+     * Maximal amount of food of one food point.
+     */
+    private static final int MAX_FOOD = 200;
+    /**
+     * Maximal number of food points of random scenarios.
+     */
+    private static final int MAX_FOOD_POINTS = 60;
+
+    /**
+     * Colors by ordinal.
+     */
+    private static final InsectColor[] COLORS = InsectColor.values();
+    /**
+     * Types by ordinal.
+     */
+    private static final InsectType[] TYPES = InsectType.values();
+
+    /**
+     * Size of the board of the scenario.
+     */
+    private final int size;
+    /**
+     * Insects of the scenario: ordinal of color, ordinal of type, x and y.
+     */
+    private final int[][] insects;
+    /**
+     * Food points of the scenario: value, x and y.
+     */
+    private final int[][] food;
+
+    /**
+     * Constructor for random scenario with different cells and different pairs of color and type.
+     * @param random source of randomness.
+     */
+    private CacheCheck(Random random) {
+        size = 4 + random.nextInt(MAX_SIZE - 3);
+        int[] cells = new int[size * size];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = i;
+        }
+        int[] pairs = new int[COLORS.length * TYPES.length];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = i;
+        }
+        shuffle(pairs, random);
+        insects = new int[1 + random.nextInt(pairs.length / 2)][];
+        food = new int[1 + random.nextInt(Math.min(MAX_FOOD_POINTS, cells.length - insects.length))][];
+        shuffle(cells, random);
+        for (int i = 0; i < insects.length; i++) {
+            insects[i] = new int[] {pairs[i] / TYPES.length, pairs[i] % TYPES.length,
+                cells[i] / size + 1, cells[i] % size + 1};
+        }
+        for (int i = 0; i < food.length; i++) {
+            int cell = cells[insects.length + i];
+            food[i] = new int[] {1 + random.nextInt(MAX_FOOD), cell / size + 1, cell % size + 1};
+        }
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws IOException If scenarios can not be evaluated.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    public static void main(String[] args)
+            throws IOException, InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        System.setProperty(ResultCache.PROPERTY, Integer.toString(CAPACITY));
+        System.setProperty(Metrics.PROPERTY, "true");
+        Random random = new Random(1);
+        Simulation cached = new Simulation();
+        for (int i = 0; i < SCENARIOS; i++) {
+            CacheCheck scenario = new CacheCheck(random);
+            String mistake = scenario.checkHashes();
+            if (mistake == null) {
+                mistake = scenario.checkAnswers(cached);
+            }
+            if (mistake != null) {
+                System.out.println("scenario " + i + ": " + mistake);
+                System.exit(1);
+            }
+        }
+        long hits = Metrics.CACHE_HITS.sum();
+        System.out.printf("%d scenarios in %d orientations match, %d answers from the cache%n",
+                SCENARIOS, BoardHash.SYMMETRIES, hits);
+        String mistake = checkCapacity(random);
+        if (hits == 0 || mistake != null) {
+            System.out.println(hits == 0 ? "no answer is taken from the cache" : mistake);
+            System.exit(1);
+        }
+        System.out.println("cache keeps " + CAPACITY + " least recently used answers");
+    }
+
+    /**
+     * Function that compares hashes of the board of the scenario in every orientation:
+     * each orientation must have the same eight hashes, in other order.
+     * @return Description of the mistake or null if hashes are the same.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private String checkHashes() throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        long[] expected = hashes(board(0));
+        for (int s = 1; s < BoardHash.SYMMETRIES; s++) {
+            long[] actual = hashes(board(s));
+            if (!Arrays.equals(expected, actual)) {
+                return "hashes of orientation " + s + " differ";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that evaluates the scenario in all orientations by the simulation with the cache,
+     * after the scenario in the first orientation is cached, and compares answers with answers
+     * of new simulations.
+     * @param cached simulation with the cache.
+     * @return Description of the mistake or null if answers are the same.
+     * @throws IOException If scenarios can not be evaluated.
+     */
+    private String checkAnswers(Simulation cached) throws IOException {
+        for (int s = 0; s < BoardHash.SYMMETRIES; s++) {
+            String expected = evaluate(new Simulation(), s);
+            String actual = evaluate(cached, s);
+            if (!expected.equals(actual)) {
+                return "orientation " + s + " is answered\n" + actual + "instead of\n" + expected;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that fills a cache with more random scenarios than its capacity, all of them
+     * are missed and kept; then the most recently used answer must be kept and the least recently used
+     * ones must be evicted.
+     * @param random source of randomness.
+     * @return Description of the mistake or null if the cache keeps its capacity.
+     * @throws IOException If answers can not be written.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private static String checkCapacity(Random random)
+            throws IOException, InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        ResultCache cache = new ResultCache(CAPACITY);
+        CacheCheck[] scenarios = new CacheCheck[2 * CAPACITY];
+        for (int i = 0; i < scenarios.length; i++) {
+            scenarios[i] = new CacheCheck(random);
+            if (scenarios[i].lookUp(cache)) {
+                return "random scenario " + i + " is found in the cache";
+            }
+            cache.commit();
+            if (cache.size() != Math.min(i + 1, CAPACITY)) {
+                return "cache keeps " + cache.size() + " answers after " + (i + 1) + " scenarios";
+            }
+            if (!scenarios[0].lookUp(cache)) {
+                return "used answer is evicted after " + (i + 1) + " scenarios";
+            }
+        }
+        if (scenarios[1].lookUp(cache) || !scenarios[scenarios.length - 1].lookUp(cache)) {
+            return "least recently used answer is kept";
+        }
+        return null;
+    }
+
+    /**
+     * Function that looks up the answer of the scenario in the cache.
+     * @param cache cache of answers.
+     * @return True if the answer is found.
+     * @throws IOException If answer can not be written.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private boolean lookUp(ResultCache cache)
+            throws IOException, InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        EntityStore entities = new EntityStore();
+        for (int[] insect : insects) {
+            entities.addInsect(insect[2], insect[3], COLORS[insect[0]], TYPES[insect[1]]);
+        }
+        return cache.answer(board(0), entities, Writer.nullWriter());
+    }
+
+    /**
+     * Function that builds the board of the scenario in the orientation with tracked hashes.
+     * @param symmetry orientation from 0 to SYMMETRIES - 1.
+     * @return Board with all entities.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private Board board(int symmetry) throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        Board board = new Board(size, insects.length + food.length);
+        board.trackHashes();
+        for (int[] insect : insects) {
+            EntityPosition position = new EntityPosition(BoardHash.mapX(symmetry, insect[2], insect[3], size),
+                    BoardHash.mapY(symmetry, insect[2], insect[3], size));
+            board.addEntity(TYPES[insect[1]].create(position, COLORS[insect[0]]));
+        }
+        for (int[] point : food) {
+            board.addFood(BoardHash.mapX(symmetry, point[1], point[2], size),
+                    BoardHash.mapY(symmetry, point[1], point[2], size), point[0]);
+        }
+        return board;
+    }
+
+    /**
+     * Function that evaluates the scenario in the orientation.
+     * @param simulation simulation which evaluates the scenario.
+     * @param symmetry orientation from 0 to SYMMETRIES - 1.
+     * @return Answer of the scenario.
+     * @throws IOException If scenario can not be evaluated.
+     */
+    private String evaluate(Simulation simulation, int symmetry) throws IOException {
+        StringBuilder text = new StringBuilder();
+        text.append(size).append('\n').append(insects.length).append('\n').append(food.length).append('\n');
+        for (int[] insect : insects) {
+            text.append(InsectColor.toStr(COLORS[insect[0]])).append(' ')
+                    .append(TYPES[insect[1]].getTextRepresentation()).append(' ')
+                    .append(BoardHash.mapX(symmetry, insect[2], insect[3], size)).append(' ')
+                    .append(BoardHash.mapY(symmetry, insect[2], insect[3], size)).append('\n');
+        }
+        for (int[] point : food) {
+            text.append(point[0]).append(' ')
+                    .append(BoardHash.mapX(symmetry, point[1], point[2], size)).append(' ')
+                    .append(BoardHash.mapY(symmetry, point[1], point[2], size)).append('\n');
+        }
+        ScenarioParser in = new ScenarioParser(ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII)));
+        if (!in.nextScenario()) {
+            throw new IOException("Scenario is not read");
+        }
+        return simulation.evaluate(in);
+    }
+
+    /**
+     * Function used to get all hashes of the board in sorted order.
+     * @param board board with tracked hashes.
+     * @return First and second hashes of all orientations.
+     */
+    private static long[] hashes(Board board) {
+        long[] result = new long[2 * BoardHash.SYMMETRIES];
+        for (int s = 0; s < BoardHash.SYMMETRIES; s++) {
+            result[s] = board.getHashes().first(s);
+            result[BoardHash.SYMMETRIES + s] = board.getHashes().second(s);
+        }
+        Arrays.sort(result, 0, BoardHash.SYMMETRIES);
+        Arrays.sort(result, BoardHash.SYMMETRIES, result.length);
+        return result;
+    }
+
+    /**
+     * Function that shuffles the array.
+     * @param array array to shuffle.
+     * @param random source of randomness.
+     */
+    private static void shuffle(int[] array, Random random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = array[i];
+            array[i] = array[j];
+            array[j] = swap;
+        }
+    }
+}
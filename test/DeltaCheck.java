@@ -0,0 +1,267 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Differential check of the delta API: a board with watched directions gets random changes
+ * (added, updated and removed food, added and removed insects, travels), and after every change
+ * it must answer as the same board built from scratch and changed the same way: the same cells,
+ * the same direction and eaten food of every insect, and every insect whose direction changed
+ * must be reported by Board#changedDirections().
+ * Run by <b>gradle check</b>, exits with status 1 on the first difference.
+ */
+public final class DeltaCheck {
+    /**
+     * Sizes of boards and numbers of entities: dense, tiled and sparse boards.
+     */
+    private static final int[][] BOARDS = {{20, 150}, {1000, 2000}, {1000, 100}};
+    /**
+     * Number of changes of every board.
+     */
+    private static final int CHANGES = 500;
+    /**
+     * One of this number of added entities is an insect.
+     */
+    private static final int INSECT_RATIO = 8;
+    /**
+     * Maximal amount of food of one food point.
+     */
+    private static final int MAX_FOOD = 100;
+    /**
+     * Code of the entity of the model which is a food point.
+     */
+    private static final int FOOD = -1;
+
+    /**
+     * Size of the board.
+     */
+    private final int size;
+    /**
+     * Source of randomness.
+     */
+    private final Random random;
+    /**
+     * Board changed by the delta API.
+     */
+    private final Board watched;
+    /**
+     * Entities of the board by cell index (x - 1) * size + y - 1:
+     * ordinal of the type of insect or FOOD, then ordinal of the color or amount of food.
+     */
+    private final Map<Integer, int[]> model = new HashMap<>();
+    /**
+     * Directions of insects of the watched board as they were last reported as changed.
+     */
+    private final Map<Insect, Direction> reported = new IdentityHashMap<>();
+
+    /**
+     * Constructor of the check of one board.
+     * @param size size of the board.
+     * @param entities number of entities placed before the first change.
+     * @param seed seed of randomness.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private DeltaCheck(int size, int entities, long seed)
+            throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        this.size = size;
+        this.random = new Random(seed);
+        this.watched = new Board(size, entities);
+        while (model.size() < entities) {
+            int x = random.nextInt(size) + 1;
+            int y = random.nextInt(size) + 1;
+            if (!model.containsKey(index(x, y))) {
+                int[] entity = randomEntity();
+                model.put(index(x, y), entity);
+                watched.addEntity(create(x, y, entity));
+            }
+        }
+        watched.watchDirections();
+        report();
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    public static void main(String[] args) throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        long seed = 1;
+        for (int[] parameters : BOARDS) {
+            DeltaCheck check = new DeltaCheck(parameters[0], parameters[1], seed++);
+            String name = Board.chooseStorage(parameters[0], parameters[1]).getClass().getSimpleName();
+            for (int change = 0; change < CHANGES; change++) {
+                String difference = check.change();
+                if (difference != null) {
+                    System.out.printf("%-20s size=%-5d change %d: %s%n", name, parameters[0], change, difference);
+                    System.exit(1);
+                }
+            }
+            System.out.printf("%-20s size=%-5d %d changes match%n", name, parameters[0], CHANGES);
+        }
+    }
+
+    /**
+     * Function that makes one random change of a random cell on the watched board and on the board
+     * built from scratch, then compares them and takes the new state of the model from the built board.
+     * @return Description of the first difference or null if boards answer the same.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private String change() throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        Board rebuilt = rebuild();
+        int x = random.nextInt(size) + 1;
+        int y = random.nextInt(size) + 1;
+        if (!model.isEmpty() && random.nextBoolean()) {
+            List<Integer> cells = new ArrayList<>(model.keySet());
+            int cell = cells.get(random.nextInt(cells.size()));
+            x = cell / size + 1;
+            y = cell % size + 1;
+        }
+        int[] entity = model.get(index(x, y));
+        if (entity == null) {
+            entity = randomEntity();
+            watched.addEntity(create(x, y, entity));
+            rebuilt.addEntity(create(x, y, entity));
+        } else if (entity[0] != FOOD && random.nextBoolean()) {
+            Insect insect = (Insect) watched.getEntity(new EntityPosition(x, y));
+            int eaten = watched.getDirectionSum(insect);
+            int expected = rebuilt.getDirectionSum((Insect) rebuilt.getEntity(new EntityPosition(x, y)));
+            if (eaten != expected) {
+                return String.format("insect at %d %d ate %d instead of %d", x, y, eaten, expected);
+            }
+        } else if (entity[0] == FOOD && random.nextBoolean()) {
+            int value = 1 + random.nextInt(MAX_FOOD);
+            watched.updateFood(x, y, value);
+            rebuilt.updateFood(x, y, value);
+        } else {
+            watched.removeEntity(x, y);
+            rebuilt.removeEntity(x, y);
+        }
+        update(rebuilt, x, y);
+        report();
+        return compare(rebuilt);
+    }
+
+    /**
+     * Function that builds a new board with entities of the model.
+     * @return Board without watched directions.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private Board rebuild() throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        Board board = new Board(size, model.size());
+        for (Map.Entry<Integer, int[]> entity : model.entrySet()) {
+            board.addEntity(create(entity.getKey() / size + 1, entity.getKey() % size + 1, entity.getValue()));
+        }
+        return board;
+    }
+
+    /**
+     * Function that takes entities of the model and of the changed cell from the board built from scratch.
+     * @param rebuilt board built from scratch and changed.
+     * @param x x coordinate of the changed cell.
+     * @param y y coordinate of the changed cell.
+     */
+    private void update(Board rebuilt, int x, int y) {
+        List<Integer> cells = new ArrayList<>(model.keySet());
+        cells.add(index(x, y));
+        BoardStorage storage = rebuilt.getBoardData();
+        for (int cell : cells) {
+            int cellX = cell / size + 1;
+            int cellY = cell % size + 1;
+            Insect insect = storage.insectAt(cellX, cellY);
+            if (insect != null) {
+                model.put(cell, new int[] {insect.getType().ordinal(), insect.getColor().ordinal()});
+            } else if (storage.cellAt(cellX, cellY) == BoardStorage.FOOD) {
+                model.put(cell, new int[] {FOOD, storage.foodAt(cellX, cellY)});
+            } else {
+                model.remove(cell);
+            }
+        }
+    }
+
+    /**
+     * Function that remembers directions of insects reported as changed by the watched board.
+     */
+    private void report() {
+        for (Insect insect : watched.changedDirections()) {
+            reported.put(insect, watched.getDirection(insect));
+        }
+    }
+
+    /**
+     * Function that compares the watched board with the board built from scratch.
+     * @param rebuilt board built from scratch and changed.
+     * @return Description of the first difference or null if boards answer the same.
+     */
+    private String compare(Board rebuilt) {
+        BoardStorage storage = watched.getBoardData();
+        if (storage.count() != model.size()) {
+            return "watched board has " + storage.count() + " entities instead of " + model.size();
+        }
+        for (Map.Entry<Integer, int[]> cell : model.entrySet()) {
+            int x = cell.getKey() / size + 1;
+            int y = cell.getKey() % size + 1;
+            int[] entity = cell.getValue();
+            if (entity[0] == FOOD) {
+                if (storage.cellAt(x, y) != BoardStorage.FOOD || storage.foodAt(x, y) != entity[1]) {
+                    return String.format("cell %d %d has %d, food %d instead of food %d",
+                            x, y, storage.cellAt(x, y), storage.foodAt(x, y), entity[1]);
+                }
+                continue;
+            }
+            Insect insect = storage.insectAt(x, y);
+            if (insect == null || insect.getType().ordinal() != entity[0]) {
+                return String.format("cell %d %d has %d instead of an insect", x, y, storage.cellAt(x, y));
+            }
+            Direction expected = rebuilt.getDirection(rebuilt.getBoardData().insectAt(x, y));
+            Direction direction = watched.getDirection(insect);
+            if (direction != expected || reported.get(insect) != expected) {
+                return String.format("%s at %d %d goes %s and was reported going %s instead of %s",
+                        insect.getType(), x, y, direction, reported.get(insect), expected);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that creates a random entity of the model: an insect or a food point.
+     * @return Entity of the model.
+     */
+    private int[] randomEntity() {
+        if (random.nextInt(INSECT_RATIO) == 0) {
+            return new int[] {random.nextInt(InsectType.values().length), random.nextInt(InsectColor.values().length)};
+        }
+        return new int[] {FOOD, 1 + random.nextInt(MAX_FOOD)};
+    }
+
+    /**
+     * Function that creates the entity of the model in the cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @param entity entity of the model.
+     * @return Insect or food point.
+     */
+    private static BoardEntity create(int x, int y, int[] entity) {
+        EntityPosition position = new EntityPosition(x, y);
+        if (entity[0] == FOOD) {
+            return new FoodPoint(position, entity[1]);
+        }
+        return InsectType.values()[entity[0]].create(position, InsectColor.values()[entity[1]]);
+    }
+
+    /**
+     * Function used to get index of the cell in the model.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @return Index (x - 1) * size + y - 1.
+     */
+    private int index(int x, int y) {
+        return (x - 1) * size + y - 1;
+    }
+}
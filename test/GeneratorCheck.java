@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+/**
+ * Check of the generator of scenarios: the same seed and options give the same batch and another seed gives
+ * another one, headers and cells of entities stay within options and limits, valid scenarios are answered
+ * and every scenario with a deliberate mistake is refused, in strict and in wider limits.
+ * Run by <b>gradle check</b>, exits with status 1 on the first mistake.
+ */
+public final class GeneratorCheck {
+    /**
+     * Number of generated scenarios of a batch.
+     */
+    private static final int SCENARIOS = 500;
+    /**
+     * Limits wider than the strict ones.
+     */
+    private static final Limits WIDE = new Limits(3000, 40, 1000, true);
+    /**
+     * Line of the answer for one insect.
+     */
+    private static final Pattern ANSWER = Pattern.compile("(Red|Green|Blue|Yellow) \\S+ \\S+ \\d+");
+
+    /**
+     * Constructor is hidden, the check is run from main.
+     */
+    private GeneratorCheck() {
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws IOException If scenarios can not be generated or evaluated.
+     */
+    public static void main(String[] args) throws IOException {
+        String mistake = checkSeeds();
+        if (mistake == null) {
+            mistake = check("strict limits", Limits.STRICT, generate(new ScenarioGenerator(3)), 1000, 16);
+        }
+        if (mistake == null) {
+            String batch = generate(new ScenarioGenerator(4, WIDE).set("minSize", "1500").set("minInsects", "17"));
+            mistake = check("wide limits", WIDE, batch, 3000, 40);
+        }
+        if (mistake == null) {
+            mistake = checkMistakes();
+        }
+        if (mistake == null) {
+            mistake = checkOptions();
+        }
+        if (mistake != null) {
+            System.out.println(mistake);
+            System.exit(1);
+        }
+        System.out.println(SCENARIOS + " scenarios: the same seed gives the same batch within options and limits");
+    }
+
+    /**
+     * Function that generates batches with the same and other seeds.
+     * @return Description of the mistake or null if only the seed changes the batch.
+     * @throws IOException If scenarios can not be generated.
+     */
+    private static String checkSeeds() throws IOException {
+        String first = generate(new ScenarioGenerator(1).set("maxSize", "200").set("invalid", "0.2").set("red", "3"));
+        String second = generate(new ScenarioGenerator(1).set("maxSize", "200").set("invalid", "0.2").set("red", "3"));
+        String other = generate(new ScenarioGenerator(2).set("maxSize", "200").set("invalid", "0.2").set("red", "3"));
+        if (!first.equals(second)) {
+            return "the same seed gives other batches";
+        }
+        if (first.equals(other)) {
+            return "other seed gives the same batch";
+        }
+        return null;
+    }
+
+    /**
+     * Function that reads valid scenarios of the batch, checks their headers and cells of entities,
+     * then checks that every scenario is answered within the limits.
+     * @param name name of the batch.
+     * @param limits limits of the batch.
+     * @param text text of the batch.
+     * @param maxSize maximal size of the board.
+     * @param maxInsects maximal number of insects.
+     * @return Description of the mistake or null if all scenarios are valid.
+     * @throws IOException If scenarios can not be read.
+     */
+    private static String check(String name, Limits limits, String text, int maxSize, int maxInsects)
+            throws IOException {
+        ScenarioParser in = parser(text);
+        for (int i = 0; in.nextScenario(); i++) {
+            int size = in.getBoardSize();
+            int insects = in.getNumberOfInsects();
+            int foodPoints = in.getNumberOfFoodPoints();
+            if (size < Limits.MIN_SIZE || size > maxSize || insects < 1 || insects > maxInsects
+                    || foodPoints < 1 || foodPoints > limits.getMaxFoodPoints()) {
+                return name + ", scenario " + i + ": header " + size + " " + insects + " " + foodPoints;
+            }
+            for (int e = 0; e < insects + foodPoints; e++) {
+                in.nextEntityLine();
+                int token = e < insects ? 2 : 1;
+                int x = in.intToken(token);
+                int y = in.intToken(token + 1);
+                if (x < 1 || x > size || y < 1 || y > size) {
+                    return name + ", scenario " + i + ": entity " + e + " is out of the board";
+                }
+            }
+        }
+        StringWriter out = new StringWriter();
+        Main.runBatch(parser(text), out, limits);
+        for (String line : out.toString().split("\n")) {
+            if (!line.isEmpty() && !ANSWER.matcher(line).matches()) {
+                return name + ": valid scenario is answered '" + line + "'";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that generates scenarios which all have a mistake and checks that none of them is answered.
+     * @return Description of the mistake or null if every scenario is refused.
+     * @throws IOException If scenarios can not be generated or evaluated.
+     */
+    private static String checkMistakes() throws IOException {
+        String text = generate(new ScenarioGenerator(6).set("maxSize", "100").set("invalid", "1"));
+        StringWriter out = new StringWriter();
+        Main.runBatch(parser(text), out);
+        String[] blocks = out.toString().split("\n\n");
+        if (blocks.length != SCENARIOS) {
+            return "scenarios with mistakes give " + blocks.length + " blocks";
+        }
+        for (String block : blocks) {
+            if (block.contains("\n") || ANSWER.matcher(block).matches()) {
+                return "scenario with a mistake is answered '" + block + "'";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that sets a size beyond the strict limit to the generator of strict scenarios.
+     * @return Description of the mistake or null if the size is refused.
+     */
+    private static String checkOptions() {
+        try {
+            new ScenarioGenerator(5).set("maxSize", "1500");
+            return "size beyond the strict limit is accepted";
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Function that generates the batch.
+     * @param generator the generator.
+     * @return Text of the batch.
+     * @throws IOException If scenarios can not be written.
+     */
+    private static String generate(ScenarioGenerator generator) throws IOException {
+        StringWriter out = new StringWriter();
+        generator.write(SCENARIOS, out);
+        return out.toString();
+    }
+
+    /**
+     * Function that creates parser of the batch.
+     * @param text text of the batch.
+     * @return Parser before the first scenario.
+     */
+    private static ScenarioParser parser(String text) {
+        return new ScenarioParser(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
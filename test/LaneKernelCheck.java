@@ -0,0 +1,84 @@
+import java.util.Random;
+
+/**
+ * Check that the lane kernel chooses the same direction as the movement engine: for every cell
+ * of random dense boards and every type of insect, sums of lanes in plain Java and, when the Vector API
+ * is available, by vectors must select the direction which is selected by walking rays one by one.
+ * Run by <b>gradle check</b> with the module of the Vector API, exits with status 1 on the first mismatch.
+ */
+public final class LaneKernelCheck {
+    /**
+     * Sizes of boards, from one cell to the largest dense boards.
+     */
+    private static final int[] SIZES = {1, 2, 3, 7, 30, 100};
+    /**
+     * Percents of cells with food.
+     */
+    private static final int[] DENSITIES = {0, 5, 50, 100};
+    /**
+     * Maximal amount of food of one food point.
+     */
+    private static final int MAX_FOOD = 100;
+
+    /**
+     * Constructor is hidden, the check is run from main.
+     */
+    private LaneKernelCheck() {
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     */
+    public static void main(String[] args) {
+        System.out.println("vector sums " + (LaneKernel.SUMS_OF_LANES != LaneKernel.SCALAR ? "available" : "not available"));
+        Random random = new Random(1);
+        int boards = 0;
+        for (int size : SIZES) {
+            for (int density : DENSITIES) {
+                BoardStorage storage = Board.chooseStorage(size, size * size);
+                for (int x = 1; x <= size; x++) {
+                    for (int y = 1; y <= size; y++) {
+                        if (random.nextInt(100) < density) {
+                            storage.putFood(x, y, 1 + random.nextInt(MAX_FOOD));
+                        }
+                    }
+                }
+                if (!check(storage, size)) {
+                    System.exit(1);
+                }
+                boards++;
+            }
+        }
+        System.out.println(boards + " boards match");
+    }
+
+    /**
+     * Function that compares directions of all insects on every cell of the board.
+     * @param storage dense storage with food points.
+     * @param size size of the board.
+     * @return True if all directions match.
+     */
+    private static boolean check(BoardStorage storage, int size) {
+        int[] food = storage.foodGrid();
+        if (food == null) {
+            System.out.println(storage.getClass().getSimpleName() + " of size " + size + " is not dense");
+            return false;
+        }
+        for (InsectType type : InsectType.values()) {
+            for (int x = 1; x <= size; x++) {
+                for (int y = 1; y <= size; y++) {
+                    Direction expected = MovementEngine.bestDirection(type, x, y, storage, size);
+                    Direction scalar = LaneKernel.bestDirection(type, x, y, food, size, LaneKernel.SCALAR);
+                    Direction vector = LaneKernel.bestDirection(type, x, y, food, size, LaneKernel.SUMS_OF_LANES);
+                    if (scalar != expected || vector != expected) {
+                        System.out.printf("%s at %d %d on board of size %d: expected %s, scalar %s, vector %s%n",
+                                type, x, y, size, expected, scalar, vector);
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+}
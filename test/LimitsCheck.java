@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Check of profiles of limits: a file of the strict profile gives the strict limits, a file without
+ * profile gives the extended one with its defaults, insects of the same color and type are duplicates
+ * in both profiles unless the file turns it off, and an unknown profile is refused.
+ * Scenarios beyond strict limits are answered only with extended ones, with the same messages of mistakes.
+ * Run by <b>gradle check</b>, exits with status 1 on the first mistake.
+ */
+public final class LimitsCheck {
+    /**
+     * Scenario with a board bigger than the strict limit.
+     */
+    private static final String BIG_BOARD = "5000\n1\n1\nRed Ant 5000 5000\n7 1 5000\n";
+    /**
+     * Scenario with more insects than the strict limit, there are sixteen pairs of color and type
+     * so the last insect is a duplicate of the first one.
+     */
+    private static final String MANY_INSECTS = manyInsects();
+    /**
+     * Scenario with two insects of the same color and type.
+     */
+    private static final String DUPLICATES = "10\n2\n1\nRed Ant 1 1\nRed Ant 1 10\n5 10 10\n";
+
+    /**
+     * Constructor is hidden, the check is run from main.
+     */
+    private LimitsCheck() {
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws IOException If files of limits can not be written or scenarios can not be evaluated.
+     */
+    public static void main(String[] args) throws IOException {
+        String mistake = checkProfiles();
+        if (mistake == null) {
+            mistake = checkScenarios();
+        }
+        if (mistake != null) {
+            System.out.println(mistake);
+            System.exit(1);
+        }
+        System.out.println("profiles give their limits, duplicates are checked unless turned off");
+    }
+
+    /**
+     * Function that loads files of every profile and compares their limits.
+     * @return Description of the mistake or null if all limits are expected.
+     * @throws IOException If files of limits can not be written.
+     */
+    private static String checkProfiles() throws IOException {
+        if (load("profile=strict\nmaxSize=5000\n") != Limits.STRICT) {
+            return "strict profile does not give the strict limits";
+        }
+        Limits extended = load("maxInsects=50\n");
+        if (extended.getMaxSize() != 100_000 || extended.getMaxInsects() != 50
+                || extended.getMaxFoodPoints() != 10_000_000) {
+            return "extended profile does not take its defaults for missing values";
+        }
+        if (!extended.isUniqueInsects()) {
+            return "extended profile does not check duplicates by default";
+        }
+        if (load("profile=extended\nuniqueInsects=false\n").isUniqueInsects()) {
+            return "duplicates are checked when they are turned off";
+        }
+        try {
+            load("profile=loose\n");
+            return "unknown profile is loaded";
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Function that evaluates scenarios beyond strict limits and scenarios with duplicates in both profiles.
+     * @return Description of the mistake or null if all blocks are expected.
+     * @throws IOException If files of limits can not be written or scenarios can not be evaluated.
+     */
+    private static String checkScenarios() throws IOException {
+        Limits extended = load("profile=extended\n");
+        Limits duplicates = load("uniqueInsects=false\n");
+        String[][] cases = {
+            {"big board in strict profile", evaluate(BIG_BOARD, Limits.STRICT), "Invalid board size\n\n"},
+            {"big board in extended profile", evaluate(BIG_BOARD, extended), "Red Ant North 7\n\n"},
+            {"many insects in strict profile", evaluate(MANY_INSECTS, Limits.STRICT), "Invalid number of insects\n\n"},
+            {"many insects in extended profile", evaluate(MANY_INSECTS, extended), "Duplicate insects\n\n"},
+            {"duplicates in strict profile", evaluate(DUPLICATES, Limits.STRICT), "Duplicate insects\n\n"},
+            {"duplicates in extended profile", evaluate(DUPLICATES, extended), "Duplicate insects\n\n"},
+            {"duplicates turned off", evaluate(DUPLICATES, duplicates), "Red Ant South-East 5\nRed Ant North 0\n\n"},
+        };
+        for (String[] scenario : cases) {
+            if (!scenario[1].equals(scenario[2])) {
+                return scenario[0] + " is answered '" + scenario[1] + "' instead of '" + scenario[2] + "'";
+            }
+        }
+        String block = evaluate(MANY_INSECTS, duplicates);
+        if (block.split("\n").length != 17) {
+            return "many insects without duplicates are answered '" + block + "'";
+        }
+        return null;
+    }
+
+    /**
+     * Function that loads limits from a file with provided properties.
+     * @param properties text of the file.
+     * @return Limits of the file.
+     * @throws IOException If file can not be written or read.
+     */
+    private static Limits load(String properties) throws IOException {
+        Path file = Files.createTempFile("limits", ".properties");
+        try {
+            Files.writeString(file, properties, StandardCharsets.UTF_8);
+            return Limits.load(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Function that evaluates the scenario as the batch does with provided limits.
+     * @param scenario text of the scenario.
+     * @param limits limits of the batch.
+     * @return Block of the scenario.
+     * @throws IOException If scenario can not be read.
+     */
+    private static String evaluate(String scenario, Limits limits) throws IOException {
+        StringWriter out = new StringWriter();
+        Main.runBatch(new ScenarioParser(ByteBuffer.wrap(scenario.getBytes(StandardCharsets.US_ASCII))), out, limits);
+        return out.toString();
+    }
+
+    /**
+     * Function that writes a scenario with seventeen insects and one food point.
+     * @return Text of the scenario.
+     */
+    private static String manyInsects() {
+        StringBuilder scenario = new StringBuilder("20\n17\n1\n");
+        int y = 1;
+        for (InsectColor color : InsectColor.values()) {
+            for (InsectType type : InsectType.values()) {
+                scenario.append(InsectColor.toStr(color)).append(' ').append(type.getTextRepresentation())
+                        .append(" 1 ").append(y++).append('\n');
+            }
+        }
+        return scenario.append("Red Ant 20 20\n").append("5 10 10\n").toString();
+    }
+}
@@ -0,0 +1,91 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Check of the parallel evaluator: generated batches with valid and broken scenarios are evaluated
+ * by pools of different sizes, from bytes in memory and from a channel, and blocks must be the blocks
+ * of the sequential batch in input order; a batch with broken counts in the middle must stop
+ * after the same block.
+ * Run by <b>gradle check</b>, exits with status 1 on the first difference.
+ */
+public final class ParallelCheck {
+    /**
+     * Number of generated scenarios of a batch.
+     */
+    private static final int SCENARIOS = 2000;
+    /**
+     * Numbers of threads of compared pools.
+     */
+    private static final int[] THREADS = {1, 2, 3, 8};
+    /**
+     * Scenario with broken counts, after which the batch stops.
+     */
+    private static final String BROKEN = "10\nx\n1\nRed Ant 1 1\n5 2 2\n";
+
+    /**
+     * Constructor is hidden, the check is run from main.
+     */
+    private ParallelCheck() {
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws IOException If scenarios can not be generated or evaluated.
+     */
+    public static void main(String[] args) throws IOException {
+        String batch = generate(1);
+        String mistake = compare("batch", batch);
+        if (mistake == null) {
+            mistake = compare("batch with broken counts", generate(2) + BROKEN + batch);
+        }
+        if (mistake != null) {
+            System.out.println(mistake);
+            System.exit(1);
+        }
+        System.out.println("parallel batches give the blocks of the sequential batch in input order");
+    }
+
+    /**
+     * Function that compares blocks of the batch evaluated by every pool with the sequential blocks.
+     * @param name name of the batch.
+     * @param text text of the batch.
+     * @return Description of the difference or null if all blocks are the same.
+     * @throws IOException If scenarios can not be evaluated.
+     */
+    private static String compare(String name, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        StringWriter expected = new StringWriter();
+        Main.runBatch(new ScenarioParser(ByteBuffer.wrap(bytes)), expected);
+        for (int threads : THREADS) {
+            ScenarioParser[] sources = {
+                new ScenarioParser(ByteBuffer.wrap(bytes)),
+                new ScenarioParser(Channels.newChannel(new ByteArrayInputStream(bytes))),
+            };
+            for (ScenarioParser source : sources) {
+                StringWriter actual = new StringWriter();
+                new ParallelEvaluator(threads, Limits.STRICT).run(source, actual);
+                if (!expected.toString().equals(actual.toString())) {
+                    return name + " in " + threads + " threads gives other blocks";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that generates a batch with valid and broken scenarios.
+     * @param seed seed of the generator.
+     * @return Text of the batch.
+     * @throws IOException If scenarios can not be written.
+     */
+    private static String generate(long seed) throws IOException {
+        StringWriter out = new StringWriter();
+        new ScenarioGenerator(seed).set("maxSize", "200").set("invalid", "0.2").write(SCENARIOS, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Check of messages of malformed input files: every case is run by the program in the mode of one
+ * <b>input file</b>, and <b>output file</b> and standard output must be what the program wrote before
+ * the parser of bytes replaced the reader of lines (wrong size and counts, duplicates, entities
+ * in the same position, bad tokens, extra whitespace), or the messages of the parser for missing lines
+ * and tokens; the same case in a batch must give the block with the same message.
+ * Run by <b>gradle check</b>, exits with status 1 on the first difference.
+ */
+public final class ParserCheck {
+    /**
+     * Index of expected standard output in a case.
+     */
+    private static final int STDOUT = 3;
+    /**
+     * Message of a header line after the end of input.
+     */
+    private static final String MISSING_HEADER_LINE = "Missing line of the header";
+    /**
+     * Message of an entity line after the end of input.
+     */
+    private static final String MISSING_ENTITY_LINE = "Missing line of an entity";
+    /**
+     * Message of an entity line with too few tokens.
+     */
+    private static final String MISSING_TOKEN = "Missing token of an entity";
+    /**
+     * Cases: name, input file, expected output file and expected standard output.
+     */
+    private static final String[][] CASES = {
+        {"valid", "10\n2\n2\nRed Ant 1 1\nBlue Spider 5 5\n5 2 2\n7 3 3\n",
+            "Red Ant South-East 12\nBlue Spider North-East 0\n", ""},
+        {"size too big", "1001\n1\n1\nRed Ant 1 1\n5 2 2\n", "Invalid board size", ""},
+        {"size too small", "3\n1\n1\nRed Ant 1 1\n5 2 2\n", "Invalid board size", ""},
+        {"largest size", "1000\n1\n1\nRed Ant 1000 1000\n5 1 1\n", "Red Ant North-West 5\n", ""},
+        {"size is a word", "ten\n1\n1\nRed Ant 1 1\n5 2 2\n", "", "For input string: \"ten\""},
+        {"size is empty", "\n1\n1\nRed Ant 1 1\n5 2 2\n", "", "For input string: \"\""},
+        {"space before size", " 10\n1\n1\nRed Ant 1 1\n5 2 2\n", "", "For input string: \" 10\""},
+        {"space after size", "10 \n1\n1\nRed Ant 1 1\n5 2 2\n", "", "For input string: \"10 \""},
+        {"plus sign", "+10\n1\n1\nRed Ant 1 1\n5 2 2\n", "Red Ant South-East 5\n", ""},
+        {"too many insects", "10\n17\n1\nRed Ant 1 1\n5 2 2\n", "Invalid number of insects", ""},
+        {"no insects", "10\n0\n1\n5 2 2\n", "Invalid number of insects", ""},
+        {"count of insects is a word", "10\nx\n1\nRed Ant 1 1\n5 2 2\n", "", "For input string: \"x\""},
+        {"too many food points", "10\n1\n201\nRed Ant 1 1\n5 2 2\n", "Invalid number of food points", ""},
+        {"no food points", "10\n1\n0\nRed Ant 1 1\n", "Invalid number of food points", ""},
+        {"empty input", "", "", MISSING_HEADER_LINE},
+        {"only size", "10\n", "", MISSING_HEADER_LINE},
+        {"no count of food points", "10\n1\n", "", MISSING_HEADER_LINE},
+        {"duplicate insects", "10\n2\n1\nRed Ant 1 1\nRed Ant 2 2\n5 3 3\n", "Duplicate insects", ""},
+        {"insects in the same position", "10\n2\n1\nRed Ant 1 1\nBlue Ant 1 1\n5 3 3\n",
+            "Two entities in the same position", ""},
+        {"food on an insect", "10\n1\n1\nRed Ant 1 1\n5 1 1\n", "Two entities in the same position", ""},
+        {"food in the same position", "10\n1\n2\nRed Ant 1 1\n5 3 3\n6 3 3\n",
+            "Two entities in the same position", ""},
+        {"bad color", "10\n1\n1\nPurple Ant 1 1\n5 2 2\n", "Invalid insect color", ""},
+        {"bad type", "10\n1\n1\nRed Beetle 1 1\n5 2 2\n", "Invalid insect type", ""},
+        {"bad color and type", "10\n1\n1\nPurple Beetle 1 1\n5 2 2\n", "Invalid insect type", ""},
+        {"bad type and position", "10\n1\n1\nRed Beetle 11 1\n5 2 2\n", "Invalid insect type", ""},
+        {"lower case", "10\n1\n1\nred ant 1 1\n5 2 2\n", "Invalid insect type", ""},
+        {"bad position of insect", "10\n1\n1\nRed Ant 11 1\n5 2 2\n", "Invalid entity position", ""},
+        {"bad position of food", "10\n1\n1\nRed Ant 1 1\n5 0 2\n", "Invalid entity position", ""},
+        {"coordinate is a word", "10\n1\n1\nRed Ant 1 x\n5 2 2\n", "", "For input string: \"x\""},
+        {"food is a word", "10\n1\n1\nRed Ant 1 1\nx 2 2\n", "", "For input string: \"x\""},
+        {"huge number", "10\n1\n1\nRed Ant 1 99999999999\n5 2 2\n", "", "For input string: \"99999999999\""},
+        {"negative food", "10\n1\n1\nRed Ant 1 1\n-5 2 2\n", "Red Ant North 0\n", ""},
+        {"missing token of insect", "10\n1\n1\nRed Ant 1\n5 2 2\n", "", MISSING_TOKEN},
+        {"missing token of food", "10\n1\n1\nRed Ant 1 1\n5 2\n", "", MISSING_TOKEN},
+        {"extra token of food", "10\n1\n1\nRed Ant 1 1\n5 2 2 9\n", "Red Ant South-East 5\n", ""},
+        {"blank entity line", "10\n1\n1\n\n5 2 2\n", "", MISSING_TOKEN},
+        {"missing line of insect", "10\n2\n1\nRed Ant 1 1\n", "", MISSING_ENTITY_LINE},
+        {"missing line of food", "10\n1\n2\nRed Ant 1 1\n5 2 2\n", "", MISSING_ENTITY_LINE},
+        {"double space", "10\n1\n1\nRed  Ant 1 1\n5 2 2\n", "", "For input string: \"Ant\""},
+        {"leading space", "10\n1\n1\n Red Ant 1 1\n5 2 2\n", "", "For input string: \"Ant\""},
+        {"trailing spaces", "10\n1\n1\nRed Ant 1 1 \n5 2 2 \n", "Red Ant South-East 5\n", ""},
+        {"tab", "10\n1\n1\nRed\tAnt 1 1\n5 2 2\n", "", MISSING_TOKEN},
+        {"line ends with CRLF", "10\r\n1\r\n1\r\nRed Ant 1 1\r\n5 2 2\r\n", "Red Ant South-East 5\n", ""},
+        {"no newline at the end", "10\n1\n1\nRed Ant 1 1\n5 2 2", "Red Ant South-East 5\n", ""},
+    };
+
+    /**
+     * Constructor is hidden, the check is run from main.
+     */
+    private ParserCheck() {
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws IOException If files of cases can not be written or read.
+     * @throws InterruptedException If the check is interrupted while the program runs.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        for (String[] scenario : CASES) {
+            String mistake = checkFile(scenario);
+            if (mistake == null) {
+                mistake = checkBatch(scenario);
+            }
+            if (mistake != null) {
+                System.out.println(scenario[0] + ": " + mistake);
+                System.exit(1);
+            }
+        }
+        System.out.println(CASES.length + " input files give the same output and messages");
+    }
+
+    /**
+     * Function that runs the program in a new directory with the input file of the case
+     * and compares output file and standard output with expected ones.
+     * @param scenario the case.
+     * @return Description of the difference or null if both are the same.
+     * @throws IOException If files can not be written or read.
+     * @throws InterruptedException If the check is interrupted while the program runs.
+     */
+    private static String checkFile(String[] scenario) throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("parser");
+        try {
+            Files.write(directory.resolve("input.txt"), scenario[1].getBytes(StandardCharsets.US_ASCII));
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            Process program = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "Main")
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(directory.resolve("stdout.txt").toFile())
+                    .start();
+            if (program.waitFor() != 0) {
+                return "program ends with status " + program.exitValue();
+            }
+            String output = read(directory.resolve("output.txt"));
+            String stdout = read(directory.resolve("stdout.txt"));
+            String expected = scenario[STDOUT].isEmpty() ? "" : scenario[STDOUT] + System.lineSeparator();
+            if (!output.equals(scenario[2]) || !stdout.equals(expected)) {
+                return String.format("output '%s' and stdout '%s' instead of '%s' and '%s'",
+                        output, stdout, scenario[2], expected);
+            }
+            return null;
+        } finally {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Function that evaluates the case as a batch of one scenario: the block must hold the message
+     * of output file or of standard output. A batch of input without counts is empty, and blank lines
+     * before a scenario only separate scenarios of a batch, so a case starting with one is not checked.
+     * @param scenario the case.
+     * @return Description of the difference or null if the block is the same.
+     * @throws IOException If the scenario can not be read.
+     */
+    private static String checkBatch(String[] scenario) throws IOException {
+        if (scenario[1].startsWith("\n")) {
+            return null;
+        }
+        ScenarioParser in = new ScenarioParser(ByteBuffer.wrap(scenario[1].getBytes(StandardCharsets.US_ASCII)));
+        String expected = scenario[2].isEmpty() ? scenario[STDOUT] + "\n\n" : scenario[2].trim() + "\n\n";
+        if (!in.nextScenario()) {
+            return scenario[STDOUT].equals(MISSING_HEADER_LINE) ? null : "batch has no scenario";
+        }
+        String block = new Simulation().evaluate(in);
+        if (!block.equals(expected)) {
+            return "block '" + block + "' instead of '" + expected + "'";
+        }
+        return null;
+    }
+
+    /**
+     * Function that reads the file written by the program.
+     * @param file path to the file.
+     * @return Content or an empty string if there is no such file.
+     * @throws IOException If file can not be read.
+     */
+    private static String read(Path file) throws IOException {
+        return Files.exists(file) ? Files.readString(file, StandardCharsets.US_ASCII) : "";
+    }
+}
@@ -0,0 +1,299 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Check of the protocol of the server over loopback sockets: every scenario sent by a client is answered
+ * by the block the batch gives for it, before the client sends the next one; connections are served
+ * at once and independently; a connection with broken counts gets its block and is closed;
+ * a connection dropped by its client in the middle of a scenario is reported and does not stop the server.
+ * Run by <b>gradle check</b>, exits with status 1 on the first mistake.
+ */
+public final class ServerCheck implements AutoCloseable {
+    /**
+     * Number of generated scenarios sent over one connection.
+     */
+    private static final int SCENARIOS = 50;
+    /**
+     * Seconds to wait for a report.
+     */
+    private static final int TIMEOUT = 10;
+    /**
+     * Seconds after which the check fails if it is not finished, a server which does not answer
+     * would block reads forever.
+     */
+    private static final int WATCHDOG = 60;
+    /**
+     * Scenario with broken counts, after which the connection is closed.
+     */
+    private static final String BROKEN = "10\nx\n1\nRed Ant 1 1\n5 2 2\n";
+    /**
+     * Beginning of a scenario, the rest of which is never sent.
+     */
+    private static final String UNFINISHED = "10\n2\n1\nRed Ant 1 1\n";
+    /**
+     * Beginning of the report of a dropped connection.
+     */
+    private static final String DROPPED = "Connection is dropped: ";
+
+    /**
+     * Connection of the client.
+     */
+    private final SocketChannel channel;
+    /**
+     * Received bytes which are not a whole block yet.
+     */
+    private final StringBuilder received = new StringBuilder();
+    /**
+     * Buffer for reading.
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocate(1 << 12);
+
+    /**
+     * Constructor for client connected to the server.
+     * @param server channel of the server.
+     * @throws IOException If client can not connect.
+     */
+    private ServerCheck(ServerSocketChannel server) throws IOException {
+        channel = SocketChannel.open(server.getLocalAddress());
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws IOException If scenarios can not be generated or the server can not be bound.
+     * @throws InterruptedException If the check is interrupted while it waits for reports.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Thread watchdog = new Thread(() -> {
+            try {
+                TimeUnit.SECONDS.sleep(WATCHDOG);
+                System.out.println("server does not answer in " + WATCHDOG + " seconds");
+                System.exit(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        watchdog.setDaemon(true);
+        watchdog.start();
+        BlockingQueue<String> reports = new LinkedBlockingQueue<>();
+        Diagnostics.receiver = reports::add;
+        String[] scenarios = generate();
+        String mistake;
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            Thread acceptor = new Thread(() -> {
+                try {
+                    new EvaluationServer(2, Limits.STRICT).accept(server);
+                } catch (IOException e) {
+                    reports.add("Server is stopped: " + e);
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+            mistake = checkProtocol(server, scenarios);
+            if (mistake == null) {
+                mistake = checkBroken(server);
+            }
+            if (mistake == null) {
+                mistake = checkDropped(server, reports, scenarios);
+            }
+            if (mistake == null && !reports.isEmpty()) {
+                mistake = "unexpected report '" + reports.peek() + "'";
+            }
+        }
+        if (mistake != null) {
+            System.out.println(mistake);
+            System.exit(1);
+        }
+        System.out.println("server answers " + SCENARIOS + " scenarios on two connections, drops are reported");
+    }
+
+    /**
+     * Function that sends scenarios over two connections at once, each scenario after the block
+     * of the previous one, and compares blocks with blocks of the batch.
+     * @param server channel of the server.
+     * @param scenarios generated scenarios.
+     * @return Description of the mistake or null if all blocks are the same.
+     * @throws IOException If scenarios can not be sent.
+     */
+    private static String checkProtocol(ServerSocketChannel server, String[] scenarios) throws IOException {
+        try (ServerCheck first = new ServerCheck(server); ServerCheck second = new ServerCheck(server)) {
+            for (int i = 0; i < scenarios.length; i++) {
+                ServerCheck client = i % 2 == 0 ? first : second;
+                client.send(scenarios[i]);
+                String block = client.nextBlock();
+                String expected = evaluate(scenarios[i]);
+                if (!expected.equals(block)) {
+                    return "scenario " + i + " is answered '" + block + "' instead of '" + expected + "'";
+                }
+            }
+            for (ServerCheck client : new ServerCheck[] {first, second}) {
+                client.channel.shutdownOutput();
+                if (!client.closed()) {
+                    return "connection is not closed after the client stops sending";
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that sends a scenario with broken counts: the block must be the one of the batch
+     * and the connection must be closed after it, as the batch stops.
+     * @param server channel of the server.
+     * @return Description of the mistake or null if the connection ends as the batch.
+     * @throws IOException If scenario can not be sent.
+     */
+    private static String checkBroken(ServerSocketChannel server) throws IOException {
+        try (ServerCheck client = new ServerCheck(server)) {
+            client.send(BROKEN);
+            String block = client.nextBlock();
+            if (!evaluate(BROKEN).equals(block)) {
+                return "broken counts are answered '" + block + "'";
+            }
+            if (!client.closed()) {
+                return "connection is not closed after broken counts";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that drops a connection with reset in the middle of a scenario: the drop must be
+     * reported once, and the server must answer the next connection.
+     * @param server channel of the server.
+     * @param reports reported problems.
+     * @param scenarios generated scenarios.
+     * @return Description of the mistake or null if the drop is reported and the server goes on.
+     * @throws IOException If scenarios can not be sent.
+     * @throws InterruptedException If the check is interrupted while it waits for the report.
+     */
+    private static String checkDropped(ServerSocketChannel server, BlockingQueue<String> reports, String[] scenarios)
+            throws IOException, InterruptedException {
+        ServerCheck dropped = new ServerCheck(server);
+        dropped.send(scenarios[0]);
+        dropped.nextBlock();
+        dropped.send(UNFINISHED);
+        dropped.channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+        dropped.close();
+        String report = reports.poll(TIMEOUT, TimeUnit.SECONDS);
+        if (report == null || !report.startsWith(DROPPED)) {
+            return "dropped connection is reported as '" + report + "'";
+        }
+        try (ServerCheck client = new ServerCheck(server)) {
+            client.send(scenarios[1]);
+            if (!evaluate(scenarios[1]).equals(client.nextBlock())) {
+                return "connection after the dropped one is answered wrong";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that sends the scenario.
+     * @param scenario text of the scenario.
+     * @throws IOException If connection is closed.
+     */
+    private void send(String scenario) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(scenario.getBytes(StandardCharsets.US_ASCII));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Function that reads the next block, which ends with an empty line.
+     * @return Block with its empty line, or what is received before the connection is closed.
+     * @throws IOException If connection can not be read.
+     */
+    private String nextBlock() throws IOException {
+        int end;
+        while ((end = received.indexOf("\n\n")) < 0) {
+            if (!read()) {
+                String rest = received.toString();
+                received.setLength(0);
+                return rest;
+            }
+        }
+        String block = received.substring(0, end + 2);
+        received.delete(0, end + 2);
+        return block;
+    }
+
+    /**
+     * Function that checks that the server closes the connection without sending more bytes.
+     * @return True if the connection is closed and nothing is received.
+     * @throws IOException If connection can not be read.
+     */
+    private boolean closed() throws IOException {
+        while (read()) {
+            if (received.length() > 0) {
+                return false;
+            }
+        }
+        return received.length() == 0;
+    }
+
+    /**
+     * Function that reads available bytes into received ones.
+     * @return False if the server closed the connection.
+     * @throws IOException If connection can not be read.
+     */
+    private boolean read() throws IOException {
+        buffer.clear();
+        if (channel.read(buffer) < 0) {
+            return false;
+        }
+        buffer.flip();
+        received.append(StandardCharsets.US_ASCII.decode(buffer));
+        return true;
+    }
+
+    /**
+     * Function that closes the connection.
+     * @throws IOException If connection can not be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Function that generates scenarios, each with its own text.
+     * @return Texts of scenarios.
+     * @throws IOException If scenarios can not be written.
+     */
+    private static String[] generate() throws IOException {
+        String[] scenarios = new String[SCENARIOS];
+        ScenarioGenerator generator = new ScenarioGenerator(1).set("maxSize", "100").set("invalid", "0.2");
+        for (int i = 0; i < SCENARIOS; i++) {
+            StringWriter out = new StringWriter();
+            generator.write(1, out);
+            scenarios[i] = out.toString();
+        }
+        return scenarios;
+    }
+
+    /**
+     * Function that evaluates the scenario as the batch does.
+     * @param scenario text of the scenario.
+     * @return Block of the scenario.
+     * @throws IOException If scenario can not be read.
+     */
+    private static String evaluate(String scenario) throws IOException {
+        StringWriter out = new StringWriter();
+        Main.runBatch(new ScenarioParser(ByteBuffer.wrap(scenario.getBytes(StandardCharsets.US_ASCII))), out);
+        return out.toString();
+    }
+}
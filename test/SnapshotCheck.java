@@ -0,0 +1,286 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Check that rollback returns the board to its snapshot: random boards of every storage,
+ * with and without watched directions and hashes, get random changes and travels under nested snapshots,
+ * then are rolled back, and cells, insects, directions and hashes must be the same as before the snapshot.
+ * Run by <b>gradle check</b>, exits with status 1 on the first difference.
+ */
+public final class SnapshotCheck {
+    /**
+     * Sizes of boards and numbers of entities: dense, tiled and sparse boards.
+     */
+    private static final int[][] BOARDS = {{20, 150}, {1000, 2000}, {1000, 100}};
+    /**
+     * Number of rolled back rounds of every board.
+     */
+    private static final int ROUNDS = 200;
+    /**
+     * Maximal number of changes of one round.
+     */
+    private static final int CHANGES = 40;
+    /**
+     * One of this number of entities is an insect.
+     */
+    private static final int INSECT_RATIO = 8;
+    /**
+     * Maximal amount of food of one food point.
+     */
+    private static final int MAX_FOOD = 100;
+
+    /**
+     * Board under check.
+     */
+    private final Board board;
+    /**
+     * Size of the board.
+     */
+    private final int size;
+    /**
+     * Source of randomness.
+     */
+    private final Random random;
+    /**
+     * Cells which were ever occupied, as pairs of coordinates; other cells are empty.
+     */
+    private final List<int[]> touched = new ArrayList<>();
+    /**
+     * Touched cells by index (x - 1) * size + y - 1.
+     */
+    private final BitSet seen = new BitSet();
+
+    /**
+     * Constructor of the check of one board.
+     * @param size size of the board.
+     * @param entities number of entities placed before the first round.
+     * @param watched true to watch directions and track hashes of the board.
+     * @param seed seed of randomness.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private SnapshotCheck(int size, int entities, boolean watched, long seed)
+            throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        this.size = size;
+        this.random = new Random(seed);
+        this.board = new Board(size, entities);
+        if (watched) {
+            board.watchDirections();
+            board.trackHashes();
+        }
+        while (board.getBoardData().count() < entities) {
+            addRandom(random.nextInt(size) + 1, random.nextInt(size) + 1);
+        }
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    public static void main(String[] args) throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        long seed = 1;
+        for (int[] parameters : BOARDS) {
+            for (boolean watched : new boolean[] {false, true}) {
+                SnapshotCheck check = new SnapshotCheck(parameters[0], parameters[1], watched, seed++);
+                String name = Board.chooseStorage(parameters[0], parameters[1]).getClass().getSimpleName()
+                        + (watched ? " (watched)" : "");
+                if (!check.run()) {
+                    System.out.printf("%-35s size=%-5d failed%n", name, parameters[0]);
+                    System.exit(1);
+                }
+                System.out.printf("%-35s size=%-5d %d rollbacks match%n", name, parameters[0], ROUNDS);
+            }
+        }
+    }
+
+    /**
+     * Function that runs all rounds: changes under a snapshot are rolled back and compared
+     * with the state before it, then a few changes are kept so the next round starts from another board.
+     * @return True if every rollback restored the board.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private boolean run() throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        for (int round = 0; round < ROUNDS; round++) {
+            int known = touched.size();
+            String before = describe(known);
+            int snapshot = board.snapshot();
+            int changes = random.nextInt(CHANGES + 1);
+            for (int i = 0; i < changes; i++) {
+                if (random.nextInt(CHANGES) == 0 && !nested(round)) {
+                    return false;
+                }
+                change();
+            }
+            board.rollback(snapshot);
+            if (!restored(round, before, known)) {
+                return false;
+            }
+            change();
+        }
+        return true;
+    }
+
+    /**
+     * Function that makes changes under a nested snapshot and either keeps them or rolls them back,
+     * rolled back changes must not change the board.
+     * @param round number of the round.
+     * @return True if changes were kept or the rollback restored the board.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private boolean nested(int round) throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        int known = touched.size();
+        String before = describe(known);
+        int snapshot = board.snapshot();
+        for (int i = random.nextInt(INSECT_RATIO); i >= 0; i--) {
+            change();
+        }
+        if (random.nextBoolean()) {
+            board.release(snapshot);
+            return true;
+        }
+        board.rollback(snapshot);
+        return restored(round, before, known);
+    }
+
+    /**
+     * Function that compares the board after a rollback with its description before the snapshot:
+     * cells touched after the snapshot must be empty. Prints the first difference.
+     * @param round number of the round.
+     * @param before description before the snapshot.
+     * @param known number of touched cells before the snapshot.
+     * @return True if the board is restored.
+     */
+    private boolean restored(int round, String before, int known) {
+        String expected = before + emptyCells(known);
+        String actual = describe(touched.size());
+        if (!expected.equals(actual)) {
+            report(round, expected, actual);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Function that makes one random change of a random cell: adds an entity to an empty cell,
+     * or updates food, removes the entity or makes the travel of the insect in an occupied one.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private void change() throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        int[] cell = random.nextBoolean() || touched.isEmpty()
+                ? new int[] {random.nextInt(size) + 1, random.nextInt(size) + 1}
+                : touched.get(random.nextInt(touched.size()));
+        int x = cell[0];
+        int y = cell[1];
+        BoardEntity entity = board.getEntity(new EntityPosition(x, y));
+        if (entity == null) {
+            addRandom(x, y);
+        } else if (entity instanceof Insect) {
+            if (random.nextBoolean()) {
+                board.getDirectionSum((Insect) entity);
+            } else {
+                board.removeEntity(x, y);
+            }
+        } else if (random.nextBoolean()) {
+            board.updateFood(x, y, 1 + random.nextInt(MAX_FOOD));
+        } else {
+            board.removeEntity(x, y);
+        }
+    }
+
+    /**
+     * Function that adds a random insect or food point to the empty cell.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     * @throws InvalidEntityPositionException If an entity is added out of the board.
+     * @throws TwoEntitiesOnSamePositionException If an entity is added to an occupied cell.
+     */
+    private void addRandom(int x, int y) throws InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        if (board.getBoardData().isOccupied(x, y)) {
+            return;
+        }
+        if (!seen.get((x - 1) * size + y - 1)) {
+            seen.set((x - 1) * size + y - 1);
+            touched.add(new int[] {x, y});
+        }
+        if (random.nextInt(INSECT_RATIO) == 0) {
+            InsectType[] types = InsectType.values();
+            InsectColor[] colors = InsectColor.values();
+            InsectType type = types[random.nextInt(types.length)];
+            board.addEntity(type.create(new EntityPosition(x, y), colors[random.nextInt(colors.length)]));
+        } else {
+            board.addFood(x, y, 1 + random.nextInt(MAX_FOOD));
+        }
+    }
+
+    /**
+     * Function that describes the state of the board: touched cells with their entities,
+     * directions of insects and how they are answered by the board, hashes if they are tracked.
+     * @param cells number of first touched cells which are described.
+     * @return Description, equal for equal states.
+     */
+    private String describe(int cells) {
+        BoardStorage storage = board.getBoardData();
+        StringBuilder state = new StringBuilder();
+        BoardHash hashes = board.getHashes();
+        if (hashes != null) {
+            for (int s = 0; s < BoardHash.SYMMETRIES; s++) {
+                state.append("hash ").append(hashes.first(s)).append(' ').append(hashes.second(s)).append('\n');
+            }
+        }
+        state.append("count ").append(storage.count()).append('\n');
+        for (int[] cell : touched.subList(0, cells)) {
+            int x = cell[0];
+            int y = cell[1];
+            state.append(x).append(' ').append(y).append(": ").append(storage.cellAt(x, y));
+            Insect insect = storage.insectAt(x, y);
+            if (insect != null) {
+                state.append(' ').append(insect.getType()).append('@').append(System.identityHashCode(insect))
+                        .append(' ').append(board.getDirection(insect))
+                        .append(' ').append(insect.getBestDirection(storage, size));
+            } else if (storage.cellAt(x, y) == BoardStorage.FOOD) {
+                state.append(" food ").append(storage.foodAt(x, y));
+            }
+            state.append('\n');
+        }
+        return state.toString();
+    }
+
+    /**
+     * Function that describes touched cells after the first ones as they must be after a rollback: empty.
+     * @param known number of first touched cells.
+     * @return Description of empty cells in the format of describe.
+     */
+    private String emptyCells(int known) {
+        StringBuilder state = new StringBuilder();
+        for (int[] cell : touched.subList(known, touched.size())) {
+            state.append(cell[0]).append(' ').append(cell[1]).append(": ").append(BoardStorage.EMPTY).append('\n');
+        }
+        return state.toString();
+    }
+
+    /**
+     * Function that prints the first different line of two descriptions.
+     * @param round number of the round.
+     * @param before description before the snapshot.
+     * @param after description after the rollback.
+     */
+    private static void report(int round, String before, String after) {
+        String[] expected = before.split("\n");
+        String[] actual = after.split("\n");
+        for (int i = 0; i < Math.max(expected.length, actual.length); i++) {
+            String line = i < expected.length ? expected[i] : "";
+            String other = i < actual.length ? actual[i] : "";
+            if (!line.equals(other)) {
+                System.out.printf("round %d: expected '%s', found '%s'%n", round, line, other);
+                return;
+            }
+        }
+    }
+}
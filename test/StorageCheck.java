@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Differential check of storages of cells: dense, tiled and sparse storages of the same board get
+ * the same random changes (added insects and food points, removed entities, travels of insects),
+ * and after every change they must hold the same cells, count the same entities, and find the same
+ * occupied cells and sums of food on rays from random cells in every direction. Boards have sizes
+ * which are not multiples of the tile, so rays cross partial tiles at the border.
+ * Run by <b>gradle check</b>, exits with status 1 on the first difference.
+ */
+public final class StorageCheck {
+    /**
+     * Sizes of boards and numbers of entities placed before the first change.
+     */
+    private static final int[][] BOARDS = {{10, 40}, {97, 600}, {300, 3000}, {1000, 5000}};
+    /**
+     * Number of changes of every board.
+     */
+    private static final int CHANGES = 1000;
+    /**
+     * Number of random rays compared after every change.
+     */
+    private static final int RAYS = 20;
+    /**
+     * Biggest distance between visited cells of compared rays.
+     */
+    private static final int MAX_STEP = 3;
+    /**
+     * One of this number of added entities is an insect.
+     */
+    private static final int INSECT_RATIO = 4;
+    /**
+     * Maximal amount of food of one food point.
+     */
+    private static final int MAX_FOOD = 100;
+    /**
+     * All directions.
+     */
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /**
+     * Size of the board.
+     */
+    private final int size;
+    /**
+     * Source of randomness.
+     */
+    private final Random random;
+    /**
+     * Storages of the same board, the dense one first.
+     */
+    private final BoardStorage[] storages;
+    /**
+     * Cells which were occupied at least once, x and y.
+     */
+    private final List<int[]> touched = new ArrayList<>();
+
+    /**
+     * Constructor of the check of one board.
+     * @param size size of the board.
+     * @param entities number of entities placed before the first change.
+     * @param seed seed of randomness.
+     */
+    private StorageCheck(int size, int entities, long seed) {
+        this.size = size;
+        this.random = new Random(seed);
+        this.storages = new BoardStorage[] {
+            new DenseBoardStorage(size), new TiledBoardStorage(size, entities), new SparseBoardStorage(entities),
+        };
+        while (storages[0].count() < entities) {
+            add(random.nextInt(size) + 1, random.nextInt(size) + 1);
+        }
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     */
+    public static void main(String[] args) {
+        long seed = 1;
+        for (int[] parameters : BOARDS) {
+            StorageCheck check = new StorageCheck(parameters[0], parameters[1], seed++);
+            String difference = check.compare();
+            for (int change = 0; change < CHANGES && difference == null; change++) {
+                check.change();
+                difference = check.compare();
+                if (difference != null) {
+                    difference = "change " + change + ": " + difference;
+                }
+            }
+            if (difference != null) {
+                System.out.printf("size=%-5d %s%n", parameters[0], difference);
+                System.exit(1);
+            }
+            System.out.printf("size=%-5d dense, tiled and sparse storages match after %d changes%n",
+                    parameters[0], CHANGES);
+        }
+    }
+
+    /**
+     * Function that makes one random change of all storages: adds an entity to a free cell,
+     * removes an entity, or makes the travel of an insect.
+     */
+    private void change() {
+        int[] cell = random.nextBoolean() || touched.isEmpty()
+                ? new int[] {random.nextInt(size) + 1, random.nextInt(size) + 1}
+                : touched.get(random.nextInt(touched.size()));
+        int x = cell[0];
+        int y = cell[1];
+        int code = storages[0].cellAt(x, y);
+        if (code == BoardStorage.EMPTY) {
+            add(x, y);
+        } else if (code == BoardStorage.FOOD || random.nextBoolean()) {
+            for (BoardStorage storage : storages) {
+                storage.remove(x, y);
+            }
+        } else {
+            Insect insect = storages[0].insectAt(x, y);
+            Direction direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+            int step = 1 + random.nextInt(MAX_STEP);
+            for (BoardStorage storage : storages) {
+                storage.travel(x, y, insect.getColor(), direction, step, size);
+            }
+        }
+    }
+
+    /**
+     * Function that adds a random insect or food point to the free cell of all storages.
+     * @param x x coordinate.
+     * @param y y coordinate.
+     */
+    private void add(int x, int y) {
+        if (storages[0].isOccupied(x, y)) {
+            return;
+        }
+        touched.add(new int[] {x, y});
+        if (random.nextInt(INSECT_RATIO) == 0) {
+            InsectType type = InsectType.values()[random.nextInt(InsectType.values().length)];
+            InsectColor color = InsectColor.values()[random.nextInt(InsectColor.values().length)];
+            Insect insect = type.create(new EntityPosition(x, y), color);
+            for (BoardStorage storage : storages) {
+                storage.put(insect);
+            }
+        } else {
+            int value = 1 + random.nextInt(MAX_FOOD);
+            for (BoardStorage storage : storages) {
+                storage.putFood(x, y, value);
+            }
+        }
+    }
+
+    /**
+     * Function that compares storages with the dense one: counts, touched cells and random rays.
+     * @return Description of the first difference or null if storages answer the same.
+     */
+    private String compare() {
+        BoardStorage dense = storages[0];
+        for (int s = 1; s < storages.length; s++) {
+            BoardStorage storage = storages[s];
+            String name = storage.getClass().getSimpleName();
+            if (storage.count() != dense.count()) {
+                return name + " counts " + storage.count() + " entities instead of " + dense.count();
+            }
+            for (int[] cell : touched) {
+                int x = cell[0];
+                int y = cell[1];
+                if (storage.cellAt(x, y) != dense.cellAt(x, y) || storage.foodAt(x, y) != dense.foodAt(x, y)
+                        || storage.insectAt(x, y) != dense.insectAt(x, y)) {
+                    return String.format("%s has other cell %d %d", name, x, y);
+                }
+            }
+        }
+        for (int ray = 0; ray < RAYS; ray++) {
+            int x = random.nextInt(size) + 1;
+            int y = random.nextInt(size) + 1;
+            Direction direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+            int step = 1 + random.nextInt(MAX_STEP);
+            int dx = direction.dx() * step;
+            int dy = direction.dy() * step;
+            int limit = direction.rayLength(x, y, step, size);
+            int next = dense.nextOccupied(x, y, dx, dy, limit);
+            int food = dense.foodAlong(x, y, direction, step, size);
+            for (int s = 1; s < storages.length; s++) {
+                BoardStorage storage = storages[s];
+                if (storage.nextOccupied(x, y, dx, dy, limit) != next
+                        || storage.foodAlong(x, y, direction, step, size) != food) {
+                    return String.format("%s has other ray %s from %d %d with step %d",
+                            storage.getClass().getSimpleName(), direction, x, y, step);
+                }
+            }
+        }
+        return null;
+    }
+}
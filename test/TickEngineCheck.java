@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Check of the tick engine on generated scenarios: one sequential tick must give the answer of one pass,
+ * and many ticks in buffered and sequential orders must give the same answer every time, whether the engine
+ * is new or reused after other scenarios; after ticks the board must have as many insects as the engine has active.
+ * Run by <b>gradle check</b>, exits with status 1 on the first mistake.
+ */
+public final class TickEngineCheck {
+    /**
+     * Number of generated scenarios.
+     */
+    private static final int SCENARIOS = 200;
+    /**
+     * Number of ticks of the deterministic runs.
+     */
+    private static final int TICKS = 25;
+    /**
+     * Number of ticks before eaten food grows again in the deterministic runs.
+     */
+    private static final int RESPAWN = 3;
+
+    /**
+     * Text of the scenario.
+     */
+    private final String text;
+    /**
+     * Description of the first run whose board and engine have different numbers of insects, null if there is none.
+     */
+    private String lost;
+
+    /**
+     * Constructor of the check of one scenario.
+     * @param text text of the scenario.
+     */
+    private TickEngineCheck(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws IOException If scenarios can not be generated or read.
+     * @throws InvalidEntityPositionException If a generated entity is out of the board.
+     * @throws TwoEntitiesOnSamePositionException If generated entities are in the same cell.
+     */
+    public static void main(String[] args)
+            throws IOException, InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        ScenarioGenerator generator = new ScenarioGenerator(1).set("maxSize", "60").set("density", "0.05")
+                .set("minInsects", "4").set("cluster", "0.5");
+        TickEngine.Order[] orders = TickEngine.Order.values();
+        TickEngine[] reused = new TickEngine[orders.length];
+        for (int o = 0; o < orders.length; o++) {
+            reused[o] = new TickEngine(TICKS, orders[o], RESPAWN);
+        }
+        for (int i = 0; i < SCENARIOS; i++) {
+            StringWriter scenario = new StringWriter();
+            generator.writeScenario(scenario);
+            TickEngineCheck check = new TickEngineCheck(scenario.toString());
+            String mistake = check.checkOnePass();
+            for (int o = 0; o < orders.length && mistake == null; o++) {
+                mistake = check.checkDeterminism(orders[o], reused[o]);
+            }
+            if (mistake == null) {
+                mistake = check.lost;
+            }
+            if (mistake != null) {
+                System.out.println("scenario " + i + ": " + mistake + "\n" + check.text);
+                System.exit(1);
+            }
+        }
+        System.out.println(SCENARIOS + " scenarios: one sequential tick is one pass, " + TICKS
+                + " ticks are deterministic in every order");
+    }
+
+    /**
+     * Function that compares one sequential tick with the answer of one pass.
+     * @return Description of the mistake or null if answers are the same.
+     * @throws IOException If scenario can not be read.
+     * @throws InvalidEntityPositionException If an entity is out of the board.
+     * @throws TwoEntitiesOnSamePositionException If entities are in the same cell.
+     */
+    private String checkOnePass()
+            throws IOException, InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        ScenarioParser in = parser();
+        in.nextScenario();
+        String expected = new Simulation().evaluate(in);
+        String actual = run(new TickEngine(1, TickEngine.Order.SEQUENTIAL, 0)) + "\n";
+        if (!expected.equals(actual)) {
+            return "one sequential tick is answered\n" + actual + "instead of\n" + expected;
+        }
+        return null;
+    }
+
+    /**
+     * Function that runs the scenario twice by a new engine and once by the reused one,
+     * all answers must be the same.
+     * @param order order of insects in a tick.
+     * @param reused engine which ran the previous scenarios.
+     * @return Description of the mistake or null if answers are the same.
+     * @throws IOException If scenario can not be read.
+     * @throws InvalidEntityPositionException If an entity is out of the board.
+     * @throws TwoEntitiesOnSamePositionException If entities are in the same cell.
+     */
+    private String checkDeterminism(TickEngine.Order order, TickEngine reused)
+            throws IOException, InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        String first = run(new TickEngine(TICKS, order, RESPAWN));
+        String second = run(new TickEngine(TICKS, order, RESPAWN));
+        String again = run(reused);
+        if (!first.equals(second) || !first.equals(again)) {
+            return order + " ticks are answered differently:\n" + first + "then\n" + second + "then\n" + again;
+        }
+        return null;
+    }
+
+    /**
+     * Function that places the scenario on a new board and runs it by the engine,
+     * then compares insects on the board with active insects of the engine.
+     * @param engine the engine.
+     * @return Answer of the engine.
+     * @throws IOException If scenario can not be read.
+     * @throws InvalidEntityPositionException If an entity is out of the board.
+     * @throws TwoEntitiesOnSamePositionException If entities are in the same cell.
+     */
+    private String run(TickEngine engine)
+            throws IOException, InvalidEntityPositionException, TwoEntitiesOnSamePositionException {
+        ScenarioParser in = parser();
+        in.nextScenario();
+        Board board = new Board(in.getBoardSize(), in.getNumberOfInsects() + in.getNumberOfFoodPoints());
+        EntityStore store = new EntityStore();
+        for (int i = 0; i < in.getNumberOfInsects(); i++) {
+            in.nextEntityLine();
+            InsectType type = in.typeToken(1);
+            int index = store.addInsect(in.intToken(2), in.intToken(3), in.colorToken(0), type);
+            board.addEntity(type.view(store, index));
+        }
+        for (int i = 0; i < in.getNumberOfFoodPoints(); i++) {
+            in.nextEntityLine();
+            store.addFood(in.intToken(1), in.intToken(2), in.intToken(0));
+            board.addFood(in.intToken(1), in.intToken(2), in.intToken(0));
+        }
+        StringWriter out = new StringWriter();
+        engine.run(board, store, out);
+        int insects = countInsects(board);
+        if (insects != engine.activeCount() && lost == null) {
+            lost = "board has " + insects + " insects, the engine has " + engine.activeCount() + " active";
+        }
+        return out.toString();
+    }
+
+    /**
+     * Function that counts insects on the board.
+     * @param board the board.
+     * @return Number of cells with insects.
+     */
+    private static int countInsects(Board board) {
+        int insects = 0;
+        for (int x = 1; x <= board.getSize(); x++) {
+            for (int y = 1; y <= board.getSize(); y++) {
+                if (board.getBoardData().cellAt(x, y) >= BoardStorage.INSECT) {
+                    insects++;
+                }
+            }
+        }
+        return insects;
+    }
+
+    /**
+     * Function that creates parser of the scenario.
+     * @return Parser before the scenario.
+     */
+    private ScenarioParser parser() {
+        return new ScenarioParser(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
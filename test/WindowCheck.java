@@ -0,0 +1,170 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Check of files mapped in windows: a generated batch and its binary file are read with windows much smaller
+ * than the file, so lines, scenarios and records cross ends of windows, and every window gives the blocks
+ * of the file mapped at once, in the batch and in parallel. A line or a record longer than the window
+ * fails with IOException, a truncated binary file fails as it does when mapped at once.
+ * Files bigger than one mapping are mapped in the same windows of the biggest size.
+ * Run by <b>gradle check</b>, exits with status 1 on the first mistake.
+ */
+public final class WindowCheck {
+    /**
+     * Number of generated scenarios.
+     */
+    private static final int SCENARIOS = 300;
+    /**
+     * Windows of the batch, longer than any line.
+     */
+    private static final int[] LINE_WINDOWS = {64, 100, 4093, 1 << 16};
+    /**
+     * Window of the parallel evaluator, longer than any scenario.
+     */
+    private static final int SCENARIO_WINDOW = 1 << 16;
+    /**
+     * Window shorter than lines of insects.
+     */
+    private static final int SHORT_WINDOW = 8;
+    /**
+     * Windows of the binary file, longer than any record.
+     */
+    private static final int[] RECORD_WINDOWS = {4096, 10007, 1 << 16};
+    /**
+     * Window shorter than records of scenarios.
+     */
+    private static final int SHORT_RECORD_WINDOW = 64;
+    /**
+     * Message of truncated binary files.
+     */
+    private static final String TRUNCATED = "Truncated binary scenario";
+
+    /**
+     * Constructor is hidden, the check is run from main.
+     */
+    private WindowCheck() {
+    }
+
+    /**
+     * Function that runs the check.
+     * @param args not used.
+     * @throws IOException If the file can not be written or read.
+     */
+    public static void main(String[] args) throws IOException {
+        Path text = Files.createTempFile("windows", ".txt");
+        Path binary = Files.createTempFile("windows", ".bin");
+        String mistake;
+        try {
+            StringWriter scenarios = new StringWriter();
+            new ScenarioGenerator(1).set("maxSize", "300").set("invalid", "0.2").write(SCENARIOS, scenarios);
+            Files.writeString(text, scenarios.toString(), StandardCharsets.US_ASCII);
+            try (ScenarioParser in = ScenarioParser.open(text);
+                 FileChannel out = FileChannel.open(binary, StandardOpenOption.WRITE)) {
+                new BinaryScenarioWriter(out).encode(in);
+            }
+            mistake = checkText(text);
+            if (mistake == null) {
+                mistake = checkBinary(binary, evaluate(text));
+            }
+        } finally {
+            Files.delete(text);
+            Files.delete(binary);
+        }
+        if (mistake != null) {
+            System.out.println(mistake);
+            System.exit(1);
+        }
+        System.out.println("text and binary files mapped in windows give the blocks of the whole file");
+    }
+
+    /**
+     * Function that compares blocks of the text file mapped in windows with blocks of the file mapped at once.
+     * @param text path to the file.
+     * @return Description of the mistake or null if all blocks are the same.
+     * @throws IOException If the file can not be read.
+     */
+    private static String checkText(Path text) throws IOException {
+        String expected = evaluate(text);
+        for (int window : LINE_WINDOWS) {
+            StringWriter actual = new StringWriter();
+            try (ScenarioParser in = new ScenarioParser(FileChannel.open(text), window)) {
+                Main.runBatch(in, actual);
+            }
+            if (!expected.equals(actual.toString())) {
+                return "batch in windows of " + window + " bytes gives other blocks";
+            }
+        }
+        StringWriter parallel = new StringWriter();
+        try (ScenarioParser in = new ScenarioParser(FileChannel.open(text), SCENARIO_WINDOW)) {
+            new ParallelEvaluator(2, Limits.STRICT).run(in, parallel);
+        }
+        if (!expected.equals(parallel.toString())) {
+            return "parallel batch in windows of " + SCENARIO_WINDOW + " bytes gives other blocks";
+        }
+        try (ScenarioParser in = new ScenarioParser(FileChannel.open(text), SHORT_WINDOW)) {
+            Main.runBatch(in, new StringWriter());
+            return "lines longer than the window are parsed";
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Function that compares blocks of the binary file mapped in windows with blocks of the text,
+     * and checks that the file truncated in its last record fails as truncated.
+     * @param binary path to the binary file.
+     * @param expected blocks of the text.
+     * @return Description of the mistake or null if all blocks and failures are expected.
+     * @throws IOException If the file can not be read or truncated.
+     */
+    private static String checkBinary(Path binary, String expected) throws IOException {
+        for (int window : RECORD_WINDOWS) {
+            StringWriter actual = new StringWriter();
+            try (BinaryScenarioReader in = new BinaryScenarioReader(FileChannel.open(binary), window)) {
+                Main.runBatch(in, actual, Limits.STRICT);
+            }
+            if (!expected.equals(actual.toString())) {
+                return "binary file in windows of " + window + " bytes gives other blocks";
+            }
+        }
+        try (BinaryScenarioReader in = new BinaryScenarioReader(FileChannel.open(binary), SHORT_RECORD_WINDOW)) {
+            Main.runBatch(in, new StringWriter(), Limits.STRICT);
+            return "records longer than the window are read";
+        } catch (IOException e) {
+            if (e.getMessage().equals(TRUNCATED)) {
+                return "record longer than the window is reported as truncated";
+            }
+        }
+        try (FileChannel file = FileChannel.open(binary, StandardOpenOption.WRITE)) {
+            file.truncate(file.size() - 1);
+        }
+        try (BinaryScenarioReader in = new BinaryScenarioReader(FileChannel.open(binary), RECORD_WINDOWS[0])) {
+            Main.runBatch(in, new StringWriter(), Limits.STRICT);
+            return "truncated binary file is read";
+        } catch (IOException e) {
+            if (!TRUNCATED.equals(e.getMessage())) {
+                return "truncated binary file fails with '" + e.getMessage() + "'";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Function that evaluates the text file mapped at once.
+     * @param text path to the file.
+     * @return Blocks of all scenarios.
+     * @throws IOException If the file can not be read.
+     */
+    private static String evaluate(Path text) throws IOException {
+        StringWriter out = new StringWriter();
+        try (ScenarioParser in = ScenarioParser.open(text)) {
+            Main.runBatch(in, out);
+        }
+        return out.toString();
+    }
+}